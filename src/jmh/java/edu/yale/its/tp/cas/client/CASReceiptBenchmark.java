@@ -0,0 +1,86 @@
+package edu.yale.its.tp.cas.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Java serialization of a CASReceipt, as done by a container that replicates
+ * or persists sessions, with a typical handful of attributes and with a
+ * thousand.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CASReceiptBenchmark
+{
+
+    @Param({ "5", "1000" })
+    public int attributes;
+
+    private CASReceipt receipt;
+
+    private byte[] serialized;
+
+    @Setup
+    public void setUp() throws IOException
+    {
+        Map<String, String> single = new HashMap<String, String>();
+        Map<String, String[]> values = new HashMap<String, String[]>();
+        for (int i = 0; i < attributes; i++)
+        {
+            single.put("attribute" + i, "value-" + i);
+            values.put("attribute" + i, new String[] { "value-" + i });
+        }
+        receipt = new CASReceipt.Builder().casValidateUrl("https://cas.example.com/cas/proxyValidate")
+            .pgtIou("PGTIOU-1234-abcdefghijklmnopqrst").proxyCallbackUrl("https://www.client.com/app/pgtCallback")
+            .proxyList(Arrays.asList("https://portal.example.com/")).userName("someone").attributes(single)
+            .attributeValues(values).serviceTicket("ST-1234-abcdefghijklmnopqrst-cas").build();
+        serialized = serialize();
+    }
+
+    @Benchmark
+    public byte[] serialize() throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(receipt);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    @Benchmark
+    public Object deserialize() throws IOException, ClassNotFoundException
+    {
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serialized));
+        try
+        {
+            return in.readObject();
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+}
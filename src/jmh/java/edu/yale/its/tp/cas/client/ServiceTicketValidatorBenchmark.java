@@ -0,0 +1,67 @@
+package edu.yale.its.tp.cas.client;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parsing of a successful CAS 2.0 validation response, from the string CAS
+ * returned to the receipt the filters store: a plain response with a handful
+ * of attributes, and a large one with a thousand. Each invocation uses a new
+ * validator, as the filters do.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ServiceTicketValidatorBenchmark
+{
+
+    @Param({ "5", "1000" })
+    public int attributes;
+
+    private String response;
+
+    @Setup
+    public void setUp()
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append("<cas:serviceResponse xmlns:cas='http://www.yale.edu/tp/cas'>\n");
+        sb.append("  <cas:authenticationSuccess>\n");
+        sb.append("    <cas:user>someone</cas:user>\n");
+        sb.append("    <cas:proxyGrantingTicket>PGTIOU-1234-abcdefghijklmnopqrst</cas:proxyGrantingTicket>\n");
+        sb.append("    <cas:attributes>\n");
+        for (int i = 0; i < attributes; i++)
+        {
+            // every tenth attribute is multi-valued, as group memberships are
+            String name = i % 10 == 0 ? "memberOf" : "attribute" + i;
+            sb.append("      <").append(name).append(">value-").append(i).append("</").append(name).append(">\n");
+        }
+        sb.append("    </cas:attributes>\n");
+        sb.append("  </cas:authenticationSuccess>\n");
+        sb.append("</cas:serviceResponse>\n");
+        response = sb.toString();
+    }
+
+    @Benchmark
+    public CASReceipt parseResponse() throws Exception
+    {
+        ProxyTicketValidator ptv = new ProxyTicketValidator();
+        ptv.setCasValidateUrl("https://cas.example.com/cas/proxyValidate");
+        ptv.setServiceTicket("ST-1234-abcdefghijklmnopqrst-cas");
+        ptv.parseResponse(response);
+        return CASReceipt.getReceipt(ptv);
+    }
+}
@@ -0,0 +1,143 @@
+package edu.yale.its.tp.cas.client;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.mockrunner.mock.web.MockHttpServletRequest;
+
+/**
+ * Compares ServiceUrlBuilder against the way the filters used to build service
+ * URLs, on both paths that need one: the redirect to CAS login (encoded
+ * service, ticket removed) and the redirect back to the application after
+ * validation (plain service, ticket removed). The <code>legacy</code>
+ * benchmarks reproduce the former StringBuffer/indexOf assembly, the
+ * platform-charset URLEncoder, and the four replaceAll calls;
+ * <code>utilGetService</code> measures the public Util.getService. Run with
+ * <code>-prof gc</code> to compare <code>gc.alloc.rate.norm</code>.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ServiceUrlBuilderBenchmark
+{
+
+    private static final String SERVER = "www.client.com:8443";
+
+    private static final String CAS_LOGIN = "https://cas.example.com/cas/login";
+
+    @Param({ "page=2&sort=name&ticket=ST-1234-abcdefghijklmnopqrst-cas", "page=2&sort=name" })
+    public String queryString;
+
+    private MockHttpServletRequest request;
+
+    private ServiceUrlBuilder builder;
+
+    @Setup
+    public void setUp()
+    {
+        request = new MockHttpServletRequest();
+        request.setScheme("https");
+        request.setServerName("internal-host");
+        request.setServerPort(8443);
+        request.setRequestURI("/app/reports/list.jsp");
+        request.setQueryString(queryString);
+        builder = new ServiceUrlBuilder(SERVER);
+    }
+
+    @Benchmark
+    public String redirectToCas()
+    {
+        StringBuilder sb = new StringBuilder(256);
+        sb.append(CAS_LOGIN).append("?service=");
+        builder.appendService(sb, request, true);
+        sb.append("&renew=true");
+        return sb.toString();
+    }
+
+    @Benchmark
+    @SuppressWarnings("deprecation")
+    public String legacyRedirectToCas()
+    {
+        return CAS_LOGIN + "?service=" + URLEncoder.encode(legacyGetService(request)) + "&renew=true";
+    }
+
+    @Benchmark
+    public String redirectToSelf()
+    {
+        return builder.getService(request);
+    }
+
+    @Benchmark
+    public String legacyRedirectToSelf()
+    {
+        String redirectUrl = legacyGetService(request);
+        redirectUrl = redirectUrl.replaceAll("ticket=[^&]*&", "");
+        redirectUrl = redirectUrl.replaceAll("ticket=[^&]*$", "");
+        redirectUrl = redirectUrl.replaceAll("&$", "");
+        redirectUrl = redirectUrl.replaceAll("\\?$", "");
+        return redirectUrl;
+    }
+
+    /**
+     * The public entry point, which builds a ServiceUrlBuilder per call.
+     */
+    @Benchmark
+    public String utilGetService()
+    {
+        return Util.getService(request, SERVER);
+    }
+
+    @Benchmark
+    public String encode()
+    {
+        return ServiceUrlBuilder.encode("https://www.client.com:8443/app/reports/list.jsp?page=2&sort=name");
+    }
+
+    @Benchmark
+    public String legacyEncode() throws UnsupportedEncodingException
+    {
+        return URLEncoder.encode("https://www.client.com:8443/app/reports/list.jsp?page=2&sort=name", "UTF-8");
+    }
+
+    /**
+     * The service URL assembly Util.getService did before ServiceUrlBuilder,
+     * without encoding.
+     */
+    private static String legacyGetService(MockHttpServletRequest request)
+    {
+        StringBuffer sb = new StringBuffer();
+        sb.append(request.getScheme()).append("://");
+        sb.append(SERVER);
+        sb.append(request.getRequestURI());
+        if (request.getQueryString() != null)
+        {
+            int ticketLoc = request.getQueryString().indexOf("ticket=");
+            if (ticketLoc == -1)
+                sb.append("?" + request.getQueryString());
+            else if (ticketLoc > 0)
+            {
+                ticketLoc = request.getQueryString().indexOf("&ticket=");
+                if (ticketLoc == -1)
+                    sb.append("?" + request.getQueryString());
+                else if (ticketLoc > 0) sb.append("?" + request.getQueryString().substring(0, ticketLoc));
+            }
+        }
+        return sb.toString();
+    }
+}
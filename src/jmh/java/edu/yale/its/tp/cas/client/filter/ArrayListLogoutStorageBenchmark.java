@@ -0,0 +1,70 @@
+package edu.yale.its.tp.cas.client.filter;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The logout lookup CASFilter makes on every authenticated request, against a
+ * storage holding 10,000 and 100,000 logged-out tickets. <code>miss</code> is
+ * the usual case, a user who has not logged out; <code>hit</code> looks up a
+ * ticket half way in. The tickets looked up are equal to, but not the same
+ * objects as, the stored ones, as they are when they come from a receipt.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ArrayListLogoutStorageBenchmark
+{
+
+    @Param({ "10000", "100000" })
+    public int size;
+
+    private LogoutStorage storage;
+
+    private String storedTicket;
+
+    private String unknownTicket;
+
+    @Setup
+    public void setUp()
+    {
+        storage = new ArrayListLogoutStorage();
+        for (int i = 0; i < size; i++)
+        {
+            storage.add(ticket(i));
+        }
+        storedTicket = new String(ticket(size / 2));
+        unknownTicket = ticket(size);
+    }
+
+    @Benchmark
+    public boolean hit()
+    {
+        return storage.contains(storedTicket);
+    }
+
+    @Benchmark
+    public boolean miss()
+    {
+        return storage.contains(unknownTicket);
+    }
+
+    private static String ticket(int i)
+    {
+        return "ST-" + i + "-abcdefghijklmnopqrst-cas";
+    }
+}
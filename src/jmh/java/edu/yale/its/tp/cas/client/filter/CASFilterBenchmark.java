@@ -0,0 +1,130 @@
+package edu.yale.its.tp.cas.client.filter;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.mockrunner.mock.web.MockFilterConfig;
+import com.mockrunner.mock.web.MockHttpServletRequest;
+import com.mockrunner.mock.web.MockHttpServletResponse;
+import com.mockrunner.mock.web.MockHttpSession;
+import com.mockrunner.mock.web.MockServletContext;
+
+import edu.yale.its.tp.cas.client.CASReceipt;
+
+/**
+ * The cost CASFilter adds to every request once the user is logged in: a
+ * request whose session already holds an acceptable receipt, passed down a
+ * chain that does nothing. The parameters are the <code>wrapRequest</code>
+ * setting and the number of <code>url-pattern-exclude</code> patterns, none of
+ * which match the request, so every one of them is tried before the receipt is
+ * checked; <code>excludePatterns=0</code> is the baseline for the exclusion
+ * loop.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CASFilterBenchmark
+{
+
+    @Param({ "false", "true" })
+    public boolean wrapRequest;
+
+    @Param({ "0", "10", "100" })
+    public int excludePatterns;
+
+    private CASFilter filter;
+
+    private MockHttpServletRequest request;
+
+    private MockHttpServletResponse response;
+
+    private LastRequestChain chain;
+
+    @Setup
+    public void setUp() throws ServletException
+    {
+        MockFilterConfig config = new MockFilterConfig();
+        config.setupServletContext(new MockServletContext());
+        config.setFilterName("benchmark");
+        config.setInitParameter(CASFilter.LOGIN_INIT_PARAM, "https://cas.example.com/cas/login");
+        config.setInitParameter(CASFilter.VALIDATE_INIT_PARAM, "https://cas.example.com/cas/serviceValidate");
+        config.setInitParameter(CASFilter.SERVERNAME_INIT_PARAM, "www.client.com:8443");
+        config.setInitParameter(CASFilter.WRAP_REQUESTS_INIT_PARAM, String.valueOf(wrapRequest));
+        config.setInitParameter(CASFilter.JMX_INIT_PARAM, "false");
+        if (excludePatterns > 0)
+        {
+            StringBuilder patterns = new StringBuilder();
+            for (int i = 0; i < excludePatterns; i++)
+            {
+                patterns.append("/app/static").append(i).append("/.* ");
+            }
+            config.setInitParameter(CASFilter.URL_PATTERN_EXCLUDE_INIT_PARAM, patterns.toString());
+        }
+        filter = new CASFilter();
+        filter.init(config);
+
+        MockHttpSession session = new MockHttpSession();
+        session.setAttribute(CASFilter.CAS_FILTER_USER, "someone");
+        session.setAttribute(CASFilter.CAS_FILTER_RECEIPT, new CASReceipt.Builder()
+            .casValidateUrl("https://cas.example.com/cas/serviceValidate").userName("someone")
+            .serviceTicket("ST-1234-abcdefghijklmnopqrst-cas").build());
+
+        request = new MockHttpServletRequest();
+        request.setMethod("GET");
+        request.setScheme("https");
+        request.setServerName("www.client.com");
+        request.setServerPort(8443);
+        request.setRequestURI("/app/reports/list.jsp");
+        request.setSession(session);
+        response = new MockHttpServletResponse();
+        chain = new LastRequestChain();
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        filter.destroy();
+    }
+
+    @Benchmark
+    public ServletRequest authenticated() throws IOException, ServletException
+    {
+        filter.doFilter(request, response, chain);
+        return chain.last;
+    }
+
+    /**
+     * Keeps the request it was handed, so that the filter's work is not dead
+     * code.
+     */
+    private static final class LastRequestChain implements FilterChain
+    {
+        ServletRequest last;
+
+        public void doFilter(ServletRequest request, ServletResponse response)
+        {
+            last = request;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package edu.yale.its.tp.cas.client.filter;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.mockrunner.mock.web.MockHttpServletRequest;
+import com.mockrunner.mock.web.MockHttpSession;
+
+import edu.yale.its.tp.cas.client.CASReceipt;
+
+/**
+ * Compares what an application pays for the usual per-request session and
+ * user lookups on a CASFilterRequestWrapper against the same lookups on the
+ * bare container request. Run with <code>-prof gc</code>: the wrapped
+ * benchmarks' <code>gc.alloc.rate.norm</code> should be no higher than the
+ * unwrapped ones'.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CASFilterRequestWrapperBenchmark
+{
+
+    private HttpServletRequest unwrapped;
+
+    private HttpServletRequest wrapped;
+
+    @Setup
+    public void setUp()
+    {
+        MockHttpSession session = new MockHttpSession();
+        session.setAttribute(CASFilter.CAS_FILTER_USER, "someone");
+        session.setAttribute(CASFilter.CAS_FILTER_RECEIPT, new CASReceipt.Builder().userName("someone").build());
+        session.setAttribute("application.state", "value");
+
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setSession(session);
+        request.getSession(true);
+
+        unwrapped = request;
+        wrapped = new CASFilterRequestWrapper(request, null);
+    }
+
+    @Benchmark
+    public void unwrappedSessionLookups(Blackhole bh)
+    {
+        lookups(unwrapped, bh);
+    }
+
+    @Benchmark
+    public void wrappedSessionLookups(Blackhole bh)
+    {
+        lookups(wrapped, bh);
+    }
+
+    @Benchmark
+    public void wrappedRemoteUser(Blackhole bh)
+    {
+        bh.consume(wrapped.getRemoteUser());
+        bh.consume(wrapped.getHeader("CAS_USER"));
+    }
+
+    private static void lookups(HttpServletRequest request, Blackhole bh)
+    {
+        bh.consume(request.getSession().getAttribute("application.state"));
+        bh.consume(request.getSession(false).getAttribute(CASFilter.CAS_FILTER_USER));
+        bh.consume(request.getSession(true).getId());
+    }
+}
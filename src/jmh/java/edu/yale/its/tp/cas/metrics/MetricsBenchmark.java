@@ -0,0 +1,71 @@
+package edu.yale.its.tp.cas.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Shows what instrumentation costs on a hot path. <code>uninstrumented</code>
+ * and <code>noopInstrumented</code> should score the same, within error:
+ * without a reporter installed, a counter increment and a timed section cost
+ * nothing. <code>registryInstrumented</code> shows the cost of the lock-free
+ * instruments a real reporter gets.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetricsBenchmark
+{
+
+    private static final Counter NOOP_COUNTER = NoopMetricsReporter.INSTANCE.counter("bench.counter");
+    private static final Histogram NOOP_HISTOGRAM = NoopMetricsReporter.INSTANCE.histogram("bench.histogram");
+
+    private static final RegistryMetricsReporter REGISTRY = new RegistryMetricsReporter();
+    private static final Counter REGISTRY_COUNTER = REGISTRY.counter("bench.counter");
+    private static final Histogram REGISTRY_HISTOGRAM = REGISTRY.histogram("bench.histogram");
+
+    public String ticket = "ST-1234-abcdefghijklmnopqrst-cas";
+
+    @Benchmark
+    public int uninstrumented()
+    {
+        return work();
+    }
+
+    @Benchmark
+    public int noopInstrumented()
+    {
+        long start = NOOP_HISTOGRAM.start();
+        int result = work();
+        NOOP_COUNTER.increment();
+        NOOP_HISTOGRAM.recordSince(start);
+        return result;
+    }
+
+    @Benchmark
+    public int registryInstrumented()
+    {
+        long start = REGISTRY_HISTOGRAM.start();
+        int result = work();
+        REGISTRY_COUNTER.increment();
+        REGISTRY_HISTOGRAM.recordSince(start);
+        return result;
+    }
+
+    /** Stands in for a filter decision: a little string inspection. */
+    private int work()
+    {
+        return ticket.startsWith("-") ? 0 : ticket.indexOf('-', 3);
+    }
+}
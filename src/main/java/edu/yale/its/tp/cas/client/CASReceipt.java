@@ -9,6 +9,7 @@ package edu.yale.its.tp.cas.client;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -19,19 +20,20 @@ import org.apache.commons.logging.LogFactory;
 
 /**
  * Encapsulates information about the fruits of authentication.
+ * <p>
+ * Receipts are immutable and therefore safe to share between threads and to
+ * cache. Build one with a {@link Builder}, or, far more commonly, harvest one
+ * from a validated ticket with {@link #getReceipt(ProxyTicketValidator)}.
  * 
  * @author andrew.petro@yale.edu
  * @version $Revision: 1.2 $ $Date: 2004/07/14 22:58:07 $
  */
-public class CASReceipt implements Serializable
+public final class CASReceipt implements Serializable
 {
     private static final long serialVersionUID = 1L;
 
     private static Log log = LogFactory.getLog(CASReceipt.class);
 
-    // CCCI
-    private Map attributes = new HashMap();
-
     /**
      * Get a CASReceipt from a ProxyTicketValidator. While the ptv properties
      * must be set, you may or may not have already called ptv.validate(). If
@@ -72,17 +74,19 @@ public class CASReceipt implements Serializable
             throw new CASAuthenticationException("Unable to validate ProxyTicketValidator [" + ptv + "]");
         }
 
-        CASReceipt receipt = new CASReceipt();
-        receipt.casValidateUrl = ptv.getCasValidateUrl();
-        receipt.pgtIou = ptv.getPgtIou();
-        receipt.userName = ptv.getUser();
-        receipt.proxyCallbackUrl = ptv.getProxyCallbackUrl();
-        receipt.proxyList = ptv.getProxyList();
-        receipt.primaryAuthentication = ptv.isRenew();
-        // CCCI
-        receipt.attributes.putAll(ptv.getAttributes());
-        // CCCI
-        receipt.serviceTicket = ptv.getSt();
+        CASReceipt receipt = new Builder()
+            .casValidateUrl(ptv.getCasValidateUrl())
+            .pgtIou(ptv.getPgtIou())
+            .userName(ptv.getUser())
+            .proxyCallbackUrl(ptv.getProxyCallbackUrl())
+            .proxyList(ptv.getProxyList())
+            .primaryAuthentication(ptv.isRenew())
+            // CCCI
+            .attributes(ptv.getAttributes())
+            .attributeValues(ptv.getAttributeValues())
+            // CCCI
+            .serviceTicket(ptv.getSt())
+            .build();
 
         if (!receipt.validate()) { throw new CASAuthenticationException("Validation of [" + ptv
                 + "] did not result in an internally consistent CASReceipt."); }
@@ -98,37 +102,72 @@ public class CASReceipt implements Serializable
      * The CAS Server validation service URL against which the ticket was
      * validated.
      */
-    private String casValidateUrl;
+    private final String casValidateUrl;
 
     /** The PGTIOU, if any. */
-    private String pgtIou;
+    private final String pgtIou;
 
     /** Was authentication by presentation of primary credentials. */
-    private boolean primaryAuthentication = false;
+    private final boolean primaryAuthentication;
 
     /** The URL, if any, to which the CAS server sent the PGT,PGTIOU pair. */
-    private String proxyCallbackUrl;
+    private final String proxyCallbackUrl;
 
     /**
-     * List of services through which authentication was proxied, if any, from
-     * most recent back to service ticket recipient.
+     * Unmodifiable list of services through which authentication was proxied,
+     * if any, from most recent back to service ticket recipient.
      */
-    private List proxyList = new ArrayList();
+    private final List<String> proxyList;
 
     /** The authenticated username. */
-    private String userName;
+    private final String userName;
+
+    // CCCI
+    /** Unmodifiable map of attribute name to (last) attribute value. */
+    private final Map attributes;
+
+    /**
+     * Unmodifiable map of every value of every attribute, keyed by attribute
+     * name. Each array is sorted and free of duplicates, so membership checks
+     * are binary searches. The arrays are never handed out.
+     */
+    private final Map<String, String[]> attributeValues;
 
     // CCCI
     /** The service ticket that issued this receipt */
-    private String serviceTicket;
+    private final String serviceTicket;
+
+    /** Precomputed: was authentication proxied. */
+    private final transient boolean proxied;
+
+    /** Precomputed: the immediately proxying service, or null. */
+    private final transient String proxyingService;
+
+    private CASReceipt(Builder builder)
+    {
+        this.casValidateUrl = builder.casValidateUrl;
+        this.pgtIou = builder.pgtIou;
+        this.primaryAuthentication = builder.primaryAuthentication;
+        this.proxyCallbackUrl = builder.proxyCallbackUrl;
+        this.proxyList = builder.proxyList == null ? null : Collections.unmodifiableList(new ArrayList<String>(
+            builder.proxyList));
+        this.userName = builder.userName;
+        this.attributes = Collections.unmodifiableMap(new HashMap(builder.attributes));
+        this.attributeValues = Collections.unmodifiableMap(new HashMap<String, String[]>(builder.attributeValues));
+        this.serviceTicket = builder.serviceTicket;
+
+        this.proxied = this.proxyList != null && !this.proxyList.isEmpty();
+        this.proxyingService = this.proxied ? this.proxyList.get(0) : null;
+    }
 
     /**
-     * Do-nothing constructor. You probably want to call
-     * getReceipt(ProxyTicketValidator);
+     * Restores the precomputed state and the unmodifiable views after
+     * deserialization, including of receipts serialized by earlier, mutable
+     * versions of this class.
      */
-    public CASReceipt()
+    private Object readResolve()
     {
-        // does nothing
+        return new Builder(this).build();
     }
 
     /**
@@ -172,7 +211,7 @@ public class CASReceipt implements Serializable
      */
     public List getProxyList()
     {
-        return Collections.unmodifiableList(this.proxyList);
+        return this.proxyList;
     }
 
     /**
@@ -208,7 +247,7 @@ public class CASReceipt implements Serializable
      */
     public boolean isProxied()
     {
-        return (!this.proxyList.isEmpty());
+        return this.proxied;
     }
 
     /**
@@ -220,14 +259,13 @@ public class CASReceipt implements Serializable
      */
     public String getProxyingService()
     {
-        if (proxyList.isEmpty()) { return null; }
-        return (String) proxyList.get(0);
+        return this.proxyingService;
     }
 
     /**
      * CCCI
      * 
-     * @return Returns the attributes.
+     * @return Returns an unmodifiable view of the attributes.
      */
     public Map getAttributes()
     {
@@ -235,67 +273,51 @@ public class CASReceipt implements Serializable
     }
 
     /**
-     * CCCI
+     * Get every value of the named attribute. Repeated attributes, such as
+     * group memberships, keep all of their values here, whereas
+     * getAttributes() holds only one value per name.
      * 
-     * @return Returns the serviceTicket.
-     */
-    public String getServiceTicket()
-    {
-        return serviceTicket;
-    }
-
-    /**
-     * @param casValidateUrl
-     *            The casValidateUrl to set.
+     * @param name
+     *            - the attribute name
+     * @return an unmodifiable, sorted list of the attribute's distinct values;
+     *         empty if the attribute is absent.
      */
-    public void setCasValidateUrl(String casValidateUrl)
+    public List<String> getAttributeValues(String name)
     {
-        this.casValidateUrl = casValidateUrl;
+        String[] values = attributeValues.get(name);
+        if (values != null) return Collections.unmodifiableList(Arrays.asList(values));
+        Object value = attributes.get(name);
+        if (value != null) return Collections.singletonList(value.toString());
+        return Collections.emptyList();
     }
 
     /**
-     * @param pgtIou
-     *            The pgtIou to set.
-     */
-    public void setPgtIou(String pgtIou)
-    {
-        this.pgtIou = pgtIou;
-    }
-
-    /**
-     * @param primaryAuthentication
-     *            The primaryAuthentication to set.
-     */
-    public void setPrimaryAuthentication(boolean primaryAuthentication)
-    {
-        this.primaryAuthentication = primaryAuthentication;
-    }
-
-    /**
-     * @param proxyCallbackUrl
-     *            The proxyCallbackUrl to set.
-     */
-    public void setProxyCallbackUrl(String proxyCallbackUrl)
-    {
-        this.proxyCallbackUrl = proxyCallbackUrl;
-    }
-
-    /**
-     * @param proxyList
-     *            The proxyList to set.
+     * Does the named attribute carry the given value? This is a binary search
+     * over the attribute's sorted values, so it neither allocates nor scans,
+     * however many values (e.g. group memberships) the attribute has.
+     * 
+     * @param name
+     *            - the attribute name
+     * @param value
+     *            - the value to look for
+     * @return true if the attribute has the given value, false otherwise.
      */
-    public void setProxyList(List proxyList)
+    public boolean hasAttributeValue(String name, String value)
     {
-        this.proxyList = proxyList;
+        if (value == null) return false;
+        String[] values = attributeValues.get(name);
+        if (values != null) return Arrays.binarySearch(values, value) >= 0;
+        return value.equals(attributes.get(name));
     }
 
     /**
-     * @param userName
-     *            The userName to set.
+     * CCCI
+     * 
+     * @return Returns the serviceTicket.
      */
-    public void setUserName(String userName)
+    public String getServiceTicket()
     {
-        this.userName = userName;
+        return serviceTicket;
     }
 
     public String toString()
@@ -362,7 +384,7 @@ public class CASReceipt implements Serializable
         // valid = false;
         // }
 
-        if (this.primaryAuthentication && !this.proxyList.isEmpty())
+        if (this.primaryAuthentication && this.proxied)
         {
             log.error("If authentication was by primary credentials then it could not have been proxied. "
                     + "Yet, primaryAuthentication is true where proxyList is not empty.  Receipt:[" + this + "]");
@@ -371,6 +393,118 @@ public class CASReceipt implements Serializable
 
         return valid;
     }
+
+    /**
+     * Assembles a CASReceipt. The builder copies the collections it is given,
+     * so later changes to them do not reach the receipt.
+     */
+    public static final class Builder
+    {
+        private String casValidateUrl;
+        private String pgtIou;
+        private boolean primaryAuthentication = false;
+        private String proxyCallbackUrl;
+        private List<String> proxyList = Collections.emptyList();
+        private String userName;
+        private Map attributes = Collections.emptyMap();
+        private Map<String, String[]> attributeValues = Collections.emptyMap();
+        private String serviceTicket;
+
+        /**
+         * Starts an empty receipt: not proxied, not primary authentication, no
+         * attributes.
+         */
+        public Builder()
+        {
+            // does nothing
+        }
+
+        /**
+         * Starts a receipt that is a copy of the given one.
+         */
+        public Builder(CASReceipt receipt)
+        {
+            this.casValidateUrl = receipt.casValidateUrl;
+            this.pgtIou = receipt.pgtIou;
+            this.primaryAuthentication = receipt.primaryAuthentication;
+            this.proxyCallbackUrl = receipt.proxyCallbackUrl;
+            this.proxyList = receipt.proxyList;
+            this.userName = receipt.userName;
+            attributes(receipt.attributes);
+            attributeValues(receipt.attributeValues);
+            this.serviceTicket = receipt.serviceTicket;
+        }
+
+        public Builder casValidateUrl(String casValidateUrl)
+        {
+            this.casValidateUrl = casValidateUrl;
+            return this;
+        }
+
+        public Builder pgtIou(String pgtIou)
+        {
+            this.pgtIou = pgtIou;
+            return this;
+        }
+
+        public Builder primaryAuthentication(boolean primaryAuthentication)
+        {
+            this.primaryAuthentication = primaryAuthentication;
+            return this;
+        }
+
+        public Builder proxyCallbackUrl(String proxyCallbackUrl)
+        {
+            this.proxyCallbackUrl = proxyCallbackUrl;
+            return this;
+        }
+
+        /**
+         * @param proxyList
+         *            - proxying services, most recent first. Null is kept as
+         *            null so that getReceipt() can reject it.
+         */
+        public Builder proxyList(List proxyList)
+        {
+            this.proxyList = proxyList;
+            return this;
+        }
+
+        public Builder userName(String userName)
+        {
+            this.userName = userName;
+            return this;
+        }
+
+        public Builder attributes(Map attributes)
+        {
+            this.attributes = attributes == null ? Collections.emptyMap() : attributes;
+            return this;
+        }
+
+        /**
+         * @param attributeValues
+         *            - map of attribute name to sorted, duplicate-free values,
+         *            as produced by ServiceTicketValidator.
+         */
+        public Builder attributeValues(Map<String, String[]> attributeValues)
+        {
+            this.attributeValues = attributeValues == null ? Collections.<String, String[]> emptyMap()
+                    : attributeValues;
+            return this;
+        }
+
+        public Builder serviceTicket(String serviceTicket)
+        {
+            this.serviceTicket = serviceTicket;
+            return this;
+        }
+
+        public CASReceipt build()
+        {
+            return new CASReceipt(this);
+        }
+    }
 }
 
 /*
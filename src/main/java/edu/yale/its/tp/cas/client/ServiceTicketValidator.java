@@ -34,7 +34,10 @@ package edu.yale.its.tp.cas.client;
 
 import java.io.IOException;
 import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import javax.xml.parsers.ParserConfigurationException;
@@ -46,6 +49,8 @@ import org.xml.sax.SAXException;
 import org.xml.sax.XMLReader;
 import org.xml.sax.helpers.DefaultHandler;
 
+import edu.yale.its.tp.cas.metrics.Histogram;
+import edu.yale.its.tp.cas.metrics.Metrics;
 import edu.yale.its.tp.cas.util.SecureURL;
 
 /**
@@ -55,6 +60,13 @@ import edu.yale.its.tp.cas.util.SecureURL;
 public class ServiceTicketValidator
 {
 
+    // CCCI - whole validations, and the parsing part alone; network time is
+    // recorded by SecureURL
+    private static final Histogram VALIDATE_TIME = Metrics.histogram("cas.validator.validate");
+    private static final Histogram PARSE_TIME = Metrics.histogram("cas.validator.parse");
+
+    private static final String EVENT_SOURCE = "ServiceTicketValidator";
+
     // *********************************************************************
     // For testing...
     public static void main(String args[]) throws Exception
@@ -86,12 +98,20 @@ public class ServiceTicketValidator
     private String casValidateUrl, proxyCallbackUrl, st, service, pgtIou, user, errorCode, errorMessage,
             entireResponse;
     private boolean renew = false;
+    // CCCI - ties this validation's ValidationEvents together
+    private String correlationId;
     private boolean attemptedAuthentication;
     private boolean successfulAuthentication;
 
     // CCCI
     private Map attributes = new HashMap();
 
+    /**
+     * Every value of every attribute, keyed by attribute name. Each value array
+     * is sorted and free of duplicates so it can be binary searched.
+     */
+    private Map<String, String[]> attributeValues = new HashMap<String, String[]>();
+
     // *********************************************************************
     // Accessors
 
@@ -157,6 +177,20 @@ public class ServiceTicketValidator
         this.service = x;
     }
 
+    /**
+     * CCCI Sets the correlation id for the ValidationEvents fired while
+     * validating. If none is set, validate() makes one up.
+     */
+    public void setCorrelationId(String x)
+    {
+        this.correlationId = x;
+    }
+
+    public String getCorrelationId()
+    {
+        return this.correlationId;
+    }
+
     /**
      * Returns the strongly authenticated username.
      */
@@ -217,6 +251,19 @@ public class ServiceTicketValidator
         return attributes;
     }
 
+    /**
+     * Returns every value of every attribute, if the authentication was
+     * successful. Unlike getAttributes(), repeated attributes (such as group
+     * memberships) retain all of their values. Each array is sorted in natural
+     * String order and contains no duplicates.
+     * 
+     * @return map from attribute name to sorted array of values.
+     */
+    public Map<String, String[]> getAttributeValues()
+    {
+        return attributeValues;
+    }
+
     /**
      * CCCI
      * 
@@ -246,7 +293,31 @@ public class ServiceTicketValidator
         if (proxyCallbackUrl != null) sb.append("&pgtUrl=" + proxyCallbackUrl);
         if (renew) sb.append("&renew=true");
         String url = sb.toString();
-        String response = SecureURL.retrieve(url);
+        if (correlationId == null && ValidationListeners.isActive()) correlationId = ValidationEvent.newCorrelationId();
+        long start = VALIDATE_TIME.start();
+        try
+        {
+            ValidationListeners.fire(ValidationEvent.Type.HTTP_REQUEST_SENT, EVENT_SOURCE, correlationId, st, url);
+            String response = SecureURL.retrieve(url);
+            ValidationListeners.fire(ValidationEvent.Type.HTTP_RESPONSE_RECEIVED, EVENT_SOURCE, correlationId, st,
+                null);
+            long parseStart = PARSE_TIME.start();
+            parseResponse(response);
+            PARSE_TIME.recordSince(parseStart);
+            ValidationListeners.fire(ValidationEvent.Type.RESPONSE_PARSED, EVENT_SOURCE, correlationId, st,
+                successfulAuthentication ? user : errorCode);
+        }
+        finally
+        {
+            VALIDATE_TIME.recordSince(start);
+        }
+    }
+
+    /**
+     * Parses a CAS validation response and sets the appropriate properties.
+     */
+    protected void parseResponse(String response) throws IOException, SAXException, ParserConfigurationException
+    {
         this.entireResponse = response;
 
         // parse the response and set appropriate properties
@@ -290,6 +361,7 @@ public class ServiceTicketValidator
         // protected String netid, pgtIou, errorCode, errorMessage;
         // CCCI
         protected boolean insideAttrs = false;
+        protected Map<String, List<String>> attributeValueLists = new HashMap<String, List<String>>();
 
         // **********************************************
         // Parsing logic
@@ -333,11 +405,19 @@ public class ServiceTicketValidator
                 // NK
                 else if (qn.equals(ATTRS))
                 {
-                    insideAttrs = true;
+                    insideAttrs = false;
                 }
                 else if (insideAttrs)
                 {
-                    attributes.put(qn, currentText.toString().trim());
+                    String value = currentText.toString().trim();
+                    attributes.put(qn, value);
+                    List<String> values = attributeValueLists.get(qn);
+                    if (values == null)
+                    {
+                        values = new ArrayList<String>(1);
+                        attributeValueLists.put(qn, values);
+                    }
+                    values.add(value);
                 }
 
                 if (qn.equals(PROXY_GRANTING_TICKET)) pgtIou = currentText.toString().trim();
@@ -355,6 +435,10 @@ public class ServiceTicketValidator
             {
                 // CCCI
                 successfulAuthentication = true;
+                for (Map.Entry<String, List<String>> entry : attributeValueLists.entrySet())
+                {
+                    attributeValues.put(entry.getKey(), toSortedArray(entry.getValue()));
+                }
                 // CCCI - commented these out
                 // ServiceTicketValidator.this.user = user;
                 // ServiceTicketValidator.this.pgtIou = pgtIou;
@@ -377,6 +461,23 @@ public class ServiceTicketValidator
     // *********************************************************************
     // Utility methods
 
+    /**
+     * Sorts the given values and drops duplicates, returning an array that
+     * holds exactly the distinct values.
+     */
+    static String[] toSortedArray(List<String> values)
+    {
+        String[] sorted = values.toArray(new String[values.size()]);
+        if (sorted.length < 2) return sorted;
+        Arrays.sort(sorted);
+        int distinct = 1;
+        for (int i = 1; i < sorted.length; i++)
+        {
+            if (!sorted[i].equals(sorted[distinct - 1])) sorted[distinct++] = sorted[i];
+        }
+        return distinct == sorted.length ? sorted : Arrays.copyOf(sorted, distinct);
+    }
+
     /**
      * Clears internally manufactured state.
      */
@@ -387,6 +488,7 @@ public class ServiceTicketValidator
         successfulAuthentication = false;
         // CCCI
         attributes.clear();
+        attributeValues.clear();
     }
 
     /**
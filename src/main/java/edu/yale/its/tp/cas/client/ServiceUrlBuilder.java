@@ -0,0 +1,254 @@
+package edu.yale.its.tp.cas.client;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Builds the service URL that identifies the current request to CAS: the
+ * configured server (or the request's own host and port), the request URI, and
+ * the query string with every <code>ticket</code> parameter removed.
+ * <p>
+ * A builder is created once, typically at filter initialization, and is
+ * thread-safe. The scheme-and-server prefixes are computed up front, the query
+ * string is rewritten in a single pass, and URL-encoding (always UTF-8,
+ * matching <code>URLEncoder.encode(s, "UTF-8")</code>) happens while the URL is
+ * being appended, so a service URL costs one buffer and one String.
+ */
+public class ServiceUrlBuilder
+{
+
+    private static final String TICKET_PARAM = "ticket";
+
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    /** Configured server name (with optional port), or null to use the request's. */
+    private final String server;
+
+    private final String httpPrefix;
+    private final String httpsPrefix;
+    private final String encodedHttpPrefix;
+    private final String encodedHttpsPrefix;
+
+    /**
+     * @param server
+     *            - server name, with optional port, e.g.
+     *            <code>www.foo.com:8080</code>; or null to take the server
+     *            name and port from each request.
+     */
+    public ServiceUrlBuilder(String server)
+    {
+        this.server = server;
+        if (server != null)
+        {
+            httpPrefix = "http://" + server;
+            httpsPrefix = "https://" + server;
+            encodedHttpPrefix = encode(httpPrefix);
+            encodedHttpsPrefix = encode(httpsPrefix);
+        }
+        else
+        {
+            httpPrefix = httpsPrefix = encodedHttpPrefix = encodedHttpsPrefix = null;
+        }
+    }
+
+    /**
+     * Returns the service URL for the request, without the ticket parameter.
+     * This is the URL to redirect to once a ticket has been validated.
+     */
+    public String getService(HttpServletRequest request)
+    {
+        StringBuilder sb = new StringBuilder(128);
+        appendService(sb, request, false);
+        return sb.toString();
+    }
+
+    /**
+     * Returns the URL-encoded service URL for the request, without the ticket
+     * parameter, ready to be sent to CAS as the service parameter.
+     */
+    public String getEncodedService(HttpServletRequest request)
+    {
+        StringBuilder sb = new StringBuilder(160);
+        appendService(sb, request, true);
+        return sb.toString();
+    }
+
+    /**
+     * Appends the service URL for the request to the given buffer, so that a
+     * caller assembling a larger URL (e.g. the CAS login redirect) needs no
+     * intermediate Strings.
+     *
+     * @param encode
+     *            - whether to URL-encode the service URL as it is appended.
+     */
+    public void appendService(StringBuilder sb, HttpServletRequest request, boolean encode)
+    {
+        String scheme = request.getScheme();
+        String prefix = null;
+        if (server != null)
+        {
+            if ("https".equals(scheme))
+                prefix = encode ? encodedHttpsPrefix : httpsPrefix;
+            else if ("http".equals(scheme)) prefix = encode ? encodedHttpPrefix : httpPrefix;
+        }
+
+        if (prefix != null)
+        {
+            sb.append(prefix);
+        }
+        else
+        {
+            appendMaybeEncoded(sb, scheme, encode);
+            sb.append(encode ? "%3A%2F%2F" : "://");
+            if (server != null)
+            {
+                appendMaybeEncoded(sb, server, encode);
+            }
+            else
+            {
+                appendMaybeEncoded(sb, request.getServerName(), encode);
+                int port = request.getServerPort();
+                if (port != 80 && port != 443)
+                {
+                    sb.append(encode ? "%3A" : ":");
+                    sb.append(port);
+                }
+            }
+        }
+
+        appendMaybeEncoded(sb, request.getRequestURI(), encode);
+
+        String query = request.getQueryString();
+        if (query != null && query.length() > 0) appendQueryWithoutTicket(sb, query, encode);
+    }
+
+    /**
+     * Returns the query string minus any <code>ticket</code> parameter, or
+     * null if no other parameters remain.
+     */
+    public static String removeTicket(String query)
+    {
+        if (query == null || query.length() == 0) return null;
+        StringBuilder sb = new StringBuilder(query.length());
+        appendQueryWithoutTicket(sb, query, false);
+        return sb.length() == 0 ? null : sb.substring(1);
+    }
+
+    /**
+     * Appends <code>?</code> and the query string, minus any
+     * <code>ticket</code> parameter wherever it appears. Appends nothing if no
+     * other parameters remain.
+     */
+    static void appendQueryWithoutTicket(StringBuilder sb, String query, boolean encode)
+    {
+        boolean first = true;
+        int length = query.length();
+        int start = 0;
+        while (start <= length)
+        {
+            int end = query.indexOf('&', start);
+            if (end == -1) end = length;
+            if (end > start && !isTicketParam(query, start, end))
+            {
+                if (first)
+                {
+                    sb.append(encode ? "%3F" : "?");
+                    first = false;
+                }
+                else
+                {
+                    sb.append(encode ? "%26" : "&");
+                }
+                if (encode)
+                    encode(query, start, end, sb);
+                else
+                    sb.append(query, start, end);
+            }
+            start = end + 1;
+        }
+    }
+
+    /**
+     * Is the parameter in <code>query[start, end)</code> named "ticket"?
+     */
+    private static boolean isTicketParam(String query, int start, int end)
+    {
+        int nameLength = TICKET_PARAM.length();
+        if (end - start < nameLength || !query.regionMatches(start, TICKET_PARAM, 0, nameLength)) return false;
+        return end - start == nameLength || query.charAt(start + nameLength) == '=';
+    }
+
+    private static void appendMaybeEncoded(StringBuilder sb, String s, boolean encode)
+    {
+        if (s == null) return;
+        if (encode)
+            encode(s, 0, s.length(), sb);
+        else
+            sb.append(s);
+    }
+
+    /**
+     * URL-encodes the given String as UTF-8, exactly as
+     * <code>URLEncoder.encode(s, "UTF-8")</code> would.
+     */
+    public static String encode(String s)
+    {
+        StringBuilder sb = new StringBuilder(s.length() + 16);
+        encode(s, 0, s.length(), sb);
+        return sb.toString();
+    }
+
+    /**
+     * URL-encodes <code>s[start, end)</code> as UTF-8 onto the buffer. Letters,
+     * digits and <code>.-*_</code> are kept, spaces become <code>+</code>, and
+     * everything else is percent-encoded. An unpaired surrogate is encoded as
+     * <code>?</code>, as the JDK's encoder does.
+     */
+    public static void encode(CharSequence s, int start, int end, StringBuilder sb)
+    {
+        for (int i = start; i < end; i++)
+        {
+            char c = s.charAt(i);
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '.' || c == '-'
+                    || c == '*' || c == '_')
+            {
+                sb.append(c);
+            }
+            else if (c == ' ')
+            {
+                sb.append('+');
+            }
+            else if (c < 0x80)
+            {
+                appendEscaped(sb, c);
+            }
+            else if (c < 0x800)
+            {
+                appendEscaped(sb, 0xC0 | (c >> 6));
+                appendEscaped(sb, 0x80 | (c & 0x3F));
+            }
+            else if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(s.charAt(i + 1)))
+            {
+                int codePoint = Character.toCodePoint(c, s.charAt(++i));
+                appendEscaped(sb, 0xF0 | (codePoint >> 18));
+                appendEscaped(sb, 0x80 | ((codePoint >> 12) & 0x3F));
+                appendEscaped(sb, 0x80 | ((codePoint >> 6) & 0x3F));
+                appendEscaped(sb, 0x80 | (codePoint & 0x3F));
+            }
+            else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE)
+            {
+                appendEscaped(sb, '?');
+            }
+            else
+            {
+                appendEscaped(sb, 0xE0 | (c >> 12));
+                appendEscaped(sb, 0x80 | ((c >> 6) & 0x3F));
+                appendEscaped(sb, 0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    private static void appendEscaped(StringBuilder sb, int b)
+    {
+        sb.append('%').append(HEX[(b >> 4) & 0xF]).append(HEX[b & 0xF]);
+    }
+}
@@ -32,9 +32,6 @@
 
 package edu.yale.its.tp.cas.client;
 
-import java.net.URLEncoder;
-
-import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 
 import org.apache.commons.logging.Log;
@@ -64,66 +61,16 @@ public class Util
             log.trace("entering getService(" + request + ", " + server + ")");
         }
 
-        // ensure we have a server name
-        // CCCI commented this out
-        // if (server == null) {
-        // log.error("getService() argument \"server\" was illegally null.");
-        // throw new IllegalArgumentException("name of server is required");
-        // }
-
-        // now, construct our best guess at the string
-        StringBuffer sb = new StringBuffer();
-        // CCCI TODO - add "secure through proxy" ability
-        sb.append(request.getScheme()).append("://");
-        // CCCI - added this section
-        if (server == null)
-        {
-            server = request.getServerName();
-            int port = request.getServerPort();
-            if (port != 80 && port != 443)
-            {
-                server += ':';
-                server += port;
-            }
-        }
-        sb.append(server);
-        sb.append(request.getRequestURI());
-
-        if (request.getQueryString() != null)
-        {
-            // first, see whether we've got a 'ticket' at all
-            int ticketLoc = request.getQueryString().indexOf("ticket=");
-
-            // if ticketLoc == 0, then it's the only parameter and we ignore
-            // the whole query string
-
-            // if no ticket is present, we use the query string wholesale
-            if (ticketLoc == -1)
-                sb.append("?" + request.getQueryString());
-            else if (ticketLoc > 0)
-            {
-                ticketLoc = request.getQueryString().indexOf("&ticket=");
-                if (ticketLoc == -1)
-                {
-                    // there was a 'ticket=' unrelated to a parameter named
-                    // 'ticket'
-                    sb.append("?" + request.getQueryString());
-                }
-                else if (ticketLoc > 0)
-                {
-                    // otherwise, we use the query string up to "&ticket="
-                    sb.append("?" + request.getQueryString().substring(0, ticketLoc));
-                }
-            }
-        }
-
-        if (!encode) return sb.toString();
-
-        String encodedService = URLEncoder.encode(sb.toString());
+        // CCCI - the URL assembly, ticket removal and encoding now live in
+        // ServiceUrlBuilder; filters hold one built at init rather than
+        // calling this per request
+        ServiceUrlBuilder builder = new ServiceUrlBuilder(server);
+        String service = encode ? builder.getEncodedService(request) : builder.getService(request);
         if (log.isTraceEnabled())
         {
-            log.trace("returning from getService() with encoded service [" + encodedService + "]");
+            log.trace("returning from getService() with " + (encode ? "encoded " : "") + "service [" + service
+                    + "]");
         }
-        return encodedService;
+        return service;
     }
 }
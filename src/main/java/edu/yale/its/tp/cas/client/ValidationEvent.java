@@ -0,0 +1,122 @@
+package edu.yale.its.tp.cas.client;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Something that happened while a CAS ticket was being received, validated,
+ * or logged out, as reported to {@link ValidationListener}s.
+ * <p>
+ * Events from one validation share a correlation id, so a listener can turn
+ * them into a span; {@link #getNanoTime()} gives precise intervals between
+ * events and {@link #getTimeMillis()} anchors them to the wall clock.
+ */
+public final class ValidationEvent
+{
+
+    public enum Type
+    {
+        /** A service ticket (or, at the ProxyTicketReceptor, a PGT) arrived */
+        TICKET_RECEIVED,
+        /** Validation of the ticket is about to begin */
+        VALIDATION_STARTED,
+        /** The validation request is being sent to CAS; detail is the URL */
+        HTTP_REQUEST_SENT,
+        /** CAS's response has been read in full */
+        HTTP_RESPONSE_RECEIVED,
+        /** CAS's response has been parsed; detail is the user, or the error code */
+        RESPONSE_PARSED,
+        /** Validation failed; detail is the reason */
+        VALIDATION_FAILED,
+        /** The receipt has been stored where later requests will find it */
+        RECEIPT_STORED,
+        /** The browser was redirected after validation; detail is the URL */
+        REDIRECT_ISSUED,
+        /** CAS asked for the ticket's session to be logged out */
+        LOGOUT_QUEUED,
+        /** The session of a ticket queued for logout was cleared */
+        LOGOUT_APPLIED,
+        /** A proxy ticket is being requested; detail is the target service */
+        PROXY_TICKET_REQUESTED,
+        /** A proxy ticket request completed; detail is the target service */
+        PROXY_TICKET_OBTAINED
+    }
+
+    private static final String ID_PREFIX = Integer.toHexString(new Random().nextInt()) + "-";
+
+    private static final AtomicLong idSequence = new AtomicLong();
+
+    private final Type type;
+    private final String source;
+    private final String correlationId;
+    private final String ticket;
+    private final String detail;
+    private final long nanoTime;
+    private final long timeMillis;
+
+    public ValidationEvent(Type type, String source, String correlationId, String ticket, String detail)
+    {
+        this.type = type;
+        this.source = source;
+        this.correlationId = correlationId;
+        this.ticket = ticket;
+        this.detail = detail;
+        this.nanoTime = System.nanoTime();
+        this.timeMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * @return an id unique within this JVM, and very probably across a
+     *         cluster, for correlating the events of one validation.
+     */
+    public static String newCorrelationId()
+    {
+        return ID_PREFIX + Long.toHexString(idSequence.incrementAndGet());
+    }
+
+    public Type getType()
+    {
+        return type;
+    }
+
+    /** @return the simple class name of the component firing the event */
+    public String getSource()
+    {
+        return source;
+    }
+
+    public String getCorrelationId()
+    {
+        return correlationId;
+    }
+
+    /** @return the ticket concerned, if any */
+    public String getTicket()
+    {
+        return ticket;
+    }
+
+    /** @return type-specific detail, if any */
+    public String getDetail()
+    {
+        return detail;
+    }
+
+    /** @return {@link System#nanoTime()} when the event happened */
+    public long getNanoTime()
+    {
+        return nanoTime;
+    }
+
+    /** @return {@link System#currentTimeMillis()} when the event happened */
+    public long getTimeMillis()
+    {
+        return timeMillis;
+    }
+
+    public String toString()
+    {
+        return "[" + type + " from " + source + " correlationId=" + correlationId + " ticket=" + ticket + " detail="
+                + detail + "]";
+    }
+}
@@ -0,0 +1,15 @@
+package edu.yale.its.tp.cas.client;
+
+/**
+ * Is told about each step of ticket validation and logout, for tracing. Add
+ * one with {@link ValidationListeners#add(ValidationListener)}, or name it in
+ * <code>META-INF/services/edu.yale.its.tp.cas.client.ValidationListener</code>.
+ * <p>
+ * Listeners are called synchronously on the request thread, so they should be
+ * quick. An exception thrown by a listener is logged and otherwise ignored.
+ */
+public interface ValidationListener
+{
+
+    void validationEvent(ValidationEvent event);
+}
@@ -0,0 +1,86 @@
+package edu.yale.its.tp.cas.client;
+
+import java.util.Iterator;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * The registered {@link ValidationListener}s, and the means of firing events
+ * at them. Listeners named in
+ * <code>META-INF/services/edu.yale.its.tp.cas.client.ValidationListener</code>
+ * are registered when this class is initialized. With no listeners, firing an
+ * event costs one volatile read and allocates nothing.
+ */
+public final class ValidationListeners
+{
+
+    private static Log log = LogFactory.getLog(ValidationListeners.class);
+
+    private static final CopyOnWriteArrayList<ValidationListener> listeners = new CopyOnWriteArrayList<ValidationListener>();
+
+    static
+    {
+        try
+        {
+            Iterator<ValidationListener> found = ServiceLoader.load(ValidationListener.class).iterator();
+            while (found.hasNext())
+            {
+                ValidationListener listener = found.next();
+                log.info("Registering ValidationListener " + listener.getClass().getName());
+                listeners.add(listener);
+            }
+        }
+        catch (ServiceConfigurationError e)
+        {
+            log.error("Unable to load ValidationListeners", e);
+        }
+    }
+
+    private ValidationListeners()
+    {
+    }
+
+    public static void add(ValidationListener listener)
+    {
+        listeners.addIfAbsent(listener);
+    }
+
+    public static void remove(ValidationListener listener)
+    {
+        listeners.remove(listener);
+    }
+
+    /**
+     * @return whether any listener is registered; callers can skip preparing
+     *         event detail if not
+     */
+    public static boolean isActive()
+    {
+        return !listeners.isEmpty();
+    }
+
+    /**
+     * Tells every listener about an event, if there are any listeners.
+     */
+    public static void fire(ValidationEvent.Type type, String source, String correlationId, String ticket,
+        String detail)
+    {
+        if (listeners.isEmpty()) return;
+        ValidationEvent event = new ValidationEvent(type, source, correlationId, ticket, detail);
+        for (ValidationListener listener : listeners)
+        {
+            try
+            {
+                listener.validationEvent(event);
+            }
+            catch (RuntimeException e)
+            {
+                log.warn("ValidationListener " + listener + " failed on " + event, e);
+            }
+        }
+    }
+}
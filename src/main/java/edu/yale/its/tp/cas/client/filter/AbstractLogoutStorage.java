@@ -0,0 +1,39 @@
+package edu.yale.its.tp.cas.client.filter;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A LogoutStorage whose bulk operations are made of single ones, that does
+ * not expire tickets individually and holds nothing that needs closing.
+ * Implementations override whatever they can do better.
+ */
+public abstract class AbstractLogoutStorage implements LogoutStorage
+{
+
+    public boolean containsAny(Collection<String> tickets)
+    {
+        for (String ticket : tickets)
+        {
+            if (contains(ticket)) return true;
+        }
+        return false;
+    }
+
+    public void add(String ticket, long ttl, TimeUnit unit)
+    {
+        add(ticket);
+    }
+
+    public void addAll(Collection<String> tickets)
+    {
+        for (String ticket : tickets)
+        {
+            add(ticket);
+        }
+    }
+
+    public void close()
+    {
+    }
+}
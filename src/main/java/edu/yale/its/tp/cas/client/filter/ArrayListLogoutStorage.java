@@ -3,17 +3,27 @@ package edu.yale.its.tp.cas.client.filter;
 import java.util.ArrayList;
 import java.util.List;
 
-public class ArrayListLogoutStorage implements LogoutStorage {
+/**
+ * Logout storage for a single node. Requests look tickets up concurrently with
+ * CAS's logout requests adding them, so every access is synchronized; a ticket
+ * CAS sends twice is kept once. Tickets are never forgotten.
+ */
+public class ArrayListLogoutStorage extends AbstractLogoutStorage {
 
     List<String> tickets = new ArrayList<String>();
 
     @Override
-    public boolean contains(String ticket) {
+    public synchronized boolean contains(String ticket) {
         return tickets.contains(ticket);
     }
 
     @Override
-    public void add(String ticket) {
-        tickets.add(ticket);
+    public synchronized void add(String ticket) {
+        if (!tickets.contains(ticket)) tickets.add(ticket);
+    }
+
+    @Override
+    public synchronized int size() {
+        return tickets.size();
     }
 }
@@ -5,10 +5,12 @@
 package edu.yale.its.tp.cas.client.filter;
 
 import java.io.IOException;
-import java.net.URLEncoder;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.StringTokenizer;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -18,18 +20,25 @@ import javax.servlet.FilterConfig;
 import javax.servlet.ServletException;
 import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
+import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 
+import edu.yale.its.tp.cas.util.AdaptiveTimeout;
 import edu.yale.its.tp.cas.util.Configuration;
+import edu.yale.its.tp.cas.util.SecureURL;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 import edu.yale.its.tp.cas.client.CASAuthenticationException;
 import edu.yale.its.tp.cas.client.CASReceipt;
 import edu.yale.its.tp.cas.client.ProxyTicketValidator;
-import edu.yale.its.tp.cas.client.Util;
+import edu.yale.its.tp.cas.client.ServiceUrlBuilder;
+import edu.yale.its.tp.cas.client.ValidationEvent;
+import edu.yale.its.tp.cas.client.ValidationListeners;
 
 /**
  * <p>
@@ -107,6 +116,9 @@ public class CASFilter implements Filter
 
     private static Log log = LogFactory.getLog(CASFilter.class);
 
+    /** CCCI source of this filter's ValidationEvents */
+    private static final String EVENT_SOURCE = "CASFilter";
+
     // Filter initialization parameters
 
     /**
@@ -200,6 +212,171 @@ public class CASFilter implements Filter
     //CCCI
     public final static String CAS_SERVER_URL_PREFIX = "casServerUrlPrefix";
 
+    /**
+     * CCCI The name of the filter initialization parameter that, if "false",
+     * stops the filter registering its statistics (see CASFilterStats) with
+     * the platform MBean server.
+     */
+    public final static String JMX_INIT_PARAM = "edu.yale.its.tp.cas.client.filter.jmx";
+
+    /**
+     * CCCI The name of the filter initialization parameter the value of which
+     * is the number of tickets CAS rejected as invalid that the filter
+     * remembers, so that replays of them are sent back to login without
+     * another validation. Defaults to 10000; 0 disables the cache.
+     */
+    public final static String REJECTED_TICKET_CACHE_SIZE_INIT_PARAM = "edu.yale.its.tp.cas.client.filter.rejectedTicketCacheSize";
+
+    /**
+     * CCCI The name of the filter initialization parameter the value of which
+     * is how many seconds a rejected ticket is remembered. Defaults to 300.
+     */
+    public final static String REJECTED_TICKET_TTL_INIT_PARAM = "edu.yale.its.tp.cas.client.filter.rejectedTicketTtl";
+
+    /**
+     * CCCI The name of the filter initialization parameter the value of which
+     * is a whitespace-delimited list of base64-encoded secrets, of at least
+     * 16 bytes each. If set, the receipt is kept in an encrypted,
+     * authenticated cookie (see ReceiptCookie) rather than in the session, and
+     * exposed to the rest of the chain as the request attributes
+     * CAS_FILTER_USER and CAS_FILTER_RECEIPT. The first secret seals new
+     * cookies; cookies sealed with any of them are accepted, so a new secret
+     * can be put first and the old one dropped once its cookies have expired.
+     */
+    public final static String RECEIPT_COOKIE_KEYS_INIT_PARAM = "edu.yale.its.tp.cas.client.filter.receiptCookieKeys";
+
+    /**
+     * CCCI The name of the filter initialization parameter the value of which
+     * is a whitespace-delimited list of the receipt attributes to carry in the
+     * receipt cookie. Defaults to none.
+     */
+    public final static String RECEIPT_COOKIE_ATTRIBUTES_INIT_PARAM = "edu.yale.its.tp.cas.client.filter.receiptCookieAttributes";
+
+    /**
+     * CCCI The name of the filter initialization parameter the value of which
+     * is how many seconds a receipt cookie is accepted after it was issued.
+     * Defaults to 28800 (eight hours).
+     */
+    public final static String RECEIPT_COOKIE_MAX_AGE_INIT_PARAM = "edu.yale.its.tp.cas.client.filter.receiptCookieMaxAge";
+
+    /**
+     * CCCI The name of the filter initialization parameter that, if "false",
+     * stops the filter redirecting the browser to the URL without the ticket
+     * once the ticket is validated. The request continues along the chain at
+     * once, with the ticket parameter hidden, and the response carries the
+     * URL without the ticket as its Content-Location. This saves a browser
+     * round trip per login, at the cost of the ticket staying in the address
+     * bar: browsers do not act on Content-Location. A reload sends that ticket
+     * again, and is let through as the request it was validated for, without
+     * asking CAS. Defaults to "true".
+     */
+    public final static String REDIRECT_AFTER_VALIDATION_INIT_PARAM = "edu.yale.its.tp.cas.client.filter.redirectAfterValidation";
+
+    /**
+     * CCCI The name of the filter initialization parameter that, if "true",
+     * makes a logout invalidate the session that held the ticket, rather than
+     * clear it. Defaults to "false".
+     */
+    public final static String LOGOUT_INVALIDATES_SESSION_INIT_PARAM = "edu.yale.its.tp.cas.client.filter.logoutInvalidatesSession";
+
+    /**
+     * CCCI The name of the filter initialization parameter the value of which
+     * is how many seconds apart the sessions on this node are checked against
+     * the logout storage, so that logouts CAS sent to another node of a
+     * cluster drop their receipts without waiting for the user's next request.
+     * Only useful with a shared logout storage. Defaults to 0, never.
+     */
+    public final static String LOGOUT_SWEEP_INTERVAL_INIT_PARAM = "edu.yale.its.tp.cas.client.filter.logoutSweepInterval";
+
+    /**
+     * CCCI The name of the filter initialization parameter the value of which
+     * is how many tickets per second this filter may send to CAS for
+     * validation, from all clients together. Tickets beyond it are shed: the
+     * browser is answered with the shed status and a Retry-After header, and
+     * may come back with the same ticket. Defaults to 0, unlimited.
+     */
+    public final static String VALIDATION_RATE_INIT_PARAM = "edu.yale.its.tp.cas.client.filter.validationRate";
+
+    /**
+     * CCCI The name of the filter initialization parameter the value of which
+     * is how many validations may be sent at once after a quiet spell, within
+     * the validation rate. Defaults to the validation rate.
+     */
+    public final static String VALIDATION_BURST_INIT_PARAM = "edu.yale.its.tp.cas.client.filter.validationBurst";
+
+    /**
+     * CCCI The name of the filter initialization parameter the value of which
+     * is how many tickets per second may be validated for any one client
+     * address. Behind a proxy that hides client addresses, leave this unset.
+     * Defaults to 0, unlimited.
+     */
+    public final static String CLIENT_VALIDATION_RATE_INIT_PARAM = "edu.yale.its.tp.cas.client.filter.clientValidationRate";
+
+    /**
+     * CCCI The name of the filter initialization parameter the value of which
+     * is how many validations one client address may make at once after a
+     * quiet spell. Defaults to the client validation rate.
+     */
+    public final static String CLIENT_VALIDATION_BURST_INIT_PARAM = "edu.yale.its.tp.cas.client.filter.clientValidationBurst";
+
+    /**
+     * CCCI The name of the filter initialization parameter the value of which
+     * is the most validations this filter may have waiting on CAS at once. The
+     * limit actually applied adapts to CAS's latency, backing off as CAS slows
+     * down; see {@link ValidationLimiter}. Defaults to 0, unlimited.
+     */
+    public final static String MAX_CONCURRENT_VALIDATIONS_INIT_PARAM = "edu.yale.its.tp.cas.client.filter.maxConcurrentValidations";
+
+    /**
+     * CCCI The name of the filter initialization parameter the value of which
+     * is the HTTP status a shed validation is answered with. Defaults to 503.
+     */
+    public final static String SHED_STATUS_INIT_PARAM = "edu.yale.its.tp.cas.client.filter.shedStatus";
+
+    /**
+     * CCCI The name of the filter initialization parameter the value of which
+     * is the Retry-After, in seconds, a shed validation is answered with. CAS
+     * service tickets expire quickly, 10 seconds by default, so keep it
+     * short. Defaults to 2.
+     */
+    public final static String SHED_RETRY_AFTER_INIT_PARAM = "edu.yale.its.tp.cas.client.filter.shedRetryAfter";
+
+    /**
+     * CCCI The name of the filter initialization parameter the value of which
+     * is what the 99.9th percentile of CAS's recent latency is multiplied by
+     * to give the connect and read timeouts of validation. Timeouts apply to
+     * every fetch SecureURL makes in the web application, whichever filter
+     * configured them. Defaults to 3.
+     */
+    public final static String VALIDATION_TIMEOUT_FACTOR_INIT_PARAM = "edu.yale.its.tp.cas.client.filter.validationTimeoutFactor";
+
+    /**
+     * CCCI The name of the filter initialization parameter the value of which
+     * is the least connect or read timeout, in milliseconds. Defaults to 1000.
+     */
+    public final static String VALIDATION_TIMEOUT_FLOOR_INIT_PARAM = "edu.yale.its.tp.cas.client.filter.validationTimeoutFloor";
+
+    /**
+     * CCCI The name of the filter initialization parameter the value of which
+     * is the greatest connect or read timeout, in milliseconds, also used
+     * until enough of CAS's latency is known. Defaults to 30000.
+     */
+    public final static String VALIDATION_TIMEOUT_CEILING_INIT_PARAM = "edu.yale.its.tp.cas.client.filter.validationTimeoutCeiling";
+
+    /** CCCI The name of the receipt cookie */
+    public final static String RECEIPT_COOKIE = "CASRECEIPT";
+
+    /**
+     * CCCI The names of the short-lived cookies that stand in for the gateway
+     * and ticket re-request session attributes when receipts are kept in
+     * cookies, so that logging in creates no session
+     */
+    private static final String GATEWAY_COOKIE = "CASGATEWAYED";
+    private static final String TICKET_RE_REQUEST_COOKIE = "CASRETRIES";
+
+    /** CCCI How many seconds those cookies last */
+    private static final int MARKER_COOKIE_MAX_AGE = 300;
+
     // Session attributes used by this filter
 
     /**
@@ -225,14 +402,17 @@ public class CASFilter implements Filter
      */
     private static final String CAS_FILTER_GATEWAYED = "edu.yale.its.tp.cas.client.filter.didGateway";
 
+    /**
+     * CCCI Session attribute holding when the redirect after validation was
+     * sent, so that the round trip it costs can be measured.
+     */
+    private static final String CAS_FILTER_REDIRECTED_AT = "edu.yale.its.tp.cas.client.filter.redirectedAt";
+
     //CCCI
     private static final String CAS_FILTER_TICKET_RE_REQUEST_COUNT = "edu.yale.its.tp.cas.client.filter.ticketRerequestCount";
 
     private static final int INVALID_TICKET_RE_REQUEST_LIMIT = 3;
 
-
-    private static final String INFINISPAN_LOGOUT_STORE = "infinispanLogoutStore";
-
     // *********************************************************************
     // Configuration state
 
@@ -247,6 +427,13 @@ public class CASFilter implements Filter
      * parameter to login and validate.
      */
     private String casServerName;
+    /**
+     * Assembles the service URL from casServerName and the request; built at
+     * init.
+     */
+    private ServiceUrlBuilder serviceUrlBuilder;
+    /** casServiceUrl, URL-encoded once at init */
+    private String encodedCasServiceUrl;
     /**
      * Secure URL whereto this filter should ask CAS to send Proxy Granting
      * Tickets.
@@ -290,6 +477,31 @@ public class CASFilter implements Filter
      */
     private LogoutStorage logoutList;
 
+    /** CCCI Tickets CAS has rejected as invalid; null if disabled */
+    private RejectedTicketCache rejectedTickets;
+
+    /** CCCI True if validation is followed by a redirect to drop the ticket */
+    private boolean redirectAfterValidation = true;
+
+    /** CCCI Seals receipts into cookies; null unless configured */
+    private ReceiptCookie receiptCookie;
+
+    /** CCCI Sessions holding receipts, by ticket, for eviction on logout */
+    private SessionIndex sessionIndex;
+
+    /** CCCI Checks sessionIndex against logoutList; null unless configured */
+    private ScheduledExecutorService logoutSweeper;
+
+    /** CCCI Limits validations sent to CAS; null unless configured */
+    private ValidationLimiter validationLimiter;
+
+    /** CCCI The status and Retry-After seconds a shed validation is answered with */
+    private int shedStatus;
+    private long shedRetryAfter;
+
+    /** CCCI */
+    private CASFilterStats stats;
+
     // *********************************************************************
     // Initialization
 
@@ -297,7 +509,8 @@ public class CASFilter implements Filter
     {
         System.out.println("Initializing CASFilter");
 
-        initLogoutList();
+        logoutList = LogoutStorageLocator.locate(config);
+        stats = new CASFilterStats("CASFilter", logoutList);
 
         casLogin = Configuration.getParameter(config, LOGIN_INIT_PARAM);
         casValidate = Configuration.getParameter(config, VALIDATE_INIT_PARAM);
@@ -324,6 +537,8 @@ public class CASFilter implements Filter
         wrapRequest = Boolean.valueOf(Configuration.getParameter(config, WRAP_REQUESTS_INIT_PARAM));
         casGateway = Boolean.valueOf(Configuration.getParameter(config, GATEWAY_INIT_PARAM));
         remoteUserAttrib = Configuration.getParameter(config, REMOTE_USER_ATTRIB_INIT_PARAM);
+        redirectAfterValidation = !"false".equals(Configuration.getParameter(config,
+            REDIRECT_AFTER_VALIDATION_INIT_PARAM));
 
 
         if (casGateway && Boolean.valueOf(casRenew)) { throw new ServletException(
@@ -339,7 +554,9 @@ public class CASFilter implements Filter
         {
             if (!(casServiceUrl.startsWith("https://") || (casServiceUrl.startsWith("http://")))) { throw new ServletException(
                 "service URL must start with http:// or https://; its current value is [" + casServiceUrl + "]"); }
+            encodedCasServiceUrl = ServiceUrlBuilder.encode(casServiceUrl);
         }
+        serviceUrlBuilder = new ServiceUrlBuilder(casServerName);
 
         if (casValidate == null) { throw new ServletException("validateUrl parameter must be set."); }
         if (!(casValidate.startsWith("https://") || (casValidate.startsWith("http://")))) { throw new ServletException(
@@ -380,25 +597,143 @@ public class CASFilter implements Filter
             }
         }
 
+        // CCCI
+        long rejectedTicketCacheSize = getLongParameter(config, REJECTED_TICKET_CACHE_SIZE_INIT_PARAM,
+            RejectedTicketCache.DEFAULT_MAXIMUM_SIZE);
+        if (rejectedTicketCacheSize > 0)
+        {
+            rejectedTickets = new RejectedTicketCache(rejectedTicketCacheSize, getLongParameter(config,
+                REJECTED_TICKET_TTL_INIT_PARAM, RejectedTicketCache.DEFAULT_TTL_SECONDS), TimeUnit.SECONDS);
+        }
+
+        // CCCI
+        String receiptCookieKeys = Configuration.getParameter(config, RECEIPT_COOKIE_KEYS_INIT_PARAM);
+        if (receiptCookieKeys != null && receiptCookieKeys.trim().length() > 0)
+        {
+            List<String> attributes = new ArrayList<String>();
+            String receiptCookieAttributes = Configuration.getParameter(config, RECEIPT_COOKIE_ATTRIBUTES_INIT_PARAM);
+            if (receiptCookieAttributes != null)
+            {
+                StringTokenizer names = new StringTokenizer(receiptCookieAttributes);
+                while (names.hasMoreTokens())
+                {
+                    attributes.add(names.nextToken());
+                }
+            }
+            long maxAge = getLongParameter(config, RECEIPT_COOKIE_MAX_AGE_INIT_PARAM, 28800);
+            try
+            {
+                receiptCookie = new ReceiptCookie(ReceiptCookie.decodeSecrets(receiptCookieKeys), attributes,
+                    TimeUnit.SECONDS.toMillis(maxAge));
+            }
+            catch (IllegalArgumentException e)
+            {
+                throw new ServletException(RECEIPT_COOKIE_KEYS_INIT_PARAM
+                        + " must be a list of base64-encoded secrets of at least 16 bytes: " + e.getMessage());
+            }
+        }
+
+        // CCCI
+        String contextPath = config.getServletContext() == null ? null : config.getServletContext().getContextPath();
+        sessionIndex = new SessionIndex(contextPath + " " + config.getFilterName(), Boolean.valueOf(
+            Configuration.getParameter(config, LOGOUT_INVALIDATES_SESSION_INIT_PARAM)));
+        long logoutSweepInterval = getLongParameter(config, LOGOUT_SWEEP_INTERVAL_INIT_PARAM, 0);
+        if (logoutSweepInterval > 0)
+        {
+            logoutSweeper = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("cas-logout-sweeper")
+                .setDaemon(true)
+                .build());
+            logoutSweeper.scheduleWithFixedDelay(new Runnable()
+            {
+                public void run()
+                {
+                    sweepLoggedOutSessions();
+                }
+            }, logoutSweepInterval, logoutSweepInterval, TimeUnit.SECONDS);
+        }
+
+        // CCCI
+        long validationRate = getLongParameter(config, VALIDATION_RATE_INIT_PARAM, 0);
+        long clientValidationRate = getLongParameter(config, CLIENT_VALIDATION_RATE_INIT_PARAM, 0);
+        long maxConcurrentValidations = getLongParameter(config, MAX_CONCURRENT_VALIDATIONS_INIT_PARAM, 0);
+        if (validationRate > 0 || clientValidationRate > 0 || maxConcurrentValidations > 0)
+        {
+            validationLimiter = new ValidationLimiter(
+                validationRate,
+                getLongParameter(config, VALIDATION_BURST_INIT_PARAM, validationRate),
+                clientValidationRate,
+                getLongParameter(config, CLIENT_VALIDATION_BURST_INIT_PARAM, clientValidationRate),
+                (int) Math.min(Integer.MAX_VALUE, maxConcurrentValidations));
+            stats.setValidationLimiter(validationLimiter);
+        }
+        shedStatus = (int) getLongParameter(config, SHED_STATUS_INIT_PARAM, HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        shedRetryAfter = getLongParameter(config, SHED_RETRY_AFTER_INIT_PARAM, 2);
+
+        // CCCI
+        configureTimeouts(config);
+        stats.setValidateUrl(casValidate);
+
+        if (!"false".equals(Configuration.getParameter(config, JMX_INIT_PARAM)))
+        {
+            stats.register(config);
+        }
+
         if (log.isDebugEnabled())
         {
             log.debug(("CASFilter initialized as: [" + toString() + "]"));
         }
     }
 
-    private void initLogoutList()
+    /**
+     * CCCI Configures SecureURL's timeouts if any of the timeout parameters is
+     * set.
+     */
+    static void configureTimeouts(FilterConfig config) throws ServletException
     {
-        // using Object here to avoid runtime dependency on infinispan
-        Object store = Configuration.jndiLookup(INFINISPAN_LOGOUT_STORE);
-        if (store != null)
+        if (Configuration.getParameter(config, VALIDATION_TIMEOUT_FACTOR_INIT_PARAM) == null
+                && Configuration.getParameter(config, VALIDATION_TIMEOUT_FLOOR_INIT_PARAM) == null
+                && Configuration.getParameter(config, VALIDATION_TIMEOUT_CEILING_INIT_PARAM) == null) return;
+        try
         {
-            log.info("using infinispan logout storage");
-            logoutList = new InfinispanLogoutStorage(store);
+            SecureURL.configureTimeouts(AdaptiveTimeout.DEFAULT_PERCENTILE,
+                getDoubleParameter(config, VALIDATION_TIMEOUT_FACTOR_INIT_PARAM, AdaptiveTimeout.DEFAULT_FACTOR),
+                getLongParameter(config, VALIDATION_TIMEOUT_FLOOR_INIT_PARAM, AdaptiveTimeout.DEFAULT_FLOOR_MILLIS),
+                getLongParameter(config, VALIDATION_TIMEOUT_CEILING_INIT_PARAM, AdaptiveTimeout.DEFAULT_CEILING_MILLIS));
         }
-        else
+        catch (IllegalArgumentException e)
+        {
+            throw new ServletException("bad validation timeout parameters: " + e.getMessage());
+        }
+    }
+
+    static double getDoubleParameter(FilterConfig config, String parameterName, double defaultValue)
+        throws ServletException
+    {
+        String value = Configuration.getParameter(config, parameterName);
+        if (value == null || value.trim().length() == 0) return defaultValue;
+        try
         {
-            log.info("using non-clustered logout storage");
-            logoutList = new ArrayListLogoutStorage();
+            return Double.parseDouble(value.trim());
+        }
+        catch (NumberFormatException e)
+        {
+            throw new ServletException(parameterName + " must be a number; its current value is [" + value + "]");
+        }
+    }
+
+    static long getLongParameter(FilterConfig config, String parameterName, long defaultValue)
+        throws ServletException
+    {
+        String value = Configuration.getParameter(config, parameterName);
+        if (value == null || value.trim().length() == 0) return defaultValue;
+        try
+        {
+            return Long.parseLong(value.trim());
+        }
+        catch (NumberFormatException e)
+        {
+            throw new ServletException(parameterName + " must be a number; its current value is [" + value + "]");
         }
     }
 
@@ -435,6 +770,7 @@ public class CASFilter implements Filter
                     // request).getRequestURI()+" is excluded by pattern: "+p.toString());
                     log.trace("URL " + ((HttpServletRequest) request).getRequestURI() + " is excluded by pattern: "
                             + p.toString());
+                    stats.recordExcluded();
                     fc.doFilter(wrapIfNecessary(request), response);
                     return;
                 }
@@ -451,6 +787,7 @@ public class CASFilter implements Filter
                 && request.getParameter("pgtId") != null && request.getParameter("pgtIou") != null)
         {
             log.trace("passing through what we hope is CAS's request for proxy ticket receptor.");
+            stats.recordPassThrough();
             fc.doFilter(wrapIfNecessary(request), response);
             return;
         }
@@ -461,12 +798,40 @@ public class CASFilter implements Filter
         {
             log.trace("processing logout request.");
             queueForLogout(request, response);
+            stats.recordLogoutRequest();
             return;
         }
 
-        HttpSession session = ((HttpServletRequest) request).getSession();
+        // CCCI
+        // a valid receipt cookie authenticates the request without a session
+        if (receiptCookie != null)
+        {
+            String cookieTicket = requestIsPost(request) ? null : request.getParameter("ticket");
+            CASReceipt cookieReceipt = readReceiptCookie((HttpServletRequest) request);
+            if (cookieReceipt != null && isReceiptQueuedForLogout(cookieReceipt))
+            {
+                clearReceiptCookie((HttpServletRequest) request, (HttpServletResponse) response);
+                stats.recordLogoutApplied();
+                ValidationListeners.fire(ValidationEvent.Type.LOGOUT_APPLIED, EVENT_SOURCE, null,
+                    cookieReceipt.getServiceTicket(), cookieReceipt.getUserName());
+            }
+            else if (cookieReceipt != null && isReceiptAcceptable(cookieReceipt)
+                    && (cookieTicket == null || cookieTicket.equals(cookieReceipt.getServiceTicket())))
+            {
+                log.trace("receipt cookie was present and acceptable - passing request through filter.");
+                request.setAttribute(CAS_FILTER_USER, cookieReceipt.getUserName());
+                request.setAttribute(CAS_FILTER_RECEIPT, cookieReceipt);
+                stats.recordPassThrough();
+                fc.doFilter(wrapIfNecessary(hideTicket(request, cookieTicket)), response);
+                return;
+            }
+        }
+
+        // CCCI - with receipt cookies, only a session the application made is used
+        HttpSession session = receiptCookie != null ? ((HttpServletRequest) request).getSession(false)
+                : ((HttpServletRequest) request).getSession();
 
-        CASReceipt receipt = (CASReceipt) session.getAttribute(CAS_FILTER_RECEIPT);
+        CASReceipt receipt = session == null ? null : (CASReceipt) session.getAttribute(CAS_FILTER_RECEIPT);
 
         // CCCI
         // if our attribute's already present but queued for logout, then handle
@@ -474,6 +839,9 @@ public class CASFilter implements Filter
         if (receipt != null && isReceiptQueuedForLogout(receipt))
         {
             handleActualLogout(request, response);
+            stats.recordLogoutApplied();
+            ValidationListeners.fire(ValidationEvent.Type.LOGOUT_APPLIED, EVENT_SOURCE, null, receipt.getServiceTicket(),
+                receipt.getUserName());
             receipt = null;
         }
 
@@ -483,19 +851,28 @@ public class CASFilter implements Filter
 
         // CCCI
         // if our attribute's already present and valid, pass through the filter
-        // chain
-        if (ticket == null && receipt != null && isReceiptAcceptable(receipt))
+        // chain; so does a reload of the URL its ticket came on
+        if (receipt != null && (ticket == null || ticket.equals(receipt.getServiceTicket()))
+                && isReceiptAcceptable(receipt))
         {
             log.trace("CAS_FILTER_RECEIPT attribute was present and acceptable - passing  request through filter..");
             if (session.getAttribute(CAS_FILTER_RECEIPT_IS_FRESH_BEFORE_REDIRECT) != null)
             {
                 session.removeAttribute(CAS_FILTER_RECEIPT_IS_FRESH_BEFORE_REDIRECT);
+                // CCCI - this is the request the redirect after validation asked for
+                Long redirectedAt = (Long) session.getAttribute(CAS_FILTER_REDIRECTED_AT);
+                if (redirectedAt != null)
+                {
+                    session.removeAttribute(CAS_FILTER_REDIRECTED_AT);
+                    stats.recordRedirectRoundTrip(System.currentTimeMillis() - redirectedAt);
+                }
             }
             else if (session.getAttribute(CAS_FILTER_RECEIPT_IS_FRESH) != null)
             {
                 session.removeAttribute(CAS_FILTER_RECEIPT_IS_FRESH);
             }
-            fc.doFilter(wrapIfNecessary(request), response);
+            stats.recordPassThrough();
+            fc.doFilter(wrapIfNecessary(hideTicket(request, ticket)), response);
             return;
         }
 
@@ -504,7 +881,8 @@ public class CASFilter implements Filter
         {
             log.trace("CAS ticket was not present on request.");
             // did we go through the gateway already?
-            boolean didGateway = Boolean.valueOf((String) session.getAttribute(CAS_FILTER_GATEWAYED));
+            boolean didGateway = Boolean.valueOf(getMarker((HttpServletRequest) request, CAS_FILTER_GATEWAYED,
+                GATEWAY_COOKIE));
 
             if (casLogin == null)
             {
@@ -517,7 +895,8 @@ public class CASFilter implements Filter
             if (!didGateway)
             {
                 log.trace("Did not previously gateway.  Setting session attribute to true.");
-                session.setAttribute(CAS_FILTER_GATEWAYED, "true");
+                setMarker((HttpServletRequest) request, (HttpServletResponse) response, CAS_FILTER_GATEWAYED,
+                    GATEWAY_COOKIE, "true");
                 redirectToCAS((HttpServletRequest) request, (HttpServletResponse) response);
                 // abort chain
                 return;
@@ -526,9 +905,10 @@ public class CASFilter implements Filter
             {
                 log.trace("Previously gatewayed.");
                 // if we should be logged in, make sure validation succeeded
-                if (casGateway || session.getAttribute(CAS_FILTER_USER) != null)
+                if (casGateway || (session != null && session.getAttribute(CAS_FILTER_USER) != null))
                 {
                     log.trace("casGateway was true and CAS_FILTER_USER set: passing request along filter chain.");
+                    stats.recordPassThrough();
                     // continue processing the request
                     fc.doFilter(wrapIfNecessary(request), response);
                     return;
@@ -536,7 +916,8 @@ public class CASFilter implements Filter
                 else
                 {
                     // unknown state... redirect to CAS
-                    session.setAttribute(CAS_FILTER_GATEWAYED, "true");
+                    setMarker((HttpServletRequest) request, (HttpServletResponse) response, CAS_FILTER_GATEWAYED,
+                        GATEWAY_COOKIE, "true");
                     redirectToCAS((HttpServletRequest) request, (HttpServletResponse) response);
                     // abort chain
                     return;
@@ -544,12 +925,46 @@ public class CASFilter implements Filter
             }
         }
 
+        // CCCI
+        // a ticket CAS already rejected will be rejected again; skip straight
+        // to login rather than asking
+        if (rejectedTickets != null && rejectedTickets.contains(ticket))
+        {
+            log.debug("Ticket [" + ticket + "] was already rejected by CAS; redirecting to login.");
+            stats.recordBlockedReplay();
+            redirectToCAS((HttpServletRequest) request, (HttpServletResponse) response);
+            return;
+        }
+
+        // CCCI - one correlation id for all the events of this validation
+        String correlationId = ValidationListeners.isActive() ? ValidationEvent.newCorrelationId() : null;
+        ValidationListeners.fire(ValidationEvent.Type.TICKET_RECEIVED, EVENT_SOURCE, correlationId, ticket, null);
+
+        // CCCI
+        // spare CAS validations beyond the configured limits
+        ValidationLimiter.Permit permit = null;
+        if (validationLimiter != null)
+        {
+            permit = validationLimiter.acquire(request.getRemoteAddr());
+            if (permit == null)
+            {
+                ValidationListeners.fire(ValidationEvent.Type.VALIDATION_FAILED, EVENT_SOURCE, correlationId, ticket,
+                    "shed");
+                stats.recordValidationShed();
+                ((HttpServletResponse) response).setHeader("Retry-After", String.valueOf(shedRetryAfter));
+                ((HttpServletResponse) response).sendError(shedStatus);
+                return;
+            }
+        }
+
         try
         {
-            receipt = getAuthenticatedUser((HttpServletRequest) request);
+            receipt = getAuthenticatedUser((HttpServletRequest) request, correlationId, permit);
         }
         catch (CASAuthenticationException e)
         {
+            ValidationListeners.fire(ValidationEvent.Type.VALIDATION_FAILED, EVENT_SOURCE, correlationId, ticket,
+                e.getMessage());
             handleTicketValidationFailure(
                 (HttpServletRequest) request,
                 (HttpServletResponse) response,
@@ -557,21 +972,46 @@ public class CASFilter implements Filter
             // abort chain
             return;
         }
+        finally
+        {
+            // CCCI - a no-op once getAuthenticatedUser has released it
+            if (permit != null) permit.release();
+        }
 
         if (!isReceiptAcceptable(receipt)) { throw new ServletException(
             "Authentication was technically successful but rejected as a matter of policy. [" + receipt + "]"); }
 
+        // CCCI
+        // Store the receipt in a cookie if configured and it fits, else in the
+        // session
+        boolean inSession = false;
+        if (receiptCookie != null && writeReceiptCookie(receipt, (HttpServletRequest) request,
+            (HttpServletResponse) response))
+        {
+            ValidationListeners.fire(ValidationEvent.Type.RECEIPT_STORED, EVENT_SOURCE, correlationId, ticket,
+                receipt.getUserName());
+        }
         // Store the authenticated user in the session
-        if (session != null)
-        { // probably unnecessary
+        else
+        {
+            // CCCI - a receipt too big for a cookie needs a session after all
+            if (session == null) session = ((HttpServletRequest) request).getSession();
             session.setAttribute(CAS_FILTER_USER, receipt.getUserName());
             session.setAttribute(CASFilter.CAS_FILTER_RECEIPT, receipt);
             // CCCI
             session.setAttribute(CAS_FILTER_RECEIPT_IS_FRESH, Boolean.TRUE);
-            session.setAttribute(CAS_FILTER_RECEIPT_IS_FRESH_BEFORE_REDIRECT, Boolean.TRUE);
-            // don't store extra unnecessary session state
-            session.removeAttribute(CAS_FILTER_GATEWAYED);
+            if (redirectAfterValidation) session.setAttribute(CAS_FILTER_RECEIPT_IS_FRESH_BEFORE_REDIRECT, Boolean.TRUE);
+            sessionIndex.register(receipt.getServiceTicket(), session);
+            inSession = true;
+            ValidationListeners.fire(ValidationEvent.Type.RECEIPT_STORED, EVENT_SOURCE, correlationId, ticket,
+                receipt.getUserName());
         }
+        // don't store extra unnecessary state
+        clearMarker((HttpServletRequest) request, (HttpServletResponse) response, CAS_FILTER_GATEWAYED,
+            GATEWAY_COOKIE);
+        // CCCI - the ticket re-request limit is per login
+        clearMarker((HttpServletRequest) request, (HttpServletResponse) response,
+            CAS_FILTER_TICKET_RE_REQUEST_COUNT, TICKET_RE_REQUEST_COOKIE);
         if (log.isTraceEnabled())
         {
             log.trace("validated ticket to get authenticated receipt [" + receipt
@@ -584,15 +1024,25 @@ public class CASFilter implements Filter
         // fc.doFilter(wrapIfNecessary(request), response);
         // log.trace("returning from doFilter()");
 
-        String redirectUrl = Util.getService((HttpServletRequest) request, casServerName, false);
-        // remove "ticket" parameter - mid-string
-        redirectUrl = redirectUrl.replaceAll("ticket=[^&]*&", "");
-        // remove "ticket" parameter - end-string
-        redirectUrl = redirectUrl.replaceAll("ticket=[^&]*$", "");
-        redirectUrl = redirectUrl.replaceAll("&$", "");
-        redirectUrl = redirectUrl.replaceAll("\\?$", "");
+        // the service URL, minus the "ticket" parameter
+        String redirectUrl = serviceUrlBuilder.getService((HttpServletRequest) request);
+
+        // CCCI
+        // carry on as if the redirect had already happened
+        if (!redirectAfterValidation)
+        {
+            ((HttpServletResponse) response).setHeader("Content-Location", redirectUrl);
+            request.setAttribute(CAS_FILTER_USER, receipt.getUserName());
+            request.setAttribute(CAS_FILTER_RECEIPT, receipt);
+            stats.recordRedirectAvoided();
+            fc.doFilter(wrapIfNecessary(new TicketHidingRequestWrapper((HttpServletRequest) request)), response);
+            return;
+        }
+
 //        System.out.println("AUTH: Redirecting to self to clean ticket:" + redirectUrl);
+        if (inSession) session.setAttribute(CAS_FILTER_REDIRECTED_AT, System.currentTimeMillis());
         ((HttpServletResponse) response).sendRedirect(redirectUrl);
+        ValidationListeners.fire(ValidationEvent.Type.REDIRECT_ISSUED, EVENT_SOURCE, correlationId, ticket, redirectUrl);
     }
 
     private void handleTicketValidationFailure(
@@ -602,10 +1052,13 @@ public class CASFilter implements Filter
     {
         if (e.getMessage().contains("INVALID_TICKET"))
         {
+            stats.recordInvalidTicket();
+            if (rejectedTickets != null) rejectedTickets.add(request.getParameter("ticket"));
             handleInvalidTicket(request, response, e);
         }
         else
         {
+            stats.recordValidationFailure();
             log.error(e);
             throw new ServletException(e);
         }
@@ -625,7 +1078,7 @@ public class CASFilter implements Filter
         else
         {
             count++;
-            storeIncrementedTicketReRequestCount(request, count);
+            storeIncrementedTicketReRequestCount(request, response, count);
             log.warn("Requesting a new ticket. (Attempt # " + count + ")");
             redirectToCAS(request, response);
         }
@@ -633,18 +1086,100 @@ public class CASFilter implements Filter
 
     private int countTicketReRequests(HttpServletRequest request)
     {
-        HttpSession session = request.getSession();
-        Integer count = (Integer) session.getAttribute(CAS_FILTER_TICKET_RE_REQUEST_COUNT);
-        if (count == null)
+        String count = getMarker(request, CAS_FILTER_TICKET_RE_REQUEST_COUNT, TICKET_RE_REQUEST_COOKIE);
+        if (count == null) return 0;
+        try
+        {
+            return Integer.parseInt(count);
+        }
+        catch (NumberFormatException e)
+        {
             return 0;
+        }
+    }
+
+    private void storeIncrementedTicketReRequestCount(HttpServletRequest request, HttpServletResponse response,
+        int count)
+    {
+        setMarker(request, response, CAS_FILTER_TICKET_RE_REQUEST_COUNT, TICKET_RE_REQUEST_COOKIE, count);
+    }
+
+    /**
+     * CCCI Reads a value kept between the requests of a login: from the
+     * session, or from a short-lived cookie when receipts are kept in
+     * cookies.
+     *
+     * @return the value, or null if there is none
+     */
+    private String getMarker(HttpServletRequest request, String attribute, String cookieName)
+    {
+        if (receiptCookie == null)
+        {
+            Object value = request.getSession().getAttribute(attribute);
+            return value == null ? null : value.toString();
+        }
+        Cookie cookie = findCookie(request, cookieName);
+        return cookie == null ? null : cookie.getValue();
+    }
+
+    /**
+     * CCCI
+     *
+     * @param value
+     *            - stored as is in the session; its string form in a cookie
+     */
+    private void setMarker(HttpServletRequest request, HttpServletResponse response, String attribute,
+        String cookieName, Object value)
+    {
+        if (receiptCookie == null)
+        {
+            request.getSession().setAttribute(attribute, value);
+        }
         else
-            return count;
+        {
+            response.addHeader("Set-Cookie", cookieHeader(request, cookieName, value.toString(),
+                MARKER_COOKIE_MAX_AGE));
+        }
     }
 
-    private void storeIncrementedTicketReRequestCount(HttpServletRequest request, int count)
+    /**
+     * CCCI Removes a value set by {@link #setMarker}, if there is one.
+     */
+    private void clearMarker(HttpServletRequest request, HttpServletResponse response, String attribute,
+        String cookieName)
     {
-        HttpSession session = request.getSession();
-        session.setAttribute(CAS_FILTER_TICKET_RE_REQUEST_COUNT, count);
+        if (receiptCookie == null)
+        {
+            HttpSession session = request.getSession(false);
+            if (session != null) session.removeAttribute(attribute);
+        }
+        else if (findCookie(request, cookieName) != null)
+        {
+            response.addHeader("Set-Cookie", cookieHeader(request, cookieName, "", 0));
+        }
+    }
+
+    /**
+     * CCCI Hides the ticket of a request let through on a receipt validated
+     * from that ticket, as the redirect after validation would have.
+     *
+     * @param ticket
+     *            - the request's ticket, or null if it has none
+     */
+    private static ServletRequest hideTicket(ServletRequest request, String ticket)
+    {
+        return ticket == null ? request : new TicketHidingRequestWrapper((HttpServletRequest) request);
+    }
+
+    private static Cookie findCookie(HttpServletRequest request, String name)
+    {
+        Cookie[] cookies = request.getCookies();
+        if (cookies == null) return null;
+        for (Cookie cookie : cookies)
+        {
+            if (name.equals(cookie.getName())) return cookie;
+        }
+        return null;
     }
 
     private boolean requestIsPost(ServletRequest request)
@@ -694,7 +1229,10 @@ public class CASFilter implements Filter
     private boolean isReceiptQueuedForLogout(CASReceipt receipt)
     {
         String ticket = receipt.getServiceTicket();
-        return logoutList.contains(ticket);
+        long lookupStart = System.nanoTime();
+        boolean queued = logoutList.contains(ticket);
+        stats.recordLogoutLookup(lookupStart);
+        return queued;
     }
 
     /**
@@ -709,6 +1247,97 @@ public class CASFilter implements Filter
         String ticket = request.getParameter("ticket");
         ticket = ticket.substring(1); // remove the leading "-"
         logoutList.add(ticket);
+        ValidationListeners.fire(ValidationEvent.Type.LOGOUT_QUEUED, EVENT_SOURCE, null, ticket, null);
+        // drop the receipt now, if its session is on this node
+        if (sessionIndex.evict(ticket)) recordEviction(ticket);
+    }
+
+    /**
+     * CCCI Drops the receipts of sessions on this node whose tickets another
+     * node was told are logged out.
+     */
+    void sweepLoggedOutSessions()
+    {
+        try
+        {
+            for (String ticket : sessionIndex.evictLoggedOut(logoutList))
+            {
+                recordEviction(ticket);
+            }
+        }
+        catch (RuntimeException e)
+        {
+            log.warn("Unable to check sessions for logouts", e);
+        }
+    }
+
+    private void recordEviction(String ticket)
+    {
+        stats.recordLogoutApplied();
+        ValidationListeners.fire(ValidationEvent.Type.LOGOUT_APPLIED, EVENT_SOURCE, null, ticket, null);
+    }
+
+    /**
+     * CCCI
+     *
+     * @return the receipt sealed in the request's receipt cookie, or null if
+     *         there is none or it is not valid
+     */
+    private CASReceipt readReceiptCookie(HttpServletRequest request)
+    {
+        Cookie cookie = findCookie(request, RECEIPT_COOKIE);
+        if (cookie == null) return null;
+        CASReceipt receipt = receiptCookie.unseal(cookie.getValue(), System.currentTimeMillis(), casValidate);
+        if (receipt == null) log.debug("ignoring a receipt cookie that is invalid or expired");
+        return receipt;
+    }
+
+    /**
+     * CCCI
+     *
+     * @return false if the sealed receipt is too big for a cookie
+     */
+    private boolean writeReceiptCookie(CASReceipt receipt, HttpServletRequest request, HttpServletResponse response)
+    {
+        String sealed = receiptCookie.seal(receipt, System.currentTimeMillis());
+        if (sealed.length() > ReceiptCookie.MAXIMUM_LENGTH)
+        {
+            log.warn("Receipt for [" + receipt.getUserName() + "] is too big for a cookie (" + sealed.length()
+                    + " characters); keeping it in the session. Configure fewer receipt cookie attributes.");
+            return false;
+        }
+        response.addHeader("Set-Cookie", cookieHeader(request, RECEIPT_COOKIE, sealed, -1));
+        return true;
+    }
+
+    /**
+     * CCCI
+     */
+    private void clearReceiptCookie(HttpServletRequest request, HttpServletResponse response)
+    {
+        response.addHeader("Set-Cookie", cookieHeader(request, RECEIPT_COOKIE, "", 0));
+    }
+
+    /**
+     * Written by hand because Cookie.setHttpOnly() needs Servlet 3.0. The
+     * values are base64url or plain tokens, so need no quoting.
+     *
+     * @param maxAge
+     *            - in seconds; 0 expires the cookie, and a negative value
+     *            leaves it to last as long as the browser
+     */
+    private static String cookieHeader(HttpServletRequest request, String name, String value, int maxAge)
+    {
+        StringBuilder sb = new StringBuilder(value.length() + 96);
+        sb.append(name).append('=').append(value);
+        String path = request.getContextPath();
+        sb.append("; Path=").append(path == null || path.length() == 0 ? "/" : path);
+        if (maxAge == 0)
+            sb.append("; Max-Age=0; Expires=Thu, 01 Jan 1970 00:00:00 GMT");
+        else if (maxAge > 0) sb.append("; Max-Age=").append(maxAge);
+        if (request.isSecure()) sb.append("; Secure");
+        sb.append("; HttpOnly");
+        return sb.toString();
     }
 
     /**
@@ -739,13 +1368,17 @@ public class CASFilter implements Filter
      * optionally configured trusted proxy in the tier immediately in front of
      * us.
      *
+     * @param permit
+     *            - CCCI the validation limiter's permit, released with the
+     *            outcome once CAS has answered, or failed to; null if there is
+     *            no limiter
      * @throws ServletException
      *             - when unable to get service for request
      * @throws CASAuthenticationException
      *             - on authentication failure
      */
-    private CASReceipt getAuthenticatedUser(HttpServletRequest request) throws ServletException,
-            CASAuthenticationException
+    private CASReceipt getAuthenticatedUser(HttpServletRequest request, String correlationId,
+            ValidationLimiter.Permit permit) throws ServletException, CASAuthenticationException
     {
         log.trace("entering getAuthenticatedUser()");
         ProxyTicketValidator pv = null;
@@ -755,6 +1388,7 @@ public class CASFilter implements Filter
         pv.setServiceTicket(request.getParameter("ticket"));
         pv.setService(getService(request));
         pv.setRenew(casRenew);
+        pv.setCorrelationId(correlationId);
         if (casProxyCallbackUrl != null)
         {
             pv.setProxyCallbackUrl(casProxyCallbackUrl);
@@ -764,10 +1398,52 @@ public class CASFilter implements Filter
             log.debug("about to validate ProxyTicketValidator: [" + pv + "]");
         }
 
-        return CASReceipt.getReceipt(pv);
+        ValidationListeners.fire(ValidationEvent.Type.VALIDATION_STARTED, EVENT_SOURCE, correlationId, pv.getSt(),
+            casValidate);
+        long validationStart = stats.validationStarted();
+        boolean validated = false;
+        CASAuthenticationException failure = null;
+        try
+        {
+            CASReceipt receipt = CASReceipt.getReceipt(pv);
+            validated = true;
+            return receipt;
+        }
+        catch (CASAuthenticationException e)
+        {
+            failure = e;
+            throw e;
+        }
+        finally
+        {
+            stats.validationFinished(validationStart, validated);
+            // CCCI
+            // a rejected ticket is an answer too; a timeout or an I/O failure
+            // is the overload the limit guards against
+            if (permit != null)
+            {
+                if (validated || (failure != null && !isCausedByIOException(failure)))
+                    permit.answered();
+                else if (failure != null) permit.failed();
+            }
+        }
 
     }
 
+    /**
+     * CCCI
+     *
+     * @return whether the exception, or one of its causes, is an IOException
+     */
+    private static boolean isCausedByIOException(Throwable e)
+    {
+        for (Throwable cause = e; cause != null; cause = cause.getCause())
+        {
+            if (cause instanceof IOException) return true;
+        }
+        return false;
+    }
+
     /**
      * Returns either the configured service or figures it out for the current
      * request. The returned service is URL-encoded.
@@ -787,12 +1463,12 @@ public class CASFilter implements Filter
         // + "edu.yale.its.tp.cas.client.filter.serverName");
 
         // use the given string if it's provided
-        if (casServiceUrl != null)
-            serviceString = URLEncoder.encode(casServiceUrl);
+        if (encodedCasServiceUrl != null)
+            serviceString = encodedCasServiceUrl;
         else
         {
             // otherwise, return our best guess at the service
-            serviceString = Util.getService(request, casServerName);
+            serviceString = serviceUrlBuilder.getEncodedService(request);
         }
 
         if (log.isTraceEnabled())
@@ -813,15 +1489,23 @@ public class CASFilter implements Filter
             log.trace("entering redirectToCAS()");
         }
 
-        String casLoginString = casLogin + "?service=" + getService((HttpServletRequest) request)
-                + ((casRenew) ? "&renew=true" : "") + (casGateway ? "&gateway=true" : "");
-
-        if (casLogoutCallbackUrl != null) casLoginString += "&logoutCallback=" + casLogoutCallbackUrl;
+        // assemble the login URL in one buffer, encoding the service into it
+        StringBuilder sb = new StringBuilder(256);
+        sb.append(casLogin).append("?service=");
+        if (encodedCasServiceUrl != null)
+            sb.append(encodedCasServiceUrl);
+        else
+            serviceUrlBuilder.appendService(sb, request, true);
+        if (casRenew) sb.append("&renew=true");
+        if (casGateway) sb.append("&gateway=true");
+        if (casLogoutCallbackUrl != null) sb.append("&logoutCallback=").append(casLogoutCallbackUrl);
+        String casLoginString = sb.toString();
 
         if (log.isDebugEnabled())
         {
             log.debug("Redirecting browser to [" + casLoginString + ")");
         }
+        stats.recordRedirectToCas();
         ((HttpServletResponse) response).sendRedirect(casLoginString);
 
         if (log.isTraceEnabled())
@@ -830,6 +1514,18 @@ public class CASFilter implements Filter
         }
     }
 
+    /** CCCI for tests */
+    CASFilterStats getStats()
+    {
+        return stats;
+    }
+
+    /** CCCI for tests */
+    SessionIndex getSessionIndex()
+    {
+        return sessionIndex;
+    }
+
     public String toString()
     {
         StringBuffer sb = new StringBuffer();
@@ -866,6 +1562,13 @@ public class CASFilter implements Filter
             sb.append(" casRenew=true");
         }
 
+        // CCCI
+        if (this.validationLimiter != null)
+        {
+            sb.append(" validationLimiter=");
+            sb.append(validationLimiter);
+        }
+
         if (this.casServerName != null)
         {
             sb.append(" casServerName=[");
@@ -901,8 +1604,11 @@ public class CASFilter implements Filter
      */
     public void destroy()
     {
-        // TODO Auto-generated method stub
-
+        // CCCI
+        if (stats != null) stats.unregister();
+        if (logoutSweeper != null) logoutSweeper.shutdown();
+        if (logoutList != null) logoutList.close();
+        if (sessionIndex != null) sessionIndex.close();
     }
 }
 
@@ -32,9 +32,14 @@
 
 package edu.yale.its.tp.cas.client.filter;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletRequestWrapper;
@@ -51,6 +56,12 @@ import edu.yale.its.tp.cas.client.CASReceipt;
  * <code>getRemoteUser()</code> with a version that returns the current CAS
  * logged-in user.
  * </p>
+ * <p>
+ * The wrapper also exposes the user and the receipt's attributes as
+ * <code>CAS_*</code> headers. The header map is built from the receipt the
+ * first time a header is asked for, and kept for as long as the session, or
+ * the request, still holds the same receipt.
+ * </p>
  * 
  * @author Drew Mazurek
  */
@@ -59,14 +70,36 @@ public class CASFilterRequestWrapper extends HttpServletRequestWrapper
 
     private static Log log = LogFactory.getLog(CASFilterRequestWrapper.class);
 
+    private static final String CAS_HEADER_PREFIX = "CAS_";
+
+    private static final String CAS_USER_HEADER = "CAS_USER";
+
+    /** The header names exposed when there is no receipt to describe. */
+    private static final List<String> USER_HEADER_NAMES = Arrays.asList(CASFilter.CAS_FILTER_USER, CAS_USER_HEADER);
+
     // CCCI
     private String remoteUserAttrib;
+
+    /** The receipt casHeaders was built from. */
+    private CASReceipt receipt;
+
+    /**
+     * The CAS_* headers (and the CASFilter user header) derived from the
+     * receipt, in enumeration order; built on first use, and again if the
+     * receipt changes.
+     */
+    private Map<String, String> casHeaders;
+
+    /**
+     * The wrapper handed out by getSession(), reused for as long as the
+     * underlying session stays the same.
+     */
+    private CASFilterHttpSessionWrapper sessionWrapper;
     
     @Override
     public HttpSession getSession()
     {
-        // TODO Auto-generated method stub
-        return new CASFilterHttpSessionWrapper(super.getSession());
+        return wrap(super.getSession());
     }
     
     @Override
@@ -74,7 +107,23 @@ public class CASFilterRequestWrapper extends HttpServletRequestWrapper
     {
         HttpSession session = super.getSession(create);
         if(session==null) return null;
-        return new CASFilterHttpSessionWrapper(session);
+        return wrap(session);
+    }
+
+    /**
+     * Returns the session wrapper for the given session, building a new one
+     * only if the underlying session has changed (e.g. it was invalidated and
+     * replaced during the request).
+     */
+    private HttpSession wrap(HttpSession session)
+    {
+        CASFilterHttpSessionWrapper wrapper = sessionWrapper;
+        if (wrapper == null || wrapper.wrappedSession != session)
+        {
+            wrapper = new CASFilterHttpSessionWrapper(session);
+            sessionWrapper = wrapper;
+        }
+        return wrapper;
     }
 
     public CASFilterRequestWrapper(HttpServletRequest request, String remoteUserAttrib)
@@ -91,13 +140,13 @@ public class CASFilterRequestWrapper extends HttpServletRequestWrapper
     public String getHeader(String name)
     {
         if (name.equals(CASFilter.CAS_FILTER_USER)) return getRemoteUser();
-        if (name.equals("CAS_USER")) return getRemoteUser();
+        if (name.equals(CAS_USER_HEADER)) return getRemoteUser();
 
-        if (name.startsWith("CAS_"))
+        if (name.startsWith(CAS_HEADER_PREFIX))
         {
-            CASReceipt receipt = (CASReceipt) getSession().getAttribute(CASFilter.CAS_FILTER_RECEIPT);
-            if(receipt==null) return null;
-            return (String) receipt.getAttributes().get(name.substring(4));
+            Map<String, String> headers = getCasHeaders();
+            if (headers == null) return null;
+            return headers.get(name);
         }
 
         return super.getHeader(name);
@@ -106,45 +155,25 @@ public class CASFilterRequestWrapper extends HttpServletRequestWrapper
     @Override
     public Enumeration getHeaderNames()
     {
-        ArrayList a = new ArrayList();
-        Enumeration e = super.getHeaderNames();
-        while (e.hasMoreElements())
-        {
-            a.add(e.nextElement());
-        }
-        a.add(CASFilter.CAS_FILTER_USER);
-        a.add("CAS_USER");
-
-        CASReceipt receipt = (CASReceipt) getSession().getAttribute(CASFilter.CAS_FILTER_RECEIPT);
-        if(receipt!=null)
-        {
-            for (Object name : receipt.getAttributes().keySet())
-            {
-                a.add("CAS_" + name);
-            }
-        }
-        
-        return Collections.enumeration(a);
+        Map<String, String> headers = getCasHeaders();
+        Iterator<String> casNames = headers == null ? USER_HEADER_NAMES.iterator() : headers.keySet().iterator();
+        return new ConcatenatedEnumeration(super.getHeaderNames(), casNames);
     }
 
     @Override
     public Enumeration getHeaders(String name)
     {
-        if (name.equals(CASFilter.CAS_FILTER_USER) || name.equals("CAS_USER"))
+        if (name.equals(CASFilter.CAS_FILTER_USER) || name.equals(CAS_USER_HEADER))
         {
-            ArrayList a = new ArrayList();
-            a.add(getRemoteUser());
-            return Collections.enumeration(a);
+            return Collections.enumeration(Collections.singletonList(getRemoteUser()));
         }
 
-        if (name.startsWith("CAS_"))
+        if (name.startsWith(CAS_HEADER_PREFIX))
         {
-            CASReceipt receipt = (CASReceipt) getSession().getAttribute(CASFilter.CAS_FILTER_RECEIPT);
+            CASReceipt receipt = getReceipt();
             if(receipt!=null)
             {
-                ArrayList a = new ArrayList();
-                a.add(receipt.getAttributes().get(name.substring(4)));
-                return Collections.enumeration(a);
+                return Collections.enumeration(receipt.getAttributeValues(name.substring(CAS_HEADER_PREFIX.length())));
             }
         }
 
@@ -165,7 +194,7 @@ public class CASFilterRequestWrapper extends HttpServletRequestWrapper
         String user = null;
         if (remoteUserAttrib != null && remoteUserAttrib.trim().length() > 0)
         {
-            CASReceipt receipt = (CASReceipt) getSession().getAttribute(CASFilter.CAS_FILTER_RECEIPT);
+            CASReceipt receipt = getReceipt();
             if(receipt!=null)
             {
                 user = (String) receipt.getAttributes().get(remoteUserAttrib);
@@ -173,7 +202,17 @@ public class CASFilterRequestWrapper extends HttpServletRequestWrapper
         }
         else
         {
-            user = (String) getSession().getAttribute(CASFilter.CAS_FILTER_USER);
+            HttpSession session = super.getSession(false);
+            try
+            {
+                if (session != null) user = (String) session.getAttribute(CASFilter.CAS_FILTER_USER);
+            }
+            catch (IllegalStateException e)
+            {
+                // invalidated during the request
+            }
+            // CCCI sessionless CASValidateFilter
+            if (user == null) user = (String) getAttribute(CASFilter.CAS_FILTER_USER);
         }
         if (log.isTraceEnabled())
         {
@@ -181,4 +220,90 @@ public class CASFilterRequestWrapper extends HttpServletRequestWrapper
         }
         return user;
     }
+
+    /**
+     * Finds the receipt in the underlying session, or else in the request
+     * attributes, where a sessionless CASValidateFilter puts it. It is looked
+     * up every time, since the session may be replaced, invalidated or logged
+     * out during the request; the header map built from it is dropped when it
+     * changes.
+     */
+    private CASReceipt getReceipt()
+    {
+        CASReceipt current = null;
+        HttpSession session = super.getSession(false);
+        if (session != null)
+        {
+            try
+            {
+                current = (CASReceipt) session.getAttribute(CASFilter.CAS_FILTER_RECEIPT);
+            }
+            catch (IllegalStateException e)
+            {
+                // invalidated during the request
+            }
+        }
+        if (current == null) current = (CASReceipt) getAttribute(CASFilter.CAS_FILTER_RECEIPT);
+        if (current != receipt)
+        {
+            receipt = current;
+            casHeaders = null;
+        }
+        return current;
+    }
+
+    /**
+     * Builds, once per receipt, the map of CAS header names to values.
+     * 
+     * @return the header map, or null if there is no receipt.
+     */
+    private Map<String, String> getCasHeaders()
+    {
+        CASReceipt receipt = getReceipt();
+        if (receipt == null) return null;
+        if (casHeaders == null)
+        {
+
+            String user = getRemoteUser();
+            Map<String, String> headers = new LinkedHashMap<String, String>();
+            headers.put(CASFilter.CAS_FILTER_USER, user);
+            headers.put(CAS_USER_HEADER, user);
+            for (Object entry : receipt.getAttributes().entrySet())
+            {
+                Map.Entry attribute = (Map.Entry) entry;
+                String name = CAS_HEADER_PREFIX + attribute.getKey();
+                if (!headers.containsKey(name)) headers.put(name, (String) attribute.getValue());
+            }
+            casHeaders = headers;
+        }
+        return casHeaders;
+    }
+
+    /**
+     * Enumerates the container's header names and then the CAS header names,
+     * without copying either.
+     */
+    private static class ConcatenatedEnumeration implements Enumeration
+    {
+        private final Enumeration first;
+        private final Iterator<String> second;
+
+        ConcatenatedEnumeration(Enumeration first, Iterator<String> second)
+        {
+            this.first = first;
+            this.second = second;
+        }
+
+        public boolean hasMoreElements()
+        {
+            return (first != null && first.hasMoreElements()) || second.hasNext();
+        }
+
+        public Object nextElement()
+        {
+            if (first != null && first.hasMoreElements()) return first.nextElement();
+            if (second.hasNext()) return second.next();
+            throw new NoSuchElementException();
+        }
+    }
 }
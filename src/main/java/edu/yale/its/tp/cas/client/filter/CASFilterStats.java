@@ -0,0 +1,516 @@
+package edu.yale.its.tp.cas.client.filter;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.servlet.FilterConfig;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import edu.yale.its.tp.cas.metrics.Counter;
+import edu.yale.its.tp.cas.metrics.Histogram;
+import edu.yale.its.tp.cas.metrics.Metrics;
+import edu.yale.its.tp.cas.proxy.ProxyTicketReceptor;
+import edu.yale.its.tp.cas.util.LatencyHistogram;
+import edu.yale.its.tp.cas.util.SecureURL;
+
+/**
+ * Request outcome counters and validation latency for one filter instance,
+ * registered as an MBean in the platform MBean server under
+ * <code>edu.yale.its.tp.cas.client:type=&lt;filter class&gt;,context=&lt;context path&gt;,name=&lt;filter name&gt;</code>.
+ * <p>
+ * Every event is also passed to the {@link Metrics} instruments named
+ * <code>cas.&lt;filter class&gt;.&lt;event&gt;</code>, which are shared by all
+ * instances of a filter class.
+ * <p>
+ * Recording is lock-free, so the filters record unconditionally.
+ */
+public class CASFilterStats implements CASFilterStatsMBean
+{
+
+    private static Log log = LogFactory.getLog(CASFilterStats.class);
+
+    public static final String JMX_DOMAIN = "edu.yale.its.tp.cas.client";
+
+    private final AtomicLong excludedRequests = new AtomicLong();
+    private final AtomicLong passThroughRequests = new AtomicLong();
+    private final AtomicLong redirectsToCas = new AtomicLong();
+    private final AtomicLong validatedTickets = new AtomicLong();
+    private final AtomicLong invalidTickets = new AtomicLong();
+    private final AtomicLong blockedReplays = new AtomicLong();
+    private final AtomicLong receiptCacheHits = new AtomicLong();
+    private final AtomicLong receiptCacheMisses = new AtomicLong();
+    private final AtomicLong redirectsAvoided = new AtomicLong();
+    private final AtomicLong validationFailures = new AtomicLong();
+    private final AtomicLong logoutRequests = new AtomicLong();
+    private final AtomicLong logoutsApplied = new AtomicLong();
+    private final AtomicLong validationsShed = new AtomicLong();
+    private final AtomicInteger inFlightValidations = new AtomicInteger();
+
+    private final LatencyHistogram validationLatency = new LatencyHistogram();
+    private final LatencyHistogram logoutLookupLatency = new LatencyHistogram();
+    private final LatencyHistogram redirectRoundTripLatency = new LatencyHistogram();
+
+    private final String filterType;
+    private final LogoutStorage logoutStorage;
+    private volatile ValidationLimiter validationLimiter;
+    private volatile String validateUrl;
+
+    private final Counter excludedCounter;
+    private final Counter passThroughCounter;
+    private final Counter redirectToCasCounter;
+    private final Counter validatedCounter;
+    private final Counter invalidTicketCounter;
+    private final Counter blockedReplayCounter;
+    private final Counter receiptCacheHitCounter;
+    private final Counter receiptCacheMissCounter;
+    private final Counter redirectAvoidedCounter;
+    private final Counter validationFailureCounter;
+    private final Counter logoutRequestCounter;
+    private final Counter logoutAppliedCounter;
+    private final Counter validationShedCounter;
+    private final Histogram validationHistogram;
+    private final Histogram logoutLookupHistogram;
+    private final Histogram redirectRoundTripHistogram;
+
+    private ObjectName objectName;
+
+    /**
+     * @param filterType
+     *            - the simple class name of the filter
+     * @param logoutStorage
+     *            - the filter's logout storage, whose size is reported; may
+     *            be null
+     */
+    public CASFilterStats(String filterType, LogoutStorage logoutStorage)
+    {
+        this.filterType = filterType;
+        this.logoutStorage = logoutStorage;
+        String prefix = "cas." + filterType + ".";
+        excludedCounter = Metrics.counter(prefix + "excluded");
+        passThroughCounter = Metrics.counter(prefix + "passThrough");
+        redirectToCasCounter = Metrics.counter(prefix + "redirectToCas");
+        validatedCounter = Metrics.counter(prefix + "validated");
+        invalidTicketCounter = Metrics.counter(prefix + "invalidTicket");
+        blockedReplayCounter = Metrics.counter(prefix + "blockedReplay");
+        receiptCacheHitCounter = Metrics.counter(prefix + "receiptCacheHit");
+        receiptCacheMissCounter = Metrics.counter(prefix + "receiptCacheMiss");
+        redirectAvoidedCounter = Metrics.counter(prefix + "redirectAvoided");
+        validationFailureCounter = Metrics.counter(prefix + "validationFailure");
+        logoutRequestCounter = Metrics.counter(prefix + "logoutRequest");
+        logoutAppliedCounter = Metrics.counter(prefix + "logoutApplied");
+        validationShedCounter = Metrics.counter(prefix + "validationShed");
+        validationHistogram = Metrics.histogram(prefix + "validation");
+        logoutLookupHistogram = Metrics.histogram(prefix + "logoutLookup");
+        redirectRoundTripHistogram = Metrics.histogram(prefix + "redirectRoundTrip");
+    }
+
+    // *********************************************************************
+    // Recording
+
+    public void recordExcluded()
+    {
+        excludedRequests.incrementAndGet();
+        excludedCounter.increment();
+    }
+
+    public void recordPassThrough()
+    {
+        passThroughRequests.incrementAndGet();
+        passThroughCounter.increment();
+    }
+
+    public void recordRedirectToCas()
+    {
+        redirectsToCas.incrementAndGet();
+        redirectToCasCounter.increment();
+    }
+
+    public void recordInvalidTicket()
+    {
+        invalidTickets.incrementAndGet();
+        invalidTicketCounter.increment();
+    }
+
+    public void recordBlockedReplay()
+    {
+        blockedReplays.incrementAndGet();
+        blockedReplayCounter.increment();
+    }
+
+    public void recordReceiptCacheHit()
+    {
+        receiptCacheHits.incrementAndGet();
+        receiptCacheHitCounter.increment();
+    }
+
+    public void recordReceiptCacheMiss()
+    {
+        receiptCacheMisses.incrementAndGet();
+        receiptCacheMissCounter.increment();
+    }
+
+    public void recordRedirectAvoided()
+    {
+        redirectsAvoided.incrementAndGet();
+        redirectAvoidedCounter.increment();
+    }
+
+    /**
+     * @param elapsedMillis
+     *            - from sending the redirect after validation to receiving
+     *            the request it asked for, by wall clock since the two may be
+     *            handled by different cluster members
+     */
+    public void recordRedirectRoundTrip(long elapsedMillis)
+    {
+        if (elapsedMillis < 0) return;
+        long elapsed = TimeUnit.MILLISECONDS.toNanos(elapsedMillis);
+        redirectRoundTripLatency.record(elapsed);
+        redirectRoundTripHistogram.record(elapsed);
+    }
+
+    public void recordValidationFailure()
+    {
+        validationFailures.incrementAndGet();
+        validationFailureCounter.increment();
+    }
+
+    public void recordLogoutRequest()
+    {
+        logoutRequests.incrementAndGet();
+        logoutRequestCounter.increment();
+    }
+
+    public void recordLogoutApplied()
+    {
+        logoutsApplied.incrementAndGet();
+        logoutAppliedCounter.increment();
+    }
+
+    public void recordValidationShed()
+    {
+        validationsShed.incrementAndGet();
+        validationShedCounter.increment();
+    }
+
+    /**
+     * @param validationLimiter
+     *            - the filter's validation limiter, whose concurrency limit is
+     *            reported; may be null
+     */
+    public void setValidationLimiter(ValidationLimiter validationLimiter)
+    {
+        this.validationLimiter = validationLimiter;
+    }
+
+    /**
+     * @param validateUrl
+     *            - the URL tickets are validated at, whose timeouts are
+     *            reported
+     */
+    public void setValidateUrl(String validateUrl)
+    {
+        this.validateUrl = validateUrl;
+    }
+
+    /**
+     * Call before asking CAS to validate a ticket, and pass the result to
+     * {@link #validationFinished(long, boolean)} afterwards, whatever the
+     * outcome.
+     *
+     * @return the start time, from {@link System#nanoTime()}
+     */
+    public long validationStarted()
+    {
+        inFlightValidations.incrementAndGet();
+        return System.nanoTime();
+    }
+
+    /**
+     * @param startNanos
+     *            - the value returned by {@link #validationStarted()}
+     * @param validated
+     *            - whether the ticket was validated; failures are counted by
+     *            the caller, which knows why
+     */
+    public void validationFinished(long startNanos, boolean validated)
+    {
+        long elapsed = System.nanoTime() - startNanos;
+        validationLatency.record(elapsed);
+        validationHistogram.record(elapsed);
+        inFlightValidations.decrementAndGet();
+        if (validated)
+        {
+            validatedTickets.incrementAndGet();
+            validatedCounter.increment();
+        }
+    }
+
+    public void recordLogoutLookup(long startNanos)
+    {
+        long elapsed = System.nanoTime() - startNanos;
+        logoutLookupLatency.record(elapsed);
+        logoutLookupHistogram.record(elapsed);
+    }
+
+    // *********************************************************************
+    // MBean attributes
+
+    public long getExcludedRequests()
+    {
+        return excludedRequests.get();
+    }
+
+    public long getPassThroughRequests()
+    {
+        return passThroughRequests.get();
+    }
+
+    public long getRedirectsToCas()
+    {
+        return redirectsToCas.get();
+    }
+
+    public long getValidatedTickets()
+    {
+        return validatedTickets.get();
+    }
+
+    public long getInvalidTickets()
+    {
+        return invalidTickets.get();
+    }
+
+    public long getBlockedReplays()
+    {
+        return blockedReplays.get();
+    }
+
+    public long getReceiptCacheHits()
+    {
+        return receiptCacheHits.get();
+    }
+
+    public long getReceiptCacheMisses()
+    {
+        return receiptCacheMisses.get();
+    }
+
+    public double getReceiptCacheHitRatio()
+    {
+        long hits = receiptCacheHits.get();
+        long total = hits + receiptCacheMisses.get();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    public long getRedirectsAvoided()
+    {
+        return redirectsAvoided.get();
+    }
+
+    public long getRedirectRoundTripCount()
+    {
+        return redirectRoundTripLatency.getCount();
+    }
+
+    public double getRedirectRoundTripMeanMillis()
+    {
+        return redirectRoundTripLatency.getMean(TimeUnit.MILLISECONDS);
+    }
+
+    public double getRedirectRoundTrip95thPercentileMillis()
+    {
+        return redirectRoundTripLatency.getPercentile(95, TimeUnit.MILLISECONDS);
+    }
+
+    public long getValidationFailures()
+    {
+        return validationFailures.get();
+    }
+
+    public long getLogoutRequests()
+    {
+        return logoutRequests.get();
+    }
+
+    public long getLogoutsApplied()
+    {
+        return logoutsApplied.get();
+    }
+
+    public int getInFlightValidations()
+    {
+        return inFlightValidations.get();
+    }
+
+    public long getValidationsShed()
+    {
+        return validationsShed.get();
+    }
+
+    public int getValidationConcurrencyLimit()
+    {
+        ValidationLimiter limiter = validationLimiter;
+        if (limiter == null) return 0;
+        return limiter.getConcurrencyLimit();
+    }
+
+    public long getValidationConnectTimeoutMillis()
+    {
+        String url = validateUrl;
+        if (url == null) return -1;
+        try
+        {
+            return SecureURL.getConnectTimeoutMillis(url);
+        }
+        catch (IOException e)
+        {
+            return -1;
+        }
+    }
+
+    public long getValidationReadTimeoutMillis()
+    {
+        String url = validateUrl;
+        if (url == null) return -1;
+        try
+        {
+            return SecureURL.getReadTimeoutMillis(url);
+        }
+        catch (IOException e)
+        {
+            return -1;
+        }
+    }
+
+    public long getValidationCount()
+    {
+        return validationLatency.getCount();
+    }
+
+    public double getValidationMeanMillis()
+    {
+        return validationLatency.getMean(TimeUnit.MILLISECONDS);
+    }
+
+    public double getValidation50thPercentileMillis()
+    {
+        return validationLatency.getPercentile(50, TimeUnit.MILLISECONDS);
+    }
+
+    public double getValidation95thPercentileMillis()
+    {
+        return validationLatency.getPercentile(95, TimeUnit.MILLISECONDS);
+    }
+
+    public double getValidation99thPercentileMillis()
+    {
+        return validationLatency.getPercentile(99, TimeUnit.MILLISECONDS);
+    }
+
+    public double getValidationMaxMillis()
+    {
+        return validationLatency.getMax(TimeUnit.MILLISECONDS);
+    }
+
+    public int getLogoutStorageSize()
+    {
+        if (logoutStorage == null) return -1;
+        return logoutStorage.size();
+    }
+
+    public double getLogoutLookupMeanMicros()
+    {
+        return logoutLookupLatency.getMean(TimeUnit.MICROSECONDS);
+    }
+
+    public double getLogoutLookup99thPercentileMicros()
+    {
+        return logoutLookupLatency.getPercentile(99, TimeUnit.MICROSECONDS);
+    }
+
+    public int getProxyGrantingTicketCount()
+    {
+        return ProxyTicketReceptor.getProxyGrantingTicketCount();
+    }
+
+    public void resetStatistics()
+    {
+        excludedRequests.set(0);
+        passThroughRequests.set(0);
+        redirectsToCas.set(0);
+        validatedTickets.set(0);
+        invalidTickets.set(0);
+        blockedReplays.set(0);
+        receiptCacheHits.set(0);
+        receiptCacheMisses.set(0);
+        redirectsAvoided.set(0);
+        validationFailures.set(0);
+        logoutRequests.set(0);
+        logoutsApplied.set(0);
+        validationsShed.set(0);
+        validationLatency.reset();
+        logoutLookupLatency.reset();
+        redirectRoundTripLatency.reset();
+    }
+
+    // *********************************************************************
+    // Registration
+
+    /**
+     * Registers these statistics with the platform MBean server. Failure is
+     * logged rather than thrown: statistics are not worth failing the filter
+     * for.
+     */
+    public void register(FilterConfig config)
+    {
+        String contextPath = config.getServletContext() == null ? null : config.getServletContext().getContextPath();
+        if (contextPath == null || contextPath.length() == 0) contextPath = "/";
+        try
+        {
+            ObjectName name = new ObjectName(JMX_DOMAIN + ":type=" + filterType + ",context="
+                    + ObjectName.quote(contextPath) + ",name=" + ObjectName.quote(String.valueOf(config.getFilterName())));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+            objectName = name;
+            log.debug("registered " + name);
+        }
+        catch (InstanceAlreadyExistsException e)
+        {
+            log.warn("Not registering " + filterType + " statistics with JMX: " + e.getMessage()
+                    + " is already registered");
+        }
+        catch (JMException e)
+        {
+            log.warn("Unable to register " + filterType + " statistics with JMX", e);
+        }
+    }
+
+    public void unregister()
+    {
+        if (objectName == null) return;
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try
+        {
+            server.unregisterMBean(objectName);
+        }
+        catch (JMException e)
+        {
+            log.warn("Unable to unregister " + objectName, e);
+        }
+        objectName = null;
+    }
+
+    public ObjectName getObjectName()
+    {
+        return objectName;
+    }
+}
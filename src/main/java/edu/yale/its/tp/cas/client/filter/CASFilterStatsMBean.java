@@ -0,0 +1,123 @@
+package edu.yale.its.tp.cas.client.filter;
+
+/**
+ * JMX view of a {@link CASFilterStats}: what one CASFilter or
+ * CASValidateFilter instance has done since it started (or since the last
+ * {@link #resetStatistics()}).
+ */
+public interface CASFilterStatsMBean
+{
+
+    /** Requests passed through because they matched an excluded URL pattern */
+    long getExcludedRequests();
+
+    /**
+     * Requests passed through without validation: already authenticated,
+     * proxy callbacks, gatewayed, or (CASValidateFilter) carrying no ticket
+     */
+    long getPassThroughRequests();
+
+    /** Browsers redirected to CAS login */
+    long getRedirectsToCas();
+
+    /** Tickets validated successfully */
+    long getValidatedTickets();
+
+    /** Tickets CAS reported as INVALID_TICKET */
+    long getInvalidTickets();
+
+    /**
+     * Tickets sent back to login without validation because CAS had already
+     * rejected them
+     */
+    long getBlockedReplays();
+
+    /**
+     * Requests whose ticket's receipt was found in the receipt cache
+     * (CASValidateFilter in sessionless mode)
+     */
+    long getReceiptCacheHits();
+
+    /** Requests whose ticket had to be validated despite the receipt cache */
+    long getReceiptCacheMisses();
+
+    /** Hits over hits and misses, or 0 before any lookup */
+    double getReceiptCacheHitRatio();
+
+    /**
+     * Validations followed directly by the rest of the chain rather than by a
+     * redirect to drop the ticket (CASFilter with redirectAfterValidation
+     * false); each saves a browser round trip
+     */
+    long getRedirectsAvoided();
+
+    /**
+     * Redirects after validation whose follow-up request has arrived; the
+     * round trip times below are what redirectAfterValidation=false saves
+     */
+    long getRedirectRoundTripCount();
+
+    double getRedirectRoundTripMeanMillis();
+
+    double getRedirectRoundTrip95thPercentileMillis();
+
+    /** Validations that failed for any other reason, e.g. CAS unreachable */
+    long getValidationFailures();
+
+    /** Logout requests received from CAS and queued */
+    long getLogoutRequests();
+
+    /** Sessions cleared because their ticket was queued for logout */
+    long getLogoutsApplied();
+
+    /** Validations currently waiting on CAS */
+    int getInFlightValidations();
+
+    /**
+     * Validations refused, with a 503 by default, because a rate or
+     * concurrency limit was reached
+     */
+    long getValidationsShed();
+
+    /**
+     * Validations currently allowed in flight at once, adapted to CAS's
+     * latency; 0 if unlimited
+     */
+    int getValidationConcurrencyLimit();
+
+    /**
+     * The connect timeout of validation, derived from CAS's recent latency;
+     * -1 if unknown
+     */
+    long getValidationConnectTimeoutMillis();
+
+    /**
+     * The read timeout of validation, derived from CAS's recent latency; -1
+     * if unknown
+     */
+    long getValidationReadTimeoutMillis();
+
+    long getValidationCount();
+
+    double getValidationMeanMillis();
+
+    double getValidation50thPercentileMillis();
+
+    double getValidation95thPercentileMillis();
+
+    double getValidation99thPercentileMillis();
+
+    double getValidationMaxMillis();
+
+    /** Tickets held by the logout storage, or -1 if unknown */
+    int getLogoutStorageSize();
+
+    double getLogoutLookupMeanMicros();
+
+    double getLogoutLookup99thPercentileMicros();
+
+    /** Proxy granting tickets held by the ProxyTicketReceptor */
+    int getProxyGrantingTicketCount();
+
+    void resetStatistics();
+}
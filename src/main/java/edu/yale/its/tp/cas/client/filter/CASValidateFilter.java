@@ -5,9 +5,9 @@
 package edu.yale.its.tp.cas.client.filter;
 
 import java.io.IOException;
-import java.net.URLEncoder;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
@@ -25,7 +25,9 @@ import org.apache.commons.logging.LogFactory;
 import edu.yale.its.tp.cas.client.CASAuthenticationException;
 import edu.yale.its.tp.cas.client.CASReceipt;
 import edu.yale.its.tp.cas.client.ProxyTicketValidator;
-import edu.yale.its.tp.cas.client.Util;
+import edu.yale.its.tp.cas.client.ServiceUrlBuilder;
+import edu.yale.its.tp.cas.client.ValidationEvent;
+import edu.yale.its.tp.cas.client.ValidationListeners;
 
 /**
  * <p>
@@ -71,6 +73,9 @@ import edu.yale.its.tp.cas.client.Util;
  * <code>request.getRemoteUser()</code> will return the username of the
  * currently logged-in CAS user. (Optional. If nothing is specified, this
  * defaults to false.)</li>
+ * <li><code>edu.yale.its.tp.cas.client.filter.sessionless</code>: when "true",
+ * keep no session; cache receipts by ticket and service instead and expose
+ * them as request attributes. (Optional. Defaults to false.)</li>
  * </ul>
  * 
  * <p>
@@ -105,6 +110,9 @@ public class CASValidateFilter implements Filter
 
     private static Log log = LogFactory.getLog(CASValidateFilter.class);
 
+    /** CCCI source of this filter's ValidationEvents */
+    private static final String EVENT_SOURCE = "CASValidateFilter";
+
     // Filter initialization parameters
 
     /**
@@ -152,6 +160,28 @@ public class CASValidateFilter implements Filter
      */
     public final static String WRAP_REQUESTS_INIT_PARAM = "edu.yale.its.tp.cas.client.filter.wrapRequest";
 
+    /**
+     * CCCI The name of the filter initialization parameter that, if "true",
+     * makes the filter keep no session: the receipt of each ticket is cached
+     * by ticket and service, and exposed to the rest of the chain as the
+     * request attributes CAS_FILTER_USER and CAS_FILTER_RECEIPT. For API
+     * clients that send a proxy ticket with every request and no cookies.
+     */
+    public final static String SESSIONLESS_INIT_PARAM = "edu.yale.its.tp.cas.client.filter.sessionless";
+
+    /**
+     * CCCI The name of the filter initialization parameter the value of which
+     * is the number of receipts cached in sessionless mode. Defaults to 10000.
+     */
+    public final static String RECEIPT_CACHE_SIZE_INIT_PARAM = "edu.yale.its.tp.cas.client.filter.receiptCacheSize";
+
+    /**
+     * CCCI The name of the filter initialization parameter the value of which
+     * is how many seconds a receipt is cached in sessionless mode. Defaults
+     * to 300.
+     */
+    public final static String RECEIPT_CACHE_TTL_INIT_PARAM = "edu.yale.its.tp.cas.client.filter.receiptCacheTtl";
+
     // Session attributes used by this filter
 
     /**
@@ -180,6 +210,13 @@ public class CASValidateFilter implements Filter
      * parameter to login and validate.
      */
     private String casServerName;
+    /**
+     * Assembles the service URL from casServerName and the request; built at
+     * init.
+     */
+    private ServiceUrlBuilder serviceUrlBuilder;
+    /** casServiceUrl, URL-encoded once at init */
+    private String encodedCasServiceUrl;
 
     /**
      * Secure URL whereto this filter should ask CAS to send Proxy Granting
@@ -199,13 +236,17 @@ public class CASValidateFilter implements Filter
     /** CCCI */
     private String remoteUserAttrib = null;
 
+    /** CCCI Receipts by ticket and service; only in sessionless mode */
+    private ReceiptCache receiptCache;
+
     /**
      * CCCI
      * 
-     * List of tickets that are pending logout. The next time the user appears,
-     * they will be logged out.
+     * Tickets that are pending logout. The next time the user appears, they
+     * will be logged out. The same storage CASFilter uses, so clustered if
+     * Infinispan is configured.
      */
-    private static List logoutList = new ArrayList();
+    private LogoutStorage logoutList;
 
     /**
      * CCCI List of ProxyTicketReceptor URLs of services authorized to proxy to
@@ -213,11 +254,18 @@ public class CASValidateFilter implements Filter
      */
     private List authorizedProxies = new ArrayList();
 
+    /** CCCI */
+    private CASFilterStats stats;
+
     // *********************************************************************
     // Initialization
 
     public void init(FilterConfig config) throws ServletException
     {
+        // CCCI
+        logoutList = LogoutStorageLocator.locate(config);
+        stats = new CASFilterStats("CASValidateFilter", logoutList);
+
         casValidate = config.getInitParameter(VALIDATE_INIT_PARAM);
         casServiceUrl = config.getInitParameter(SERVICE_INIT_PARAM);
         casRenew = Boolean.valueOf(config.getInitParameter(RENEW_INIT_PARAM));
@@ -225,6 +273,12 @@ public class CASValidateFilter implements Filter
         casProxyCallbackUrl = config.getInitParameter(PROXY_CALLBACK_INIT_PARAM);
         wrapRequest = Boolean.valueOf(config.getInitParameter(WRAP_REQUESTS_INIT_PARAM));
         remoteUserAttrib = config.getInitParameter(CASFilter.REMOTE_USER_ATTRIB_INIT_PARAM);
+        if (Boolean.valueOf(config.getInitParameter(SESSIONLESS_INIT_PARAM)))
+        {
+            receiptCache = new ReceiptCache(CASFilter.getLongParameter(config, RECEIPT_CACHE_SIZE_INIT_PARAM,
+                ReceiptCache.DEFAULT_MAXIMUM_SIZE), CASFilter.getLongParameter(config, RECEIPT_CACHE_TTL_INIT_PARAM,
+                ReceiptCache.DEFAULT_TTL_SECONDS), TimeUnit.SECONDS);
+        }
 
         if (casServerName != null && casServiceUrl != null) { throw new ServletException(
             "serverName and serviceUrl cannot both be set: choose one."); }
@@ -241,7 +295,9 @@ public class CASValidateFilter implements Filter
             // "service URL must start with http:// or https://; its current value is ["
             // + casServiceUrl + "]");
             // }
+            encodedCasServiceUrl = ServiceUrlBuilder.encode(casServiceUrl);
         }
+        serviceUrlBuilder = new ServiceUrlBuilder(casServerName);
 
         if (casValidate == null) { throw new ServletException("validateUrl parameter must be set."); }
         // if (!casValidate.startsWith("https://")) {
@@ -250,6 +306,15 @@ public class CASValidateFilter implements Filter
         // + casValidate + "]");
         // }
 
+        // CCCI
+        CASFilter.configureTimeouts(config);
+        stats.setValidateUrl(casValidate);
+
+        if (!"false".equals(config.getInitParameter(CASFilter.JMX_INIT_PARAM)))
+        {
+            stats.register(config);
+        }
+
         if (log.isDebugEnabled())
         {
             log.debug(("CASValidateFilter initialized as: [" + toString() + "]"));
@@ -281,6 +346,7 @@ public class CASValidateFilter implements Filter
                 && request.getParameter("pgtId") != null && request.getParameter("pgtIou") != null)
         {
             log.trace("passing through what we hope is CAS's request for proxy ticket receptor.");
+            stats.recordPassThrough();
             fc.doFilter(request, response);
             return;
         }
@@ -291,6 +357,7 @@ public class CASValidateFilter implements Filter
         {
             log.trace("processing logout request.");
             queueForLogout(request, response);
+            stats.recordLogoutRequest();
             return;
         }
 
@@ -301,6 +368,15 @@ public class CASValidateFilter implements Filter
             request = new CASFilterRequestWrapper((HttpServletRequest) request, remoteUserAttrib);
         }
 
+        // CCCI
+        // API clients send a ticket with every request and keep no cookies,
+        // so a session would be thrown away after one request
+        if (receiptCache != null)
+        {
+            doFilterSessionless((HttpServletRequest) request, response, fc);
+            return;
+        }
+
         HttpSession session = ((HttpServletRequest) request).getSession();
 
         // if our attribute's already present and valid, pass through the filter
@@ -313,6 +389,9 @@ public class CASValidateFilter implements Filter
         if (receipt != null && isReceiptQueuedForLogout(receipt))
         {
             handleActualLogout(request, response);
+            stats.recordLogoutApplied();
+            ValidationListeners.fire(ValidationEvent.Type.LOGOUT_APPLIED, EVENT_SOURCE, null, receipt.getServiceTicket(),
+                receipt.getUserName());
             receipt = null;
         }
 
@@ -340,6 +419,7 @@ public class CASValidateFilter implements Filter
             {
                 session.removeAttribute(CASFilter.CAS_FILTER_RECEIPT_IS_FRESH);
             }
+            stats.recordPassThrough();
             fc.doFilter(request, response);
             return;
         }
@@ -348,19 +428,15 @@ public class CASValidateFilter implements Filter
         if (ticket == null || ticket.equals(""))
         {
             log.trace("CAS ticket was not present on request.");
+            stats.recordPassThrough();
             fc.doFilter(request, response);
             return;
         }
 
-        try
-        {
-            receipt = getAuthenticatedUser((HttpServletRequest) request);
-        }
-        catch (CASAuthenticationException e)
-        {
-            log.error(e);
-            throw new ServletException(e);
-        }
+        // CCCI - one correlation id for all the events of this validation
+        String correlationId = ValidationListeners.isActive() ? ValidationEvent.newCorrelationId() : null;
+        ValidationListeners.fire(ValidationEvent.Type.TICKET_RECEIVED, EVENT_SOURCE, correlationId, ticket, null);
+        receipt = validate((HttpServletRequest) request, ticket, correlationId);
 
         // Store the authenticated user in the session
         if (session != null)
@@ -370,6 +446,8 @@ public class CASValidateFilter implements Filter
             // CCCI
             session.setAttribute(CASFilter.CAS_FILTER_RECEIPT_IS_FRESH, Boolean.TRUE);
             session.setAttribute(CASFilter.CAS_FILTER_RECEIPT_IS_FRESH_BEFORE_REDIRECT, Boolean.TRUE);
+            ValidationListeners.fire(ValidationEvent.Type.RECEIPT_STORED, EVENT_SOURCE, correlationId, ticket,
+                receipt.getUserName());
         }
         if (log.isTraceEnabled())
         {
@@ -383,21 +461,90 @@ public class CASValidateFilter implements Filter
         // fc.doFilter(request, response);
         // log.trace("returning from doFilter()");
 
-        String redirectUrl = Util.getService((HttpServletRequest) request, casServerName, false);
-        // remove "ticket" parameter - mid-string
-        redirectUrl = redirectUrl.replaceAll("ticket=[^&]*&", "");
-        // remove "ticket" parameter - end-string
-        redirectUrl = redirectUrl.replaceAll("ticket=[^&]*$", "");
-        redirectUrl = redirectUrl.replaceAll("&$", "");
-        redirectUrl = redirectUrl.replaceAll("\\?$", "");
+        // the service URL, minus the "ticket" parameter
+        String redirectUrl = serviceUrlBuilder.getService((HttpServletRequest) request);
 //        System.out.println("AUTH: Redirecting to self to clean ticket:" + redirectUrl);
         ((HttpServletResponse) response).sendRedirect(redirectUrl);
+        ValidationListeners.fire(ValidationEvent.Type.REDIRECT_ISSUED, EVENT_SOURCE, correlationId, ticket, redirectUrl);
+
+    }
+
+    /**
+     * CCCI Validates the request's ticket, or takes its receipt from the
+     * receipt cache, and passes the request along the chain with the receipt
+     * in request attributes. Never creates a session.
+     */
+    private void doFilterSessionless(HttpServletRequest request, ServletResponse response, FilterChain fc)
+            throws ServletException, IOException
+    {
+        String ticket = request.getParameter("ticket");
+        if (ticket == null || ticket.equals(""))
+        {
+            log.trace("CAS ticket was not present on request.");
+            stats.recordPassThrough();
+            fc.doFilter(request, response);
+            return;
+        }
+
+        String service = getService(request);
+        CASReceipt receipt = receiptCache.get(ticket, service);
+        if (receipt != null && isReceiptQueuedForLogout(receipt))
+        {
+            receiptCache.remove(ticket, service);
+            stats.recordLogoutApplied();
+            ValidationListeners.fire(ValidationEvent.Type.LOGOUT_APPLIED, EVENT_SOURCE, null, ticket,
+                receipt.getUserName());
+            receipt = null;
+        }
 
+        if (receipt != null)
+        {
+            log.trace("receipt for ticket was cached - passing request through filter.");
+            stats.recordReceiptCacheHit();
+        }
+        else
+        {
+            stats.recordReceiptCacheMiss();
+            String correlationId = ValidationListeners.isActive() ? ValidationEvent.newCorrelationId() : null;
+            ValidationListeners.fire(ValidationEvent.Type.TICKET_RECEIVED, EVENT_SOURCE, correlationId, ticket, null);
+            receipt = validate(request, ticket, correlationId);
+            receiptCache.put(ticket, service, receipt);
+        }
+
+        request.setAttribute(CAS_FILTER_USER, receipt.getUserName());
+        request.setAttribute(CAS_FILTER_RECEIPT, receipt);
+        fc.doFilter(request, response);
     }
 
     // *********************************************************************
     // Utility methods
 
+    /**
+     * CCCI Validates the request's ticket, counting and reporting a failure.
+     * 
+     * @throws ServletException
+     *             - when validation fails
+     */
+    private CASReceipt validate(HttpServletRequest request, String ticket, String correlationId)
+            throws ServletException
+    {
+        try
+        {
+            return getAuthenticatedUser(request, correlationId);
+        }
+        catch (CASAuthenticationException e)
+        {
+            ValidationListeners.fire(ValidationEvent.Type.VALIDATION_FAILED, EVENT_SOURCE, correlationId, ticket,
+                e.getMessage());
+            if (e.getMessage() != null && e.getMessage().contains("INVALID_TICKET"))
+                stats.recordInvalidTicket();
+            else
+                stats.recordValidationFailure();
+            log.error(e);
+            throw new ServletException(e);
+        }
+    }
+
     /**
      * CCCI
      * 
@@ -426,7 +573,10 @@ public class CASValidateFilter implements Filter
     private boolean isReceiptQueuedForLogout(CASReceipt receipt)
     {
         String ticket = receipt.getServiceTicket();
-        return logoutList.contains(ticket);
+        long lookupStart = System.nanoTime();
+        boolean queued = logoutList.contains(ticket);
+        stats.recordLogoutLookup(lookupStart);
+        return queued;
     }
 
     /**
@@ -440,6 +590,13 @@ public class CASValidateFilter implements Filter
         String ticket = request.getParameter("ticket");
         ticket = ticket.substring(1); // remove the leading "-"
         logoutList.add(ticket);
+        ValidationListeners.fire(ValidationEvent.Type.LOGOUT_QUEUED, EVENT_SOURCE, null, ticket, null);
+    }
+
+    /** CCCI for tests */
+    CASFilterStats getStats()
+    {
+        return stats;
     }
 
     /**
@@ -453,7 +610,7 @@ public class CASValidateFilter implements Filter
      * @throws CASAuthenticationException
      *             - on authentication failure
      */
-    private CASReceipt getAuthenticatedUser(HttpServletRequest request) throws ServletException,
+    private CASReceipt getAuthenticatedUser(HttpServletRequest request, String correlationId) throws ServletException,
             CASAuthenticationException
     {
         log.trace("entering getAuthenticatedUser()");
@@ -464,6 +621,7 @@ public class CASValidateFilter implements Filter
         pv.setServiceTicket(request.getParameter("ticket"));
         pv.setService(getService(request));
         pv.setRenew(casRenew);
+        pv.setCorrelationId(correlationId);
         if (casProxyCallbackUrl != null)
         {
             pv.setProxyCallbackUrl(casProxyCallbackUrl);
@@ -473,7 +631,20 @@ public class CASValidateFilter implements Filter
             log.debug("about to validate ProxyTicketValidator: [" + pv + "]");
         }
 
-        return CASReceipt.getReceipt(pv);
+        ValidationListeners.fire(ValidationEvent.Type.VALIDATION_STARTED, EVENT_SOURCE, correlationId, pv.getSt(),
+            casValidate);
+        long validationStart = stats.validationStarted();
+        boolean validated = false;
+        try
+        {
+            CASReceipt receipt = CASReceipt.getReceipt(pv);
+            validated = true;
+            return receipt;
+        }
+        finally
+        {
+            stats.validationFinished(validationStart, validated);
+        }
 
     }
 
@@ -516,11 +687,11 @@ public class CASValidateFilter implements Filter
         // + "edu.yale.its.tp.cas.client.filter.serverName");
 
         // use the given string if it's provided
-        if (casServiceUrl != null)
-            serviceString = URLEncoder.encode(casServiceUrl);
+        if (encodedCasServiceUrl != null)
+            serviceString = encodedCasServiceUrl;
         else
             // otherwise, return our best guess at the service
-            serviceString = Util.getService(request, casServerName);
+            serviceString = serviceUrlBuilder.getEncodedService(request);
         if (log.isTraceEnabled())
         {
             log.trace("returning from getService() with service [" + serviceString + "]");
@@ -536,6 +707,11 @@ public class CASValidateFilter implements Filter
         sb.append(" wrapRequest=");
         sb.append(this.wrapRequest);
 
+        if (this.receiptCache != null)
+        {
+            sb.append(" sessionless=true");
+        }
+
         sb.append(" casProxyCallbackUrl=[");
         sb.append(casProxyCallbackUrl);
         sb.append("]");
@@ -567,6 +743,9 @@ public class CASValidateFilter implements Filter
      */
     public void destroy()
     {
+        // CCCI
+        if (stats != null) stats.unregister();
+        if (logoutList != null) logoutList.close();
     }
 }
 
@@ -0,0 +1,72 @@
+package edu.yale.its.tp.cas.client.filter;
+
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Ticker;
+
+/**
+ * Logout storage for a single node, on a TicketCache: lookups are O(1) and
+ * take no global lock, and the number of tickets held is bounded. A ticket
+ * need only be remembered for as long as a session holding it could last, so
+ * entries expire, after the storage's ttl or a shorter one given when the
+ * ticket is added. A null ticket, as in a receipt from a ticketless
+ * validation, is never logged out.
+ */
+public class CachedLogoutStorage extends AbstractLogoutStorage
+{
+
+    public static final long DEFAULT_MAXIMUM_SIZE = 100000;
+
+    public static final long DEFAULT_TTL_SECONDS = 28800;
+
+    /** when each ticket expires, by the ticker */
+    private final TicketCache<Long> tickets;
+
+    private final long ttlNanos;
+
+    private final Ticker ticker;
+
+    public CachedLogoutStorage()
+    {
+        this(DEFAULT_MAXIMUM_SIZE, DEFAULT_TTL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    public CachedLogoutStorage(long maximumSize, long ttl, TimeUnit unit)
+    {
+        this(maximumSize, ttl, unit, Ticker.systemTicker());
+    }
+
+    CachedLogoutStorage(long maximumSize, long ttl, TimeUnit unit, Ticker ticker)
+    {
+        tickets = new TicketCache<Long>(maximumSize, ttl, unit, ticker);
+        ttlNanos = unit.toNanos(ttl);
+        this.ticker = ticker;
+    }
+
+    @Override
+    public boolean contains(String ticket)
+    {
+        if (ticket == null) return false;
+        Long expires = tickets.get(ticket);
+        return expires != null && expires.longValue() - ticker.read() > 0;
+    }
+
+    @Override
+    public void add(String ticket)
+    {
+        add(ticket, ttlNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void add(String ticket, long ttl, TimeUnit unit)
+    {
+        if (ticket == null) return;
+        tickets.put(ticket, Long.valueOf(ticker.read() + Math.min(unit.toNanos(ttl), ttlNanos)));
+    }
+
+    @Override
+    public int size()
+    {
+        return tickets.size();
+    }
+}
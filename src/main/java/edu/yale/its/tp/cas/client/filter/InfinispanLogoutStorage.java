@@ -1,31 +1,267 @@
 package edu.yale.its.tp.cas.client.filter;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.infinispan.Cache;
+import org.infinispan.commons.util.concurrent.FutureListener;
+import org.infinispan.configuration.cache.CacheMode;
 import org.infinispan.manager.CacheContainer;
+import org.infinispan.notifications.Listener;
+import org.infinispan.notifications.cachelistener.annotation.CacheEntryModified;
+import org.infinispan.notifications.cachelistener.annotation.CacheEntryRemoved;
+import org.infinispan.notifications.cachelistener.event.CacheEntryModifiedEvent;
+import org.infinispan.notifications.cachelistener.event.CacheEntryRemovedEvent;
+
+import edu.yale.its.tp.cas.metrics.AtomicCounter;
+import edu.yale.its.tp.cas.metrics.Counter;
+import edu.yale.its.tp.cas.metrics.Metrics;
 
 /**
+ * Logout storage shared by a cluster through an Infinispan cache, fronted by
+ * a near-cache of tickets known to be logged out.
+ * <p>
+ * A listener on the cache copies every ticket added on any node into the
+ * near-cache, so a logged-out ticket is normally found without going to
+ * Infinispan. When the cache is local or replicated, every entry is seen by
+ * the listener, and a ticket missing from the near-cache is not logged out;
+ * when it is distributed, or once the near-cache has had to evict a ticket
+ * for room, a miss is confirmed against Infinispan. Tickets are written
+ * asynchronously, with a lifespan, so CAS's logout callback does not wait on
+ * the cluster and entries do not live forever. The value stored for a ticket
+ * is when it expires, in milliseconds since the epoch, so that the other
+ * nodes' near-caches forget it when the cluster does; a Boolean, as older
+ * versions stored, is taken to expire after this storage's lifespan.
+ *
  * @author Matt Drees
  */
-public class InfinispanLogoutStorage implements LogoutStorage
+public class InfinispanLogoutStorage extends AbstractLogoutStorage
 {
 
-    private final Cache<String, Boolean> cache;
+    private static Log log = LogFactory.getLog(InfinispanLogoutStorage.class);
+
+    private static final Counter LOCAL_LOOKUPS = Metrics.counter("cas.InfinispanLogoutStorage.localLookup");
+
+    private static final Counter REMOTE_LOOKUPS = Metrics.counter("cas.InfinispanLogoutStorage.remoteLookup");
+
+    private final Cache<String, Object> cache;
+
+    /** when each ticket expires, in milliseconds since the epoch */
+    private final TicketCache<Long> nearCache;
+
+    private final long lifespanMillis;
+
+    private final NearCacheUpdater listener;
+
+    /** true if the listener sees every entry in the cache */
+    private final boolean sawEverything;
+
+    private final AtomicCounter localLookups = new AtomicCounter();
+
+    private final AtomicCounter remoteLookups = new AtomicCounter();
 
     public InfinispanLogoutStorage(Object storage)
+    {
+        this(storage, CachedLogoutStorage.DEFAULT_MAXIMUM_SIZE, CachedLogoutStorage.DEFAULT_TTL_SECONDS,
+            TimeUnit.SECONDS);
+    }
+
+    /**
+     * @param storage
+     *            - the Infinispan CacheContainer; Object here to avoid a
+     *            runtime dependency on infinispan
+     * @param nearCacheSize
+     *            - the number of tickets to keep locally
+     * @param lifespan
+     *            - how long a ticket is remembered, here and in the cluster
+     */
+    public InfinispanLogoutStorage(Object storage, long nearCacheSize, long lifespan, TimeUnit unit)
     {
         CacheContainer cacheContainer = (CacheContainer) storage;
         cache = cacheContainer.getCache();
+        nearCache = new TicketCache<Long>(nearCacheSize, lifespan, unit);
+        lifespanMillis = unit.toMillis(lifespan);
+
+        CacheMode mode = cache.getCacheConfiguration().clustering().cacheMode();
+        sawEverything = !mode.isDistributed() && !mode.isInvalidation();
+        listener = new NearCacheUpdater(this);
+        cache.addListener(listener);
+        if (sawEverything)
+        {
+            // entries already here, from before we listened or by state transfer
+            for (Map.Entry<String, Object> entry : cache.entrySet())
+            {
+                remember(entry.getKey(), entry.getValue());
+            }
+        }
+        log.info("infinispan logout storage is " + mode.friendlyCacheModeString()
+                + (sawEverything ? "; lookups are local" : "; misses are looked up in the cluster"));
     }
 
     @Override
     public boolean contains(String ticket)
     {
-        return cache.containsKey(ticket);
+        if (ticket == null) return false;
+        long now = System.currentTimeMillis();
+        Long expires = nearCache.get(ticket);
+        if (expires != null && expires.longValue() > now)
+        {
+            countLocal();
+            return true;
+        }
+        if (sawEverything && nearCache.getSizeEvictionCount() == 0)
+        {
+            countLocal();
+            return false;
+        }
+        REMOTE_LOOKUPS.increment();
+        remoteLookups.increment();
+        Object value = cache.get(ticket);
+        if (value == null) return false;
+        remember(ticket, value);
+        return expiry(value) > now;
+    }
+
+    /**
+     * Remembers in the near-cache a ticket found in the cluster.
+     */
+    void remember(String ticket, Object value)
+    {
+        nearCache.put(ticket, Long.valueOf(expiry(value)));
+    }
+
+    private long expiry(Object value)
+    {
+        if (value instanceof Long) return ((Long) value).longValue();
+        return System.currentTimeMillis() + lifespanMillis;
+    }
+
+    private void countLocal()
+    {
+        LOCAL_LOOKUPS.increment();
+        localLookups.increment();
     }
 
     @Override
     public void add(String ticket)
     {
-        cache.put(ticket, true);
+        add(ticket, lifespanMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void add(final String ticket, long ttl, TimeUnit unit)
+    {
+        if (ticket == null) return;
+        long ttlMillis = Math.min(unit.toMillis(ttl), lifespanMillis);
+        Long expires = Long.valueOf(System.currentTimeMillis() + ttlMillis);
+        nearCache.put(ticket, expires);
+        cache.putAsync(ticket, expires, ttlMillis, TimeUnit.MILLISECONDS).attachListener(
+            new LoggingListener<Object>(ticket));
+    }
+
+    @Override
+    public void addAll(Collection<String> tickets)
+    {
+        Long expires = Long.valueOf(System.currentTimeMillis() + lifespanMillis);
+        Map<String, Object> entries = new HashMap<String, Object>();
+        for (String ticket : tickets)
+        {
+            if (ticket == null) continue;
+            nearCache.put(ticket, expires);
+            entries.put(ticket, expires);
+        }
+        if (entries.isEmpty()) return;
+        cache.putAllAsync(entries, lifespanMillis, TimeUnit.MILLISECONDS).attachListener(
+            new LoggingListener<Void>(entries.size() + " tickets"));
+    }
+
+    @Override
+    public void close()
+    {
+        cache.removeListener(listener);
+    }
+
+    @Override
+    public int size()
+    {
+        return cache.size();
+    }
+
+    /**
+     * @return the number of lookups answered by the near-cache
+     */
+    public long getLocalLookupCount()
+    {
+        return localLookups.getCount();
+    }
+
+    /**
+     * @return the number of lookups that went to Infinispan
+     */
+    public long getRemoteLookupCount()
+    {
+        return remoteLookups.getCount();
+    }
+
+    /**
+     * Logs a write to the cluster that failed.
+     */
+    private static final class LoggingListener<T> implements FutureListener<T>
+    {
+        private final String what;
+
+        LoggingListener(String what)
+        {
+            this.what = what;
+        }
+
+        public void futureDone(Future<T> future)
+        {
+            try
+            {
+                future.get();
+            }
+            catch (ExecutionException e)
+            {
+                log.warn("Unable to store logout of " + what + " in the cluster", e.getCause());
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Keeps the near-cache current with tickets added on any node. Infinispan
+     * requires listeners to be public.
+     */
+    @Listener
+    public static class NearCacheUpdater
+    {
+        private final InfinispanLogoutStorage storage;
+
+        NearCacheUpdater(InfinispanLogoutStorage storage)
+        {
+            this.storage = storage;
+        }
+
+        @CacheEntryModified
+        public void modified(CacheEntryModifiedEvent<String, Object> event)
+        {
+            if (!event.isPre() && event.getValue() != null) storage.remember(event.getKey(), event.getValue());
+        }
+
+        @CacheEntryRemoved
+        public void removed(CacheEntryRemovedEvent<String, Object> event)
+        {
+            if (!event.isPre()) storage.nearCache.remove(event.getKey());
+        }
     }
 }
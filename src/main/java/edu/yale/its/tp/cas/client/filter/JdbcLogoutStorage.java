@@ -0,0 +1,87 @@
+package edu.yale.its.tp.cas.client.filter;
+
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import edu.yale.its.tp.cas.util.JdbcTicketTable;
+
+/**
+ * Logout storage shared by a cluster through a database table, for
+ * deployments with a shared database but no Infinispan. Logouts are written
+ * in batches, and lookups are answered from a local cache: a logout received
+ * by another node is seen here within the table's miss ttl. If the database
+ * cannot be read, tickets are taken not to be logged out, and the failure is
+ * logged.
+ */
+public class JdbcLogoutStorage extends AbstractLogoutStorage
+{
+
+    private static Log log = LogFactory.getLog(JdbcLogoutStorage.class);
+
+    private static final String LOGGED_OUT = "1";
+
+    private final JdbcTicketTable table;
+
+    private final long ttlMillis;
+
+    /**
+     * @param ttl
+     *            - how long a ticket is remembered
+     */
+    public JdbcLogoutStorage(JdbcTicketTable table, long ttl, TimeUnit unit)
+    {
+        this.table = table;
+        ttlMillis = unit.toMillis(ttl);
+    }
+
+    @Override
+    public boolean contains(String ticket)
+    {
+        if (ticket == null) return false;
+        try
+        {
+            return table.get(ticket) != null;
+        }
+        catch (SQLException e)
+        {
+            log.error("Unable to look up logout of " + ticket, e);
+            return false;
+        }
+    }
+
+    @Override
+    public void add(String ticket)
+    {
+        add(ticket, ttlMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void add(String ticket, long ttl, TimeUnit unit)
+    {
+        if (ticket == null) return;
+        table.put(ticket, LOGGED_OUT, System.currentTimeMillis() + Math.min(unit.toMillis(ttl), ttlMillis));
+    }
+
+    @Override
+    public int size()
+    {
+        try
+        {
+            return table.count();
+        }
+        catch (SQLException e)
+        {
+            log.warn("Unable to count logged out tickets", e);
+            return -1;
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        table.close();
+    }
+}
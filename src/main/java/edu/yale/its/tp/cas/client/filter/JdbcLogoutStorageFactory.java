@@ -0,0 +1,85 @@
+package edu.yale.its.tp.cas.client.filter;
+
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import javax.naming.NamingException;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.sql.DataSource;
+
+import edu.yale.its.tp.cas.util.Configuration;
+import edu.yale.its.tp.cas.util.JdbcTicketTable;
+
+/**
+ * Makes a JdbcLogoutStorage. To use it, name this class in the filter's
+ * <code>logoutStorageFactory</code> init parameter and the JNDI name of the
+ * DataSource in <code>logoutStorageDataSource</code>.
+ * <code>logoutStorageTable</code> names the table, CAS_LOGOUT by default;
+ * <code>logoutStorageTtl</code> sets how long tickets are remembered, and
+ * <code>logoutStorageMissTtl</code> how many milliseconds a ticket found not
+ * to be logged out is believed, 2000 by default.
+ */
+public class JdbcLogoutStorageFactory implements LogoutStorageFactory
+{
+
+    /**
+     * The name of the filter initialization parameter the value of which is
+     * the JNDI name of the DataSource, such as
+     * <code>java:comp/env/jdbc/cas</code>.
+     */
+    public final static String LOGOUT_STORAGE_DATA_SOURCE_INIT_PARAM = "edu.yale.its.tp.cas.client.filter.logoutStorageDataSource";
+
+    /**
+     * The name of the filter initialization parameter the value of which is
+     * the name of the table to keep logged out tickets in.
+     */
+    public final static String LOGOUT_STORAGE_TABLE_INIT_PARAM = "edu.yale.its.tp.cas.client.filter.logoutStorageTable";
+
+    /**
+     * The name of the filter initialization parameter the value of which is
+     * how many milliseconds a ticket found not to be logged out is believed
+     * before the database is asked again.
+     */
+    public final static String LOGOUT_STORAGE_MISS_TTL_INIT_PARAM = "edu.yale.its.tp.cas.client.filter.logoutStorageMissTtl";
+
+    public static final String DEFAULT_TABLE = "CAS_LOGOUT";
+
+    public static final long DEFAULT_MISS_TTL_MILLIS = 2000;
+
+    public LogoutStorage create(FilterConfig config) throws ServletException
+    {
+        String dataSourceName = Configuration.getParameter(config, LOGOUT_STORAGE_DATA_SOURCE_INIT_PARAM);
+        if (dataSourceName == null || dataSourceName.trim().length() == 0)
+            throw new ServletException("JdbcLogoutStorage needs " + LOGOUT_STORAGE_DATA_SOURCE_INIT_PARAM);
+        DataSource dataSource;
+        try
+        {
+            dataSource = JdbcTicketTable.lookupDataSource(dataSourceName.trim());
+        }
+        catch (NamingException e)
+        {
+            throw new ServletException("Unable to look up DataSource " + dataSourceName, e);
+        }
+        String table = Configuration.getParameter(config, LOGOUT_STORAGE_TABLE_INIT_PARAM);
+        table = table == null || table.trim().length() == 0 ? DEFAULT_TABLE : table.trim();
+
+        long ttl = CASFilter.getLongParameter(config, LogoutStorageLocator.LOGOUT_STORAGE_TTL_INIT_PARAM,
+            CachedLogoutStorage.DEFAULT_TTL_SECONDS);
+        long missTtl = CASFilter.getLongParameter(config, LOGOUT_STORAGE_MISS_TTL_INIT_PARAM,
+            DEFAULT_MISS_TTL_MILLIS);
+        int cacheSize = (int) CASFilter.getLongParameter(config, LogoutStorageLocator.LOGOUT_STORAGE_SIZE_INIT_PARAM,
+            CachedLogoutStorage.DEFAULT_MAXIMUM_SIZE);
+        try
+        {
+            JdbcTicketTable tickets = new JdbcTicketTable(dataSource, table,
+                JdbcTicketTable.DEFAULT_FLUSH_INTERVAL_MILLIS, JdbcTicketTable.DEFAULT_PURGE_INTERVAL_MILLIS, missTtl,
+                cacheSize);
+            return new JdbcLogoutStorage(tickets, ttl, TimeUnit.SECONDS);
+        }
+        catch (SQLException e)
+        {
+            throw new ServletException("Unable to use table " + table + " for logout storage", e);
+        }
+    }
+}
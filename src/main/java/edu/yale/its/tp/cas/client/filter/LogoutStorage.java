@@ -1,7 +1,37 @@
 package edu.yale.its.tp.cas.client.filter;
 
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Where the filters remember the service tickets CAS has told them are logged
+ * out. Every authenticated request looks its ticket up, concurrently with CAS's
+ * logout requests adding tickets, so implementations must be thread-safe and
+ * lookups cheap. Extending {@link AbstractLogoutStorage} supplies the bulk
+ * operations; a {@link LogoutStorageFactory} plugs an implementation in.
+ */
 public interface LogoutStorage {
 
     public boolean contains(String ticket);
+
+    /** @return true if any of the tickets is logged out */
+    public boolean containsAny(Collection<String> tickets);
+
+    /** Remembers the ticket for as long as the storage remembers any. */
     public void add(String ticket);
+
+    /**
+     * Remembers the ticket for at most the given time; a storage may forget
+     * it sooner, if that is how long it remembers any ticket, or later, if it
+     * does not expire tickets individually.
+     */
+    public void add(String ticket, long ttl, TimeUnit unit);
+
+    public void addAll(Collection<String> tickets);
+
+    /** @return the number of tickets held, for monitoring */
+    public int size();
+
+    /** Releases whatever the storage holds; it is not used afterwards. */
+    public void close();
 }
@@ -0,0 +1,24 @@
+package edu.yale.its.tp.cas.client.filter;
+
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+
+/**
+ * Service provider interface for plugging a LogoutStorage into CASFilter and
+ * CASValidateFilter. A factory is chosen by naming its class in the filter's
+ * <code>logoutStorageFactory</code> init parameter, or else discovered with
+ * {@link java.util.ServiceLoader}: name it in
+ * <code>META-INF/services/edu.yale.its.tp.cas.client.filter.LogoutStorageFactory</code>.
+ * Without either, {@link LogoutStorageLocator} uses Infinispan or a
+ * CachedLogoutStorage. Factories need a public no-argument constructor.
+ */
+public interface LogoutStorageFactory
+{
+
+    /**
+     * @param config
+     *            - the configuration of the filter the storage is for, from
+     *            which the factory may read its own parameters
+     */
+    LogoutStorage create(FilterConfig config) throws ServletException;
+}
@@ -0,0 +1,139 @@
+package edu.yale.its.tp.cas.client.filter;
+
+import java.util.Iterator;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import edu.yale.its.tp.cas.util.Configuration;
+
+/**
+ * Chooses the logout storage for CASFilter and CASValidateFilter: the one made
+ * by the LogoutStorageFactory named in the filter's
+ * <code>logoutStorageFactory</code> init parameter, or else by the first one
+ * installed for {@link ServiceLoader}. Without either, Infinispan, if a cache
+ * container is bound in JNDI at
+ * <code>java:comp/env/cas/infinispanLogoutStore</code>, so that a logout
+ * received by one node is seen by all; otherwise a CachedLogoutStorage. Either
+ * way the tickets held locally are sized by the filter's init parameters.
+ */
+public class LogoutStorageLocator
+{
+
+    private static Log log = LogFactory.getLog(LogoutStorageLocator.class);
+
+    static final String INFINISPAN_LOGOUT_STORE = "infinispanLogoutStore";
+
+    /**
+     * The name of the filter initialization parameter the value of which is
+     * the number of tickets the logout storage holds locally: all of them,
+     * or, with Infinispan, its near-cache. Defaults to 100000.
+     */
+    public final static String LOGOUT_STORAGE_SIZE_INIT_PARAM = "edu.yale.its.tp.cas.client.filter.logoutStorageSize";
+
+    /**
+     * The name of the filter initialization parameter the value of which is
+     * how many seconds the logout storage, clustered or not, remembers a
+     * ticket; it should be at least the session timeout. Defaults to 28800.
+     */
+    public final static String LOGOUT_STORAGE_TTL_INIT_PARAM = "edu.yale.its.tp.cas.client.filter.logoutStorageTtl";
+
+    /**
+     * The name of the filter initialization parameter the value of which is
+     * the class name of the LogoutStorageFactory to use.
+     */
+    public final static String LOGOUT_STORAGE_FACTORY_INIT_PARAM = "edu.yale.its.tp.cas.client.filter.logoutStorageFactory";
+
+    private LogoutStorageLocator()
+    {
+    }
+
+    public static LogoutStorage locate(FilterConfig config) throws ServletException
+    {
+        String factoryName = Configuration.getParameter(config, LOGOUT_STORAGE_FACTORY_INIT_PARAM);
+        if (factoryName != null && factoryName.trim().length() > 0)
+        {
+            log.info("using logout storage from " + factoryName);
+            return instantiate(factoryName.trim()).create(config);
+        }
+        LogoutStorageFactory installed = loadInstalledFactory();
+        if (installed != null)
+        {
+            log.info("using logout storage from " + installed.getClass().getName());
+            return installed.create(config);
+        }
+        return locateDefault(config);
+    }
+
+    private static LogoutStorageFactory instantiate(String factoryName) throws ServletException
+    {
+        try
+        {
+            ClassLoader loader = Thread.currentThread().getContextClassLoader();
+            if (loader == null) loader = LogoutStorageLocator.class.getClassLoader();
+            return Class.forName(factoryName, true, loader).asSubclass(LogoutStorageFactory.class).newInstance();
+        }
+        catch (ClassNotFoundException e)
+        {
+            throw new ServletException(LOGOUT_STORAGE_FACTORY_INIT_PARAM + " names an unknown class: " + factoryName);
+        }
+        catch (ClassCastException e)
+        {
+            throw new ServletException(factoryName + " is not a LogoutStorageFactory");
+        }
+        catch (InstantiationException e)
+        {
+            throw new ServletException("Unable to create " + factoryName, e);
+        }
+        catch (IllegalAccessException e)
+        {
+            throw new ServletException("Unable to create " + factoryName, e);
+        }
+    }
+
+    private static LogoutStorageFactory loadInstalledFactory() throws ServletException
+    {
+        try
+        {
+            Iterator<LogoutStorageFactory> factories = ServiceLoader.load(LogoutStorageFactory.class).iterator();
+            if (!factories.hasNext()) return null;
+            LogoutStorageFactory found = factories.next();
+            if (factories.hasNext())
+            {
+                log.warn("More than one LogoutStorageFactory installed; using " + found.getClass().getName());
+            }
+            return found;
+        }
+        catch (ServiceConfigurationError e)
+        {
+            throw new ServletException("Unable to load LogoutStorageFactory", e);
+        }
+    }
+
+    /**
+     * Infinispan via JNDI, else a CachedLogoutStorage.
+     */
+    static LogoutStorage locateDefault(FilterConfig config) throws ServletException
+    {
+        long size = CASFilter.getLongParameter(config, LOGOUT_STORAGE_SIZE_INIT_PARAM,
+            CachedLogoutStorage.DEFAULT_MAXIMUM_SIZE);
+        long ttl = CASFilter.getLongParameter(config, LOGOUT_STORAGE_TTL_INIT_PARAM,
+            CachedLogoutStorage.DEFAULT_TTL_SECONDS);
+
+        // using Object here to avoid runtime dependency on infinispan
+        Object store = Configuration.jndiLookup(INFINISPAN_LOGOUT_STORE);
+        if (store != null)
+        {
+            log.info("using infinispan logout storage");
+            return new InfinispanLogoutStorage(store, size, ttl, TimeUnit.SECONDS);
+        }
+        log.info("using non-clustered logout storage");
+        return new CachedLogoutStorage(size, ttl, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,367 @@
+package edu.yale.its.tp.cas.client.filter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * Logout storage for a single node that survives restarts: tickets are kept
+ * as 64-bit fingerprints in open-addressed hash tables, in files mapped into
+ * memory. Nothing is read at startup beyond mapping the files, lookups are
+ * O(1) and off the heap, and the heap holds only a handful of objects however
+ * many tickets there are.
+ * <p>
+ * Time is divided into periods of a third of the ttl, and each period's
+ * tickets go into their own segment file; when a period is more than three
+ * old its segment is deleted, so a ticket is remembered for between the ttl
+ * and a third as long again. A segment that fills up is followed by another
+ * for the same period. Two tickets share a fingerprint with a probability of
+ * about one in 2<sup>64</sup> per pair, in which case both are logged out.
+ * <p>
+ * Additions are serialized; lookups take no lock. Individual ttls are not
+ * supported.
+ */
+public class MappedLogoutStorage extends AbstractLogoutStorage
+{
+
+    private static Log log = LogFactory.getLog(MappedLogoutStorage.class);
+
+    /** the most tickets a segment may hold, so that its mapping stays under 2GB */
+    public static final int MAXIMUM_TICKETS_PER_SEGMENT = 1 << 26;
+
+    /** segments holding tickets young enough to be remembered */
+    private static final int LIVE_PERIODS = 3;
+
+    private static final int MAGIC = 0x4341534c; // "CASL"
+
+    private static final int VERSION = 1;
+
+    private static final int HEADER_LENGTH = 16;
+
+    private static final int CAPACITY_OFFSET = 8;
+
+    private static final int COUNT_OFFSET = 12;
+
+    private static final Pattern SEGMENT_NAME = Pattern.compile("logout-(\\d+)-(\\d+)\\.seg");
+
+    private static final HashFunction HASH = Hashing.murmur3_128();
+
+    private final File directory;
+
+    /** slots per new segment; a power of two. Segments from a previous run may differ. */
+    private final int capacity;
+
+    private final long periodMillis;
+
+    /** oldest first; replaced, never modified, so lookups need no lock */
+    private volatile List<Segment> segments = Collections.emptyList();
+
+    private boolean closed;
+
+    /**
+     * @param directory
+     *            - where the segment files are kept; created if need be. No
+     *            other storage may use it.
+     * @param ticketsPerSegment
+     *            - how many tickets a segment holds, up to
+     *            {@value #MAXIMUM_TICKETS_PER_SEGMENT}; each takes 8 bytes,
+     *            with a third as much again free
+     * @param ttl
+     *            - the least time a ticket is remembered
+     */
+    public MappedLogoutStorage(File directory, int ticketsPerSegment, long ttl, TimeUnit unit) throws IOException
+    {
+        if (ticketsPerSegment > MAXIMUM_TICKETS_PER_SEGMENT)
+            throw new IllegalArgumentException(ticketsPerSegment + " tickets per segment is more than "
+                    + MAXIMUM_TICKETS_PER_SEGMENT);
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("unable to create logout storage directory " + directory);
+        this.directory = directory;
+        capacity = Integer.highestOneBit(Math.max(16, ticketsPerSegment * 4 / 3)) << 1;
+        periodMillis = Math.max(1, unit.toMillis(ttl) / LIVE_PERIODS);
+        open();
+    }
+
+    /**
+     * Maps the segments left by a previous run that are still live, and
+     * deletes the rest.
+     */
+    private synchronized void open() throws IOException
+    {
+        long current = period(currentTimeMillis());
+        File[] files = directory.listFiles();
+        List<Segment> found = new ArrayList<Segment>();
+        for (File file : files == null ? new File[0] : files)
+        {
+            Matcher name = SEGMENT_NAME.matcher(file.getName());
+            if (!name.matches()) continue;
+            long period = Long.parseLong(name.group(1));
+            int sequence = Integer.parseInt(name.group(2));
+            if (!isLive(period, current))
+            {
+                delete(file);
+                continue;
+            }
+            try
+            {
+                found.add(new Segment(file, period, sequence, 0));
+            }
+            catch (IOException e)
+            {
+                log.warn("Ignoring unreadable logout segment " + file + ": " + e.getMessage());
+            }
+        }
+        Collections.sort(found);
+        segments = Collections.unmodifiableList(found);
+        log.info("Opened " + found.size() + " logout segments holding " + size() + " tickets in " + directory);
+    }
+
+    long currentTimeMillis()
+    {
+        return System.currentTimeMillis();
+    }
+
+    private long period(long millis)
+    {
+        return millis / periodMillis;
+    }
+
+    private static boolean isLive(long period, long current)
+    {
+        return period > current - LIVE_PERIODS - 1;
+    }
+
+    @Override
+    public boolean contains(String ticket)
+    {
+        if (ticket == null) return false;
+        long fingerprint = fingerprint(ticket);
+        long current = period(currentTimeMillis());
+        List<Segment> live = segments;
+        for (int i = live.size() - 1; i >= 0; i--)
+        {
+            Segment segment = live.get(i);
+            if (!isLive(segment.period, current)) break;
+            if (segment.contains(fingerprint)) return true;
+        }
+        return false;
+    }
+
+    @Override
+    public synchronized void add(String ticket)
+    {
+        if (ticket == null) return;
+        if (closed) throw new IllegalStateException("logout storage is closed");
+        if (contains(ticket)) return;
+        try
+        {
+            current().add(fingerprint(ticket));
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException("Unable to add a logout to a segment in " + directory, e);
+        }
+    }
+
+    /**
+     * @return the segment for this period with room for another ticket,
+     *         starting one, and dropping expired ones, if need be
+     */
+    private Segment current() throws IOException
+    {
+        long period = period(currentTimeMillis());
+        List<Segment> live = segments;
+        Segment last = live.isEmpty() ? null : live.get(live.size() - 1);
+        if (last != null && last.period == period && last.count() < last.threshold) return last;
+
+        int sequence = last != null && last.period == period ? last.sequence + 1 : 0;
+        File file = new File(directory, "logout-" + period + "-" + sequence + ".seg");
+        Segment created = new Segment(file, period, sequence, capacity);
+
+        List<Segment> next = new ArrayList<Segment>(live.size() + 1);
+        for (Segment segment : live)
+        {
+            if (isLive(segment.period, period))
+            {
+                next.add(segment);
+            }
+            else
+            {
+                segment.flush();
+                delete(segment.file);
+            }
+        }
+        next.add(created);
+        segments = Collections.unmodifiableList(next);
+        return created;
+    }
+
+    @Override
+    public int size()
+    {
+        long current = period(currentTimeMillis());
+        int size = 0;
+        for (Segment segment : segments)
+        {
+            if (isLive(segment.period, current)) size += segment.count();
+        }
+        return size;
+    }
+
+    /**
+     * Writes the segments out; the files may still be mapped until they are
+     * garbage collected.
+     */
+    @Override
+    public synchronized void close()
+    {
+        closed = true;
+        for (Segment segment : segments)
+        {
+            segment.flush();
+        }
+    }
+
+    /**
+     * @return a non-zero fingerprint; zero marks an empty slot
+     */
+    static long fingerprint(String ticket)
+    {
+        long fingerprint = HASH.hashString(ticket, Charsets.UTF_8).asLong();
+        return fingerprint == 0 ? 1 : fingerprint;
+    }
+
+    private static void delete(File file)
+    {
+        // on some platforms a file cannot be deleted while mapped; a later start will
+        if (!file.delete()) log.debug("Unable to delete expired logout segment " + file);
+    }
+
+    /**
+     * One file of fingerprints, probed linearly.
+     */
+    private static final class Segment implements Comparable<Segment>
+    {
+        final File file;
+
+        final long period;
+
+        final int sequence;
+
+        final int mask;
+
+        /** tickets before another segment is started; this segment's own, as it may be from a previous run */
+        final int threshold;
+
+        final MappedByteBuffer buffer;
+
+        /**
+         * @param capacity
+         *            - of a new file, or 0 to open an existing one
+         */
+        Segment(File file, long period, int sequence, int capacity) throws IOException
+        {
+            this.file = file;
+            this.period = period;
+            this.sequence = sequence;
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try
+            {
+                if (capacity == 0)
+                {
+                    if (raf.length() < HEADER_LENGTH || raf.readInt() != MAGIC || raf.readInt() != VERSION)
+                        throw new IOException("not a logout segment");
+                    capacity = raf.readInt();
+                    if (Integer.bitCount(capacity) != 1 || raf.length() != HEADER_LENGTH + 8L * capacity)
+                        throw new IOException("truncated");
+                    // a full table would leave lookups of absent tickets probing forever
+                    int count = raf.readInt();
+                    if (count < 0 || count >= capacity) throw new IOException("corrupt count " + count);
+                }
+                else
+                {
+                    // a segment that could not be opened may be left under this name; start it empty
+                    raf.setLength(0);
+                    raf.setLength(HEADER_LENGTH + 8L * capacity);
+                }
+                buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, HEADER_LENGTH + 8L * capacity);
+            }
+            finally
+            {
+                raf.close();
+            }
+            mask = capacity - 1;
+            threshold = capacity * 3 / 4;
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putInt(CAPACITY_OFFSET, capacity);
+        }
+
+        /**
+         * A fingerprint being added concurrently may be missed, or read torn;
+         * a torn value matches no real fingerprint, so the probe goes on. The
+         * probe stops after every slot, in case the file was damaged.
+         */
+        boolean contains(long fingerprint)
+        {
+            int slot = (int) fingerprint & mask;
+            for (int probes = 0; probes <= mask; probes++)
+            {
+                long found = buffer.getLong(HEADER_LENGTH + 8 * slot);
+                if (found == fingerprint) return true;
+                if (found == 0) return false;
+                slot = (slot + 1) & mask;
+            }
+            return false;
+        }
+
+        /** only called with the storage's lock held, and below the threshold */
+        void add(long fingerprint) throws IOException
+        {
+            int slot = (int) fingerprint & mask;
+            for (int probes = 0; probes <= mask; probes++)
+            {
+                if (buffer.getLong(HEADER_LENGTH + 8 * slot) == 0)
+                {
+                    buffer.putLong(HEADER_LENGTH + 8 * slot, fingerprint);
+                    buffer.putInt(COUNT_OFFSET, count() + 1);
+                    return;
+                }
+                slot = (slot + 1) & mask;
+            }
+            // only a damaged file, whose count is wrong, gets here
+            throw new IOException("no free slot in " + file);
+        }
+
+        int count()
+        {
+            return buffer.getInt(COUNT_OFFSET);
+        }
+
+        void flush()
+        {
+            buffer.force();
+        }
+
+        public int compareTo(Segment other)
+        {
+            if (period != other.period) return period < other.period ? -1 : 1;
+            return sequence - other.sequence;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package edu.yale.its.tp.cas.client.filter;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+
+import edu.yale.its.tp.cas.util.Configuration;
+
+/**
+ * Makes a MappedLogoutStorage, so that pending logouts survive a restart. To
+ * use it, name this class in the filter's <code>logoutStorageFactory</code>
+ * init parameter. The files are kept in the directory named by the
+ * <code>logoutStorageDirectory</code> parameter, or else in a directory named
+ * after the filter, under <code>cas-logout</code> in the servlet container's
+ * temporary directory for the application; <code>logoutStorageSize</code> sets
+ * the number of tickets per segment file, up to
+ * {@value MappedLogoutStorage#MAXIMUM_TICKETS_PER_SEGMENT}, and
+ * <code>logoutStorageTtl</code> how long tickets are remembered.
+ * <p>
+ * Each filter makes its own storage, so filters given a
+ * <code>logoutStorageDirectory</code> each need a different one.
+ */
+public class MappedLogoutStorageFactory implements LogoutStorageFactory
+{
+
+    /**
+     * The name of the filter initialization parameter the value of which is
+     * the directory in which MappedLogoutStorage keeps its files.
+     */
+    public final static String LOGOUT_STORAGE_DIRECTORY_INIT_PARAM = "edu.yale.its.tp.cas.client.filter.logoutStorageDirectory";
+
+    public LogoutStorage create(FilterConfig config) throws ServletException
+    {
+        File directory;
+        String name = Configuration.getParameter(config, LOGOUT_STORAGE_DIRECTORY_INIT_PARAM);
+        if (name != null && name.trim().length() > 0)
+        {
+            directory = new File(name.trim());
+        }
+        else
+        {
+            File temp = (File) config.getServletContext().getAttribute("javax.servlet.context.tempdir");
+            if (temp == null)
+                throw new ServletException("MappedLogoutStorage needs " + LOGOUT_STORAGE_DIRECTORY_INIT_PARAM);
+            // filter names are unique within the application
+            String filter = config.getFilterName().replaceAll("[^\\w.-]", "_");
+            directory = new File(new File(temp, "cas-logout"), filter);
+        }
+        long size = CASFilter.getLongParameter(config, LogoutStorageLocator.LOGOUT_STORAGE_SIZE_INIT_PARAM,
+            CachedLogoutStorage.DEFAULT_MAXIMUM_SIZE);
+        long ttl = CASFilter.getLongParameter(config, LogoutStorageLocator.LOGOUT_STORAGE_TTL_INIT_PARAM,
+            CachedLogoutStorage.DEFAULT_TTL_SECONDS);
+        try
+        {
+            return new MappedLogoutStorage(directory, (int) Math.min(size, MappedLogoutStorage.MAXIMUM_TICKETS_PER_SEGMENT), ttl, TimeUnit.SECONDS);
+        }
+        catch (IOException e)
+        {
+            throw new ServletException("Unable to open logout storage in " + directory, e);
+        }
+    }
+}
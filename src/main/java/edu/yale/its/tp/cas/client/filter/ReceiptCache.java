@@ -0,0 +1,70 @@
+package edu.yale.its.tp.cas.client.filter;
+
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Ticker;
+
+import edu.yale.its.tp.cas.client.CASReceipt;
+
+/**
+ * Receipts of validated tickets, by ticket and service, for clients that send
+ * a (proxy) ticket with every request and keep no session. A client that
+ * reuses a ticket within this cache's lifetime gets the receipt from the
+ * first validation instead of another round trip to CAS.
+ * <p>
+ * A {@link TicketCache} keyed by ticket and service, so bounded in size, and
+ * entries expire a fixed time after they were added. Receipts are immutable,
+ * so one instance is safely shared by every request that presents the
+ * ticket.
+ */
+public class ReceiptCache
+{
+
+    public static final int DEFAULT_MAXIMUM_SIZE = 10000;
+
+    public static final long DEFAULT_TTL_SECONDS = 300;
+
+    private final TicketCache<CASReceipt> receipts;
+
+    public ReceiptCache(long maximumSize, long ttl, TimeUnit unit)
+    {
+        this(maximumSize, ttl, unit, Ticker.systemTicker());
+    }
+
+    ReceiptCache(long maximumSize, long ttl, TimeUnit unit, Ticker ticker)
+    {
+        receipts = new TicketCache<CASReceipt>(maximumSize, ttl, unit, ticker);
+    }
+
+    /**
+     * @return the receipt of the ticket's validation for the service, or null
+     */
+    public CASReceipt get(String ticket, String service)
+    {
+        return receipts.get(key(ticket, service));
+    }
+
+    public void put(String ticket, String service, CASReceipt receipt)
+    {
+        receipts.put(key(ticket, service), receipt);
+    }
+
+    public void remove(String ticket, String service)
+    {
+        receipts.remove(key(ticket, service));
+    }
+
+    public long size()
+    {
+        return receipts.size();
+    }
+
+    /**
+     * A ticket is only good for the service it was issued for, so the service
+     * is part of the key. Tickets and encoded services contain no spaces.
+     */
+    private static String key(String ticket, String service)
+    {
+        return ticket + ' ' + service;
+    }
+}
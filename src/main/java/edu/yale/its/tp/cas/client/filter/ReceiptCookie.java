@@ -0,0 +1,317 @@
+package edu.yale.its.tp.cas.client.filter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.google.common.io.BaseEncoding;
+
+import edu.yale.its.tp.cas.client.CASReceipt;
+
+/**
+ * Seals a compact form of a CASReceipt into a cookie value that only holders
+ * of the key can read or forge, so that an authenticated user can be
+ * recognised from the cookie alone, with no session.
+ * <p>
+ * The cookie carries the user, the service ticket (so that logout can still
+ * be enforced), whether authentication was primary, the proxy chain, the
+ * issue time and the selected attributes. It is encrypted with AES-128-CBC and
+ * authenticated with HMAC-SHA256 over the version, IV and ciphertext
+ * (encrypt-then-MAC); both keys are derived from each configured secret.
+ * <p>
+ * Several secrets may be configured for key rotation: the first seals, and a
+ * cookie sealed with any of them is accepted. Instances are thread-safe.
+ */
+public class ReceiptCookie
+{
+
+    private static Log log = LogFactory.getLog(ReceiptCookie.class);
+
+    /** Browsers are only obliged to keep cookies up to this size */
+    public static final int MAXIMUM_LENGTH = 4000;
+
+    private static final byte VERSION = 1;
+
+    private static final int IV_LENGTH = 16;
+
+    private static final int TAG_LENGTH = 32;
+
+    private static final int MINIMUM_SECRET_LENGTH = 16;
+
+    private static final BaseEncoding ENCODING = BaseEncoding.base64Url().omitPadding();
+
+    private static final SecureRandom random = new SecureRandom();
+
+    private final List<Key> keys = new ArrayList<Key>();
+
+    private final Collection<String> attributeNames;
+
+    private final long maxAgeMillis;
+
+    /**
+     * @param secrets
+     *            - at least 16 bytes each; the first seals, all unseal
+     * @param attributeNames
+     *            - the receipt attributes to carry in the cookie
+     * @param maxAgeMillis
+     *            - how long after sealing a cookie is accepted
+     */
+    public ReceiptCookie(List<byte[]> secrets, Collection<String> attributeNames, long maxAgeMillis)
+    {
+        if (secrets.isEmpty()) throw new IllegalArgumentException("at least one secret is needed");
+        for (byte[] secret : secrets)
+        {
+            if (secret.length < MINIMUM_SECRET_LENGTH) throw new IllegalArgumentException("secrets must be at least "
+                    + MINIMUM_SECRET_LENGTH + " bytes long");
+            keys.add(new Key(secret));
+        }
+        this.attributeNames = new ArrayList<String>(attributeNames);
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    /**
+     * Decodes a whitespace-delimited list of base64 secrets, as configured.
+     */
+    public static List<byte[]> decodeSecrets(String secrets)
+    {
+        List<byte[]> decoded = new ArrayList<byte[]>();
+        for (String secret : secrets.trim().split("\\s+"))
+        {
+            decoded.add(BaseEncoding.base64().decode(secret));
+        }
+        return decoded;
+    }
+
+    /**
+     * @return the sealed receipt, to be used as a cookie value
+     */
+    public String seal(CASReceipt receipt, long nowMillis)
+    {
+        try
+        {
+            byte[] iv = new byte[IV_LENGTH];
+            random.nextBytes(iv);
+            Key key = keys.get(0);
+            Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+            cipher.init(Cipher.ENCRYPT_MODE, key.encryption, new IvParameterSpec(iv));
+            byte[] ciphertext = cipher.doFinal(serialize(receipt, nowMillis));
+
+            byte[] sealed = new byte[1 + IV_LENGTH + ciphertext.length + TAG_LENGTH];
+            sealed[0] = VERSION;
+            System.arraycopy(iv, 0, sealed, 1, IV_LENGTH);
+            System.arraycopy(ciphertext, 0, sealed, 1 + IV_LENGTH, ciphertext.length);
+            byte[] tag = key.tag(sealed, 0, sealed.length - TAG_LENGTH);
+            System.arraycopy(tag, 0, sealed, sealed.length - TAG_LENGTH, TAG_LENGTH);
+            return ENCODING.encode(sealed);
+        }
+        catch (GeneralSecurityException e)
+        {
+            throw new IllegalStateException("unable to seal receipt", e);
+        }
+    }
+
+    /**
+     * @param casValidateUrl
+     *            - the validation URL to record in the restored receipt
+     * @return the receipt sealed in the cookie value, or null if the value was
+     *         not sealed with one of our keys or has expired
+     */
+    public CASReceipt unseal(String value, long nowMillis, String casValidateUrl)
+    {
+        byte[] sealed;
+        try
+        {
+            sealed = ENCODING.decode(value);
+        }
+        catch (IllegalArgumentException e)
+        {
+            return null;
+        }
+        if (sealed.length < 1 + IV_LENGTH + IV_LENGTH + TAG_LENGTH || sealed[0] != VERSION) return null;
+
+        byte[] tag = Arrays.copyOfRange(sealed, sealed.length - TAG_LENGTH, sealed.length);
+        try
+        {
+            for (Key key : keys)
+            {
+                if (!MessageDigest.isEqual(tag, key.tag(sealed, 0, sealed.length - TAG_LENGTH))) continue;
+
+                Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+                cipher.init(Cipher.DECRYPT_MODE, key.encryption, new IvParameterSpec(sealed, 1, IV_LENGTH));
+                byte[] plaintext = cipher.doFinal(sealed, 1 + IV_LENGTH, sealed.length - 1 - IV_LENGTH - TAG_LENGTH);
+                return deserialize(plaintext, nowMillis, casValidateUrl);
+            }
+            return null;
+        }
+        catch (GeneralSecurityException e)
+        {
+            log.warn("Unable to open an authenticated receipt cookie", e);
+            return null;
+        }
+        catch (IOException e)
+        {
+            log.warn("Unable to read an authenticated receipt cookie", e);
+            return null;
+        }
+    }
+
+    private byte[] serialize(CASReceipt receipt, long nowMillis)
+    {
+        try
+        {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeLong(nowMillis);
+            out.writeUTF(receipt.getUserName());
+            writeNullable(out, receipt.getServiceTicket());
+            out.writeBoolean(receipt.isPrimaryAuthentication());
+            List<?> proxies = receipt.getProxyList();
+            out.writeShort(proxies == null ? 0 : proxies.size());
+            if (proxies != null)
+            {
+                for (Object proxy : proxies)
+                {
+                    out.writeUTF((String) proxy);
+                }
+            }
+            for (String name : attributeNames)
+            {
+                Object value = receipt.getAttributes().get(name);
+                if (value == null) continue;
+                out.writeBoolean(true);
+                out.writeUTF(name);
+                out.writeUTF(value.toString());
+                List<String> values = receipt.getAttributeValues(name);
+                out.writeShort(values.size());
+                for (String v : values)
+                {
+                    out.writeUTF(v);
+                }
+            }
+            out.writeBoolean(false);
+            out.close();
+            return bytes.toByteArray();
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException("unable to write to a byte array", e);
+        }
+    }
+
+    private CASReceipt deserialize(byte[] plaintext, long nowMillis, String casValidateUrl) throws IOException
+    {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(plaintext));
+        long issued = in.readLong();
+        if (nowMillis - issued > maxAgeMillis || issued - nowMillis > maxAgeMillis)
+        {
+            log.debug("receipt cookie issued at " + issued + " has expired");
+            return null;
+        }
+        String userName = in.readUTF();
+        String serviceTicket = readNullable(in);
+        boolean primary = in.readBoolean();
+        int proxyCount = in.readShort();
+        List<String> proxies = new ArrayList<String>(proxyCount);
+        for (int i = 0; i < proxyCount; i++)
+        {
+            proxies.add(in.readUTF());
+        }
+        Map<String, String> attributes = new HashMap<String, String>();
+        Map<String, String[]> attributeValues = new HashMap<String, String[]>();
+        while (in.readBoolean())
+        {
+            String name = in.readUTF();
+            attributes.put(name, in.readUTF());
+            String[] values = new String[in.readShort()];
+            for (int i = 0; i < values.length; i++)
+            {
+                values[i] = in.readUTF();
+            }
+            if (values.length > 1) attributeValues.put(name, values);
+        }
+        return new CASReceipt.Builder()
+            .casValidateUrl(casValidateUrl)
+            .userName(userName)
+            .serviceTicket(serviceTicket)
+            .primaryAuthentication(primary)
+            .proxyList(proxies)
+            .attributes(attributes)
+            .attributeValues(attributeValues)
+            .build();
+    }
+
+    private static void writeNullable(DataOutputStream out, String s) throws IOException
+    {
+        out.writeBoolean(s != null);
+        if (s != null) out.writeUTF(s);
+    }
+
+    private static String readNullable(DataInputStream in) throws IOException
+    {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    /**
+     * The encryption and authentication keys derived from one secret.
+     */
+    private static final class Key
+    {
+        final SecretKeySpec encryption;
+
+        final SecretKeySpec authentication;
+
+        Key(byte[] secret)
+        {
+            try
+            {
+                encryption = new SecretKeySpec(Arrays.copyOf(derive(secret, "encryption"), 16), "AES");
+                authentication = new SecretKeySpec(derive(secret, "authentication"), "HmacSHA256");
+            }
+            catch (GeneralSecurityException e)
+            {
+                throw new IllegalStateException("HmacSHA256 is not available", e);
+            }
+        }
+
+        byte[] tag(byte[] data, int offset, int length) throws GeneralSecurityException
+        {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(authentication);
+            mac.update(data, offset, length);
+            return mac.doFinal();
+        }
+
+        private static byte[] derive(byte[] secret, String purpose) throws GeneralSecurityException
+        {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(secret, "HmacSHA256"));
+            try
+            {
+                return mac.doFinal(("cas receipt cookie " + purpose).getBytes("UTF-8"));
+            }
+            catch (IOException e)
+            {
+                throw new IllegalStateException("UTF-8 is not supported", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package edu.yale.its.tp.cas.client.filter;
+
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Ticker;
+
+/**
+ * Tickets CAS has already rejected as INVALID_TICKET. Service tickets are
+ * single-use, so a ticket that failed once will fail again; bookmarked or
+ * shared URLs that still carry it need not cost another round trip to CAS.
+ * <p>
+ * A {@link TicketCache}, so bounded in size, and entries expire a fixed time
+ * after they were added: a flood of distinct bogus tickets cannot exhaust
+ * memory.
+ */
+public class RejectedTicketCache
+{
+
+    public static final int DEFAULT_MAXIMUM_SIZE = 10000;
+
+    public static final long DEFAULT_TTL_SECONDS = 300;
+
+    private final TicketCache<Boolean> tickets;
+
+    public RejectedTicketCache(long maximumSize, long ttl, TimeUnit unit)
+    {
+        this(maximumSize, ttl, unit, Ticker.systemTicker());
+    }
+
+    RejectedTicketCache(long maximumSize, long ttl, TimeUnit unit, Ticker ticker)
+    {
+        tickets = new TicketCache<Boolean>(maximumSize, ttl, unit, ticker);
+    }
+
+    public void add(String ticket)
+    {
+        tickets.put(ticket, Boolean.TRUE);
+    }
+
+    public boolean contains(String ticket)
+    {
+        return tickets.contains(ticket);
+    }
+
+    public long size()
+    {
+        return tickets.size();
+    }
+}
@@ -0,0 +1,204 @@
+package edu.yale.its.tp.cas.client.filter;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.servlet.http.HttpSession;
+import javax.servlet.http.HttpSessionActivationListener;
+import javax.servlet.http.HttpSessionBindingEvent;
+import javax.servlet.http.HttpSessionBindingListener;
+import javax.servlet.http.HttpSessionEvent;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * The sessions on this node holding a receipt, by service ticket, so that a
+ * logout can drop the receipt at once rather than when the user next makes a
+ * request. Until then the session, and its receipt, would stay in memory and
+ * keep being replicated.
+ * <p>
+ * A session is indexed by an attribute that removes it from the index when it
+ * is unbound, so sessions the container expires or invalidates, or whose
+ * attributes the filter clears, do not linger here. A session passivated, as
+ * by a persistent manager swapping it out, leaves the index too, and rejoins
+ * it when activated, if the index has a name to be found by. Where sessions
+ * are replicated, only the node that validated a ticket, or that activates the
+ * session, indexes it.
+ */
+public class SessionIndex
+{
+
+    private static Log log = LogFactory.getLog(SessionIndex.class);
+
+    /**
+     * The session attribute whose unbinding removes the session from the
+     * index.
+     */
+    public final static String CAS_FILTER_SESSION_INDEX_ENTRY = "edu.yale.its.tp.cas.client.filter.sessionIndexEntry";
+
+    /** indexes by name, for entries deserialized when their session is activated */
+    private static final ConcurrentMap<String, SessionIndex> INDEXES = new ConcurrentHashMap<String, SessionIndex>();
+
+    private final ConcurrentMap<String, HttpSession> sessions = new ConcurrentHashMap<String, HttpSession>();
+
+    /** null if sessions activated from a copy cannot rejoin this index */
+    private final String name;
+
+    private final boolean invalidate;
+
+    /**
+     * @param invalidate
+     *            - whether a logged out session is invalidated, rather than
+     *            cleared
+     */
+    public SessionIndex(boolean invalidate)
+    {
+        this(null, invalidate);
+    }
+
+    /**
+     * @param name
+     *            - unique among the indexes of the JVM, such as a context path
+     *            and filter name, so that sessions activated from a copy can
+     *            rejoin the index; null if they need not
+     * @param invalidate
+     *            - whether a logged out session is invalidated, rather than
+     *            cleared
+     */
+    public SessionIndex(String name, boolean invalidate)
+    {
+        this.name = name;
+        this.invalidate = invalidate;
+        if (name != null) INDEXES.put(name, this);
+    }
+
+    /**
+     * Stops sessions activated from now on rejoining this index.
+     */
+    public void close()
+    {
+        if (name != null) INDEXES.remove(name, this);
+    }
+
+    public void register(String ticket, HttpSession session)
+    {
+        if (ticket == null) return;
+        sessions.put(ticket, session);
+        session.setAttribute(CAS_FILTER_SESSION_INDEX_ENTRY, new Entry(this, name, ticket));
+    }
+
+    /**
+     * Drops the receipt of the session holding the ticket, if there is one on
+     * this node, by clearing or invalidating the session.
+     *
+     * @return true if there was one
+     */
+    public boolean evict(String ticket)
+    {
+        HttpSession session = sessions.remove(ticket);
+        if (session == null) return false;
+        try
+        {
+            if (invalidate)
+            {
+                session.invalidate();
+            }
+            else
+            {
+                List<String> names = new ArrayList<String>();
+                for (Enumeration<?> e = session.getAttributeNames(); e.hasMoreElements();)
+                {
+                    names.add((String) e.nextElement());
+                }
+                for (String name : names)
+                {
+                    session.removeAttribute(name);
+                }
+            }
+        }
+        catch (IllegalStateException e)
+        {
+            // already invalidated
+            log.debug("session holding " + ticket + " was already invalid");
+        }
+        return true;
+    }
+
+    /**
+     * Evicts the sessions holding tickets the storage says are logged out, for
+     * logouts that reached another node of a cluster.
+     *
+     * @return the tickets evicted
+     */
+    public List<String> evictLoggedOut(LogoutStorage logoutStorage)
+    {
+        List<String> evicted = new ArrayList<String>();
+        for (Map.Entry<String, HttpSession> entry : sessions.entrySet())
+        {
+            String ticket = entry.getKey();
+            if (logoutStorage.contains(ticket) && evict(ticket)) evicted.add(ticket);
+        }
+        return evicted;
+    }
+
+    /**
+     * @return the number of sessions indexed
+     */
+    public int size()
+    {
+        return sessions.size();
+    }
+
+    /**
+     * Removes the session from the index when unbound or passivated, and puts
+     * it back when activated. It is serializable so that sessions holding it
+     * still replicate; a deserialized copy refers to no index until its
+     * session is activated and the index is found by name.
+     */
+    private static final class Entry implements HttpSessionBindingListener, HttpSessionActivationListener,
+            Serializable
+    {
+        private static final long serialVersionUID = 1L;
+
+        private transient SessionIndex index;
+
+        private final String indexName;
+
+        private final String ticket;
+
+        Entry(SessionIndex index, String indexName, String ticket)
+        {
+            this.index = index;
+            this.indexName = indexName;
+            this.ticket = ticket;
+        }
+
+        public void valueBound(HttpSessionBindingEvent event)
+        {
+        }
+
+        public void valueUnbound(HttpSessionBindingEvent event)
+        {
+            // tickets are single-use, so no other session holds this one
+            if (index != null) index.sessions.remove(ticket);
+        }
+
+        public void sessionWillPassivate(HttpSessionEvent event)
+        {
+            // the object indexed may not be the one activated later
+            if (index != null) index.sessions.remove(ticket, event.getSession());
+        }
+
+        public void sessionDidActivate(HttpSessionEvent event)
+        {
+            if (index == null && indexName != null) index = INDEXES.get(indexName);
+            if (index != null) index.sessions.put(ticket, event.getSession());
+        }
+    }
+}
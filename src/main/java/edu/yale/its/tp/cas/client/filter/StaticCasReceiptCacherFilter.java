@@ -5,10 +5,13 @@
 package edu.yale.its.tp.cas.client.filter;
 
 import java.io.*;
-import java.util.*;
+import java.util.concurrent.TimeUnit;
 import javax.servlet.*;
 import javax.servlet.http.*;
 import edu.yale.its.tp.cas.client.*;
+import edu.yale.its.tp.cas.metrics.Gauge;
+import edu.yale.its.tp.cas.metrics.Metrics;
+import edu.yale.its.tp.cas.util.Configuration;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -18,6 +21,13 @@ import org.apache.commons.logging.LogFactory;
  * Static filter class which caches CASReceipts, keyed by the tickets the
  * validation of which the receipts represent.
  * </p>
+ * <p>
+ * CCCI The cache is bounded and its entries expire; see
+ * <code>CACHE_SIZE_INIT_PARAM</code> and <code>CACHE_TTL_INIT_PARAM</code>.
+ * Its size and evictions are reported as the gauges
+ * <code>cas.StaticCasReceiptCacherFilter.size</code> and
+ * <code>cas.StaticCasReceiptCacherFilter.evictions</code>.
+ * </p>
  * 
  * @author andrew.petro@yale.edu
  */
@@ -26,11 +36,59 @@ public class StaticCasReceiptCacherFilter implements Filter
 
     private static Log log = LogFactory.getLog(StaticCasReceiptCacherFilter.class);
 
-    private static Map ticketsToReceipts = Collections.synchronizedMap(new HashMap());
+    /**
+     * CCCI The name of the filter initialization parameter the value of which
+     * is the number of receipts cached. Defaults to 10000.
+     */
+    public final static String CACHE_SIZE_INIT_PARAM = "edu.yale.its.tp.cas.client.filter.receiptCacherSize";
+
+    /**
+     * CCCI The name of the filter initialization parameter the value of which
+     * is how many seconds a receipt is cached. Defaults to 28800 (eight
+     * hours).
+     */
+    public final static String CACHE_TTL_INIT_PARAM = "edu.yale.its.tp.cas.client.filter.receiptCacherTtl";
 
-    public void init(FilterConfig config) throws ServletException
+    private static final long DEFAULT_CACHE_SIZE = 10000;
+
+    private static final long DEFAULT_CACHE_TTL_SECONDS = 28800;
+
+    /**
+     * CCCI Shared by every instance of the filter; the last to be initialized
+     * sets its bounds.
+     */
+    private static volatile TicketCache<CASReceipt> ticketsToReceipts = new TicketCache<CASReceipt>(
+        DEFAULT_CACHE_SIZE, DEFAULT_CACHE_TTL_SECONDS, TimeUnit.SECONDS);
+
+    static
     {
+        // CCCI
+        Metrics.gauge("cas.StaticCasReceiptCacherFilter.size", new Gauge()
+        {
+            public long getValue()
+            {
+                return ticketsToReceipts.size();
+            }
+        });
+        Metrics.gauge("cas.StaticCasReceiptCacherFilter.evictions", new Gauge()
+        {
+            public long getValue()
+            {
+                return ticketsToReceipts.getEvictionCount();
+            }
+        });
+    }
 
+    public void init(FilterConfig config) throws ServletException
+    {
+        // CCCI
+        if (Configuration.getParameter(config, CACHE_SIZE_INIT_PARAM) != null
+                || Configuration.getParameter(config, CACHE_TTL_INIT_PARAM) != null)
+        {
+            ticketsToReceipts = new TicketCache<CASReceipt>(CASFilter.getLongParameter(config,
+                CACHE_SIZE_INIT_PARAM, DEFAULT_CACHE_SIZE), CASFilter.getLongParameter(config, CACHE_TTL_INIT_PARAM,
+                DEFAULT_CACHE_TTL_SECONDS), TimeUnit.SECONDS);
+        }
     }
 
     public void doFilter(ServletRequest request, ServletResponse response, FilterChain fc) throws ServletException,
@@ -89,7 +147,28 @@ public class StaticCasReceiptCacherFilter implements Filter
      */
     public static CASReceipt receiptForTicket(String ticket)
     {
-        return (CASReceipt) StaticCasReceiptCacherFilter.ticketsToReceipts.get(ticket);
+        return StaticCasReceiptCacherFilter.ticketsToReceipts.get(ticket);
+    }
+
+    /**
+     * CCCI
+     *
+     * @return the number of receipts cached
+     */
+    public static int getCachedReceiptCount()
+    {
+        return ticketsToReceipts.size();
+    }
+
+    /**
+     * CCCI
+     *
+     * @return the number of receipts evicted, for size or expiry, since the
+     *         cache was configured
+     */
+    public static long getEvictionCount()
+    {
+        return ticketsToReceipts.getEvictionCount();
     }
 
     /*
@@ -0,0 +1,110 @@
+package edu.yale.its.tp.cas.client.filter;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+
+/**
+ * A concurrent, size-capped map from ticket to whatever a filter keeps about
+ * it, whose entries expire a fixed time after they were added. Lookups and
+ * additions take no global lock.
+ * 
+ * @param <V>
+ *            - what is kept for each ticket
+ */
+public class TicketCache<V>
+{
+
+    private final Cache<String, V> entries;
+
+    private final AtomicLong sizeEvictions = new AtomicLong();
+
+    /**
+     * @param maximumSize
+     *            - entries beyond this are evicted, least recently used first
+     * @param ttl
+     *            - how long after being added an entry expires
+     */
+    public TicketCache(long maximumSize, long ttl, TimeUnit unit)
+    {
+        this(maximumSize, ttl, unit, Ticker.systemTicker());
+    }
+
+    TicketCache(long maximumSize, long ttl, TimeUnit unit, Ticker ticker)
+    {
+        entries = CacheBuilder.newBuilder()
+            .maximumSize(maximumSize)
+            .expireAfterWrite(ttl, unit)
+            .ticker(ticker)
+            .recordStats()
+            .removalListener(new RemovalListener<String, V>()
+            {
+                public void onRemoval(RemovalNotification<String, V> notification)
+                {
+                    if (notification.getCause() == RemovalCause.SIZE) sizeEvictions.incrementAndGet();
+                }
+            })
+            .build();
+    }
+
+    public void put(String ticket, V value)
+    {
+        entries.put(ticket, value);
+    }
+
+    /**
+     * @return the value kept for the ticket, or null if none or expired
+     */
+    public V get(String ticket)
+    {
+        return entries.getIfPresent(ticket);
+    }
+
+    public boolean contains(String ticket)
+    {
+        return entries.getIfPresent(ticket) != null;
+    }
+
+    public void remove(String ticket)
+    {
+        entries.invalidate(ticket);
+    }
+
+    /**
+     * @return the number of unexpired entries
+     */
+    public int size()
+    {
+        entries.cleanUp();
+        return (int) entries.size();
+    }
+
+    /**
+     * @return the number of entries evicted, for size or expiry, so far
+     */
+    public long getEvictionCount()
+    {
+        entries.cleanUp();
+        return entries.stats().evictionCount();
+    }
+
+    /**
+     * @return the number of entries evicted before they expired, because the
+     *         cache was full
+     */
+    public long getSizeEvictionCount()
+    {
+        return sizeEvictions.get();
+    }
+
+    public String toString()
+    {
+        return "[TicketCache size=" + entries.size() + "]";
+    }
+}
@@ -0,0 +1,71 @@
+package edu.yale.its.tp.cas.client.filter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+
+import edu.yale.its.tp.cas.client.ServiceUrlBuilder;
+
+/**
+ * Hides the <code>ticket</code> parameter of a request whose ticket has just
+ * been validated, so that the rest of the chain sees the request as it would
+ * have arrived after the redirect that removes the ticket from the URL.
+ */
+class TicketHidingRequestWrapper extends HttpServletRequestWrapper
+{
+
+    private static final String TICKET_PARAM = "ticket";
+
+    TicketHidingRequestWrapper(HttpServletRequest request)
+    {
+        super(request);
+    }
+
+    @Override
+    public String getParameter(String name)
+    {
+        if (TICKET_PARAM.equals(name)) return null;
+        return super.getParameter(name);
+    }
+
+    @Override
+    public String[] getParameterValues(String name)
+    {
+        if (TICKET_PARAM.equals(name)) return null;
+        return super.getParameterValues(name);
+    }
+
+    @Override
+    public Map getParameterMap()
+    {
+        Map parameters = super.getParameterMap();
+        if (!parameters.containsKey(TICKET_PARAM)) return parameters;
+        Map copy = new HashMap(parameters);
+        copy.remove(TICKET_PARAM);
+        return Collections.unmodifiableMap(copy);
+    }
+
+    @Override
+    public Enumeration getParameterNames()
+    {
+        List<Object> names = new ArrayList<Object>();
+        for (Enumeration e = super.getParameterNames(); e.hasMoreElements();)
+        {
+            Object name = e.nextElement();
+            if (!TICKET_PARAM.equals(name)) names.add(name);
+        }
+        return Collections.enumeration(names);
+    }
+
+    @Override
+    public String getQueryString()
+    {
+        return ServiceUrlBuilder.removeTicket(super.getQueryString());
+    }
+}
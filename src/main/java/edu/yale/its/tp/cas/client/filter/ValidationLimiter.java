@@ -0,0 +1,390 @@
+package edu.yale.its.tp.cas.client.filter;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import edu.yale.its.tp.cas.metrics.AtomicCounter;
+import edu.yale.its.tp.cas.metrics.Counter;
+import edu.yale.its.tp.cas.metrics.Metrics;
+import edu.yale.its.tp.cas.util.LatencyHistogram;
+
+/**
+ * Decides whether a ticket may be sent to CAS for validation now, so that a
+ * misbehaving client or a thundering herd after a deploy cannot swamp the CAS
+ * servers on everyone else's behalf.
+ * <p>
+ * Three limits apply, each disabled when given as 0:
+ * <ul>
+ * <li>a token bucket shared by all clients, refilled at the given rate and
+ * holding at most the given burst;</li>
+ * <li>a token bucket per client address, kept for the most recently seen
+ * {@value #MAXIMUM_CLIENTS} addresses;</li>
+ * <li>a limit on validations in flight, which adapts to CAS's latency: it
+ * grows by about one per round trip while validations take no longer than
+ * {@value #LATENCY_TOLERANCE} times the baseline, and shrinks by a tenth, at
+ * most once per round trip, when they take longer. It never exceeds the given
+ * maximum nor drops below 1.</li>
+ * </ul>
+ * The baseline is the {@value #BASELINE_PERCENTILE}th percentile latency of
+ * the answers CAS gave, validating the ticket or rejecting it, in the last one
+ * to two minutes, so that no single answer, however fast, sets it, and so that
+ * it follows CAS if CAS gets slower for good. A validation that timed out or
+ * could not reach CAS shrinks the limit as a slow answer would; one that ended
+ * before reaching CAS leaves it be.
+ * <p>
+ * A validation that passes all three is given a {@link Permit}, which must be
+ * released once CAS has answered.
+ */
+public class ValidationLimiter
+{
+
+    private static Log log = LogFactory.getLog(ValidationLimiter.class);
+
+    /** client addresses whose buckets are kept */
+    public static final int MAXIMUM_CLIENTS = 10000;
+
+    /** how much slower than the baseline a validation may be before the limit shrinks */
+    public static final double LATENCY_TOLERANCE = 2.0;
+
+    private static final double BACKOFF = 0.9;
+
+    /** the percentile of recent latencies taken as the baseline */
+    public static final double BASELINE_PERCENTILE = 10;
+
+    /** latencies are recent for this window and the next */
+    private static final long BASELINE_WINDOW_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private static final Counter SHED_RATE = Metrics.counter("cas.ValidationLimiter.shedRate");
+
+    private static final Counter SHED_CLIENT_RATE = Metrics.counter("cas.ValidationLimiter.shedClientRate");
+
+    private static final Counter SHED_CONCURRENCY = Metrics.counter("cas.ValidationLimiter.shedConcurrency");
+
+    private static final Counter LIMIT_DECREASES = Metrics.counter("cas.ValidationLimiter.limitDecrease");
+
+    private final Ticker ticker;
+
+    /** null if unlimited */
+    private final TokenBucket bucket;
+
+    /** null if unlimited */
+    private final Cache<String, TokenBucket> clientBuckets;
+
+    private final double clientRate;
+
+    private final long clientBurst;
+
+    private final int maximumConcurrency;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    // guarded by this
+    private double limit;
+
+    private LatencyHistogram currentLatencies = new LatencyHistogram();
+
+    /** the current window's latencies and the previous window's */
+    private LatencyHistogram recentLatencies = new LatencyHistogram();
+
+    private long windowEnd;
+
+    private long lastDecrease;
+
+    private final AtomicCounter shedRate = new AtomicCounter();
+
+    private final AtomicCounter shedClientRate = new AtomicCounter();
+
+    private final AtomicCounter shedConcurrency = new AtomicCounter();
+
+    /**
+     * @param rate
+     *            - validations per second, from all clients
+     * @param burst
+     *            - validations allowed at once after a quiet spell
+     * @param clientRate
+     *            - validations per second from any one client address
+     * @param clientBurst
+     *            - the same, for one client address
+     * @param maximumConcurrency
+     *            - the most validations in flight at once
+     */
+    public ValidationLimiter(double rate, long burst, double clientRate, long clientBurst, int maximumConcurrency)
+    {
+        this(rate, burst, clientRate, clientBurst, maximumConcurrency, Ticker.systemTicker());
+    }
+
+    ValidationLimiter(double rate, long burst, double clientRate, long clientBurst, int maximumConcurrency,
+            Ticker ticker)
+    {
+        this.ticker = ticker;
+        bucket = rate > 0 ? new TokenBucket(rate, Math.max(1, burst), ticker.read()) : null;
+        this.clientRate = clientRate;
+        this.clientBurst = Math.max(1, clientBurst);
+        if (clientRate > 0)
+        {
+            // an idle bucket is full again after burst / rate, and may be forgotten
+            long refillNanos = (long) Math.ceil(this.clientBurst / clientRate * TimeUnit.SECONDS.toNanos(1));
+            clientBuckets = CacheBuilder.newBuilder()
+                .maximumSize(MAXIMUM_CLIENTS)
+                .expireAfterAccess(refillNanos, TimeUnit.NANOSECONDS)
+                .ticker(ticker)
+                .build();
+        }
+        else
+        {
+            clientBuckets = null;
+        }
+        this.maximumConcurrency = maximumConcurrency;
+        limit = maximumConcurrency;
+        lastDecrease = ticker.read();
+        windowEnd = lastDecrease + BASELINE_WINDOW_NANOS;
+    }
+
+    /**
+     * @param client
+     *            - the client's address; may be null
+     * @return a permit to validate, or null if the validation should be shed
+     */
+    public Permit acquire(String client)
+    {
+        long now = ticker.read();
+        if (clientBuckets != null && client != null && !clientBucket(client, now).tryTake(now))
+        {
+            SHED_CLIENT_RATE.increment();
+            shedClientRate.increment();
+            log.debug("Shedding validation for " + client + ": over its rate limit");
+            return null;
+        }
+        if (bucket != null && !bucket.tryTake(now))
+        {
+            SHED_RATE.increment();
+            shedRate.increment();
+            log.debug("Shedding validation for " + client + ": over the rate limit");
+            return null;
+        }
+        if (maximumConcurrency > 0)
+        {
+            int current = inFlight.incrementAndGet();
+            if (current > getConcurrencyLimit())
+            {
+                inFlight.decrementAndGet();
+                SHED_CONCURRENCY.increment();
+                shedConcurrency.increment();
+                log.debug("Shedding validation for " + client + ": " + (current - 1) + " already in flight");
+                return null;
+            }
+        }
+        return new Permit(now);
+    }
+
+    private TokenBucket clientBucket(String client, final long now)
+    {
+        try
+        {
+            return clientBuckets.get(client, new Callable<TokenBucket>()
+            {
+                public TokenBucket call()
+                {
+                    return new TokenBucket(clientRate, clientBurst, now);
+                }
+            });
+        }
+        catch (ExecutionException e)
+        {
+            // the loader cannot fail
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Adjusts the concurrency limit to a validation's latency.
+     */
+    private synchronized void sample(long latencyNanos, long now, int inFlightAtStart)
+    {
+        if (now - windowEnd >= 0)
+        {
+            // a quiet spell longer than a window leaves nothing recent
+            recentLatencies = new LatencyHistogram();
+            if (now - windowEnd < BASELINE_WINDOW_NANOS) recentLatencies.add(currentLatencies);
+            currentLatencies = new LatencyHistogram();
+            windowEnd = now + BASELINE_WINDOW_NANOS;
+        }
+        currentLatencies.record(latencyNanos);
+        recentLatencies.record(latencyNanos);
+        double baselineNanos = recentLatencies.getPercentile(BASELINE_PERCENTILE, TimeUnit.NANOSECONDS);
+
+        if (latencyNanos > baselineNanos * LATENCY_TOLERANCE)
+        {
+            decrease(latencyNanos, now);
+        }
+        else if (inFlightAtStart * 2 >= limit)
+        {
+            // only grow a limit that is being used
+            limit = Math.min(maximumConcurrency, limit + 1 / limit);
+        }
+    }
+
+    /**
+     * Shrinks the concurrency limit, once per round trip, like TCP, so that a
+     * burst of slow answers counts once.
+     */
+    private synchronized void decrease(long latencyNanos, long now)
+    {
+        if (now - lastDecrease < latencyNanos) return;
+        limit = Math.max(1, limit * BACKOFF);
+        lastDecrease = now;
+        LIMIT_DECREASES.increment();
+    }
+
+    /**
+     * @return the validations now allowed in flight at once, or 0 if
+     *         unlimited
+     */
+    public synchronized int getConcurrencyLimit()
+    {
+        return (int) limit;
+    }
+
+    public int getInFlight()
+    {
+        return inFlight.get();
+    }
+
+    /**
+     * @return validations shed by the limit on all clients
+     */
+    public long getShedByRate()
+    {
+        return shedRate.getCount();
+    }
+
+    /**
+     * @return validations shed by the limit on each client
+     */
+    public long getShedByClientRate()
+    {
+        return shedClientRate.getCount();
+    }
+
+    /**
+     * @return validations shed by the concurrency limit
+     */
+    public long getShedByConcurrency()
+    {
+        return shedConcurrency.getCount();
+    }
+
+    public String toString()
+    {
+        return "[ValidationLimiter rate=" + (bucket == null ? "unlimited" : bucket.ratePerNano * 1e9)
+                + " clientRate=" + (clientBuckets == null ? "unlimited" : clientRate) + " concurrencyLimit="
+                + (maximumConcurrency > 0 ? getConcurrencyLimit() + "/" + maximumConcurrency : "unlimited") + "]";
+    }
+
+    /**
+     * Leave to validate one ticket.
+     */
+    public final class Permit
+    {
+        private final long start;
+
+        private final int inFlightAtStart;
+
+        private boolean released;
+
+        Permit(long start)
+        {
+            this.start = start;
+            this.inFlightAtStart = inFlight.get();
+        }
+
+        /**
+         * Call once CAS has answered, whether it validated the ticket or
+         * rejected it.
+         */
+        public void answered()
+        {
+            if (!release(true)) return;
+            long now = ticker.read();
+            sample(now - start, now, inFlightAtStart);
+        }
+
+        /**
+         * Call when CAS could not be reached or did not answer in time, a sign
+         * that it is overloaded.
+         */
+        public void failed()
+        {
+            if (!release(true)) return;
+            long now = ticker.read();
+            decrease(now - start, now);
+        }
+
+        /**
+         * Call when the validation ended without reaching CAS; safe to call
+         * after the others, as only the first call counts.
+         */
+        public void release()
+        {
+            release(false);
+        }
+
+        /**
+         * @return whether this was the first call, and the limit adapts
+         */
+        private synchronized boolean release(boolean adapt)
+        {
+            if (released) return false;
+            released = true;
+            if (maximumConcurrency <= 0) return false;
+            inFlight.decrementAndGet();
+            return adapt;
+        }
+    }
+
+    /**
+     * Tokens accrue continuously at the rate, up to the burst; each
+     * validation takes one.
+     */
+    private static final class TokenBucket
+    {
+        final double ratePerNano;
+
+        final double burst;
+
+        // guarded by this
+        private double tokens;
+
+        private long refilled;
+
+        TokenBucket(double ratePerSecond, long burst, long now)
+        {
+            this.ratePerNano = ratePerSecond / TimeUnit.SECONDS.toNanos(1);
+            this.burst = burst;
+            this.tokens = burst;
+            this.refilled = now;
+        }
+
+        synchronized boolean tryTake(long now)
+        {
+            // another thread may have refilled with a later time than ours
+            if (now > refilled)
+            {
+                tokens = Math.min(burst, tokens + (now - refilled) * ratePerNano);
+                refilled = now;
+            }
+            if (tokens < 1) return false;
+            tokens--;
+            return true;
+        }
+    }
+}
@@ -62,6 +62,9 @@ import org.xml.sax.SAXException;
 public class AuthTag extends TagSupport
 {
 
+    /** CCCI source of this tag's ValidationEvents */
+    private static final String EVENT_SOURCE = "AuthTag";
+
     // *********************************************************************
     // Internal state
 
@@ -111,11 +114,14 @@ public class AuthTag extends TagSupport
             }
 
             // Yay, ticket! Validate it.
-            String netid = getAuthenticatedNetid(ticket);
+            String correlationId = ValidationListeners.isActive() ? ValidationEvent.newCorrelationId() : null;
+            ValidationListeners.fire(ValidationEvent.Type.TICKET_RECEIVED, EVENT_SOURCE, correlationId, ticket, null);
+            String netid = getAuthenticatedNetid(ticket, correlationId);
             if (netid == null) throw new JspTagException("Unexpected CAS authentication error");
 
             // Store the authenticate user in the id/scope attribute
             pageContext.setAttribute(var, netid, scope);
+            ValidationListeners.fire(ValidationEvent.Type.RECEIPT_STORED, EVENT_SOURCE, correlationId, ticket, netid);
 
             return EVAL_PAGE;
 
@@ -208,16 +214,23 @@ public class AuthTag extends TagSupport
     // *********************************************************************
     // Utility methods
 
-    private String getAuthenticatedNetid(String ticket) throws ParserConfigurationException, SAXException, IOException,
-            JspTagException
+    private String getAuthenticatedNetid(String ticket, String correlationId) throws ParserConfigurationException,
+            SAXException, IOException, JspTagException
     {
         ProxyTicketValidator pv = new ProxyTicketValidator();
         pv.setCasValidateUrl(casValidate);
         pv.setServiceTicket(ticket);
         pv.setService(service);
+        pv.setCorrelationId(correlationId);
+        ValidationListeners.fire(ValidationEvent.Type.VALIDATION_STARTED, EVENT_SOURCE, correlationId, ticket,
+            casValidate);
         pv.validate();
         if (!pv.isAuthenticationSuccesful())
+        {
+            ValidationListeners.fire(ValidationEvent.Type.VALIDATION_FAILED, EVENT_SOURCE, correlationId, ticket,
+                pv.getErrorCode());
             throw new JspTagException("CAS authentication error: " + pv.getErrorCode());
+        }
         if (pv.getProxyList().size() != 0)
         {
             // ticket was proxied
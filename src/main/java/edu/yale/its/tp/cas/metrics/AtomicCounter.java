@@ -0,0 +1,32 @@
+package edu.yale.its.tp.cas.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A lock-free {@link Counter}.
+ */
+public class AtomicCounter implements Counter
+{
+
+    private final AtomicLong count = new AtomicLong();
+
+    public void increment()
+    {
+        count.incrementAndGet();
+    }
+
+    public void add(long delta)
+    {
+        count.addAndGet(delta);
+    }
+
+    public long getCount()
+    {
+        return count.get();
+    }
+
+    public String toString()
+    {
+        return String.valueOf(count.get());
+    }
+}
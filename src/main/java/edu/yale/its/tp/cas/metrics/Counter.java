@@ -0,0 +1,12 @@
+package edu.yale.its.tp.cas.metrics;
+
+/**
+ * A count of events, obtained from {@link Metrics#counter(String)}.
+ */
+public interface Counter
+{
+
+    void increment();
+
+    void add(long delta);
+}
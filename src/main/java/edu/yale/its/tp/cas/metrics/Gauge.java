@@ -0,0 +1,11 @@
+package edu.yale.its.tp.cas.metrics;
+
+/**
+ * A value sampled when the reporter asks for it, registered with
+ * {@link Metrics#gauge(String, Gauge)}.
+ */
+public interface Gauge
+{
+
+    long getValue();
+}
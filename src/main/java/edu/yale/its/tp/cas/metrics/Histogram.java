@@ -0,0 +1,30 @@
+package edu.yale.its.tp.cas.metrics;
+
+/**
+ * A distribution of durations in nanoseconds, obtained from
+ * {@link Metrics#histogram(String)}. Timed code should use
+ * {@link #start()} and {@link #recordSince(long)} rather than calling
+ * {@link System#nanoTime()} itself, so that a disabled histogram does not read
+ * the clock at all:
+ *
+ * <pre>
+ * long start = VALIDATION.start();
+ * try { ... } finally { VALIDATION.recordSince(start); }
+ * </pre>
+ */
+public interface Histogram
+{
+
+    /**
+     * @return a start time to pass to {@link #recordSince(long)}
+     */
+    long start();
+
+    /**
+     * Records the time elapsed since <code>start</code>, a value returned by
+     * {@link #start()}.
+     */
+    void recordSince(long start);
+
+    void record(long nanos);
+}
@@ -0,0 +1,72 @@
+package edu.yale.its.tp.cas.metrics;
+
+import java.util.Iterator;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Entry point for instrumented code. The {@link MetricsReporter} is looked up
+ * once, with {@link ServiceLoader}, the first time this class is used;
+ * instrumented classes hold their instruments in static final fields:
+ *
+ * <pre>
+ * private static final Counter REDIRECTS = Metrics.counter(&quot;cas.CASFilter.redirectToCas&quot;);
+ * </pre>
+ */
+public final class Metrics
+{
+
+    private static Log log = LogFactory.getLog(Metrics.class);
+
+    private static final MetricsReporter reporter = loadReporter();
+
+    private Metrics()
+    {
+    }
+
+    private static MetricsReporter loadReporter()
+    {
+        try
+        {
+            Iterator<MetricsReporter> reporters = ServiceLoader.load(MetricsReporter.class).iterator();
+            if (reporters.hasNext())
+            {
+                MetricsReporter found = reporters.next();
+                if (reporters.hasNext())
+                {
+                    log.warn("More than one MetricsReporter installed; using " + found.getClass().getName());
+                }
+                log.info("Reporting CAS client metrics to " + found.getClass().getName());
+                return found;
+            }
+        }
+        catch (ServiceConfigurationError e)
+        {
+            log.error("Unable to load MetricsReporter; CAS client metrics are disabled", e);
+        }
+        return NoopMetricsReporter.INSTANCE;
+    }
+
+    public static MetricsReporter getReporter()
+    {
+        return reporter;
+    }
+
+    public static Counter counter(String name)
+    {
+        return reporter.counter(name);
+    }
+
+    public static Histogram histogram(String name)
+    {
+        return reporter.histogram(name);
+    }
+
+    public static void gauge(String name, Gauge gauge)
+    {
+        reporter.gauge(name, gauge);
+    }
+}
@@ -0,0 +1,28 @@
+package edu.yale.its.tp.cas.metrics;
+
+/**
+ * Service provider interface for feeding the CAS client's metrics to a
+ * telemetry system. An implementation is discovered with
+ * {@link java.util.ServiceLoader}: name it in
+ * <code>META-INF/services/edu.yale.its.tp.cas.metrics.MetricsReporter</code>.
+ * Without one, {@link NoopMetricsReporter} is used.
+ * <p>
+ * Instruments are requested once, usually when a class is initialized, and
+ * then used on request-processing paths, so they must be thread-safe and
+ * cheap. Asking twice for the same name should return the same instrument.
+ * Extending {@link RegistryMetricsReporter} gives lock-free instruments that
+ * a reporter need only read periodically.
+ */
+public interface MetricsReporter
+{
+
+    Counter counter(String name);
+
+    Histogram histogram(String name);
+
+    /**
+     * Registers a gauge. A later gauge with the same name replaces an earlier
+     * one.
+     */
+    void gauge(String name, Gauge gauge);
+}
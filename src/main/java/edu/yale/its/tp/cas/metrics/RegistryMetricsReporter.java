@@ -0,0 +1,69 @@
+package edu.yale.its.tp.cas.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import edu.yale.its.tp.cas.util.LatencyHistogram;
+
+/**
+ * A {@link MetricsReporter} that keeps every instrument in memory, using
+ * {@link AtomicCounter} and {@link LatencyHistogram}, so that recording is
+ * lock-free. A reporter for a particular telemetry system can extend this and
+ * read {@link #getCounters()}, {@link #getHistograms()} and
+ * {@link #getGauges()} on its own schedule.
+ */
+public class RegistryMetricsReporter implements MetricsReporter
+{
+
+    private final ConcurrentMap<String, AtomicCounter> counters = new ConcurrentHashMap<String, AtomicCounter>();
+
+    private final ConcurrentMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<String, LatencyHistogram>();
+
+    private final ConcurrentMap<String, Gauge> gauges = new ConcurrentHashMap<String, Gauge>();
+
+    public Counter counter(String name)
+    {
+        AtomicCounter counter = counters.get(name);
+        if (counter == null)
+        {
+            AtomicCounter created = new AtomicCounter();
+            counter = counters.putIfAbsent(name, created);
+            if (counter == null) counter = created;
+        }
+        return counter;
+    }
+
+    public Histogram histogram(String name)
+    {
+        LatencyHistogram histogram = histograms.get(name);
+        if (histogram == null)
+        {
+            LatencyHistogram created = new LatencyHistogram();
+            histogram = histograms.putIfAbsent(name, created);
+            if (histogram == null) histogram = created;
+        }
+        return histogram;
+    }
+
+    public void gauge(String name, Gauge gauge)
+    {
+        gauges.put(name, gauge);
+    }
+
+    public Map<String, AtomicCounter> getCounters()
+    {
+        return Collections.unmodifiableMap(counters);
+    }
+
+    public Map<String, LatencyHistogram> getHistograms()
+    {
+        return Collections.unmodifiableMap(histograms);
+    }
+
+    public Map<String, Gauge> getGauges()
+    {
+        return Collections.unmodifiableMap(gauges);
+    }
+}
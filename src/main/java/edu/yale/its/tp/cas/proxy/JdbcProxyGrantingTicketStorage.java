@@ -0,0 +1,86 @@
+package edu.yale.its.tp.cas.proxy;
+
+import java.sql.SQLException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import edu.yale.its.tp.cas.util.JdbcTicketTable;
+
+/**
+ * Keeps ProxyGrantingTickets in a database table shared by a cluster, so that
+ * CAS's callback may reach any node. Writes are batched; CAS's callback waits
+ * for its ticket to be written, because CAS then answers the validation, and
+ * the node that made it asks for the ticket straight away. For the same reason
+ * a ticket not found is always looked for again.
+ */
+class JdbcProxyGrantingTicketStorage implements ProxyGrantingTicketStorage
+{
+
+    private static final Log log = LogFactory.getLog(JdbcProxyGrantingTicketStorage.class);
+
+    private final JdbcTicketTable table;
+
+    private final long ttlMillis;
+
+    /**
+     * @param table
+     *            - with a miss ttl of zero
+     * @param ttl
+     *            - how long a ticket is kept; CAS expires it with the single
+     *            sign-on session
+     */
+    JdbcProxyGrantingTicketStorage(JdbcTicketTable table, long ttl, TimeUnit unit)
+    {
+        this.table = table;
+        ttlMillis = unit.toMillis(ttl);
+    }
+
+    public Future<?> put(String pgtIou, ProxyGrantingTicket pgt)
+    {
+        // URLs have no spaces
+        return table.put(pgtIou, pgt.getCasProxyUrl() + " " + pgt.getPgtId(), System.currentTimeMillis() + ttlMillis);
+    }
+
+    public ProxyGrantingTicket get(String pgtIou)
+    {
+        String value;
+        try
+        {
+            value = table.get(pgtIou);
+        }
+        catch (SQLException e)
+        {
+            log.error("Unable to look up the ProxyGrantingTicket for pgtIou=[" + pgtIou + "]", e);
+            return null;
+        }
+        if (value == null) return null;
+        int space = value.indexOf(' ');
+        return new ProxyGrantingTicket(value.substring(space + 1), value.substring(0, space));
+    }
+
+    public int size()
+    {
+        try
+        {
+            return table.count();
+        }
+        catch (SQLException e)
+        {
+            log.warn("Unable to count ProxyGrantingTickets", e);
+            return -1;
+        }
+    }
+
+    public void close()
+    {
+        table.close();
+    }
+
+    public String toString()
+    {
+        return table.toString();
+    }
+}
@@ -0,0 +1,44 @@
+package edu.yale.its.tp.cas.proxy;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Future;
+
+import com.google.common.util.concurrent.Futures;
+
+/**
+ * Keeps ProxyGrantingTickets in memory, for a single node, for as long as it
+ * runs.
+ */
+class MapProxyGrantingTicketStorage implements ProxyGrantingTicketStorage
+{
+
+    private final Map<String, ProxyGrantingTicket> pgtMap = Collections
+        .synchronizedMap(new HashMap<String, ProxyGrantingTicket>());
+
+    public Future<?> put(String pgtIou, ProxyGrantingTicket pgt)
+    {
+        pgtMap.put(pgtIou, pgt);
+        return Futures.immediateFuture(null);
+    }
+
+    public ProxyGrantingTicket get(String pgtIou)
+    {
+        return pgtMap.get(pgtIou);
+    }
+
+    public int size()
+    {
+        return pgtMap.size();
+    }
+
+    public void close()
+    {
+    }
+
+    public String toString()
+    {
+        return pgtMap.toString();
+    }
+}
@@ -12,6 +12,9 @@ import java.io.IOException;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import edu.yale.its.tp.cas.metrics.Counter;
+import edu.yale.its.tp.cas.metrics.Histogram;
+import edu.yale.its.tp.cas.metrics.Metrics;
 import edu.yale.its.tp.cas.util.SecureURL;
 
 /**
@@ -25,6 +28,10 @@ class ProxyGrantingTicket
 
     private static Log log = LogFactory.getLog(ProxyGrantingTicket.class);
 
+    // CCCI
+    private static final Histogram GET_PROXY_TICKET_TIME = Metrics.histogram("cas.proxy.getProxyTicket");
+    private static final Counter PROXY_TICKET_FAILURES = Metrics.counter("cas.proxy.getProxyTicket.failure");
+
     /**
      * The value of the request parameter of the same name sent by CAS.
      */
@@ -78,7 +85,16 @@ class ProxyGrantingTicket
 
         // retrieve an XML response from CAS's "Proxy" actuator
         String url = this.casProxyUrl + "?pgt=" + this.pgtId + "&targetService=" + target;
-        String response = SecureURL.retrieve(url);
+        long start = GET_PROXY_TICKET_TIME.start();
+        String response;
+        try
+        {
+            response = SecureURL.retrieve(url);
+        }
+        finally
+        {
+            GET_PROXY_TICKET_TIME.recordSince(start);
+        }
 
         // parse this response (use a lightweight approach for now)
         if (response.indexOf("<cas:proxySuccess>") != -1 && response.indexOf("<cas:proxyTicket>") != -1)
@@ -89,6 +105,7 @@ class ProxyGrantingTicket
         }
         else
         {
+            PROXY_TICKET_FAILURES.increment();
             log.error("CAS server responded with error for request [" + url + "].  Full response was [" + response
                     + "]");
         }
@@ -97,6 +114,17 @@ class ProxyGrantingTicket
         return proxyTicket;
     }
 
+    // CCCI for ProxyGrantingTicketStorage
+    String getPgtId()
+    {
+        return this.pgtId;
+    }
+
+    String getCasProxyUrl()
+    {
+        return this.casProxyUrl;
+    }
+
     public String toString()
     {
         StringBuffer sb = new StringBuffer();
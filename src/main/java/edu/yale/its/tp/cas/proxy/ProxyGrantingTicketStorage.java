@@ -0,0 +1,27 @@
+package edu.yale.its.tp.cas.proxy;
+
+import java.util.concurrent.Future;
+
+/**
+ * Where ProxyTicketReceptor keeps the ProxyGrantingTickets CAS sends it, by
+ * IOU, until the application asks for a proxy ticket with one.
+ */
+interface ProxyGrantingTicketStorage
+{
+
+    /**
+     * @return completes when the ticket can be found by every node that will
+     *         be asked for it
+     */
+    Future<?> put(String pgtIou, ProxyGrantingTicket pgt);
+
+    /**
+     * @return the ticket for the IOU, or null if there is none
+     */
+    ProxyGrantingTicket get(String pgtIou);
+
+    /** @return the number of tickets held, for monitoring */
+    int size();
+
+    void close();
+}
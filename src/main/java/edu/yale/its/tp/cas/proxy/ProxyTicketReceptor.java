@@ -6,13 +6,25 @@
 package edu.yale.its.tp.cas.proxy;
 
 import java.io.*;
-import java.util.*;
+import java.sql.SQLException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import javax.naming.NamingException;
 import javax.servlet.*;
 import javax.servlet.http.*;
+import javax.sql.DataSource;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import edu.yale.its.tp.cas.client.ValidationEvent;
+import edu.yale.its.tp.cas.client.ValidationListeners;
+import edu.yale.its.tp.cas.metrics.Gauge;
+import edu.yale.its.tp.cas.metrics.Metrics;
+import edu.yale.its.tp.cas.util.JdbcTicketTable;
+
 /**
  * Receives and keeps track fo PGTs and serial PGT identifiers (IOUs) sent by
  * CAS in response to a ServiceValidate request. This version allows you to map
@@ -45,21 +57,65 @@ public class ProxyTicketReceptor extends HttpServlet
      */
     static final String PGT_ID_PARAM = "pgtId";
 
+    /**
+     * CCCI The name of the servlet (or application context) initialization
+     * parameter the value of which is the JNDI name of a DataSource, such as
+     * <code>java:comp/env/jdbc/cas</code>, in which to keep proxy granting
+     * tickets, so that they are shared by a cluster. Without it they are kept
+     * in memory.
+     */
+    public static final String DATA_SOURCE_INIT_PARAM = "edu.yale.its.tp.cas.proxy.dataSource";
+
+    /**
+     * CCCI The name of the initialization parameter the value of which is the
+     * table proxy granting tickets are kept in. Defaults to CAS_PGT.
+     */
+    public static final String TABLE_INIT_PARAM = "edu.yale.its.tp.cas.proxy.table";
+
+    /**
+     * CCCI The name of the initialization parameter the value of which is how
+     * many seconds a proxy granting ticket is kept in the database. Defaults
+     * to 28800.
+     */
+    public static final String PGT_TTL_INIT_PARAM = "edu.yale.its.tp.cas.proxy.pgtTtl";
+
+    /** CCCI how long CAS's callback waits for its ticket to be stored */
+    private static final long STORE_TIMEOUT_SECONDS = 10;
+
     // *********************************************************************
     // Private state
 
     /**
-     * A Map from proxy granting ticket IOUs to ProxyGrantingTicket s.
+     * CCCI proxy granting tickets by IOU; in memory unless a DataSource is
+     * configured.
      */
-    private static Map pgtMap = Collections.synchronizedMap(new HashMap());
+    private static volatile ProxyGrantingTicketStorage pgtStorage = new MapProxyGrantingTicketStorage();
+
+    static
+    {
+        // CCCI
+        Metrics.gauge("cas.proxy.pgtCount", new Gauge()
+        {
+            public long getValue()
+            {
+                return getProxyGrantingTicketCount();
+            }
+        });
+    }
 
     /**
      * The URL whereat CAS offers its proxy ticket vending service.
      */
     private String casProxyUrl;
 
+    /** CCCI the database storage this servlet installed, if any */
+    private ProxyGrantingTicketStorage jdbcStorage;
+
     private static final Log log = LogFactory.getLog(ProxyTicketReceptor.class);
 
+    /** CCCI source of this servlet's ValidationEvents */
+    private static final String EVENT_SOURCE = "ProxyTicketReceptor";
+
     // *********************************************************************
     // Initialization
 
@@ -87,12 +143,83 @@ public class ProxyTicketReceptor extends HttpServlet
         if (!this.casProxyUrl.toUpperCase().startsWith("HTTPS:")) { throw new ServletException(
             "Initialization parameter " + CAS_PROXYURL_INIT_PARAM
                     + " must specify an https: address; its current, unacceptable value is [" + this.casProxyUrl + "]"); }
+
+        // CCCI
+        String dataSourceName = getParameter(config, DATA_SOURCE_INIT_PARAM);
+        if (dataSourceName != null)
+        {
+            String table = getParameter(config, TABLE_INIT_PARAM);
+            String ttl = getParameter(config, PGT_TTL_INIT_PARAM);
+            // before the table is made, so that a bad ttl leaves no thread behind
+            long ttlSeconds;
+            try
+            {
+                ttlSeconds = ttl == null ? 28800 : Long.parseLong(ttl.trim());
+            }
+            catch (NumberFormatException e)
+            {
+                ttlSeconds = 0;
+            }
+            if (ttlSeconds <= 0)
+            {
+                throw new ServletException(PGT_TTL_INIT_PARAM + " must be a positive number; its current value is ["
+                        + ttl + "]");
+            }
+            try
+            {
+                DataSource dataSource = JdbcTicketTable.lookupDataSource(dataSourceName);
+                JdbcTicketTable tickets = new JdbcTicketTable(dataSource, table == null ? "CAS_PGT" : table,
+                    JdbcTicketTable.DEFAULT_FLUSH_INTERVAL_MILLIS, JdbcTicketTable.DEFAULT_PURGE_INTERVAL_MILLIS, 0,
+                    JdbcTicketTable.DEFAULT_CACHE_SIZE);
+                jdbcStorage = new JdbcProxyGrantingTicketStorage(tickets, ttlSeconds, TimeUnit.SECONDS);
+                setProxyGrantingTicketStorage(jdbcStorage);
+            }
+            catch (NamingException e)
+            {
+                throw new ServletException("Unable to look up DataSource " + dataSourceName, e);
+            }
+            catch (SQLException e)
+            {
+                throw new ServletException("Unable to use DataSource " + dataSourceName
+                        + " for proxy granting tickets", e);
+            }
+        }
+
         if (log.isTraceEnabled())
         {
             log.trace("returning from init() having configured a ProxyTicketReceptor as [" + this + "]");
         }
     }
 
+    /**
+     * CCCI a servlet initialization parameter, or else the application context
+     * parameter of the same name
+     */
+    private static String getParameter(ServletConfig config, String name)
+    {
+        String value = config.getInitParameter(name);
+        if (value == null) value = config.getServletContext().getInitParameter(name);
+        return value == null || value.trim().length() == 0 ? null : value.trim();
+    }
+
+    /**
+     * CCCI replaces, and closes, the storage in use; also for tests
+     */
+    static void setProxyGrantingTicketStorage(ProxyGrantingTicketStorage storage)
+    {
+        ProxyGrantingTicketStorage previous = pgtStorage;
+        pgtStorage = storage;
+        if (previous != storage) previous.close();
+    }
+
+    public void destroy()
+    {
+        // CCCI
+        if (jdbcStorage != null && pgtStorage == jdbcStorage)
+            setProxyGrantingTicketStorage(new MapProxyGrantingTicketStorage());
+        super.destroy();
+    }
+
     // *********************************************************************
     // Request handling
 
@@ -109,8 +236,13 @@ public class ProxyTicketReceptor extends HttpServlet
         {
             ProxyGrantingTicket pgt = new ProxyGrantingTicket(pgtId, this.casProxyUrl);
             log.debug("adding pgtIou=[" + pgtIou + "], pgt=[" + pgt + "] to the cache.");
-            // put is synchronized because pgt is a synchronized Map.
-            pgtMap.put(pgtIou, pgt);
+            // CCCI CAS may ask another node for the ticket as soon as we answer
+            if (!store(pgtIou, pgt))
+            {
+                response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                return;
+            }
+            ValidationListeners.fire(ValidationEvent.Type.TICKET_RECEIVED, EVENT_SOURCE, null, pgtIou, null);
 
             // inform CAS of success.
             PrintWriter out = response.getWriter();
@@ -121,6 +253,34 @@ public class ProxyTicketReceptor extends HttpServlet
         }
     }
 
+    /**
+     * CCCI
+     *
+     * @return true once the ticket is stored
+     */
+    private static boolean store(String pgtIou, ProxyGrantingTicket pgt)
+    {
+        Future<?> stored = pgtStorage.put(pgtIou, pgt);
+        try
+        {
+            stored.get(STORE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            return true;
+        }
+        catch (ExecutionException e)
+        {
+            log.error("Unable to store ProxyGrantingTicket for pgtIou=[" + pgtIou + "]", e.getCause());
+        }
+        catch (TimeoutException e)
+        {
+            log.error("Timed out storing ProxyGrantingTicket for pgtIou=[" + pgtIou + "]");
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
     /**
      * Retrieves a proxy ticket using the PGT that corresponds to the given PGT
      * IOU.
@@ -142,10 +302,14 @@ public class ProxyTicketReceptor extends HttpServlet
             log.trace("entering getProxyTicket(pgtIou=[" + pgtIou + "], target=[" + target + "]");
         }
 
-        // get is synchronized because pgtMap is a synchronized map
-        ProxyGrantingTicket pgt = (ProxyGrantingTicket) pgtMap.get(pgtIou);
+        ProxyGrantingTicket pgt = pgtStorage.get(pgtIou);
         String proxyTicket = null;
 
+        // CCCI
+        String correlationId = ValidationListeners.isActive() ? ValidationEvent.newCorrelationId() : null;
+        ValidationListeners.fire(ValidationEvent.Type.PROXY_TICKET_REQUESTED, EVENT_SOURCE, correlationId, pgtIou,
+            target);
+
         if (pgt == null)
         {
             log.error("No ProxyGrantingTicket found for pgtIou=[" + pgtIou + "]");
@@ -154,10 +318,28 @@ public class ProxyTicketReceptor extends HttpServlet
         {
             proxyTicket = pgt.getProxyTicket(target);
         }
+
+        if (proxyTicket != null)
+            ValidationListeners.fire(ValidationEvent.Type.PROXY_TICKET_OBTAINED, EVENT_SOURCE, correlationId, pgtIou,
+                target);
+        else
+            ValidationListeners.fire(ValidationEvent.Type.VALIDATION_FAILED, EVENT_SOURCE, correlationId, pgtIou,
+                "no proxy ticket obtained for " + target);
         log.trace("returning from getProxyTicket() with proxy ticket [" + proxyTicket + "]");
         return proxyTicket;
     }
 
+    /**
+     * CCCI
+     *
+     * @return the number of proxy granting tickets currently held, for
+     *         monitoring.
+     */
+    public static int getProxyGrantingTicketCount()
+    {
+        return pgtStorage.size();
+    }
+
     public String toString()
     {
         StringBuffer sb = new StringBuffer();
@@ -167,7 +349,7 @@ public class ProxyTicketReceptor extends HttpServlet
         sb.append(this.casProxyUrl);
         sb.append("]");
         sb.append(" static map from pgtIous to ProxyGrantingTickets: ");
-        sb.append(ProxyTicketReceptor.pgtMap);
+        sb.append(ProxyTicketReceptor.pgtStorage);
         return sb.toString();
     }
 }
@@ -0,0 +1,138 @@
+package edu.yale.its.tp.cas.util;
+
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Ticker;
+
+/**
+ * A timeout derived from the durations it has been observed to need: a high
+ * percentile of the recent durations, times a factor, kept between a floor
+ * and a ceiling. A slow outlier is then cut off soon after it is clearly an
+ * outlier, rather than holding its thread for as long as the network allows.
+ * <p>
+ * Recent durations are those recorded in the current window and the one
+ * before it, so the timeout follows a change in latency within two windows.
+ * Until {@value #MINIMUM_SAMPLES} durations have been recorded, the timeout
+ * is the ceiling. Durations that timed out should be recorded as the timeout
+ * they hit, so that a lasting slowdown raises the timeout, up to the
+ * ceiling, instead of failing forever.
+ */
+public class AdaptiveTimeout
+{
+
+    public static final double DEFAULT_PERCENTILE = 99.9;
+
+    public static final double DEFAULT_FACTOR = 3;
+
+    public static final long DEFAULT_FLOOR_MILLIS = 1000;
+
+    public static final long DEFAULT_CEILING_MILLIS = 30000;
+
+    public static final long DEFAULT_WINDOW_MILLIS = 300000;
+
+    /** durations needed before the percentile is trusted */
+    public static final int MINIMUM_SAMPLES = 100;
+
+    /** how often the timeout is derived again */
+    private static final long RECOMPUTE_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final double percentile;
+
+    private final double factor;
+
+    private final long floorMillis;
+
+    private final long ceilingMillis;
+
+    private final long windowNanos;
+
+    private final Ticker ticker;
+
+    private volatile LatencyHistogram current = new LatencyHistogram();
+
+    // guarded by this
+    private LatencyHistogram previous = new LatencyHistogram();
+
+    // written under this, read without it on every record
+    private volatile long windowEnd;
+
+    private volatile long timeoutMillis;
+
+    private volatile long nextRecompute;
+
+    public AdaptiveTimeout(double percentile, double factor, long floorMillis, long ceilingMillis, long windowMillis)
+    {
+        this(percentile, factor, floorMillis, ceilingMillis, windowMillis, Ticker.systemTicker());
+    }
+
+    AdaptiveTimeout(double percentile, double factor, long floorMillis, long ceilingMillis, long windowMillis,
+            Ticker ticker)
+    {
+        if (floorMillis > ceilingMillis)
+            throw new IllegalArgumentException("floor " + floorMillis + " is above ceiling " + ceilingMillis);
+        this.percentile = percentile;
+        this.factor = factor;
+        this.floorMillis = floorMillis;
+        this.ceilingMillis = ceilingMillis;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.ticker = ticker;
+        long now = ticker.read();
+        windowEnd = now + windowNanos;
+        nextRecompute = now;
+        timeoutMillis = ceilingMillis;
+    }
+
+    public void record(long nanos)
+    {
+        rotateIfDue(ticker.read());
+        current.record(nanos);
+    }
+
+    /**
+     * @return the timeout to use now, in milliseconds
+     */
+    public long getTimeoutMillis()
+    {
+        long now = ticker.read();
+        if (now - nextRecompute >= 0) recompute(now);
+        return timeoutMillis;
+    }
+
+    private void rotateIfDue(long now)
+    {
+        if (now - windowEnd < 0) return;
+        synchronized (this)
+        {
+            if (now - windowEnd < 0) return;
+            // a quiet spell longer than a window leaves nothing recent
+            previous = now - windowEnd < windowNanos ? current : new LatencyHistogram();
+            current = new LatencyHistogram();
+            windowEnd = now + windowNanos;
+        }
+    }
+
+    private synchronized void recompute(long now)
+    {
+        if (now - nextRecompute < 0) return;
+        rotateIfDue(now);
+        LatencyHistogram recent = new LatencyHistogram();
+        recent.add(previous);
+        recent.add(current);
+        if (recent.getCount() < MINIMUM_SAMPLES)
+        {
+            timeoutMillis = ceilingMillis;
+        }
+        else
+        {
+            long derived = (long) Math.ceil(recent.getPercentile(percentile, TimeUnit.MILLISECONDS) * factor);
+            timeoutMillis = Math.max(floorMillis, Math.min(ceilingMillis, derived));
+        }
+        nextRecompute = now + RECOMPUTE_NANOS;
+    }
+
+    public String toString()
+    {
+        return timeoutMillis + "ms (p" + percentile + " x " + factor + ", " + floorMillis + "-" + ceilingMillis
+                + "ms)";
+    }
+}
@@ -0,0 +1,510 @@
+package edu.yale.its.tp.cas.util;
+
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+import javax.sql.DataSource;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import edu.yale.its.tp.cas.metrics.Counter;
+import edu.yale.its.tp.cas.metrics.Metrics;
+
+/**
+ * A table of tickets, each with a value and an expiry time, shared by the
+ * nodes of a cluster through a database, for deployments that have one but
+ * no data grid.
+ * <p>
+ * Writes are queued and inserted in one batch every flush interval, by a
+ * background thread; {@link #put} returns a future that completes when its
+ * row has been written, for callers that must not answer before then. A batch
+ * that fails is tried again at the next flush; only a row that expires first
+ * fails its future. Batches hold at most {@value #MAXIMUM_BATCH_SIZE} rows,
+ * and at most {@value #MAXIMUM_PENDING} rows wait to be written: beyond that,
+ * as during a long database outage, a put fails at once. Reads
+ * go through a local cache: a ticket found is trusted until it expires, and a
+ * ticket not found is trusted to be absent for the miss ttl, which may be
+ * zero. Expired rows are deleted in the background every purge interval.
+ * <p>
+ * The table is created if it does not exist:
+ *
+ * <pre>
+ * CREATE TABLE name (ticket VARCHAR(256) PRIMARY KEY, ticket_value VARCHAR(1024), expires BIGINT NOT NULL)
+ * </pre>
+ */
+public class JdbcTicketTable
+{
+
+    private static Log log = LogFactory.getLog(JdbcTicketTable.class);
+
+    private static final Counter CACHED_READS = Metrics.counter("cas.jdbc.cachedRead");
+
+    private static final Counter DATABASE_READS = Metrics.counter("cas.jdbc.databaseRead");
+
+    private static final Counter BATCHES = Metrics.counter("cas.jdbc.batch");
+
+    private static final Counter ROWS_WRITTEN = Metrics.counter("cas.jdbc.rowWritten");
+
+    private static final Pattern TABLE_NAME = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+
+    public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 100;
+
+    public static final long DEFAULT_PURGE_INTERVAL_MILLIS = 60000;
+
+    public static final int DEFAULT_CACHE_SIZE = 100000;
+
+    /** rows written in one batch at most */
+    public static final int MAXIMUM_BATCH_SIZE = 1000;
+
+    /** rows waiting to be written at most */
+    public static final int MAXIMUM_PENDING = 100000;
+
+    private final DataSource dataSource;
+
+    private final String table;
+
+    private final long missTtlMillis;
+
+    /** rows not yet written, by ticket */
+    private final ConcurrentMap<String, Row> pending = new ConcurrentHashMap<String, Row>();
+
+    private final Cache<String, Row> cache;
+
+    private final ScheduledExecutorService executor;
+
+    /**
+     * @param table
+     *            - the table's name, letters, digits and underscores only
+     * @param missTtlMillis
+     *            - how long a ticket found absent is taken to stay absent
+     */
+    public JdbcTicketTable(DataSource dataSource, String table, long flushIntervalMillis, long purgeIntervalMillis,
+            long missTtlMillis, int cacheSize) throws SQLException
+    {
+        if (!TABLE_NAME.matcher(table).matches()) throw new IllegalArgumentException("bad table name: " + table);
+        this.dataSource = dataSource;
+        this.table = table;
+        this.missTtlMillis = missTtlMillis;
+        cache = CacheBuilder.newBuilder().maximumSize(cacheSize).build();
+        createTableIfAbsent();
+
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+            .setNameFormat("cas-jdbc-" + table)
+            .setDaemon(true)
+            .build());
+        executor.scheduleWithFixedDelay(new Runnable()
+        {
+            public void run()
+            {
+                // an exception would cancel the task, and nothing would be written again
+                try
+                {
+                    flush();
+                }
+                catch (RuntimeException e)
+                {
+                    log.error("Unable to write tickets to " + JdbcTicketTable.this.table, e);
+                }
+            }
+        }, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+        executor.scheduleWithFixedDelay(new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    purge();
+                }
+                catch (SQLException e)
+                {
+                    log.warn("Unable to purge expired tickets from " + JdbcTicketTable.this.table, e);
+                }
+            }
+        }, purgeIntervalMillis, purgeIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param name
+     *            - the full JNDI name of a DataSource, such as
+     *            <code>java:comp/env/jdbc/cas</code>
+     */
+    public static DataSource lookupDataSource(String name) throws NamingException
+    {
+        return InitialContext.doLookup(name);
+    }
+
+    /**
+     * Nothing here commits, so autocommit is set rather than trusted to be the
+     * pool's default.
+     */
+    private Connection connect() throws SQLException
+    {
+        Connection connection = dataSource.getConnection();
+        try
+        {
+            connection.setAutoCommit(true);
+            return connection;
+        }
+        catch (SQLException e)
+        {
+            connection.close();
+            throw e;
+        }
+    }
+
+    private void createTableIfAbsent() throws SQLException
+    {
+        Connection connection = connect();
+        try
+        {
+            ResultSet tables = connection.getMetaData().getTables(null, null, "%", new String[] { "TABLE" });
+            try
+            {
+                while (tables.next())
+                {
+                    if (table.equalsIgnoreCase(tables.getString("TABLE_NAME"))) return;
+                }
+            }
+            finally
+            {
+                tables.close();
+            }
+            Statement statement = connection.createStatement();
+            try
+            {
+                statement.executeUpdate("CREATE TABLE " + table + " (ticket VARCHAR(256) PRIMARY KEY, "
+                        + "ticket_value VARCHAR(1024), expires BIGINT NOT NULL)");
+                log.info("Created ticket table " + table);
+            }
+            finally
+            {
+                statement.close();
+            }
+        }
+        finally
+        {
+            connection.close();
+        }
+    }
+
+    /**
+     * Queues a row for the next batch; it is visible to this node at once.
+     *
+     * @return completes when the row is written, or fails if it expires
+     *         before it can be, or if too many rows are waiting already
+     */
+    public Future<Void> put(String ticket, String value, long expiresMillis)
+    {
+        Row row = new Row(value, expiresMillis);
+        cache.put(ticket, row);
+        if (pending.size() >= MAXIMUM_PENDING && !pending.containsKey(ticket))
+        {
+            row.written.setException(new SQLException(MAXIMUM_PENDING + " tickets are already waiting to be written to "
+                    + table));
+            return row.written;
+        }
+        pending.put(ticket, row);
+        return row.written;
+    }
+
+    /**
+     * @return the value of the ticket, or null if it is absent or expired
+     */
+    public String get(String ticket) throws SQLException
+    {
+        long now = System.currentTimeMillis();
+        Row row = pending.get(ticket);
+        if (row == null) row = cache.getIfPresent(ticket);
+        if (row != null && row.validUntil > now)
+        {
+            CACHED_READS.increment();
+            return row.value;
+        }
+
+        DATABASE_READS.increment();
+        row = select(ticket, now);
+        cache.put(ticket, row);
+        return row.value;
+    }
+
+    private Row select(String ticket, long now) throws SQLException
+    {
+        Connection connection = connect();
+        try
+        {
+            PreparedStatement select = connection.prepareStatement("SELECT ticket_value, expires FROM " + table
+                    + " WHERE ticket = ? AND expires > ?");
+            try
+            {
+                select.setString(1, ticket);
+                select.setLong(2, now);
+                ResultSet rs = select.executeQuery();
+                try
+                {
+                    if (rs.next()) return new Row(rs.getString(1), rs.getLong(2));
+                    return new Row(null, now + missTtlMillis);
+                }
+                finally
+                {
+                    rs.close();
+                }
+            }
+            finally
+            {
+                select.close();
+            }
+        }
+        finally
+        {
+            connection.close();
+        }
+    }
+
+    /**
+     * Writes the queued rows, in batches, as far as the first that fails;
+     * called every flush interval.
+     */
+    public synchronized void flush()
+    {
+        // rows queued meanwhile wait for the next flush, so this one ends
+        for (int batches = pending.size() / MAXIMUM_BATCH_SIZE + 1; batches > 0 && !pending.isEmpty(); batches--)
+        {
+            List<Map.Entry<String, Row>> batch = new ArrayList<Map.Entry<String, Row>>(Math.min(pending.size(),
+                MAXIMUM_BATCH_SIZE));
+            for (Map.Entry<String, Row> entry : pending.entrySet())
+            {
+                batch.add(entry);
+                if (batch.size() == MAXIMUM_BATCH_SIZE) break;
+            }
+            if (!flush(batch)) return;
+        }
+    }
+
+    /**
+     * @return whether the batch was written
+     */
+    private boolean flush(List<Map.Entry<String, Row>> batch)
+    {
+        try
+        {
+            write(batch);
+            BATCHES.increment();
+            ROWS_WRITTEN.add(batch.size());
+            for (Map.Entry<String, Row> entry : batch)
+            {
+                pending.remove(entry.getKey(), entry.getValue());
+                entry.getValue().written.set(null);
+            }
+            return true;
+        }
+        catch (SQLException e)
+        {
+            log.warn("Unable to write " + batch.size() + " tickets to " + table + "; will retry", e);
+            // the rest stay pending, and their futures with them
+            long now = System.currentTimeMillis();
+            for (Map.Entry<String, Row> entry : batch)
+            {
+                if (entry.getValue().validUntil <= now && pending.remove(entry.getKey(), entry.getValue()))
+                    entry.getValue().written.setException(e);
+            }
+            return false;
+        }
+        catch (RuntimeException e)
+        {
+            // not the database being away, so retrying would fail the same way
+            for (Map.Entry<String, Row> entry : batch)
+            {
+                if (pending.remove(entry.getKey(), entry.getValue())) entry.getValue().written.setException(e);
+            }
+            throw e;
+        }
+    }
+
+    private void write(List<Map.Entry<String, Row>> batch) throws SQLException
+    {
+        Connection connection = connect();
+        try
+        {
+            PreparedStatement insert = connection.prepareStatement("INSERT INTO " + table
+                    + " (ticket, ticket_value, expires) VALUES (?, ?, ?)");
+            try
+            {
+                for (Map.Entry<String, Row> entry : batch)
+                {
+                    bind(insert, entry.getKey(), entry.getValue());
+                    insert.addBatch();
+                }
+                insert.executeBatch();
+            }
+            catch (BatchUpdateException e)
+            {
+                // some already there, from another node or an earlier attempt
+                log.debug("Batch insert into " + table + " failed; writing rows one at a time", e);
+                writeOneByOne(connection, batch);
+            }
+            finally
+            {
+                insert.close();
+            }
+        }
+        finally
+        {
+            connection.close();
+        }
+    }
+
+    private void writeOneByOne(Connection connection, List<Map.Entry<String, Row>> batch) throws SQLException
+    {
+        PreparedStatement update = connection.prepareStatement("UPDATE " + table
+                + " SET ticket_value = ?, expires = ? WHERE ticket = ?");
+        PreparedStatement insert = connection.prepareStatement("INSERT INTO " + table
+                + " (ticket, ticket_value, expires) VALUES (?, ?, ?)");
+        try
+        {
+            for (Map.Entry<String, Row> entry : batch)
+            {
+                Row row = entry.getValue();
+                update.setString(1, row.value);
+                update.setLong(2, row.validUntil);
+                update.setString(3, entry.getKey());
+                if (update.executeUpdate() == 0)
+                {
+                    bind(insert, entry.getKey(), row);
+                    insert.executeUpdate();
+                }
+            }
+        }
+        finally
+        {
+            update.close();
+            insert.close();
+        }
+    }
+
+    private static void bind(PreparedStatement insert, String ticket, Row row) throws SQLException
+    {
+        insert.setString(1, ticket);
+        insert.setString(2, row.value);
+        insert.setLong(3, row.validUntil);
+    }
+
+    /**
+     * Deletes expired rows; called every purge interval.
+     *
+     * @return the number of rows deleted
+     */
+    public int purge() throws SQLException
+    {
+        Connection connection = connect();
+        try
+        {
+            PreparedStatement delete = connection.prepareStatement("DELETE FROM " + table + " WHERE expires <= ?");
+            try
+            {
+                delete.setLong(1, System.currentTimeMillis());
+                int deleted = delete.executeUpdate();
+                if (deleted > 0) log.debug("Purged " + deleted + " expired tickets from " + table);
+                return deleted;
+            }
+            finally
+            {
+                delete.close();
+            }
+        }
+        finally
+        {
+            connection.close();
+        }
+    }
+
+    /**
+     * @return the number of unexpired rows, for monitoring
+     */
+    public int count() throws SQLException
+    {
+        Connection connection = connect();
+        try
+        {
+            PreparedStatement count = connection.prepareStatement("SELECT COUNT(*) FROM " + table
+                    + " WHERE expires > ?");
+            try
+            {
+                count.setLong(1, System.currentTimeMillis());
+                ResultSet rs = count.executeQuery();
+                try
+                {
+                    rs.next();
+                    return rs.getInt(1);
+                }
+                finally
+                {
+                    rs.close();
+                }
+            }
+            finally
+            {
+                count.close();
+            }
+        }
+        finally
+        {
+            connection.close();
+        }
+    }
+
+    /**
+     * Writes what is queued and stops the background thread.
+     */
+    public void close()
+    {
+        executor.shutdown();
+        flush();
+    }
+
+    public String toString()
+    {
+        return "[JdbcTicketTable " + table + " pending=" + pending.size() + "]";
+    }
+
+    /**
+     * A row, as written or read; also what is cached of a ticket's absence.
+     */
+    private static final class Row
+    {
+        /** null if the ticket is absent */
+        final String value;
+
+        /** when the row expires, or when its absence should be checked again */
+        final long validUntil;
+
+        final SettableFuture<Void> written = SettableFuture.create();
+
+        Row(String value, long validUntil)
+        {
+            this.value = value;
+            this.validUntil = validUntil;
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package edu.yale.its.tp.cas.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import edu.yale.its.tp.cas.metrics.Histogram;
+
+/**
+ * A lock-free histogram of durations, recorded in nanoseconds.
+ * <p>
+ * Buckets are log-linear: each power of two is split into
+ * {@value #SUB_BUCKETS} equal buckets, so a reported percentile is within
+ * 12.5% of the true value, across the whole range of a long, in a fixed
+ * array of under 500 counters. Recording is a few atomic increments and
+ * never blocks; reads are not a consistent snapshot while recording
+ * continues, which is fine for monitoring.
+ */
+public class LatencyHistogram implements Histogram
+{
+
+    private static final int SUB_BUCKET_BITS = 3;
+
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private static final int BUCKETS = bucketIndex(Long.MAX_VALUE) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    private final AtomicLong count = new AtomicLong();
+
+    private final AtomicLong sum = new AtomicLong();
+
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records one duration. Negative durations (a clock adjustment) are
+     * recorded as zero.
+     */
+    public void record(long nanos)
+    {
+        if (nanos < 0) nanos = 0;
+        counts.incrementAndGet(bucketIndex(nanos));
+        count.incrementAndGet();
+        sum.addAndGet(nanos);
+        long currentMax;
+        while (nanos > (currentMax = max.get()))
+        {
+            if (max.compareAndSet(currentMax, nanos)) break;
+        }
+    }
+
+    /**
+     * @return {@link System#nanoTime()}
+     */
+    public long start()
+    {
+        return System.nanoTime();
+    }
+
+    /**
+     * Records the time elapsed since <code>startNanos</code>, a value
+     * previously obtained from {@link System#nanoTime()}.
+     */
+    public void recordSince(long startNanos)
+    {
+        record(System.nanoTime() - startNanos);
+    }
+
+    public long getCount()
+    {
+        return count.get();
+    }
+
+    /**
+     * @return mean duration in the given unit, or 0 if nothing was recorded
+     */
+    public double getMean(TimeUnit unit)
+    {
+        long n = count.get();
+        if (n == 0) return 0;
+        return (double) sum.get() / n / unit.toNanos(1);
+    }
+
+    /**
+     * @return longest duration in the given unit, or 0 if nothing was recorded
+     */
+    public double getMax(TimeUnit unit)
+    {
+        return (double) max.get() / unit.toNanos(1);
+    }
+
+    /**
+     * @param percentile
+     *            - between 0 and 100
+     * @return an upper bound for the duration below which the given percentage
+     *         of recorded durations fall, in the given unit; 0 if nothing was
+     *         recorded
+     */
+    public double getPercentile(double percentile, TimeUnit unit)
+    {
+        if (percentile < 0 || percentile > 100)
+            throw new IllegalArgumentException("percentile must be between 0 and 100: " + percentile);
+        long n = count.get();
+        if (n == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(n * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            seen += counts.get(i);
+            if (seen >= rank) return (double) Math.min(bucketUpperBound(i), max.get()) / unit.toNanos(1);
+        }
+        return getMax(unit);
+    }
+
+    /**
+     * Adds everything recorded by another histogram to this one, as if it had
+     * been recorded here.
+     */
+    public void add(LatencyHistogram other)
+    {
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            long n = other.counts.get(i);
+            if (n != 0) counts.addAndGet(i, n);
+        }
+        count.addAndGet(other.count.get());
+        sum.addAndGet(other.sum.get());
+        long otherMax = other.max.get();
+        long currentMax;
+        while (otherMax > (currentMax = max.get()))
+        {
+            if (max.compareAndSet(currentMax, otherMax)) break;
+        }
+    }
+
+    /**
+     * Discards everything recorded so far. Durations recorded concurrently
+     * with a reset may be partly kept.
+     */
+    public void reset()
+    {
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    static int bucketIndex(long nanos)
+    {
+        if (nanos < SUB_BUCKETS) return (int) nanos;
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        int subBucket = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    static long bucketUpperBound(int index)
+    {
+        if (index < SUB_BUCKETS) return index;
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long subBucket = index % SUB_BUCKETS;
+        long lowerBound = (SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS);
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return lowerBound + width - 1;
+    }
+}
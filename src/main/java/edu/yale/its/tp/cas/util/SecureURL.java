@@ -2,10 +2,25 @@ package edu.yale.its.tp.cas.util;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.net.SocketTimeoutException;
 import java.net.URL;
 import java.net.URLConnection;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import edu.yale.its.tp.cas.metrics.Counter;
+import edu.yale.its.tp.cas.metrics.Histogram;
+import edu.yale.its.tp.cas.metrics.Metrics;
 
 /**
  * <p>
@@ -13,12 +28,50 @@ import java.util.Map;
  * content retrieval. The rules are intended to be about as restrictive as a
  * common browser with respect to server-certificate validation.
  * </p>
+ * <p>
+ * CCCI - Connect and read timeouts are set on every fetch, and adapt to each
+ * endpoint's latency: see {@link AdaptiveTimeout}. An endpoint is a scheme,
+ * host, port and path; the connect timeout follows the time to connect, and
+ * the read timeout the time from connecting to the start of the response.
+ * For https, connecting includes the TLS handshake: its time is learned by the
+ * connect timeout, but the handshake is cut off by the read timeout, which is
+ * all URLConnection applies to it. The connect timeout so bounds the TCP
+ * connection a little loosely.
+ * </p>
  * 
  * NOTE: Depends on JSSE or JDK 1.4!
  */
 public class SecureURL
 {
 
+    private static Log log = LogFactory.getLog(SecureURL.class);
+
+    /** CCCI - time spent fetching from CAS, successful or not */
+    private static final Histogram RETRIEVE_TIME = Metrics.histogram("cas.secureUrl.retrieve");
+
+    /** CCCI - fetches cut off by the connect timeout */
+    private static final Counter CONNECT_TIMEOUTS = Metrics.counter("cas.secureUrl.connectTimedOut");
+
+    /** CCCI - fetches cut off by the read timeout during the TLS handshake */
+    private static final Counter HANDSHAKE_TIMEOUTS = Metrics.counter("cas.secureUrl.handshakeTimedOut");
+
+    /** CCCI - fetches cut off by the read timeout */
+    private static final Counter READ_TIMEOUTS = Metrics.counter("cas.secureUrl.readTimedOut");
+
+    /** CCCI - endpoints whose latency is tracked */
+    public static final int MAXIMUM_ENDPOINTS = 1000;
+
+    /** CCCI - latency and timeouts by endpoint; replaced when reconfigured */
+    private static volatile Cache<String, Endpoint> endpoints = newEndpoints();
+
+    private static volatile double timeoutPercentile = AdaptiveTimeout.DEFAULT_PERCENTILE;
+
+    private static volatile double timeoutFactor = AdaptiveTimeout.DEFAULT_FACTOR;
+
+    private static volatile long timeoutFloorMillis = AdaptiveTimeout.DEFAULT_FLOOR_MILLIS;
+
+    private static volatile long timeoutCeilingMillis = AdaptiveTimeout.DEFAULT_CEILING_MILLIS;
+
     /**
      * For testing only...
      */
@@ -29,6 +82,164 @@ public class SecureURL
         System.out.println(SecureURL.retrieve(args[0]));
     }
 
+    /**
+     * CCCI
+     * 
+     * Sets how timeouts are derived, for every endpoint, and forgets the
+     * latencies seen so far.
+     * 
+     * @param percentile
+     *            - of recent latencies, between 0 and 100
+     * @param factor
+     *            - by which the percentile is multiplied
+     * @param floorMillis
+     *            - the least timeout
+     * @param ceilingMillis
+     *            - the greatest timeout, used until enough latencies are
+     *            known
+     */
+    public static synchronized void configureTimeouts(double percentile, double factor, long floorMillis,
+            long ceilingMillis)
+    {
+        if (percentile <= 0 || percentile > 100)
+            throw new IllegalArgumentException("percentile must be above 0 and at most 100: " + percentile);
+        if (factor <= 0) throw new IllegalArgumentException("factor must be positive: " + factor);
+        if (floorMillis <= 0 || floorMillis > ceilingMillis)
+            throw new IllegalArgumentException("need 0 < floor <= ceiling: " + floorMillis + ", " + ceilingMillis);
+        timeoutPercentile = percentile;
+        timeoutFactor = factor;
+        timeoutFloorMillis = floorMillis;
+        timeoutCeilingMillis = ceilingMillis;
+        endpoints = newEndpoints();
+        log.info("Timeouts are now the " + percentile + "th percentile of latency x " + factor + ", between "
+                + floorMillis + " and " + ceilingMillis + "ms");
+    }
+
+    private static Cache<String, Endpoint> newEndpoints()
+    {
+        return CacheBuilder.newBuilder().maximumSize(MAXIMUM_ENDPOINTS).<String, Endpoint> build();
+    }
+
+    /**
+     * CCCI
+     * 
+     * @return the connect timeout now used for the URL's endpoint
+     */
+    public static long getConnectTimeoutMillis(String url) throws IOException
+    {
+        return endpoint(new URL(url)).connect.getTimeoutMillis();
+    }
+
+    /**
+     * CCCI
+     * 
+     * @return the read timeout now used for the URL's endpoint
+     */
+    public static long getReadTimeoutMillis(String url) throws IOException
+    {
+        return endpoint(new URL(url)).read.getTimeoutMillis();
+    }
+
+    private static Endpoint endpoint(URL u)
+    {
+        final String key = u.getProtocol() + "://" + u.getHost() + ":"
+                + (u.getPort() == -1 ? u.getDefaultPort() : u.getPort()) + u.getPath();
+        try
+        {
+            return endpoints.get(key, new Callable<Endpoint>()
+            {
+                public Endpoint call()
+                {
+                    return new Endpoint(key);
+                }
+            });
+        }
+        catch (ExecutionException e)
+        {
+            // the loader cannot fail
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * CCCI
+     * 
+     * Connects with the endpoint's timeouts and waits for the response,
+     * recording how long each took.
+     */
+    private static InputStream open(URL u, URLConnection uc) throws IOException
+    {
+        Endpoint endpoint = endpoint(u);
+        long connectTimeout = endpoint.connect.getTimeoutMillis();
+        long readTimeout = endpoint.read.getTimeoutMillis();
+        uc.setConnectTimeout((int) connectTimeout);
+        uc.setReadTimeout((int) readTimeout);
+
+        long start = System.nanoTime();
+        try
+        {
+            uc.connect();
+        }
+        catch (IOException e)
+        {
+            if (!isTimeout(e)) throw e;
+            if (isHandshakeTimeout(u, e))
+            {
+                // the TCP connection was made; the read timeout cut off the rest
+                endpoint.connect.record(System.nanoTime() - start);
+                HANDSHAKE_TIMEOUTS.increment();
+                log.warn("Gave up on the TLS handshake with " + endpoint + " after " + readTimeout + "ms");
+            }
+            else
+            {
+                endpoint.connect.record(TimeUnit.MILLISECONDS.toNanos(connectTimeout));
+                CONNECT_TIMEOUTS.increment();
+                log.warn("Gave up connecting to " + endpoint + " after " + connectTimeout + "ms");
+            }
+            throw e;
+        }
+        long connected = System.nanoTime();
+        endpoint.connect.record(connected - start);
+        try
+        {
+            InputStream in = uc.getInputStream();
+            endpoint.read.record(System.nanoTime() - connected);
+            return in;
+        }
+        catch (SocketTimeoutException e)
+        {
+            endpoint.read.record(TimeUnit.MILLISECONDS.toNanos(readTimeout));
+            READ_TIMEOUTS.increment();
+            log.warn("Gave up waiting for " + endpoint + " to respond after " + readTimeout + "ms");
+            throw e;
+        }
+    }
+
+    /**
+     * CCCI
+     * 
+     * @return whether the failure was a timeout; JSSE reports one in the
+     *         handshake as an SSLException caused by it
+     */
+    private static boolean isTimeout(IOException e)
+    {
+        return e instanceof SocketTimeoutException || e.getCause() instanceof SocketTimeoutException;
+    }
+
+    /**
+     * CCCI
+     * 
+     * @return whether a timeout while connecting was the read timeout, in the
+     *         TLS handshake, rather than the connect timeout; the socket tells
+     *         them apart only by message
+     */
+    private static boolean isHandshakeTimeout(URL u, IOException e)
+    {
+        if (!"https".equals(u.getProtocol())) return false;
+        if (!(e instanceof SocketTimeoutException)) return true;
+        return e.getMessage() == null || !e.getMessage().toLowerCase().contains("connect");
+    }
+
     /**
      * Functions the same as retrieve(String url) but adds timeout
      * functionality.
@@ -62,6 +273,7 @@ public class SecureURL
     public static String retrieve(String url) throws IOException
     {
         BufferedReader r = null;
+        long start = RETRIEVE_TIME.start();
         try
         {
             URL u = new URL(url);
@@ -71,7 +283,7 @@ public class SecureURL
             // IOException("only 'https' URLs are valid for this method");
             URLConnection uc = u.openConnection();
             uc.setRequestProperty("Connection", "close");
-            r = new BufferedReader(new InputStreamReader(uc.getInputStream()));
+            r = new BufferedReader(new InputStreamReader(open(u, uc)));
             String line;
             StringBuffer buf = new StringBuffer();
             while ((line = r.readLine()) != null)
@@ -80,6 +292,7 @@ public class SecureURL
         }
         finally
         {
+            RETRIEVE_TIME.recordSince(start);
             try
             {
                 if (r != null) r.close();
@@ -97,6 +310,36 @@ public class SecureURL
         public Map headers;
     }
 
+    /**
+     * CCCI - the connect and read timeouts of one endpoint
+     */
+    private static final class Endpoint
+    {
+        final String name;
+
+        final AdaptiveTimeout connect;
+
+        final AdaptiveTimeout read;
+
+        Endpoint(String name)
+        {
+            this.name = name;
+            connect = newTimeout();
+            read = newTimeout();
+        }
+
+        private static AdaptiveTimeout newTimeout()
+        {
+            return new AdaptiveTimeout(timeoutPercentile, timeoutFactor, timeoutFloorMillis, timeoutCeilingMillis,
+                AdaptiveTimeout.DEFAULT_WINDOW_MILLIS);
+        }
+
+        public String toString()
+        {
+            return name;
+        }
+    }
+
     /**
      * CCCI
      * 
@@ -106,6 +349,7 @@ public class SecureURL
     public static Response retrieveResponse(String url) throws IOException
     {
         BufferedReader r = null;
+        long start = RETRIEVE_TIME.start();
         try
         {
             URL u = new URL(url);
@@ -122,7 +366,7 @@ public class SecureURL
 
             URLConnection uc = u.openConnection();
             uc.setRequestProperty("Connection", "close");
-            r = new BufferedReader(new InputStreamReader(uc.getInputStream()));
+            r = new BufferedReader(new InputStreamReader(open(u, uc)));
             String line;
             StringBuffer buf = new StringBuffer();
             while ((line = r.readLine()) != null)
@@ -136,6 +380,7 @@ public class SecureURL
         }
         finally
         {
+            RETRIEVE_TIME.recordSince(start);
             try
             {
                 if (r != null) r.close();
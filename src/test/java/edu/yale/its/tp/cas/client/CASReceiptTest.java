@@ -0,0 +1,82 @@
+package edu.yale.its.tp.cas.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+/**
+ * JUnit testcase for the immutable CASReceipt.
+ */
+public class CASReceiptTest extends TestCase
+{
+
+    public void testBuilderCopiesCollections()
+    {
+        List proxyList = new ArrayList();
+        proxyList.add("https://proxier.example.com");
+        Map attributes = new HashMap();
+        attributes.put("ssoGuid", "ABC-123");
+
+        CASReceipt receipt = new CASReceipt.Builder().userName("someone").proxyList(proxyList)
+            .attributes(attributes).build();
+        proxyList.clear();
+        attributes.clear();
+
+        assertTrue(receipt.isProxied());
+        assertEquals("https://proxier.example.com", receipt.getProxyingService());
+        assertEquals("ABC-123", receipt.getAttributes().get("ssoGuid"));
+    }
+
+    public void testViewsAreUnmodifiableAndShared()
+    {
+        CASReceipt receipt = new CASReceipt.Builder().userName("someone").build();
+
+        assertSame(receipt.getProxyList(), receipt.getProxyList());
+        assertSame(receipt.getAttributes(), receipt.getAttributes());
+        try
+        {
+            receipt.getAttributes().put("ssoGuid", "ABC-123");
+            fail("attributes should be unmodifiable");
+        }
+        catch (UnsupportedOperationException e)
+        {
+            // good
+        }
+        try
+        {
+            receipt.getProxyList().add("https://proxier.example.com");
+            fail("proxy list should be unmodifiable");
+        }
+        catch (UnsupportedOperationException e)
+        {
+            // good
+        }
+    }
+
+    public void testSerializationRestoresPrecomputedState() throws Exception
+    {
+        List proxyList = new ArrayList();
+        proxyList.add("https://proxier.example.com");
+        CASReceipt receipt = new CASReceipt.Builder().userName("someone").proxyList(proxyList)
+            .serviceTicket("ST-1").build();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(receipt);
+        out.close();
+        CASReceipt copy = (CASReceipt) new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))
+            .readObject();
+
+        assertEquals("someone", copy.getUserName());
+        assertEquals("ST-1", copy.getServiceTicket());
+        assertTrue(copy.isProxied());
+        assertEquals("https://proxier.example.com", copy.getProxyingService());
+    }
+}
@@ -0,0 +1,74 @@
+package edu.yale.its.tp.cas.client;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ * JUnit testcase for parsing of CAS validation responses.
+ */
+public class ServiceTicketValidatorTest extends TestCase
+{
+
+    private static final String MULTI_VALUED_RESPONSE =
+        "<cas:serviceResponse xmlns:cas='http://www.yale.edu/tp/cas'>\n" +
+        "  <cas:authenticationSuccess>\n" +
+        "    <cas:user>someone</cas:user>\n" +
+        "    <cas:attributes>\n" +
+        "      <ssoGuid>ABC-123</ssoGuid>\n" +
+        "      <memberOf>staff</memberOf>\n" +
+        "      <memberOf>admins</memberOf>\n" +
+        "      <memberOf>staff</memberOf>\n" +
+        "      <memberOf>developers</memberOf>\n" +
+        "    </cas:attributes>\n" +
+        "    <cas:proxies>\n" +
+        "      <cas:proxy>https://proxier.example.com</cas:proxy>\n" +
+        "    </cas:proxies>\n" +
+        "  </cas:authenticationSuccess>\n" +
+        "</cas:serviceResponse>\n";
+
+    public void testRepeatedAttributeKeepsEveryValue() throws Exception
+    {
+        ProxyTicketValidator ptv = newValidator();
+        ptv.parseResponse(MULTI_VALUED_RESPONSE);
+
+        assertTrue(ptv.isAuthenticationSuccesful());
+        assertTrue(Arrays.equals(new String[] { "admins", "developers", "staff" },
+            ptv.getAttributeValues().get("memberOf")));
+        // the single-valued view is unchanged: the last value wins
+        assertEquals("developers", ptv.getAttributes().get("memberOf"));
+    }
+
+    public void testProxiesAreNotMistakenForAttributes() throws Exception
+    {
+        ProxyTicketValidator ptv = newValidator();
+        ptv.parseResponse(MULTI_VALUED_RESPONSE);
+
+        assertFalse(ptv.getAttributes().containsKey("cas:proxy"));
+        assertEquals(1, ptv.getProxyList().size());
+    }
+
+    public void testReceiptMembershipChecks() throws Exception
+    {
+        ProxyTicketValidator ptv = newValidator();
+        ptv.parseResponse(MULTI_VALUED_RESPONSE);
+        CASReceipt receipt = CASReceipt.getReceipt(ptv);
+
+        assertTrue(receipt.hasAttributeValue("memberOf", "admins"));
+        assertTrue(receipt.hasAttributeValue("memberOf", "staff"));
+        assertFalse(receipt.hasAttributeValue("memberOf", "students"));
+        assertFalse(receipt.hasAttributeValue("memberOf", null));
+        assertTrue(receipt.hasAttributeValue("ssoGuid", "ABC-123"));
+        assertFalse(receipt.hasAttributeValue("missing", "ABC-123"));
+        assertEquals(Arrays.asList("admins", "developers", "staff"), receipt.getAttributeValues("memberOf"));
+        assertTrue(receipt.getAttributeValues("missing").isEmpty());
+    }
+
+    private ProxyTicketValidator newValidator()
+    {
+        ProxyTicketValidator ptv = new ProxyTicketValidator();
+        ptv.setCasValidateUrl("https://casserver.com/proxyValidate");
+        ptv.setServiceTicket("ST-1");
+        return ptv;
+    }
+}
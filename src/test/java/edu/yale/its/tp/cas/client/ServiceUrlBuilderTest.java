@@ -0,0 +1,130 @@
+package edu.yale.its.tp.cas.client;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+
+import com.mockrunner.mock.web.MockHttpServletRequest;
+
+import junit.framework.TestCase;
+
+/**
+ * Test case for ServiceUrlBuilder.
+ */
+public class ServiceUrlBuilderTest extends TestCase {
+
+    private static final String requestUri = "/app/servlet";
+    private static final String serverName = "someplace.com";
+
+    private MockHttpServletRequest mockRequest;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        mockRequest = new MockHttpServletRequest();
+        mockRequest.setScheme("https");
+        mockRequest.setRequestURI(requestUri);
+        mockRequest.setServerName("requestProvided.com");
+        mockRequest.setServerPort(8443);
+    }
+
+    private String serviceFor(String queryString) {
+        mockRequest.setQueryString(queryString);
+        return new ServiceUrlBuilder(serverName).getService(mockRequest);
+    }
+
+    /**
+     * Test that the ticket parameter is removed wherever it appears, and that
+     * the rest of the query string keeps its order.
+     */
+    public void testTicketRemovedInAnyPosition() {
+        String base = "https://someplace.com/app/servlet";
+        assertEquals(base, serviceFor(null));
+        assertEquals(base, serviceFor(""));
+        assertEquals(base, serviceFor("ticket=ST-1"));
+        assertEquals(base, serviceFor("ticket"));
+        assertEquals(base + "?a=1&b=2", serviceFor("ticket=ST-1&a=1&b=2"));
+        assertEquals(base + "?a=1&b=2", serviceFor("a=1&ticket=ST-1&b=2"));
+        assertEquals(base + "?a=1&b=2", serviceFor("a=1&b=2&ticket=ST-1"));
+        assertEquals(base + "?a=1", serviceFor("ticket=ST-1&a=1&ticket=ST-2"));
+    }
+
+    /**
+     * Test removing the ticket from a bare query string.
+     */
+    public void testRemoveTicket() {
+        assertNull(ServiceUrlBuilder.removeTicket(null));
+        assertNull(ServiceUrlBuilder.removeTicket("ticket=ST-1"));
+        assertEquals("a=1&b=2", ServiceUrlBuilder.removeTicket("a=1&ticket=ST-1&b=2"));
+        assertEquals("tickets=3", ServiceUrlBuilder.removeTicket("tickets=3&ticket=ST-1"));
+    }
+
+    /**
+     * Test that parameters merely resembling the ticket parameter are kept.
+     */
+    public void testTicketLookalikesKept() {
+        String base = "https://someplace.com/app/servlet";
+        assertEquals(base + "?myticket=1", serviceFor("myticket=1"));
+        assertEquals(base + "?tickets=1", serviceFor("tickets=1"));
+        assertEquals(base + "?a=ticket=1", serviceFor("a=ticket=1"));
+    }
+
+    /**
+     * Test that the request's own server name and port are used when no
+     * server is configured, and that default ports are left out.
+     */
+    public void testServerFromRequest() {
+        mockRequest.setQueryString("a=1");
+        ServiceUrlBuilder builder = new ServiceUrlBuilder(null);
+        assertEquals("https://requestProvided.com:8443/app/servlet?a=1", builder.getService(mockRequest));
+
+        mockRequest.setServerPort(443);
+        assertEquals("https://requestProvided.com/app/servlet?a=1", builder.getService(mockRequest));
+    }
+
+    /**
+     * Test that the encoded service is the URL-encoded form of the plain
+     * service, for both the precomputed and the per-request prefixes.
+     */
+    public void testEncodedServiceMatchesEncodedPlainService() throws UnsupportedEncodingException {
+        mockRequest.setRequestURI("/app/café menu");
+        mockRequest.setQueryString("q=a+b&ticket=ST-1&name=%E2%82%AC&x=y/z");
+
+        ServiceUrlBuilder configured = new ServiceUrlBuilder(serverName);
+        assertEquals(
+            URLEncoder.encode(configured.getService(mockRequest), "UTF-8"),
+            configured.getEncodedService(mockRequest));
+
+        ServiceUrlBuilder fromRequest = new ServiceUrlBuilder(null);
+        assertEquals(
+            URLEncoder.encode(fromRequest.getService(mockRequest), "UTF-8"),
+            fromRequest.getEncodedService(mockRequest));
+    }
+
+    /**
+     * Test that appendService adds to, rather than replaces, the buffer.
+     */
+    public void testAppendService() {
+        mockRequest.setQueryString("ticket=ST-1&a=1");
+        StringBuilder sb = new StringBuilder("https://cas/login?service=");
+        new ServiceUrlBuilder(serverName).appendService(sb, mockRequest, true);
+        assertEquals("https://cas/login?service=https%3A%2F%2Fsomeplace.com%2Fapp%2Fservlet%3Fa%3D1", sb.toString());
+    }
+
+    /**
+     * Test that encode agrees with URLEncoder using UTF-8 across ASCII,
+     * multi-byte characters, supplementary characters and unpaired surrogates.
+     */
+    public void testEncodeMatchesURLEncoder() throws UnsupportedEncodingException {
+        StringBuilder ascii = new StringBuilder();
+        for (char c = 0; c < 0x80; c++) {
+            ascii.append(c);
+        }
+        String[] samples = {
+            "", ascii.toString(), "café", "€ 5", "日本語",
+            "😀 smile", "lone \ud83d high", "lone \ude00 low", "end \ud83d"
+        };
+        for (int i = 0; i < samples.length; i++) {
+            assertEquals(samples[i], URLEncoder.encode(samples[i], "UTF-8"), ServiceUrlBuilder.encode(samples[i]));
+        }
+    }
+
+}
@@ -0,0 +1,145 @@
+package edu.yale.its.tp.cas.client;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.servlet.ServletException;
+
+import com.mockrunner.mock.web.MockFilterConfig;
+import com.mockrunner.mock.web.MockHttpServletRequest;
+import com.mockrunner.mock.web.MockHttpServletResponse;
+import com.mockrunner.mock.web.MockHttpSession;
+import com.mockrunner.mock.web.MockServletContext;
+
+import edu.yale.its.tp.cas.client.filter.CASFilter;
+import edu.yale.its.tp.cas.client.filter.WatchfulFilterChain;
+import junit.framework.TestCase;
+
+/**
+ * Test case for ValidationListeners and the events fired at them.
+ */
+public class ValidationListenersTest extends TestCase {
+
+    private final List<ValidationEvent> events = new ArrayList<ValidationEvent>();
+
+    private final ValidationListener recorder = new ValidationListener() {
+        public void validationEvent(ValidationEvent event) {
+            events.add(event);
+        }
+    };
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        ValidationListeners.add(recorder);
+    }
+
+    protected void tearDown() throws Exception {
+        ValidationListeners.remove(recorder);
+        super.tearDown();
+    }
+
+    /**
+     * Test that validation fires request, response and parse events, in order,
+     * with one correlation id and increasing timestamps. The "CAS server" is a
+     * file: URL holding a canned response.
+     */
+    public void testValidatorEvents() throws Exception {
+        File response = File.createTempFile("serviceValidate", ".xml");
+        response.deleteOnExit();
+        FileWriter writer = new FileWriter(response);
+        writer.write("<cas:serviceResponse xmlns:cas='http://www.yale.edu/tp/cas'>"
+            + "<cas:authenticationSuccess><cas:user>someone</cas:user></cas:authenticationSuccess>"
+            + "</cas:serviceResponse>");
+        writer.close();
+
+        ProxyTicketValidator pv = new ProxyTicketValidator();
+        pv.setCasValidateUrl(response.toURI().toURL().toString());
+        pv.setService("http%3A%2F%2Fwww.client.com%2F");
+        pv.setServiceTicket("ST-1");
+        pv.setCorrelationId("corr-1");
+        pv.validate();
+        assertTrue(pv.isAuthenticationSuccesful());
+
+        assertEquals(3, events.size());
+        assertEquals(ValidationEvent.Type.HTTP_REQUEST_SENT, events.get(0).getType());
+        assertEquals(ValidationEvent.Type.HTTP_RESPONSE_RECEIVED, events.get(1).getType());
+        assertEquals(ValidationEvent.Type.RESPONSE_PARSED, events.get(2).getType());
+        assertEquals("someone", events.get(2).getDetail());
+        for (int i = 0; i < events.size(); i++) {
+            assertEquals("corr-1", events.get(i).getCorrelationId());
+            assertEquals("ST-1", events.get(i).getTicket());
+            if (i > 0) {
+                assertTrue(events.get(i).getNanoTime() >= events.get(i - 1).getNanoTime());
+            }
+        }
+    }
+
+    /**
+     * Test that a logout request from CAS fires LOGOUT_QUEUED, and that the
+     * next request of the logged-out session fires LOGOUT_APPLIED.
+     */
+    public void testLogoutEvents() throws ServletException, IOException {
+        MockFilterConfig config = new MockFilterConfig();
+        config.setInitParameter(CASFilter.LOGIN_INIT_PARAM, "https://casserver.com/login");
+        config.setInitParameter(CASFilter.VALIDATE_INIT_PARAM, "https://casserver.com/serviceValidate");
+        config.setInitParameter(CASFilter.SERVERNAME_INIT_PARAM, "www.client.com");
+        config.setInitParameter(CASFilter.JMX_INIT_PARAM, "false");
+        config.setupServletContext(new MockServletContext());
+        CASFilter filter = new CASFilter();
+        filter.init(config);
+
+        MockHttpServletRequest logout = new MockHttpServletRequest();
+        logout.setupAddParameter("ticket", "-ST-42");
+        filter.doFilter(logout, new MockHttpServletResponse(), new WatchfulFilterChain());
+
+        assertEquals(1, events.size());
+        assertEquals(ValidationEvent.Type.LOGOUT_QUEUED, events.get(0).getType());
+        assertEquals("ST-42", events.get(0).getTicket());
+
+        // mockrunner's own getValueNames fails with a ClassCastException
+        MockHttpSession session = new MockHttpSession() {
+            public String[] getValueNames() {
+                List<?> names = Collections.list(getAttributeNames());
+                return names.toArray(new String[names.size()]);
+            }
+        };
+        session.setAttribute(CASFilter.CAS_FILTER_RECEIPT,
+            new CASReceipt.Builder().userName("someone").serviceTicket("ST-42").build());
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setSession(session);
+        filter.doFilter(request, new MockHttpServletResponse(), new WatchfulFilterChain());
+
+        assertEquals(ValidationEvent.Type.LOGOUT_APPLIED, events.get(1).getType());
+        assertEquals("ST-42", events.get(1).getTicket());
+        assertEquals("someone", events.get(1).getDetail());
+    }
+
+    /**
+     * Test that a failing listener does not disturb the others or the caller.
+     */
+    public void testFailingListenerIgnored() {
+        ValidationListener failing = new ValidationListener() {
+            public void validationEvent(ValidationEvent event) {
+                throw new IllegalStateException("listener failure");
+            }
+        };
+        ValidationListeners.add(failing);
+        try {
+            ValidationListeners.fire(ValidationEvent.Type.TICKET_RECEIVED, "test", "id", "ST-1", null);
+        } finally {
+            ValidationListeners.remove(failing);
+        }
+        assertEquals(1, events.size());
+    }
+
+    /**
+     * Test that correlation ids are unique.
+     */
+    public void testCorrelationIds() {
+        assertFalse(ValidationEvent.newCorrelationId().equals(ValidationEvent.newCorrelationId()));
+    }
+}
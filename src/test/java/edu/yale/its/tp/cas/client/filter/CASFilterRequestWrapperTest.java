@@ -0,0 +1,173 @@
+package edu.yale.its.tp.cas.client.filter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.http.HttpSession;
+
+import com.mockrunner.mock.web.MockHttpServletRequest;
+import com.mockrunner.mock.web.MockHttpSession;
+
+import edu.yale.its.tp.cas.client.CASReceipt;
+import junit.framework.TestCase;
+
+/**
+ * Test case for the CAS_* header view of CASFilterRequestWrapper.
+ */
+public class CASFilterRequestWrapperTest extends TestCase
+{
+
+    private MockHttpServletRequest mockRequest;
+
+    private MockHttpSession session;
+
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        Map attributes = new HashMap();
+        attributes.put("ssoGuid", "ABC-123");
+        Map<String, String[]> attributeValues = new HashMap<String, String[]>();
+        attributeValues.put("ssoGuid", new String[] { "ABC-123" });
+        attributeValues.put("memberOf", new String[] { "admins", "staff" });
+        attributes.put("memberOf", "staff");
+        CASReceipt receipt = new CASReceipt.Builder().userName("someone").attributes(attributes)
+            .attributeValues(attributeValues).build();
+
+        session = new MockHttpSession();
+        session.setAttribute(CASFilter.CAS_FILTER_USER, "someone");
+        session.setAttribute(CASFilter.CAS_FILTER_RECEIPT, receipt);
+        mockRequest = new MockHttpServletRequest();
+        mockRequest.addHeader("Accept", "text/html");
+    }
+
+    public void testHeaderNamesMergeContainerAndCasHeaders()
+    {
+        mockRequest.setSession(session);
+        mockRequest.getSession(true);
+        CASFilterRequestWrapper wrapper = new CASFilterRequestWrapper(mockRequest, null);
+
+        List names = Collections.list(wrapper.getHeaderNames());
+        assertEquals("Accept", names.get(0));
+        assertTrue(names.contains(CASFilter.CAS_FILTER_USER));
+        assertTrue(names.contains("CAS_USER"));
+        assertTrue(names.contains("CAS_ssoGuid"));
+        assertTrue(names.contains("CAS_memberOf"));
+        assertEquals(5, names.size());
+    }
+
+    public void testCasHeaderValues()
+    {
+        mockRequest.setSession(session);
+        mockRequest.getSession(true);
+        CASFilterRequestWrapper wrapper = new CASFilterRequestWrapper(mockRequest, null);
+
+        assertEquals("someone", wrapper.getHeader("CAS_USER"));
+        assertEquals("ABC-123", wrapper.getHeader("CAS_ssoGuid"));
+        assertNull(wrapper.getHeader("CAS_missing"));
+        assertEquals("text/html", wrapper.getHeader("Accept"));
+
+        List memberOf = new ArrayList(Collections.list(wrapper.getHeaders("CAS_memberOf")));
+        assertEquals(2, memberOf.size());
+        assertTrue(memberOf.contains("admins"));
+        assertTrue(memberOf.contains("staff"));
+    }
+
+    public void testRemoteUserFromAttribute()
+    {
+        mockRequest.setSession(session);
+        mockRequest.getSession(true);
+        CASFilterRequestWrapper wrapper = new CASFilterRequestWrapper(mockRequest, "ssoGuid");
+
+        assertEquals("ABC-123", wrapper.getRemoteUser());
+        assertEquals("ABC-123", wrapper.getHeader("CAS_USER"));
+    }
+
+    public void testHeadersDoNotCreateSession()
+    {
+        CASFilterRequestWrapper wrapper = new CASFilterRequestWrapper(mockRequest, null);
+
+        List names = Collections.list(wrapper.getHeaderNames());
+        assertEquals(3, names.size());
+        assertNull(wrapper.getHeader("CAS_ssoGuid"));
+        assertNull(mockRequest.getSession(false));
+    }
+
+    public void testSessionWrapperIsReused()
+    {
+        mockRequest.setSession(session);
+        mockRequest.getSession(true);
+        CASFilterRequestWrapper wrapper = new CASFilterRequestWrapper(mockRequest, null);
+
+        assertSame(wrapper.getSession(), wrapper.getSession());
+        assertSame(wrapper.getSession(), wrapper.getSession(false));
+        assertEquals("someone", wrapper.getSession().getAttribute(CASFilter.CAS_FILTER_USER));
+    }
+
+    public void testSessionWrapperFollowsNewSession()
+    {
+        mockRequest.setSession(session);
+        mockRequest.getSession(true);
+        CASFilterRequestWrapper wrapper = new CASFilterRequestWrapper(mockRequest, null);
+        HttpSession first = wrapper.getSession();
+
+        MockHttpSession replacement = new MockHttpSession();
+        replacement.setAttribute("marker", "new");
+        mockRequest.setSession(replacement);
+
+        HttpSession second = wrapper.getSession();
+        assertNotSame(first, second);
+        assertEquals("new", second.getAttribute("marker"));
+        assertSame(second, wrapper.getSession());
+    }
+
+    public void testHeadersFollowLogoutDuringRequest()
+    {
+        mockRequest.setSession(session);
+        mockRequest.getSession(true);
+        CASFilterRequestWrapper wrapper = new CASFilterRequestWrapper(mockRequest, "ssoGuid");
+        assertEquals("ABC-123", wrapper.getRemoteUser());
+        assertEquals("ABC-123", wrapper.getHeader("CAS_ssoGuid"));
+
+        // a logout clears the session's attributes
+        session.removeAttribute(CASFilter.CAS_FILTER_RECEIPT);
+        session.removeAttribute(CASFilter.CAS_FILTER_USER);
+        assertNull(wrapper.getRemoteUser());
+        assertNull(wrapper.getHeader("CAS_ssoGuid"));
+        assertNull(wrapper.getHeader("CAS_USER"));
+    }
+
+    public void testHeadersFollowInvalidatedSession()
+    {
+        mockRequest.setSession(session);
+        mockRequest.getSession(true);
+        CASFilterRequestWrapper wrapper = new CASFilterRequestWrapper(mockRequest, "ssoGuid");
+        assertEquals("ABC-123", wrapper.getHeader("CAS_ssoGuid"));
+
+        session.invalidate();
+        assertNull(wrapper.getRemoteUser());
+        assertNull(wrapper.getHeader("CAS_ssoGuid"));
+        assertEquals(3, Collections.list(wrapper.getHeaderNames()).size());
+    }
+
+    public void testHeadersFollowNewSession()
+    {
+        mockRequest.setSession(session);
+        mockRequest.getSession(true);
+        CASFilterRequestWrapper wrapper = new CASFilterRequestWrapper(mockRequest, null);
+        assertEquals("ABC-123", wrapper.getHeader("CAS_ssoGuid"));
+
+        Map attributes = new HashMap();
+        attributes.put("ssoGuid", "DEF-456");
+        MockHttpSession replacement = new MockHttpSession();
+        replacement.setAttribute(CASFilter.CAS_FILTER_USER, "someone-else");
+        replacement.setAttribute(CASFilter.CAS_FILTER_RECEIPT, new CASReceipt.Builder().userName("someone-else")
+            .attributes(attributes).build());
+        mockRequest.setSession(replacement);
+
+        assertEquals("DEF-456", wrapper.getHeader("CAS_ssoGuid"));
+        assertEquals("someone-else", wrapper.getHeader("CAS_USER"));
+    }
+}
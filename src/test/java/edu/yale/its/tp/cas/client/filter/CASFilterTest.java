@@ -8,10 +8,16 @@
 package edu.yale.its.tp.cas.client.filter;
 
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.servlet.FilterConfig;
 import javax.servlet.ServletException;
+import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletRequest;
 
 import com.mockrunner.mock.web.MockFilterConfig;
@@ -21,6 +27,7 @@ import com.mockrunner.mock.web.MockHttpSession;
 import com.mockrunner.mock.web.MockServletContext;
 
 import edu.yale.its.tp.cas.client.CASReceipt;
+import edu.yale.its.tp.cas.emulator.CasServerEmulator;
 import junit.framework.TestCase;
 
 /**
@@ -93,10 +100,11 @@ public class CASFilterTest extends TestCase {
         // create a basic authenticated session
         this.authenticatedSession = new MockHttpSession();
         this.authenticatedSession.setAttribute(CASFilter.CAS_FILTER_USER, USERNAME);
-        this.basicReceipt = new CASReceipt();
-        this.basicReceipt.setCasValidateUrl(CAS_VALIDATE_URL);
-        this.basicReceipt.setPrimaryAuthentication(false);
-        this.basicReceipt.setUserName(USERNAME);
+        this.basicReceipt = new CASReceipt.Builder()
+            .casValidateUrl(CAS_VALIDATE_URL)
+            .primaryAuthentication(false)
+            .userName(USERNAME)
+            .build();
         this.authenticatedSession.setAttribute(CASFilter.CAS_FILTER_RECEIPT, this.basicReceipt);
         
         this.mockRequest = new MockHttpServletRequest();
@@ -104,6 +112,15 @@ public class CASFilterTest extends TestCase {
         this.filterChain = new WatchfulFilterChain();
     }
 
+    /**
+     * Replace the receipt in the authenticated session with one that was
+     * proxied through the given services.
+     */
+    private void authenticateWithProxies(List proxyList) {
+        this.basicReceipt = new CASReceipt.Builder(this.basicReceipt).proxyList(proxyList).build();
+        this.authenticatedSession.setAttribute(CASFilter.CAS_FILTER_RECEIPT, this.basicReceipt);
+    }
+
     /*
      * @see TestCase#tearDown()
      */
@@ -246,6 +263,563 @@ public class CASFilterTest extends TestCase {
         assertTrue(filterChain.isChainInvoked());
     }
     
+    /**
+     * Test that an unauthenticated request is redirected to CAS login with the
+     * URL-encoded service, built from the configured server name.
+     * @throws ServletException
+     * @throws IOException
+     */
+    public void testRedirectToCasCarriesEncodedService() throws ServletException, IOException {
+        mockRequest.setScheme("https");
+        mockRequest.setRequestURI("/app/page");
+        mockRequest.setQueryString("a=1&b=two words");
+        mockRequest.setSession(new MockHttpSession());
+        mockConfig.setInitParameter("edu.yale.its.tp.cas.client.filter.renew", "true");
+        mockConfig.setupServletContext(basicContext);
+        CASFilter filter = new CASFilter();
+        filter.init(mockConfig);
+        filter.doFilter(mockRequest, mockResponse, filterChain);
+
+        assertFalse(filterChain.isChainInvoked());
+        assertEquals(
+            CAS_LOGIN_URL + "?service=https%3A%2F%2Fwww.client.com%3A8080%2Fapp%2Fpage%3Fa%3D1%26b%3Dtwo+words&renew=true",
+            mockResponse.getHeader("Location"));
+    }
+
+    /**
+     * Test that the filter registers its statistics with JMX, counts what it
+     * does, and unregisters when destroyed.
+     * @throws Exception
+     */
+    public void testStatisticsRegisteredWithJmx() throws Exception {
+        mockRequest.setSession(new MockHttpSession());
+        mockConfig.setFilterName("jmxTestFilter");
+        mockConfig.setupServletContext(basicContext);
+        CASFilter filter = new CASFilter();
+        filter.init(mockConfig);
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        Set names = server.queryNames(new ObjectName(CASFilterStats.JMX_DOMAIN + ":type=CASFilter,name=\"jmxTestFilter\",*"), null);
+        assertEquals(1, names.size());
+        ObjectName name = (ObjectName) names.iterator().next();
+
+        filter.doFilter(mockRequest, mockResponse, filterChain);
+        assertEquals(Long.valueOf(1), server.getAttribute(name, "RedirectsToCas"));
+        assertEquals(Integer.valueOf(0), server.getAttribute(name, "LogoutStorageSize"));
+
+        mockRequest.setupAddParameter("ticket", "-ST-1");
+        filter.doFilter(mockRequest, new MockHttpServletResponse(), new WatchfulFilterChain());
+        assertEquals(Long.valueOf(1), server.getAttribute(name, "LogoutRequests"));
+        assertEquals(Integer.valueOf(1), server.getAttribute(name, "LogoutStorageSize"));
+
+        filter.destroy();
+        assertFalse(server.isRegistered(name));
+    }
+
+    /**
+     * Test that a ticket CAS rejected is not sent to CAS again when it is
+     * replayed, but redirected straight to login, and that the replay is
+     * counted.
+     * @throws Exception
+     */
+    public void testReplayedInvalidTicketIsNotRevalidated() throws Exception {
+        CasServerEmulator cas = new CasServerEmulator();
+        cas.start();
+        try {
+            mockConfig.setInitParameter(CASFilter.VALIDATE_INIT_PARAM, cas.getServiceValidateUrl());
+            mockConfig.setInitParameter(CASFilter.JMX_INIT_PARAM, "false");
+            mockConfig.setupServletContext(basicContext);
+            CASFilter filter = new CASFilter();
+            filter.init(mockConfig);
+
+            for (int i = 0; i < 3; i++) {
+                MockHttpServletRequest request = new MockHttpServletRequest();
+                request.setRequestURI("/app/page");
+                request.setQueryString("ticket=ST-bookmarked");
+                request.setupAddParameter("ticket", "ST-bookmarked");
+                request.setSession(new MockHttpSession());
+                MockHttpServletResponse response = new MockHttpServletResponse();
+                filter.doFilter(request, response, filterChain);
+                assertEquals(CAS_LOGIN_URL + "?service=http%3A%2F%2Fwww.client.com%3A8080%2Fapp%2Fpage",
+                    response.getHeader("Location"));
+            }
+            assertFalse(filterChain.isChainInvoked());
+            assertEquals(1, cas.getRequestCount("serviceValidate"));
+            assertEquals(1, filter.getStats().getInvalidTickets());
+            assertEquals(2, filter.getStats().getBlockedReplays());
+            filter.destroy();
+        } finally {
+            cas.stop();
+        }
+    }
+
+    /**
+     * Test that validations beyond the configured rate are shed with the
+     * configured status and Retry-After, without reaching CAS, and counted.
+     * @throws Exception
+     */
+    public void testValidationsBeyondRateAreShed() throws Exception {
+        CasServerEmulator cas = new CasServerEmulator();
+        cas.start();
+        try {
+            mockConfig.setInitParameter(CASFilter.VALIDATE_INIT_PARAM, cas.getServiceValidateUrl());
+            mockConfig.setInitParameter(CASFilter.JMX_INIT_PARAM, "false");
+            mockConfig.setInitParameter(CASFilter.CLIENT_VALIDATION_RATE_INIT_PARAM, "1");
+            mockConfig.setInitParameter(CASFilter.SHED_STATUS_INIT_PARAM, "429");
+            mockConfig.setInitParameter(CASFilter.SHED_RETRY_AFTER_INIT_PARAM, "3");
+            mockConfig.setupServletContext(basicContext);
+            CASFilter filter = new CASFilter();
+            filter.init(mockConfig);
+
+            String service = "http://www.client.com:8080/app/page";
+            MockHttpServletResponse first = requestWithTicket(filter, "10.0.0.1",
+                cas.issueServiceTicket(USERNAME, service, false));
+            assertEquals(service, first.getHeader("Location"));
+            MockHttpServletResponse shed = requestWithTicket(filter, "10.0.0.1",
+                cas.issueServiceTicket(USERNAME, service, false));
+            assertEquals(429, shed.getErrorCode());
+            assertEquals("3", shed.getHeader("Retry-After"));
+            MockHttpServletResponse otherClient = requestWithTicket(filter, "10.0.0.2",
+                cas.issueServiceTicket(USERNAME, service, false));
+            assertEquals(service, otherClient.getHeader("Location"));
+
+            assertEquals(2, cas.getRequestCount("serviceValidate"));
+            assertEquals(1, filter.getStats().getValidationsShed());
+            assertEquals(0, filter.getStats().getValidationConcurrencyLimit());
+            filter.destroy();
+        } finally {
+            cas.stop();
+        }
+    }
+
+    /**
+     * Test that the validation permit is released whatever CAS answers, and
+     * that only a CAS that could not be reached shrinks the concurrency limit.
+     * @throws Exception
+     */
+    public void testConcurrencyLimitFollowsCasAnswers() throws Exception {
+        CasServerEmulator cas = new CasServerEmulator();
+        cas.start();
+        String validateUrl = cas.getServiceValidateUrl();
+        try {
+            mockConfig.setInitParameter(CASFilter.VALIDATE_INIT_PARAM, validateUrl);
+            mockConfig.setInitParameter(CASFilter.JMX_INIT_PARAM, "false");
+            mockConfig.setInitParameter(CASFilter.MAX_CONCURRENT_VALIDATIONS_INIT_PARAM, "20");
+            mockConfig.setupServletContext(basicContext);
+            CASFilter filter = new CASFilter();
+            filter.init(mockConfig);
+
+            requestWithTicket(filter, "10.0.0.1", "ST-rejected");
+            assertEquals(1, filter.getStats().getInvalidTickets());
+            assertEquals(0, filter.getStats().getInFlightValidations());
+            assertEquals(20, filter.getStats().getValidationConcurrencyLimit());
+            filter.destroy();
+        } finally {
+            cas.stop();
+        }
+
+        CASFilter filter = new CASFilter();
+        filter.init(mockConfig);
+        try {
+            requestWithTicket(filter, "10.0.0.1", "ST-unreachable");
+            fail("expected a ServletException");
+        } catch (ServletException e) {
+            // CAS is gone
+        }
+        assertEquals(0, filter.getStats().getInFlightValidations());
+        assertEquals(18, filter.getStats().getValidationConcurrencyLimit());
+        filter.destroy();
+    }
+
+    private MockHttpServletResponse requestWithTicket(CASFilter filter, String client, String ticket)
+            throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setRequestURI("/app/page");
+        request.setQueryString("ticket=" + ticket);
+        request.setupAddParameter("ticket", ticket);
+        request.setRemoteAddr(client);
+        request.setSession(new MockHttpSession());
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(request, response, filterChain);
+        return response;
+    }
+
+    /**
+     * Test that with a receipt cookie key configured, the receipt travels in a
+     * cookie that authenticates later requests without a session, and that a
+     * logout from CAS still ends it.
+     * @throws Exception
+     */
+    public void testReceiptCookie() throws Exception {
+        CasServerEmulator cas = new CasServerEmulator();
+        cas.start();
+        try {
+            mockConfig.setInitParameter(CASFilter.VALIDATE_INIT_PARAM, cas.getServiceValidateUrl());
+            mockConfig.setInitParameter(CASFilter.JMX_INIT_PARAM, "false");
+            mockConfig.setInitParameter(CASFilter.WRAP_REQUESTS_INIT_PARAM, "true");
+            mockConfig.setInitParameter(CASFilter.RECEIPT_COOKIE_KEYS_INIT_PARAM, "c2l4dGVlbiBieXRlcyBvciBtb3Jl");
+            mockConfig.setupServletContext(basicContext);
+            CASFilter filter = new CASFilter();
+            filter.init(mockConfig);
+            String ticket = cas.issueServiceTicket(USERNAME, "http://www.client.com:8080/app/page", false);
+
+            MockHttpServletRequest request = new MockHttpServletRequest();
+            request.setRequestURI("/app/page");
+            request.setupAddParameter("ticket", ticket);
+            MockHttpSession session = new MockHttpSession();
+            request.setSession(session);
+            filter.doFilter(request, mockResponse, filterChain);
+            assertTrue(mockResponse.wasRedirectSent());
+            assertNull("the receipt should not be kept in the session",
+                session.getAttribute(CASFilter.CAS_FILTER_RECEIPT));
+            String setCookie = mockResponse.getHeader("Set-Cookie");
+            assertTrue(setCookie, setCookie.startsWith(CASFilter.RECEIPT_COOKIE + "="));
+            assertTrue(setCookie, setCookie.endsWith("; Path=/; HttpOnly"));
+            Cookie cookie = new Cookie(CASFilter.RECEIPT_COOKIE, setCookie.substring(
+                CASFilter.RECEIPT_COOKIE.length() + 1, setCookie.indexOf(';')));
+
+            // a new request with the cookie, and without a session
+            MockHttpServletRequest withCookie = new MockHttpServletRequest();
+            withCookie.setRequestURI("/app/page");
+            withCookie.addCookie(cookie);
+            WatchfulFilterChain chain = new WatchfulFilterChain();
+            filter.doFilter(withCookie, new MockHttpServletResponse(), chain);
+            assertTrue(chain.isChainInvoked());
+            assertEquals(USERNAME, ((HttpServletRequest) chain.getFilteredServletRequest()).getRemoteUser());
+            assertNull(withCookie.getSession(false));
+
+            // a forged cookie gets the user sent to login
+            MockHttpServletRequest forged = new MockHttpServletRequest();
+            forged.addCookie(new Cookie(CASFilter.RECEIPT_COOKIE, cookie.getValue().substring(1)));
+            forged.setSession(new MockHttpSession());
+            chain = new WatchfulFilterChain();
+            MockHttpServletResponse response = new MockHttpServletResponse();
+            filter.doFilter(forged, response, chain);
+            assertFalse(chain.isChainInvoked());
+            assertTrue(response.wasRedirectSent());
+
+            // logout by service ticket still applies, and clears the cookie
+            MockHttpServletRequest logout = new MockHttpServletRequest();
+            logout.setupAddParameter("ticket", "-" + ticket);
+            filter.doFilter(logout, new MockHttpServletResponse(), new WatchfulFilterChain());
+            withCookie = new MockHttpServletRequest();
+            withCookie.addCookie(cookie);
+            withCookie.setSession(new MockHttpSession());
+            chain = new WatchfulFilterChain();
+            response = new MockHttpServletResponse();
+            filter.doFilter(withCookie, response, chain);
+            assertFalse(chain.isChainInvoked());
+            assertTrue(response.wasRedirectSent());
+            assertTrue(response.getHeader("Set-Cookie"), response.getHeader("Set-Cookie").indexOf("Max-Age=0") != -1);
+            filter.destroy();
+        } finally {
+            cas.stop();
+        }
+    }
+
+    /**
+     * Test that with receipt cookies, the whole login - the redirect to CAS
+     * and the validation of the ticket it issues - creates no session.
+     * @throws Exception
+     */
+    public void testReceiptCookieLoginCreatesNoSession() throws Exception {
+        CasServerEmulator cas = new CasServerEmulator();
+        cas.start();
+        try {
+            mockConfig.setInitParameter(CASFilter.VALIDATE_INIT_PARAM, cas.getServiceValidateUrl());
+            mockConfig.setInitParameter(CASFilter.JMX_INIT_PARAM, "false");
+            mockConfig.setInitParameter(CASFilter.RECEIPT_COOKIE_KEYS_INIT_PARAM, "c2l4dGVlbiBieXRlcyBvciBtb3Jl");
+            mockConfig.setupServletContext(basicContext);
+            CASFilter filter = new CASFilter();
+            filter.init(mockConfig);
+
+            MockHttpServletRequest request = new MockHttpServletRequest();
+            request.setRequestURI("/app/page");
+            request.setSession(new MockHttpSession());
+            MockHttpServletResponse response = new MockHttpServletResponse();
+            filter.doFilter(request, response, filterChain);
+            assertTrue(response.wasRedirectSent());
+            assertNull(request.getSession(false));
+            String gateway = (String) response.getHeaderList("Set-Cookie").get(0);
+            assertTrue(gateway, gateway.startsWith("CASGATEWAYED=true; Path=/; Max-Age="));
+
+            String ticket = cas.issueServiceTicket(USERNAME, "http://www.client.com:8080/app/page", false);
+            request = new MockHttpServletRequest();
+            request.setRequestURI("/app/page");
+            request.setupAddParameter("ticket", ticket);
+            request.addCookie(new Cookie("CASGATEWAYED", "true"));
+            request.setSession(new MockHttpSession());
+            response = new MockHttpServletResponse();
+            filter.doFilter(request, response, filterChain);
+            assertTrue(response.wasRedirectSent());
+            assertNull(request.getSession(false));
+            List setCookies = response.getHeaderList("Set-Cookie");
+            assertEquals(setCookies.toString(), 2, setCookies.size());
+            assertTrue(((String) setCookies.get(0)).startsWith(CASFilter.RECEIPT_COOKIE + "="));
+            assertTrue(((String) setCookies.get(1)).startsWith("CASGATEWAYED=; Path=/; Max-Age=0"));
+            filter.destroy();
+        } finally {
+            cas.stop();
+        }
+    }
+
+    /**
+     * Test that with redirectAfterValidation false, a validated request goes
+     * straight down the chain with its ticket hidden, and that the response
+     * names the URL without the ticket.
+     * @throws Exception
+     */
+    public void testNoRedirectAfterValidation() throws Exception {
+        CasServerEmulator cas = new CasServerEmulator();
+        cas.start();
+        try {
+            mockConfig.setInitParameter(CASFilter.VALIDATE_INIT_PARAM, cas.getServiceValidateUrl());
+            mockConfig.setInitParameter(CASFilter.JMX_INIT_PARAM, "false");
+            mockConfig.setInitParameter(CASFilter.WRAP_REQUESTS_INIT_PARAM, "true");
+            mockConfig.setInitParameter(CASFilter.REDIRECT_AFTER_VALIDATION_INIT_PARAM, "false");
+            mockConfig.setupServletContext(basicContext);
+            CASFilter filter = new CASFilter();
+            filter.init(mockConfig);
+            String ticket = cas.issueServiceTicket(USERNAME, "http://www.client.com:8080/app/page?a=1", false);
+
+            mockRequest.setRequestURI("/app/page");
+            mockRequest.setQueryString("a=1&ticket=" + ticket);
+            mockRequest.setupAddParameter("a", "1");
+            mockRequest.setupAddParameter("ticket", ticket);
+            MockHttpSession session = new MockHttpSession();
+            mockRequest.setSession(session);
+            filter.doFilter(mockRequest, mockResponse, filterChain);
+
+            assertFalse(mockResponse.wasRedirectSent());
+            assertEquals("http://www.client.com:8080/app/page?a=1", mockResponse.getHeader("Content-Location"));
+            assertTrue(filterChain.isChainInvoked());
+            HttpServletRequest filtered = (HttpServletRequest) filterChain.getFilteredServletRequest();
+            assertEquals(USERNAME, filtered.getRemoteUser());
+            assertNull(filtered.getParameter("ticket"));
+            assertFalse(filtered.getParameterMap().containsKey("ticket"));
+            assertEquals("1", filtered.getParameter("a"));
+            assertEquals("a=1", filtered.getQueryString());
+            assertNotNull(session.getAttribute(CASFilter.CAS_FILTER_RECEIPT));
+            assertNull(session.getAttribute(CASFilter.CAS_FILTER_RECEIPT_IS_FRESH_BEFORE_REDIRECT));
+            assertEquals(1, filter.getStats().getRedirectsAvoided());
+            filter.destroy();
+        } finally {
+            cas.stop();
+        }
+    }
+
+    /**
+     * Test that with redirectAfterValidation false, reloading the page whose
+     * URL still carries the validated ticket passes through without asking
+     * CAS again, and that a successful validation resets the count of
+     * tickets re-requested after invalid ones.
+     * @throws Exception
+     */
+    public void testReloadWithValidatedTicket() throws Exception {
+        CasServerEmulator cas = new CasServerEmulator();
+        cas.start();
+        try {
+            mockConfig.setInitParameter(CASFilter.VALIDATE_INIT_PARAM, cas.getServiceValidateUrl());
+            mockConfig.setInitParameter(CASFilter.JMX_INIT_PARAM, "false");
+            mockConfig.setInitParameter(CASFilter.REDIRECT_AFTER_VALIDATION_INIT_PARAM, "false");
+            mockConfig.setupServletContext(basicContext);
+            CASFilter filter = new CASFilter();
+            filter.init(mockConfig);
+            String ticket = cas.issueServiceTicket(USERNAME, "http://www.client.com:8080/app/page", false);
+            MockHttpSession session = new MockHttpSession();
+            session.setAttribute("edu.yale.its.tp.cas.client.filter.ticketRerequestCount", Integer.valueOf(2));
+
+            for (int i = 0; i < 5; i++) {
+                MockHttpServletRequest request = new MockHttpServletRequest();
+                request.setRequestURI("/app/page");
+                request.setupAddParameter("ticket", ticket);
+                request.setSession(session);
+                MockHttpServletResponse response = new MockHttpServletResponse();
+                WatchfulFilterChain chain = new WatchfulFilterChain();
+                filter.doFilter(request, response, chain);
+                assertTrue("request " + i, chain.isChainInvoked());
+                assertFalse(response.wasErrorSent());
+                assertFalse(response.wasRedirectSent());
+                assertNull(chain.getFilteredServletRequest().getParameter("ticket"));
+            }
+            assertEquals(1, cas.getRequestCount("serviceValidate"));
+            assertNull(session.getAttribute("edu.yale.its.tp.cas.client.filter.ticketRerequestCount"));
+
+            // another ticket is still validated
+            MockHttpServletRequest request = new MockHttpServletRequest();
+            request.setRequestURI("/app/page");
+            request.setupAddParameter("ticket", "ST-1-unknown");
+            request.setSession(session);
+            MockHttpServletResponse response = new MockHttpServletResponse();
+            filter.doFilter(request, response, new WatchfulFilterChain());
+            assertEquals(2, cas.getRequestCount("serviceValidate"));
+            assertTrue(response.wasRedirectSent());
+            filter.destroy();
+        } finally {
+            cas.stop();
+        }
+    }
+
+    /**
+     * Test that, by default, the round trip of the redirect after validation
+     * is measured when the request it asked for arrives.
+     * @throws Exception
+     */
+    public void testRedirectRoundTripMeasured() throws Exception {
+        CasServerEmulator cas = new CasServerEmulator();
+        cas.start();
+        try {
+            mockConfig.setInitParameter(CASFilter.VALIDATE_INIT_PARAM, cas.getServiceValidateUrl());
+            mockConfig.setInitParameter(CASFilter.JMX_INIT_PARAM, "false");
+            mockConfig.setupServletContext(basicContext);
+            CASFilter filter = new CASFilter();
+            filter.init(mockConfig);
+            String ticket = cas.issueServiceTicket(USERNAME, "http://www.client.com:8080/app/page", false);
+
+            mockRequest.setRequestURI("/app/page");
+            mockRequest.setupAddParameter("ticket", ticket);
+            MockHttpSession session = new MockHttpSession();
+            mockRequest.setSession(session);
+            filter.doFilter(mockRequest, mockResponse, filterChain);
+            assertTrue(mockResponse.wasRedirectSent());
+            assertEquals(0, filter.getStats().getRedirectRoundTripCount());
+
+            MockHttpServletRequest followUp = new MockHttpServletRequest();
+            followUp.setRequestURI("/app/page");
+            followUp.setSession(session);
+            filter.doFilter(followUp, new MockHttpServletResponse(), filterChain);
+            assertTrue(filterChain.isChainInvoked());
+            assertEquals(1, filter.getStats().getRedirectRoundTripCount());
+            assertEquals(0, filter.getStats().getRedirectsAvoided());
+            filter.destroy();
+        } finally {
+            cas.stop();
+        }
+    }
+
+    /**
+     * Test that a logout drops the receipt of the session that holds the
+     * ticket at once, rather than on the user's next request.
+     * @throws Exception
+     */
+    public void testLogoutEvictsSession() throws Exception {
+        CasServerEmulator cas = new CasServerEmulator();
+        cas.start();
+        try {
+            mockConfig.setInitParameter(CASFilter.VALIDATE_INIT_PARAM, cas.getServiceValidateUrl());
+            mockConfig.setInitParameter(CASFilter.JMX_INIT_PARAM, "false");
+            mockConfig.setupServletContext(basicContext);
+            CASFilter filter = new CASFilter();
+            filter.init(mockConfig);
+            String ticket = cas.issueServiceTicket(USERNAME, "http://www.client.com:8080/app/page", false);
+            MockHttpSession session = validate(filter, ticket);
+            assertNotNull(session.getAttribute(CASFilter.CAS_FILTER_RECEIPT));
+            assertEquals(1, filter.getSessionIndex().size());
+
+            MockHttpServletRequest logout = new MockHttpServletRequest();
+            logout.setupAddParameter("ticket", "-" + ticket);
+            logout.setSession(new MockHttpSession());
+            filter.doFilter(logout, new MockHttpServletResponse(), new WatchfulFilterChain());
+
+            assertNull(session.getAttribute(CASFilter.CAS_FILTER_RECEIPT));
+            assertNull(session.getAttribute(CASFilter.CAS_FILTER_USER));
+            assertEquals(0, filter.getSessionIndex().size());
+            assertEquals(1, filter.getStats().getLogoutsApplied());
+            filter.destroy();
+        } finally {
+            cas.stop();
+        }
+    }
+
+    /**
+     * Test that, with a shared logout storage, a logout sent to another node
+     * invalidates the session here when the sessions are next checked.
+     * @throws Exception
+     */
+    public void testLogoutFromAnotherNodeInvalidatesSession() throws Exception {
+        CasServerEmulator cas = new CasServerEmulator();
+        cas.start();
+        try {
+            mockConfig.setInitParameter(CASFilter.VALIDATE_INIT_PARAM, cas.getServiceValidateUrl());
+            mockConfig.setInitParameter(CASFilter.JMX_INIT_PARAM, "false");
+            mockConfig.setInitParameter(LogoutStorageLocator.LOGOUT_STORAGE_FACTORY_INIT_PARAM,
+                SharedStorageFactory.class.getName());
+            mockConfig.setInitParameter(CASFilter.LOGOUT_INVALIDATES_SESSION_INIT_PARAM, "true");
+            mockConfig.setupServletContext(basicContext);
+            CASFilter thisNode = new CASFilter();
+            thisNode.init(mockConfig);
+            CASFilter otherNode = new CASFilter();
+            otherNode.init(mockConfig);
+            String ticket = cas.issueServiceTicket(USERNAME, "http://www.client.com:8080/app/page", false);
+            MockHttpSession session = validate(thisNode, ticket);
+
+            MockHttpServletRequest logout = new MockHttpServletRequest();
+            logout.setupAddParameter("ticket", "-" + ticket);
+            logout.setSession(new MockHttpSession());
+            otherNode.doFilter(logout, new MockHttpServletResponse(), new WatchfulFilterChain());
+            assertTrue(session.isValid());
+
+            thisNode.sweepLoggedOutSessions();
+            assertFalse(session.isValid());
+            assertEquals(0, thisNode.getSessionIndex().size());
+            assertEquals(1, thisNode.getStats().getLogoutsApplied());
+            thisNode.destroy();
+            otherNode.destroy();
+        } finally {
+            cas.stop();
+        }
+    }
+
+    private MockHttpSession validate(CASFilter filter, String ticket) throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setRequestURI("/app/page");
+        request.setupAddParameter("ticket", ticket);
+        MockHttpSession session = new MockHttpSession();
+        request.setSession(session);
+        filter.doFilter(request, new MockHttpServletResponse(), new WatchfulFilterChain());
+        return session;
+    }
+
+    /**
+     * One logout storage for every filter, as a cluster would share.
+     */
+    public static class SharedStorageFactory implements LogoutStorageFactory {
+        private static final LogoutStorage STORAGE = new CachedLogoutStorage();
+
+        public LogoutStorage create(FilterConfig config) {
+            return STORAGE;
+        }
+    }
+
+    /**
+     * Test that the rejected ticket cache can be turned off.
+     * @throws Exception
+     */
+    public void testRejectedTicketCacheDisabled() throws Exception {
+        CasServerEmulator cas = new CasServerEmulator();
+        cas.start();
+        try {
+            mockConfig.setInitParameter(CASFilter.VALIDATE_INIT_PARAM, cas.getServiceValidateUrl());
+            mockConfig.setInitParameter(CASFilter.JMX_INIT_PARAM, "false");
+            mockConfig.setInitParameter(CASFilter.REJECTED_TICKET_CACHE_SIZE_INIT_PARAM, "0");
+            mockConfig.setupServletContext(basicContext);
+            CASFilter filter = new CASFilter();
+            filter.init(mockConfig);
+
+            for (int i = 0; i < 2; i++) {
+                MockHttpServletRequest request = new MockHttpServletRequest();
+                request.setupAddParameter("ticket", "ST-bookmarked");
+                request.setSession(new MockHttpSession());
+                filter.doFilter(request, new MockHttpServletResponse(), filterChain);
+            }
+            assertEquals(2, cas.getRequestCount("serviceValidate"));
+            assertEquals(0, filter.getStats().getBlockedReplays());
+            filter.destroy();
+        } finally {
+            cas.stop();
+        }
+    }
+
     /**
      * Test that the CASFilter will not accept a prior CASReceipt that does not meet its requirement
      * that the authentication be from a presentation of primary credentials -- that is, with
@@ -276,7 +850,7 @@ public class CASFilterTest extends TestCase {
     public void testStrictnessRejectProxied() throws ServletException, IOException {
         List proxyList = new ArrayList();
         proxyList.add("https://www.foo.com/proxier");
-        basicReceipt.setProxyList(proxyList);
+        authenticateWithProxies(proxyList);
         
         mockRequest.setSession(authenticatedSession);
         mockConfig.setupServletContext(basicContext);
@@ -297,7 +871,7 @@ public class CASFilterTest extends TestCase {
     public void testStrictnessRejectUnknownProxy() throws ServletException, IOException {
         List proxyList = new ArrayList();
         proxyList.add("https://www.foo.com/proxier");
-        basicReceipt.setProxyList(proxyList);
+        authenticateWithProxies(proxyList);
         
         mockConfig.setInitParameter(CASFilter.AUTHORIZED_PROXY_INIT_PARAM, "https://www.bar.com/proxier");
         
@@ -319,7 +893,7 @@ public class CASFilterTest extends TestCase {
     public void testAcceptProxy() throws ServletException, IOException {
         List proxyList = new ArrayList();
         proxyList.add("https://www.foo.com/proxier");
-        basicReceipt.setProxyList(proxyList);
+        authenticateWithProxies(proxyList);
         
         mockConfig.setInitParameter(CASFilter.AUTHORIZED_PROXY_INIT_PARAM, "https://www.foo.com/proxier");
         
@@ -339,7 +913,7 @@ public class CASFilterTest extends TestCase {
     public void testAcceptProxies() throws Exception {
         List proxyList = new ArrayList();
         proxyList.add("https://www.foo.com/proxier");
-        basicReceipt.setProxyList(proxyList);
+        authenticateWithProxies(proxyList);
         
         mockConfig.setInitParameter(CASFilter.AUTHORIZED_PROXY_INIT_PARAM, "https://www.foo.com/proxier https://www.bar.com/proxier https://www.fred.com/proxier");
         
@@ -354,6 +928,7 @@ public class CASFilterTest extends TestCase {
         filterChain = new WatchfulFilterChain();
         proxyList.remove("https://www.foo.com/proxier");
         proxyList.add("https://www.bar.com/proxier");
+        authenticateWithProxies(proxyList);
         filter.doFilter(mockRequest, new MockHttpServletResponse(), filterChain);
         
         assertTrue(filterChain.isChainInvoked());
@@ -361,6 +936,7 @@ public class CASFilterTest extends TestCase {
         filterChain = new WatchfulFilterChain();
         proxyList.remove("https://www.bar.com/proxier");
         proxyList.add("https://www.fred.com/proxier");
+        authenticateWithProxies(proxyList);
         filter.doFilter(mockRequest, new MockHttpServletResponse(), filterChain);
         
         assertTrue(filterChain.isChainInvoked());
@@ -368,6 +944,7 @@ public class CASFilterTest extends TestCase {
         filterChain = new WatchfulFilterChain();
         proxyList.remove("https://www.fred.com/proxier");
         proxyList.add("https://www.wombat.com/proxier");
+        authenticateWithProxies(proxyList);
         filter.doFilter(mockRequest, new MockHttpServletResponse(), filterChain);
         
         assertFalse(filterChain.isChainInvoked());
@@ -0,0 +1,128 @@
+package edu.yale.its.tp.cas.client.filter;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+
+import com.mockrunner.mock.web.MockFilterConfig;
+import com.mockrunner.mock.web.MockHttpServletRequest;
+import com.mockrunner.mock.web.MockHttpServletResponse;
+import com.mockrunner.mock.web.MockServletContext;
+
+import edu.yale.its.tp.cas.client.CASReceipt;
+import edu.yale.its.tp.cas.emulator.CasServerEmulator;
+import junit.framework.TestCase;
+
+/**
+ * Test case for CASValidateFilter's sessionless mode, against a
+ * CasServerEmulator.
+ */
+public class CASValidateFilterTest extends TestCase {
+
+    private static final String SERVICE = "http://www.client.com/api/data";
+
+    private CasServerEmulator cas;
+
+    private MockFilterConfig config;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        cas = new CasServerEmulator();
+        cas.start();
+        config = new MockFilterConfig();
+        config.setupServletContext(new MockServletContext());
+        config.setInitParameter(CASValidateFilter.VALIDATE_INIT_PARAM, cas.getServiceValidateUrl());
+        config.setInitParameter(CASValidateFilter.SERVERNAME_INIT_PARAM, "www.client.com");
+        config.setInitParameter(CASValidateFilter.SESSIONLESS_INIT_PARAM, "true");
+        config.setInitParameter(CASValidateFilter.WRAP_REQUESTS_INIT_PARAM, "true");
+        config.setInitParameter(CASFilter.JMX_INIT_PARAM, "false");
+    }
+
+    protected void tearDown() throws Exception {
+        cas.stop();
+        super.tearDown();
+    }
+
+    /**
+     * Test that a ticket reused within the cache's lifetime is validated once,
+     * and that no session is created.
+     */
+    public void testReusedTicketIsValidatedOnce() throws Exception {
+        CASValidateFilter filter = new CASValidateFilter();
+        filter.init(config);
+        String ticket = cas.issueServiceTicket("someone", SERVICE, false);
+
+        for (int i = 0; i < 3; i++) {
+            MockHttpServletRequest request = apiRequest(ticket);
+            WatchfulFilterChain chain = new WatchfulFilterChain();
+            filter.doFilter(request, new MockHttpServletResponse(), chain);
+
+            assertTrue(chain.isChainInvoked());
+            HttpServletRequest filtered = (HttpServletRequest) chain.getFilteredServletRequest();
+            assertEquals("someone", filtered.getRemoteUser());
+            assertEquals("someone", ((CASReceipt) request.getAttribute(CASFilter.CAS_FILTER_RECEIPT)).getUserName());
+            assertNull("no session should be created", request.getSession(false));
+        }
+        assertEquals(1, cas.getRequestCount("serviceValidate"));
+        assertEquals(2, filter.getStats().getReceiptCacheHits());
+        assertEquals(1, filter.getStats().getReceiptCacheMisses());
+        filter.destroy();
+    }
+
+    /**
+     * Test that the receipt is cached for the service the ticket was
+     * presented to only.
+     */
+    public void testCacheIsPerService() throws Exception {
+        CASValidateFilter filter = new CASValidateFilter();
+        filter.init(config);
+        String ticket = cas.issueServiceTicket("someone", SERVICE, false);
+        filter.doFilter(apiRequest(ticket), new MockHttpServletResponse(), new WatchfulFilterChain());
+
+        MockHttpServletRequest otherService = apiRequest(ticket);
+        otherService.setRequestURI("/api/other");
+        WatchfulFilterChain chain = new WatchfulFilterChain();
+        try {
+            filter.doFilter(otherService, new MockHttpServletResponse(), chain);
+            fail("the ticket was issued for another service");
+        } catch (ServletException e) {
+            // expected
+        }
+        assertFalse(chain.isChainInvoked());
+        assertEquals(2, cas.getRequestCount("serviceValidate"));
+        filter.destroy();
+    }
+
+    /**
+     * Test that a cached receipt is dropped when CAS logs its ticket out.
+     */
+    public void testLogoutEvictsCachedReceipt() throws Exception {
+        CASValidateFilter filter = new CASValidateFilter();
+        filter.init(config);
+        String ticket = cas.issueServiceTicket("someone", SERVICE, false);
+        filter.doFilter(apiRequest(ticket), new MockHttpServletResponse(), new WatchfulFilterChain());
+
+        MockHttpServletRequest logout = new MockHttpServletRequest();
+        logout.setupAddParameter("ticket", "-" + ticket);
+        filter.doFilter(logout, new MockHttpServletResponse(), new WatchfulFilterChain());
+
+        WatchfulFilterChain chain = new WatchfulFilterChain();
+        try {
+            filter.doFilter(apiRequest(ticket), new MockHttpServletResponse(), chain);
+            fail("the ticket was logged out, and CAS will not validate it again");
+        } catch (ServletException e) {
+            // expected
+        }
+        assertFalse(chain.isChainInvoked());
+        assertEquals(1, filter.getStats().getLogoutsApplied());
+        filter.destroy();
+    }
+
+    private static MockHttpServletRequest apiRequest(String ticket) {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setScheme("http");
+        request.setRequestURI("/api/data");
+        request.setQueryString("ticket=" + ticket);
+        request.setupAddParameter("ticket", ticket);
+        return request;
+    }
+}
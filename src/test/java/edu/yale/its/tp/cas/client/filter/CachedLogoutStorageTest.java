@@ -0,0 +1,53 @@
+package edu.yale.its.tp.cas.client.filter;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Ticker;
+
+import junit.framework.TestCase;
+
+/**
+ * Test case for CachedLogoutStorage: expiry, per-ticket ttls and the bulk
+ * operations.
+ */
+public class CachedLogoutStorageTest extends TestCase {
+
+    private final ManualTicker ticker = new ManualTicker();
+
+    private final CachedLogoutStorage storage = new CachedLogoutStorage(100, 60, TimeUnit.SECONDS, ticker);
+
+    public void testTicketsExpire() {
+        storage.add("ST-1");
+        storage.add("ST-2", 10, TimeUnit.SECONDS);
+        storage.add("ST-3", 1, TimeUnit.HOURS);
+        assertTrue(storage.contains("ST-1"));
+        assertTrue(storage.contains("ST-2"));
+
+        ticker.nanos += TimeUnit.SECONDS.toNanos(10);
+        assertTrue(storage.contains("ST-1"));
+        assertFalse(storage.contains("ST-2"));
+
+        // no ticket outlives the storage's ttl
+        ticker.nanos += TimeUnit.SECONDS.toNanos(50);
+        assertFalse(storage.contains("ST-1"));
+        assertFalse(storage.contains("ST-3"));
+    }
+
+    public void testBulkOperations() {
+        storage.addAll(Arrays.asList("ST-1", "ST-2", null));
+        assertEquals(2, storage.size());
+        assertTrue(storage.containsAny(Arrays.asList("ST-3", "ST-2")));
+        assertFalse(storage.containsAny(Arrays.asList("ST-3", "ST-4")));
+        assertFalse(storage.contains(null));
+        storage.close();
+    }
+
+    private static final class ManualTicker extends Ticker {
+        long nanos;
+
+        public long read() {
+            return nanos;
+        }
+    }
+}
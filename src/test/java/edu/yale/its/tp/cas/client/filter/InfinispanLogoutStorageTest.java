@@ -0,0 +1,107 @@
+package edu.yale.its.tp.cas.client.filter;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.infinispan.Cache;
+import org.infinispan.container.entries.CacheEntry;
+import org.infinispan.manager.DefaultCacheManager;
+
+import junit.framework.TestCase;
+
+/**
+ * Test case for InfinispanLogoutStorage, against a local cache manager: the
+ * near-cache, the listener that keeps it current and the lifespan of the
+ * entries written.
+ */
+public class InfinispanLogoutStorageTest extends TestCase {
+
+    private DefaultCacheManager manager;
+
+    private Cache<String, Object> cluster;
+
+    protected void setUp() {
+        manager = new DefaultCacheManager();
+        cluster = manager.getCache();
+    }
+
+    protected void tearDown() {
+        manager.stop();
+    }
+
+    public void testLookupsAreLocal() throws Exception {
+        InfinispanLogoutStorage storage = new InfinispanLogoutStorage(manager, 100, 60, TimeUnit.SECONDS);
+        storage.add("ST-1");
+        assertTrue(storage.contains("ST-1"));
+        assertFalse(storage.contains("ST-2"));
+        assertFalse(storage.contains(null));
+        assertEquals(2, storage.getLocalLookupCount());
+        assertEquals(0, storage.getRemoteLookupCount());
+
+        CacheEntry entry = awaitEntry("ST-1");
+        assertEquals(TimeUnit.SECONDS.toMillis(60), entry.getLifespan());
+    }
+
+    public void testTicketsAddedElsewhereAreSeen() {
+        cluster.put("ST-before", Long.valueOf(System.currentTimeMillis() + 60000));
+        InfinispanLogoutStorage storage = new InfinispanLogoutStorage(manager, 100, 60, TimeUnit.SECONDS);
+        cluster.put("ST-after", Long.valueOf(System.currentTimeMillis() + 60000));
+        assertTrue(storage.contains("ST-before"));
+        assertTrue(storage.contains("ST-after"));
+
+        cluster.remove("ST-after");
+        assertFalse(storage.contains("ST-after"));
+        assertEquals(0, storage.getRemoteLookupCount());
+    }
+
+    public void testMissesGoRemoteOnceNearCacheOverflows() throws Exception {
+        InfinispanLogoutStorage storage = new InfinispanLogoutStorage(manager, 2, 60, TimeUnit.SECONDS);
+        for (int i = 0; i < 10; i++) {
+            storage.add("ST-" + i);
+        }
+        for (int i = 0; i < 10; i++) {
+            awaitEntry("ST-" + i);
+        }
+        for (int i = 0; i < 10; i++) {
+            assertTrue("ST-" + i, storage.contains("ST-" + i));
+        }
+        assertTrue(storage.getRemoteLookupCount() > 0);
+
+        long remote = storage.getRemoteLookupCount();
+        assertFalse(storage.contains("ST-unknown"));
+        assertEquals(remote + 1, storage.getRemoteLookupCount());
+    }
+
+    public void testTicketTtlAndBulkAdd() throws Exception {
+        InfinispanLogoutStorage storage = new InfinispanLogoutStorage(manager, 100, 60, TimeUnit.SECONDS);
+        storage.add("ST-short", 10, TimeUnit.SECONDS);
+        storage.add("ST-long", 1, TimeUnit.HOURS);
+        storage.addAll(Arrays.asList("ST-1", "ST-2"));
+        assertEquals(TimeUnit.SECONDS.toMillis(10), awaitEntry("ST-short").getLifespan());
+        assertEquals(TimeUnit.SECONDS.toMillis(60), awaitEntry("ST-long").getLifespan());
+        assertEquals(TimeUnit.SECONDS.toMillis(60), awaitEntry("ST-2").getLifespan());
+        assertTrue(storage.containsAny(Arrays.asList("ST-3", "ST-1")));
+    }
+
+    public void testTicketsFromOlderVersionsAreSeen() {
+        cluster.put("ST-old", Boolean.TRUE);
+        InfinispanLogoutStorage storage = new InfinispanLogoutStorage(manager, 100, 60, TimeUnit.SECONDS);
+        assertTrue(storage.contains("ST-old"));
+    }
+
+    public void testClose() {
+        InfinispanLogoutStorage storage = new InfinispanLogoutStorage(manager, 100, 60, TimeUnit.SECONDS);
+        storage.close();
+        assertTrue(cluster.getListeners().isEmpty());
+    }
+
+    private CacheEntry awaitEntry(String ticket) throws InterruptedException {
+        for (int i = 0; i < 100; i++) {
+            CacheEntry entry = cluster.getAdvancedCache().getCacheEntry(ticket);
+            if (entry != null) return entry;
+            Thread.sleep(10);
+        }
+        fail(ticket + " was never written");
+        return null;
+    }
+}
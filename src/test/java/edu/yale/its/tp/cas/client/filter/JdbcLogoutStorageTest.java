@@ -0,0 +1,63 @@
+package edu.yale.its.tp.cas.client.filter;
+
+import java.sql.Connection;
+import java.util.concurrent.TimeUnit;
+
+import org.h2.jdbcx.JdbcDataSource;
+
+import edu.yale.its.tp.cas.util.JdbcTicketTable;
+import junit.framework.TestCase;
+
+/**
+ * Test case for JdbcLogoutStorage: a logout received by one node is seen by
+ * another, against an embedded H2 database.
+ */
+public class JdbcLogoutStorageTest extends TestCase {
+
+    private final JdbcDataSource dataSource = new JdbcDataSource();
+
+    private Connection keepAlive;
+
+    protected void setUp() throws Exception {
+        dataSource.setURL("jdbc:h2:mem:" + getName());
+        keepAlive = dataSource.getConnection();
+    }
+
+    protected void tearDown() throws Exception {
+        keepAlive.close();
+    }
+
+    public void testLogoutIsShared() throws Exception {
+        JdbcLogoutStorage node1 = storage(0);
+        JdbcLogoutStorage node2 = storage(0);
+        node1.add("ST-1");
+        assertTrue(node1.contains("ST-1"));
+        assertFalse(node1.contains(null));
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!node2.contains("ST-1") && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertTrue(node2.contains("ST-1"));
+        assertFalse(node2.contains("ST-2"));
+        assertEquals(1, node2.size());
+        node1.close();
+        node2.close();
+    }
+
+    public void testCloseWritesPendingLogouts() throws Exception {
+        JdbcLogoutStorage node1 = storage(0);
+        node1.add("ST-1", 10, TimeUnit.SECONDS);
+        node1.close();
+        JdbcLogoutStorage node2 = storage(0);
+        assertTrue(node2.contains("ST-1"));
+        node2.close();
+    }
+
+    private JdbcLogoutStorage storage(long missTtlMillis) throws Exception {
+        JdbcTicketTable table = new JdbcTicketTable(dataSource, JdbcLogoutStorageFactory.DEFAULT_TABLE,
+            JdbcTicketTable.DEFAULT_FLUSH_INTERVAL_MILLIS, JdbcTicketTable.DEFAULT_PURGE_INTERVAL_MILLIS,
+            missTtlMillis, 100);
+        return new JdbcLogoutStorage(table, 60, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,74 @@
+package edu.yale.its.tp.cas.client.filter;
+
+import java.io.File;
+
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+
+import com.mockrunner.mock.web.MockFilterConfig;
+import com.mockrunner.mock.web.MockServletContext;
+
+import junit.framework.TestCase;
+
+/**
+ * Test case for LogoutStorageLocator's choice of storage.
+ */
+public class LogoutStorageLocatorTest extends TestCase {
+
+    private final MockFilterConfig config = new MockFilterConfig();
+
+    protected void setUp() {
+        config.setupServletContext(new MockServletContext());
+    }
+
+    public void testDefault() throws Exception {
+        assertTrue(LogoutStorageLocator.locate(config) instanceof CachedLogoutStorage);
+    }
+
+    public void testFactoryNamedByInitParam() throws Exception {
+        config.setInitParameter(LogoutStorageLocator.LOGOUT_STORAGE_FACTORY_INIT_PARAM,
+            ArrayListFactory.class.getName());
+        assertTrue(LogoutStorageLocator.locate(config) instanceof ArrayListLogoutStorage);
+    }
+
+    public void testMappedLogoutStorageFactory() throws Exception {
+        File directory = File.createTempFile("logout", "");
+        directory.delete();
+        config.setInitParameter(LogoutStorageLocator.LOGOUT_STORAGE_FACTORY_INIT_PARAM,
+            MappedLogoutStorageFactory.class.getName());
+        config.setInitParameter(MappedLogoutStorageFactory.LOGOUT_STORAGE_DIRECTORY_INIT_PARAM, directory.getPath());
+        LogoutStorage storage = LogoutStorageLocator.locate(config);
+        assertTrue(storage instanceof MappedLogoutStorage);
+        storage.add("ST-1");
+        storage.close();
+        assertTrue(directory.list().length == 1);
+        new File(directory, directory.list()[0]).delete();
+        directory.delete();
+    }
+
+    public void testUnknownFactory() {
+        config.setInitParameter(LogoutStorageLocator.LOGOUT_STORAGE_FACTORY_INIT_PARAM, "com.example.NoSuchFactory");
+        try {
+            LogoutStorageLocator.locate(config);
+            fail();
+        } catch (ServletException expected) {
+            // as expected
+        }
+    }
+
+    public void testNotAFactory() {
+        config.setInitParameter(LogoutStorageLocator.LOGOUT_STORAGE_FACTORY_INIT_PARAM, String.class.getName());
+        try {
+            LogoutStorageLocator.locate(config);
+            fail();
+        } catch (ServletException expected) {
+            // as expected
+        }
+    }
+
+    public static class ArrayListFactory implements LogoutStorageFactory {
+        public LogoutStorage create(FilterConfig config) {
+            return new ArrayListLogoutStorage();
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package edu.yale.its.tp.cas.client.filter;
+
+import java.util.Collections;
+import java.util.List;
+
+import javax.servlet.ServletException;
+
+import com.mockrunner.mock.web.MockFilterConfig;
+import com.mockrunner.mock.web.MockHttpServletRequest;
+import com.mockrunner.mock.web.MockHttpServletResponse;
+import com.mockrunner.mock.web.MockHttpSession;
+import com.mockrunner.mock.web.MockServletContext;
+
+import edu.yale.its.tp.cas.client.CASReceipt;
+import edu.yale.its.tp.cas.util.StressRunner;
+import junit.framework.TestCase;
+
+/**
+ * Concurrency stress tests for the structures the filters share between
+ * requests: the logout storages, CASValidateFilter's logout handling and the
+ * StaticCasReceiptCacherFilter cache. Every ticket is handled by two threads at
+ * once; the tests check that nothing throws, that no update is lost, and that
+ * each structure holds each ticket once.
+ */
+public class LogoutStorageStressTest extends TestCase {
+
+    private static final int THREADS = 8;
+
+    private static final int ITERATIONS = 1000;
+
+    /** each ticket is used by this many threads */
+    private static final int SHARING = 2;
+
+    private static final int DISTINCT_TICKETS = THREADS / SHARING * ITERATIONS;
+
+    public void testArrayListLogoutStorage() throws Exception {
+        final LogoutStorage storage = new ArrayListLogoutStorage();
+        List<Throwable> failures = StressRunner.run(THREADS, ITERATIONS, new StressRunner.Task() {
+            public void run(int thread, int iteration) {
+                String ticket = ticket("storage", thread, iteration);
+                storage.add(ticket);
+                assertTrue("lost " + ticket, storage.contains(ticket));
+                storage.contains(ticket("storage", thread + 1, iteration));
+                storage.size();
+            }
+        });
+        assertNoFailures(failures);
+        assertEquals(DISTINCT_TICKETS, storage.size());
+    }
+
+    public void testCachedLogoutStorage() throws Exception {
+        final LogoutStorage storage = new CachedLogoutStorage();
+        List<Throwable> failures = StressRunner.run(THREADS, ITERATIONS, new StressRunner.Task() {
+            public void run(int thread, int iteration) {
+                String ticket = ticket("cached", thread, iteration);
+                storage.add(ticket);
+                assertTrue("lost " + ticket, storage.contains(ticket));
+                storage.contains(ticket("cached", thread + 1, iteration));
+            }
+        });
+        assertNoFailures(failures);
+        assertEquals(DISTINCT_TICKETS, storage.size());
+    }
+
+    public void testCASValidateFilterLogoutStorage() throws Exception {
+        MockFilterConfig config = new MockFilterConfig();
+        config.setupServletContext(new MockServletContext());
+        config.setInitParameter(CASFilter.VALIDATE_INIT_PARAM, "https://casserver.com/serviceValidate");
+        config.setInitParameter(CASFilter.SERVERNAME_INIT_PARAM, "www.client.com");
+        config.setInitParameter(CASFilter.JMX_INIT_PARAM, "false");
+        final CASValidateFilter filter = new CASValidateFilter();
+        filter.init(config);
+
+        List<Throwable> failures = StressRunner.run(THREADS, ITERATIONS, new StressRunner.Task() {
+            public void run(int thread, int iteration) throws Exception {
+                String ticket = ticket("validate", thread, iteration);
+                MockHttpSession session = authenticatedSession(ticket);
+                request(filter, session, null);
+
+                // CAS's logout request, then the user's next request
+                request(filter, new Session(), "-" + ticket);
+                request(filter, session, null);
+                assertNull("logout of " + ticket + " was lost", session.getAttribute(CASFilter.CAS_FILTER_RECEIPT));
+            }
+        });
+        filter.destroy();
+        assertNoFailures(failures);
+        assertEquals(DISTINCT_TICKETS, filter.getStats().getLogoutStorageSize());
+    }
+
+    public void testStaticCasReceiptCacherFilter() throws Exception {
+        final StaticCasReceiptCacherFilter filter = new StaticCasReceiptCacherFilter();
+        int sizeBefore = StaticCasReceiptCacherFilter.getCachedReceiptCount();
+
+        List<Throwable> failures = StressRunner.run(THREADS, ITERATIONS, new StressRunner.Task() {
+            public void run(int thread, int iteration) throws Exception {
+                String ticket = ticket("cacher", thread, iteration);
+                MockHttpSession session = authenticatedSession(ticket);
+                request(filter, session, ticket);
+                CASReceipt cached = StaticCasReceiptCacherFilter.receiptForTicket(ticket);
+                assertNotNull("lost " + ticket, cached);
+                assertEquals(ticket, cached.getServiceTicket());
+                if (iteration % 100 == 0) filter.toString();
+            }
+        });
+        assertNoFailures(failures);
+        assertEquals(DISTINCT_TICKETS, StaticCasReceiptCacherFilter.getCachedReceiptCount() - sizeBefore);
+    }
+
+    /**
+     * The ticket for the given thread and iteration, shared with the
+     * neighbouring thread.
+     */
+    private static String ticket(String test, int thread, int iteration) {
+        return "ST-" + test + "-" + (thread % THREADS) / SHARING + "-" + iteration;
+    }
+
+    private static MockHttpSession authenticatedSession(String ticket) {
+        MockHttpSession session = new Session();
+        session.setAttribute(CASFilter.CAS_FILTER_USER, "someone");
+        session.setAttribute(CASFilter.CAS_FILTER_RECEIPT, new CASReceipt.Builder()
+            .casValidateUrl("https://casserver.com/serviceValidate").userName("someone").serviceTicket(ticket)
+            .build());
+        return session;
+    }
+
+    private static void request(javax.servlet.Filter filter, MockHttpSession session, String ticket)
+            throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setMethod("GET");
+        request.setRequestURI("/app/page.jsp");
+        if (ticket != null) {
+            request.setQueryString("ticket=" + ticket);
+            request.setupAddParameter("ticket", ticket);
+        }
+        request.setSession(session);
+        try {
+            filter.doFilter(request, new MockHttpServletResponse(), new WatchfulFilterChain());
+        } catch (ServletException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static void assertNoFailures(List<Throwable> failures) {
+        if (!failures.isEmpty()) {
+            AssertionError error = new AssertionError(failures.size() + " threads failed, first: " + failures.get(0));
+            error.initCause(failures.get(0));
+            throw error;
+        }
+    }
+
+    /**
+     * Works around mockrunner's getValueNames(), which fails.
+     */
+    private static final class Session extends MockHttpSession {
+        public synchronized String[] getValueNames() {
+            List<?> names = Collections.list(getAttributeNames());
+            return names.toArray(new String[names.size()]);
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package edu.yale.its.tp.cas.client.filter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import com.mockrunner.mock.web.MockFilterConfig;
+import com.mockrunner.mock.web.MockServletContext;
+
+import junit.framework.TestCase;
+
+/**
+ * Test case for MappedLogoutStorage: lookups, segment rollover and expiry,
+ * and surviving a restart.
+ */
+public class MappedLogoutStorageTest extends TestCase {
+
+    private File directory;
+
+    private long now = TimeUnit.DAYS.toMillis(20000);
+
+    protected void setUp() throws IOException {
+        directory = File.createTempFile("logout", "");
+        directory.delete();
+    }
+
+    protected void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    public void testContains() throws Exception {
+        MappedLogoutStorage storage = open(100);
+        storage.add("ST-1");
+        storage.add("ST-1");
+        assertTrue(storage.contains("ST-1"));
+        assertFalse(storage.contains("ST-2"));
+        assertFalse(storage.contains(null));
+        assertEquals(1, storage.size());
+    }
+
+    public void testFullSegmentsAreFollowedByAnother() throws Exception {
+        MappedLogoutStorage storage = open(100);
+        for (int i = 0; i < 1000; i++) {
+            storage.add("ST-" + i);
+        }
+        for (int i = 0; i < 1000; i++) {
+            assertTrue("ST-" + i, storage.contains("ST-" + i));
+        }
+        assertEquals(1000, storage.size());
+        assertTrue(directory.list().length > 1);
+    }
+
+    public void testTicketsExpire() throws Exception {
+        MappedLogoutStorage storage = open(100);
+        storage.add("ST-1");
+        now += TimeUnit.MINUTES.toMillis(59);
+        storage.add("ST-2");
+        assertTrue(storage.contains("ST-1"));
+
+        now += TimeUnit.MINUTES.toMillis(21);
+        assertFalse(storage.contains("ST-1"));
+        assertTrue(storage.contains("ST-2"));
+        assertEquals(1, storage.size());
+
+        storage.add("ST-3");
+        assertEquals(2, directory.list().length);
+    }
+
+    public void testSurvivesRestart() throws Exception {
+        MappedLogoutStorage storage = open(100);
+        for (int i = 0; i < 300; i++) {
+            storage.add("ST-" + i);
+        }
+        storage.close();
+
+        MappedLogoutStorage restarted = open(100);
+        assertEquals(300, restarted.size());
+        assertTrue(restarted.contains("ST-0"));
+        assertTrue(restarted.contains("ST-299"));
+        assertFalse(restarted.contains("ST-300"));
+        restarted.add("ST-300");
+        assertTrue(restarted.contains("ST-300"));
+    }
+
+    public void testReopenWithMoreTicketsPerSegment() throws Exception {
+        MappedLogoutStorage storage = open(16);
+        for (int i = 0; i < 10; i++) {
+            storage.add("ST-" + i);
+        }
+        storage.close();
+
+        // the small segment still fills only to its own threshold
+        MappedLogoutStorage reopened = open(1000);
+        for (int i = 10; i < 1000; i++) {
+            reopened.add("ST-" + i);
+        }
+        assertEquals(1000, reopened.size());
+        reopened.close();
+
+        MappedLogoutStorage again = open(16);
+        assertEquals(1000, again.size());
+        for (int i = 0; i < 1000; i++) {
+            assertTrue("ST-" + i, again.contains("ST-" + i));
+        }
+    }
+
+    public void testCorruptSegmentsAreIgnored() throws Exception {
+        directory.mkdirs();
+        new File(directory, "logout-" + now / TimeUnit.MINUTES.toMillis(20) + "-0.seg").createNewFile();
+        MappedLogoutStorage storage = open(100);
+        assertEquals(0, storage.size());
+    }
+
+    public void testFullSegmentsAreIgnored() throws Exception {
+        // 100 tickets per segment make 256 slots
+        RandomAccessFile raf = new RandomAccessFile(currentSegment(), "rw");
+        byte[] slots = new byte[8 * 256];
+        Arrays.fill(slots, (byte) 1);
+        raf.writeInt(0x4341534c);
+        raf.writeInt(1);
+        raf.writeInt(256);
+        raf.writeInt(256);
+        raf.write(slots);
+        raf.close();
+        MappedLogoutStorage storage = open(100);
+        assertEquals(0, storage.size());
+        assertFalse(storage.contains("ST-1"));
+    }
+
+    public void testIgnoredSegmentIsStartedAfresh() throws Exception {
+        // not a segment, but of a segment's length, and with no empty slot
+        RandomAccessFile raf = new RandomAccessFile(currentSegment(), "rw");
+        byte[] garbage = new byte[16 + 8 * 256];
+        Arrays.fill(garbage, (byte) 0xff);
+        raf.write(garbage);
+        raf.close();
+        MappedLogoutStorage storage = open(100);
+        storage.add("ST-1");
+        assertTrue(storage.contains("ST-1"));
+        assertFalse(storage.contains("ST-2"));
+        assertEquals(1, storage.size());
+    }
+
+    public void testTicketsPerSegmentAreCapped() throws Exception {
+        try {
+            open(MappedLogoutStorage.MAXIMUM_TICKETS_PER_SEGMENT + 1);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    /**
+     * Test that, by default, each filter keeps its segments in a directory
+     * of its own.
+     */
+    public void testFactoryDefaultsToADirectoryPerFilter() throws Exception {
+        MockServletContext context = new MockServletContext();
+        context.setAttribute("javax.servlet.context.tempdir", directory);
+        MockFilterConfig config = new MockFilterConfig();
+        config.setupServletContext(context);
+        config.setFilterName("CAS Filter");
+        LogoutStorage storage = new MappedLogoutStorageFactory().create(config);
+        storage.add("ST-1");
+        storage.close();
+        File filterDirectory = new File(new File(directory, "cas-logout"), "CAS_Filter");
+        assertEquals(1, filterDirectory.list().length);
+        for (File file : filterDirectory.listFiles()) {
+            file.delete();
+        }
+        filterDirectory.delete();
+        new File(directory, "cas-logout").delete();
+    }
+
+    /** the file the current period's first segment is kept in */
+    private File currentSegment() {
+        directory.mkdirs();
+        return new File(directory, "logout-" + now / TimeUnit.MINUTES.toMillis(20) + "-0.seg");
+    }
+
+    /** a storage remembering tickets for an hour, at our notion of the time */
+    private MappedLogoutStorage open(int ticketsPerSegment) throws IOException {
+        return new MappedLogoutStorage(directory, ticketsPerSegment, 1, TimeUnit.HOURS) {
+            long currentTimeMillis() {
+                return now;
+            }
+        };
+    }
+}
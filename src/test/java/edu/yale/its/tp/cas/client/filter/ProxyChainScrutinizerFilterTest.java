@@ -263,12 +263,11 @@ public class ProxyChainScrutinizerFilterTest extends TestCase {
      */
     public void testDoFilterAuthorizedProxyChainOne() throws IOException, ServletException {
         MockHttpSession mockSession = new MockHttpSession();
-        CASReceipt receipt = new CASReceipt();
         List proxyList = new ArrayList();
         proxyList.add("https://www.yale.edu/immediatelyPreviousServiceInChain");
         proxyList.add("https://www.princeton.edu/middleware");
         proxyList.add("https://www.northwestern.edu/userInitiallyAuthenticatedToThisApplication");
-        receipt.setProxyList(proxyList);
+        CASReceipt receipt = new CASReceipt.Builder().proxyList(proxyList).build();
         mockSession.setAttribute(CASFilter.CAS_FILTER_RECEIPT, receipt);
         this.request.setSession(mockSession);
         this.request.getSession(true);
@@ -284,12 +283,11 @@ public class ProxyChainScrutinizerFilterTest extends TestCase {
      */
     public void testDoFilterAuthorizedProxyChainTwo() throws IOException, ServletException {
         MockHttpSession mockSession = new MockHttpSession();
-        CASReceipt receipt = new CASReceipt();
         List proxyList = new ArrayList();
         proxyList.add("https://www.immediatelyPreviousAuthenticationProxyingService.com");
         proxyList.add("https://secure.com/middleTierService");
         proxyList.add("https://secure.com/userInterface");
-        receipt.setProxyList(proxyList);
+        CASReceipt receipt = new CASReceipt.Builder().proxyList(proxyList).build();
         mockSession.setAttribute(CASFilter.CAS_FILTER_RECEIPT, receipt);
         this.request.setSession(mockSession);
         this.request.getSession(true);
@@ -306,12 +304,11 @@ public class ProxyChainScrutinizerFilterTest extends TestCase {
      */
     public void testDoFilterUnauthorizedProxyChain() throws IOException, ServletException {
         MockHttpSession mockSession = new MockHttpSession();
-        CASReceipt receipt = new CASReceipt();
         List proxyList = new ArrayList();
         proxyList.add("https://www.immediatelyPreviousAuthenticationProxyingService.com");
         proxyList.add("https://secure.com/middleTierService");
         proxyList.add("https://secure.com/notTheAuthorizedUserInterface");
-        receipt.setProxyList(proxyList);
+        CASReceipt receipt = new CASReceipt.Builder().proxyList(proxyList).build();
         mockSession.setAttribute(CASFilter.CAS_FILTER_RECEIPT, receipt);
         this.request.setSession(mockSession);
         this.correctlyConfiguredFilter.doFilter(this.request, this.response,
@@ -326,11 +323,10 @@ public class ProxyChainScrutinizerFilterTest extends TestCase {
      */
     public void testDoFilterPrefixOfAuthorizedChain() throws IOException, ServletException {
         MockHttpSession mockSession = new MockHttpSession();
-        CASReceipt receipt = new CASReceipt();
         List proxyList = new ArrayList();
         proxyList.add("https://www.immediatelyPreviousAuthenticationProxyingService.com");
         proxyList.add("https://secure.com/middleTierService");
-        receipt.setProxyList(proxyList);
+        CASReceipt receipt = new CASReceipt.Builder().proxyList(proxyList).build();
         mockSession.setAttribute(CASFilter.CAS_FILTER_RECEIPT, receipt);
         this.request.setSession(mockSession);
         this.correctlyConfiguredFilter.doFilter(this.request, this.response,
@@ -345,11 +341,10 @@ public class ProxyChainScrutinizerFilterTest extends TestCase {
      */
     public void testDoFilterSuffixOfAuthorizedChain() throws IOException, ServletException {
         MockHttpSession mockSession = new MockHttpSession();
-        CASReceipt receipt = new CASReceipt();
         List proxyList = new ArrayList();
         proxyList.add("https://www.princeton.edu/middleware");
         proxyList.add("https://www.northwestern.edu/userInitiallyAuthenticatedToThisApplication");
-        receipt.setProxyList(proxyList);
+        CASReceipt receipt = new CASReceipt.Builder().proxyList(proxyList).build();
         mockSession.setAttribute(CASFilter.CAS_FILTER_RECEIPT, receipt);
         this.request.setSession(mockSession);
         this.correctlyConfiguredFilter.doFilter(this.request, this.response,
@@ -364,7 +359,7 @@ public class ProxyChainScrutinizerFilterTest extends TestCase {
      */
     public void testDoFilterServiceTicketReceipt() throws IOException, ServletException {
         MockHttpSession mockSession = new MockHttpSession();
-        CASReceipt receipt = new CASReceipt();
+        CASReceipt receipt = new CASReceipt.Builder().build();
         mockSession.setAttribute(CASFilter.CAS_FILTER_RECEIPT, receipt);
         this.request.setSession(mockSession);
         this.correctlyConfiguredFilter.doFilter(this.request, this.response,
@@ -394,7 +389,7 @@ public class ProxyChainScrutinizerFilterTest extends TestCase {
         ProxyChainScrutinizerFilter localFilter = new ProxyChainScrutinizerFilter();
         localFilter.init(config);
         
-        CASReceipt serviceTicketReceipt = new CASReceipt();
+        CASReceipt serviceTicketReceipt = new CASReceipt.Builder().build();
         MockHttpSession session = new MockHttpSession();
         session.setAttribute(CASFilter.CAS_FILTER_RECEIPT, serviceTicketReceipt);
         
@@ -0,0 +1,114 @@
+package edu.yale.its.tp.cas.client.filter;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.yale.its.tp.cas.client.CASReceipt;
+import junit.framework.TestCase;
+
+/**
+ * Test case for ReceiptCookie.
+ */
+public class ReceiptCookieTest extends TestCase {
+
+    private static final String VALIDATE_URL = "https://casserver.com/serviceValidate";
+
+    private static final String OLD_SECRET = "b2xkIHNlY3JldCwgMTYrIGJ5dGVz";
+
+    private static final String NEW_SECRET = "bmV3IHNlY3JldCwgMTYrIGJ5dGVz";
+
+    private static final long HOUR = 60 * 60 * 1000;
+
+    private static final long NOW = 1500000000000L;
+
+    private final CASReceipt receipt;
+
+    public ReceiptCookieTest() {
+        Map<String, String> attributes = new HashMap<String, String>();
+        attributes.put("email", "someone@example.com");
+        attributes.put("group", "staff");
+        attributes.put("secret", "not for cookies");
+        Map<String, String[]> values = new HashMap<String, String[]>();
+        values.put("group", new String[] {"admins", "staff"});
+        receipt = new CASReceipt.Builder()
+            .casValidateUrl(VALIDATE_URL)
+            .userName("someone")
+            .serviceTicket("ST-1")
+            .primaryAuthentication(true)
+            .proxyList(Arrays.asList("https://proxy.example.com/pgt"))
+            .attributes(attributes)
+            .attributeValues(values)
+            .build();
+    }
+
+    public void testRoundTrip() {
+        ReceiptCookie cookie = cookie(NEW_SECRET);
+        CASReceipt restored = cookie.unseal(cookie.seal(receipt, NOW), NOW + HOUR, VALIDATE_URL);
+
+        assertEquals("someone", restored.getUserName());
+        assertEquals("ST-1", restored.getServiceTicket());
+        assertEquals(VALIDATE_URL, restored.getCasValidateUrl());
+        assertTrue(restored.isPrimaryAuthentication());
+        assertEquals("https://proxy.example.com/pgt", restored.getProxyingService());
+        assertEquals("someone@example.com", restored.getAttributes().get("email"));
+        assertEquals(Arrays.asList("admins", "staff"), restored.getAttributeValues("group"));
+        assertTrue(restored.hasAttributeValue("group", "admins"));
+        assertNull("only the selected attributes are carried", restored.getAttributes().get("secret"));
+    }
+
+    public void testSealedValueIsOpaqueAndFresh() {
+        ReceiptCookie cookie = cookie(NEW_SECRET);
+        String sealed = cookie.seal(receipt, NOW);
+        assertTrue(sealed, sealed.indexOf("someone") == -1);
+        assertFalse("each sealing uses a new IV", sealed.equals(cookie.seal(receipt, NOW)));
+        assertTrue(sealed.matches("[A-Za-z0-9_-]+"));
+    }
+
+    public void testExpiry() {
+        ReceiptCookie cookie = cookie(NEW_SECRET);
+        String sealed = cookie.seal(receipt, NOW);
+        assertNotNull(cookie.unseal(sealed, NOW + 8 * HOUR, VALIDATE_URL));
+        assertNull(cookie.unseal(sealed, NOW + 8 * HOUR + 1, VALIDATE_URL));
+    }
+
+    public void testTamperingIsDetected() {
+        ReceiptCookie cookie = cookie(NEW_SECRET);
+        String sealed = cookie.seal(receipt, NOW);
+        for (int i = 0; i < sealed.length(); i += 7) {
+            char c = sealed.charAt(i) == 'A' ? 'B' : 'A';
+            String tampered = sealed.substring(0, i) + c + sealed.substring(i + 1);
+            assertNull("tampering at " + i, cookie.unseal(tampered, NOW, VALIDATE_URL));
+        }
+        assertNull(cookie.unseal(sealed.substring(0, sealed.length() - 10), NOW, VALIDATE_URL));
+        assertNull(cookie.unseal("not base64!", NOW, VALIDATE_URL));
+        assertNull(cookie.unseal("", NOW, VALIDATE_URL));
+    }
+
+    public void testKeyRotation() {
+        String sealedWithOld = cookie(OLD_SECRET).seal(receipt, NOW);
+        ReceiptCookie rotated = cookie(NEW_SECRET + " " + OLD_SECRET);
+        assertEquals("someone", rotated.unseal(sealedWithOld, NOW, VALIDATE_URL).getUserName());
+
+        // new cookies are sealed with the new secret only
+        String sealedWithNew = rotated.seal(receipt, NOW);
+        assertNotNull(cookie(NEW_SECRET).unseal(sealedWithNew, NOW, VALIDATE_URL));
+        assertNull(cookie(OLD_SECRET).unseal(sealedWithNew, NOW, VALIDATE_URL));
+    }
+
+    public void testShortSecretRejected() {
+        try {
+            new ReceiptCookie(ReceiptCookie.decodeSecrets("c2hvcnQ="), Collections.<String> emptyList(), HOUR);
+            fail("a 5 byte secret should be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private static ReceiptCookie cookie(String secrets) {
+        List<String> attributes = Arrays.asList("email", "group");
+        return new ReceiptCookie(ReceiptCookie.decodeSecrets(secrets), attributes, 8 * HOUR);
+    }
+}
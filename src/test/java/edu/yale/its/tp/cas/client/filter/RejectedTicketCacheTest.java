@@ -0,0 +1,45 @@
+package edu.yale.its.tp.cas.client.filter;
+
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Ticker;
+
+import junit.framework.TestCase;
+
+/**
+ * Test case for RejectedTicketCache.
+ */
+public class RejectedTicketCacheTest extends TestCase {
+
+    private final ManualTicker ticker = new ManualTicker();
+
+    public void testRemembersUntilExpiry() {
+        RejectedTicketCache cache = new RejectedTicketCache(10, 60, TimeUnit.SECONDS, ticker);
+        cache.add("ST-1");
+        assertTrue(cache.contains("ST-1"));
+        assertFalse(cache.contains("ST-2"));
+
+        ticker.nanos += TimeUnit.SECONDS.toNanos(59);
+        assertTrue(cache.contains("ST-1"));
+        ticker.nanos += TimeUnit.SECONDS.toNanos(1);
+        assertFalse(cache.contains("ST-1"));
+        assertEquals(0, cache.size());
+    }
+
+    public void testBounded() {
+        RejectedTicketCache cache = new RejectedTicketCache(100, 60, TimeUnit.SECONDS, ticker);
+        for (int i = 0; i < 1000; i++) {
+            cache.add("ST-" + i);
+        }
+        assertTrue(cache.size() <= 100);
+        assertTrue("the newest ticket should survive", cache.contains("ST-999"));
+    }
+
+    private static final class ManualTicker extends Ticker {
+        long nanos;
+
+        public long read() {
+            return nanos;
+        }
+    }
+}
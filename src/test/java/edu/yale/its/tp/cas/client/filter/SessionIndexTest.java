@@ -0,0 +1,67 @@
+package edu.yale.its.tp.cas.client.filter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import javax.servlet.http.HttpSessionActivationListener;
+import javax.servlet.http.HttpSessionEvent;
+
+import com.mockrunner.mock.web.MockHttpSession;
+
+import junit.framework.TestCase;
+
+/**
+ * Test case for SessionIndex: sessions leave it when passivated, and rejoin
+ * it when activated.
+ */
+public class SessionIndexTest extends TestCase {
+
+    public void testPassivatedSessionLeavesAndRejoins() throws Exception {
+        SessionIndex index = new SessionIndex("/app SessionIndexTest", false);
+        try {
+            MockHttpSession session = new MockHttpSession();
+            session.setAttribute(CASFilter.CAS_FILTER_RECEIPT, "receipt");
+            index.register("ST-1", session);
+            assertEquals(1, index.size());
+
+            // swapped out: the entry is written with its session, and the session let go
+            Object entry = session.getAttribute(SessionIndex.CAS_FILTER_SESSION_INDEX_ENTRY);
+            ((HttpSessionActivationListener) entry).sessionWillPassivate(new HttpSessionEvent(session));
+            assertEquals(0, index.size());
+            Object copy = copy(entry);
+
+            // swapped in, as another object
+            MockHttpSession activated = new MockHttpSession();
+            activated.setAttribute(CASFilter.CAS_FILTER_RECEIPT, "receipt");
+            activated.setAttribute(SessionIndex.CAS_FILTER_SESSION_INDEX_ENTRY, copy);
+            ((HttpSessionActivationListener) copy).sessionDidActivate(new HttpSessionEvent(activated));
+            assertEquals(1, index.size());
+
+            assertTrue(index.evict("ST-1"));
+            assertNull(activated.getAttribute(CASFilter.CAS_FILTER_RECEIPT));
+            assertEquals("receipt", session.getAttribute(CASFilter.CAS_FILTER_RECEIPT));
+        } finally {
+            index.close();
+        }
+    }
+
+    public void testClosedIndexIsNotRejoined() throws Exception {
+        SessionIndex index = new SessionIndex("/app SessionIndexTest", false);
+        MockHttpSession session = new MockHttpSession();
+        index.register("ST-1", session);
+        Object copy = copy(session.getAttribute(SessionIndex.CAS_FILTER_SESSION_INDEX_ENTRY));
+        index.close();
+        ((HttpSessionActivationListener) copy).sessionDidActivate(new HttpSessionEvent(new MockHttpSession()));
+        assertEquals(1, index.size());
+    }
+
+    private static Object copy(Object object) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(object);
+        out.close();
+        return new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+    }
+}
@@ -0,0 +1,85 @@
+package edu.yale.its.tp.cas.client.filter;
+
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Ticker;
+import com.mockrunner.mock.web.MockFilterConfig;
+import com.mockrunner.mock.web.MockHttpServletRequest;
+import com.mockrunner.mock.web.MockHttpServletResponse;
+import com.mockrunner.mock.web.MockHttpSession;
+
+import edu.yale.its.tp.cas.client.CASReceipt;
+import junit.framework.TestCase;
+
+/**
+ * Test case for TicketCache, and for StaticCasReceiptCacherFilter's use of it.
+ */
+public class TicketCacheTest extends TestCase {
+
+    private final ManualTicker ticker = new ManualTicker();
+
+    public void testExpiry() {
+        TicketCache<String> cache = new TicketCache<String>(10, 60, TimeUnit.SECONDS, ticker);
+        cache.put("ST-1", "one");
+        assertEquals("one", cache.get("ST-1"));
+        assertTrue(cache.contains("ST-1"));
+
+        ticker.nanos += TimeUnit.SECONDS.toNanos(60);
+        assertNull(cache.get("ST-1"));
+        assertEquals(0, cache.size());
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(0, cache.getSizeEvictionCount());
+    }
+
+    public void testBoundedWithEvictionsCounted() {
+        TicketCache<String> cache = new TicketCache<String>(100, 60, TimeUnit.SECONDS, ticker);
+        for (int i = 0; i < 1000; i++) {
+            cache.put("ST-" + i, "value");
+        }
+        assertTrue(cache.size() <= 100);
+        assertEquals(1000 - cache.size(), cache.getEvictionCount());
+        assertEquals(cache.getEvictionCount(), cache.getSizeEvictionCount());
+
+        cache.remove("ST-999");
+        assertFalse(cache.contains("ST-999"));
+    }
+
+    /**
+     * Test that StaticCasReceiptCacherFilter takes its bounds from its init
+     * parameters.
+     */
+    public void testReceiptCacherFilterIsBounded() throws Exception {
+        MockFilterConfig config = new MockFilterConfig();
+        config.setInitParameter(StaticCasReceiptCacherFilter.CACHE_SIZE_INIT_PARAM, "100");
+        StaticCasReceiptCacherFilter filter = new StaticCasReceiptCacherFilter();
+        filter.init(config);
+        try {
+            for (int i = 0; i < 1000; i++) {
+                String ticket = "ST-cacher-" + i;
+                MockHttpSession session = new MockHttpSession();
+                session.setAttribute(CASFilter.CAS_FILTER_RECEIPT, new CASReceipt.Builder().userName("someone")
+                    .serviceTicket(ticket).build());
+                MockHttpServletRequest request = new MockHttpServletRequest();
+                request.setupAddParameter("ticket", ticket);
+                request.setSession(session);
+                filter.doFilter(request, new MockHttpServletResponse(), new WatchfulFilterChain());
+            }
+            assertTrue(StaticCasReceiptCacherFilter.getCachedReceiptCount() <= 100);
+            assertEquals(1000 - StaticCasReceiptCacherFilter.getCachedReceiptCount(),
+                StaticCasReceiptCacherFilter.getEvictionCount());
+            assertEquals("someone", StaticCasReceiptCacherFilter.receiptForTicket("ST-cacher-999").getUserName());
+        } finally {
+            // back to the defaults for the other tests
+            config.setInitParameter(StaticCasReceiptCacherFilter.CACHE_SIZE_INIT_PARAM, "10000");
+            filter.init(config);
+        }
+    }
+
+    private static final class ManualTicker extends Ticker {
+        long nanos;
+
+        public long read() {
+            return nanos;
+        }
+    }
+}
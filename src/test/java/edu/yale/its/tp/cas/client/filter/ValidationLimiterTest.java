@@ -0,0 +1,193 @@
+package edu.yale.its.tp.cas.client.filter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Ticker;
+
+import junit.framework.TestCase;
+
+public class ValidationLimiterTest extends TestCase {
+
+    private final ManualTicker ticker = new ManualTicker();
+
+    public void testUnlimited() {
+        ValidationLimiter limiter = new ValidationLimiter(0, 0, 0, 0, 0, ticker);
+        for (int i = 0; i < 1000; i++) {
+            assertNotNull(limiter.acquire("10.0.0.1"));
+        }
+        assertEquals(0, limiter.getConcurrencyLimit());
+    }
+
+    public void testRateAllowsBurstThenRefills() {
+        ValidationLimiter limiter = new ValidationLimiter(10, 5, 0, 0, 0, ticker);
+        for (int i = 0; i < 5; i++) {
+            assertNotNull("burst " + i, limiter.acquire("10.0.0." + i));
+        }
+        assertNull(limiter.acquire("10.0.0.6"));
+        assertEquals(1, limiter.getShedByRate());
+
+        ticker.nanos += TimeUnit.MILLISECONDS.toNanos(100);
+        assertNotNull(limiter.acquire("10.0.0.7"));
+        assertNull(limiter.acquire("10.0.0.8"));
+
+        // never more than the burst, however long the quiet spell
+        ticker.nanos += TimeUnit.HOURS.toNanos(1);
+        for (int i = 0; i < 5; i++) {
+            assertNotNull(limiter.acquire("10.0.0.9"));
+        }
+        assertNull(limiter.acquire("10.0.0.9"));
+    }
+
+    public void testClientRateIsPerClient() {
+        ValidationLimiter limiter = new ValidationLimiter(0, 0, 1, 2, 0, ticker);
+        assertNotNull(limiter.acquire("10.0.0.1"));
+        assertNotNull(limiter.acquire("10.0.0.1"));
+        assertNull(limiter.acquire("10.0.0.1"));
+        assertNotNull("another client is unaffected", limiter.acquire("10.0.0.2"));
+        assertEquals(1, limiter.getShedByClientRate());
+
+        ticker.nanos += TimeUnit.SECONDS.toNanos(1);
+        assertNotNull(limiter.acquire("10.0.0.1"));
+        assertNull(limiter.acquire("10.0.0.1"));
+    }
+
+    public void testClientShedDoesNotSpendGlobalTokens() {
+        ValidationLimiter limiter = new ValidationLimiter(1, 2, 1, 1, 0, ticker);
+        assertNotNull(limiter.acquire("10.0.0.1"));
+        for (int i = 0; i < 10; i++) {
+            assertNull(limiter.acquire("10.0.0.1"));
+        }
+        assertNotNull(limiter.acquire("10.0.0.2"));
+        assertEquals(0, limiter.getShedByRate());
+    }
+
+    public void testConcurrencyLimit() {
+        ValidationLimiter limiter = new ValidationLimiter(0, 0, 0, 0, 2, ticker);
+        ValidationLimiter.Permit first = limiter.acquire("10.0.0.1");
+        ValidationLimiter.Permit second = limiter.acquire("10.0.0.2");
+        assertNotNull(first);
+        assertNotNull(second);
+        assertNull(limiter.acquire("10.0.0.3"));
+        assertEquals(1, limiter.getShedByConcurrency());
+
+        first.answered();
+        first.release();
+        assertEquals(1, limiter.getInFlight());
+        assertNotNull(limiter.acquire("10.0.0.3"));
+    }
+
+    public void testConcurrencyLimitBacksOffWhenCasSlowsDown() {
+        ValidationLimiter limiter = new ValidationLimiter(0, 0, 0, 0, 20, ticker);
+        validate(limiter, 20, 10);
+        assertEquals(20, limiter.getConcurrencyLimit());
+
+        // ten times slower: the limit shrinks, once per round trip
+        validate(limiter, 20, 100);
+        assertEquals(18, limiter.getConcurrencyLimit());
+        for (int i = 0; i < 10; i++) {
+            validate(limiter, 1, 100);
+        }
+        assertTrue("limit " + limiter.getConcurrencyLimit(), limiter.getConcurrencyLimit() < 10);
+
+        // back to normal: the limit grows again while it is used
+        for (int i = 0; i < 200; i++) {
+            validate(limiter, limiter.getConcurrencyLimit(), 10);
+        }
+        assertEquals(20, limiter.getConcurrencyLimit());
+    }
+
+    public void testConcurrencyLimitNeverBelowOne() {
+        ValidationLimiter limiter = new ValidationLimiter(0, 0, 0, 0, 4, ticker);
+        // no one sample sets the baseline
+        for (int i = 0; i < 3; i++) {
+            validate(limiter, 4, 1);
+        }
+        for (int i = 0; i < 100; i++) {
+            validate(limiter, 1, 1000);
+        }
+        assertEquals(1, limiter.getConcurrencyLimit());
+        assertNotNull(limiter.acquire("10.0.0.1"));
+    }
+
+    public void testOneFastValidationDoesNotCollapseTheLimit() throws Exception {
+        ValidationLimiter limiter = new ValidationLimiter(0, 0, 0, 0, 20, ticker);
+        ValidationLimiter.Permit fast = limiter.acquire("10.0.0.1");
+        ticker.nanos += TimeUnit.MICROSECONDS.toNanos(100);
+        fast.answered();
+        int least = 20;
+        for (int i = 0; i < 100; i++) {
+            validate(limiter, limiter.getConcurrencyLimit(), 10);
+            least = Math.min(least, limiter.getConcurrencyLimit());
+        }
+        // the second sample is a hundred times slower than the only other
+        assertTrue("limit fell to " + least, least >= 18);
+        assertEquals(20, limiter.getConcurrencyLimit());
+
+        // once the baseline is settled, not even that
+        fast = limiter.acquire("10.0.0.1");
+        ticker.nanos += TimeUnit.MICROSECONDS.toNanos(100);
+        fast.answered();
+        for (int i = 0; i < 100; i++) {
+            validate(limiter, 20, 10);
+        }
+        assertEquals(20, limiter.getConcurrencyLimit());
+    }
+
+    public void testFailuresShrinkTheLimit() throws Exception {
+        ValidationLimiter limiter = new ValidationLimiter(0, 0, 0, 0, 20, ticker);
+        validate(limiter, 20, 10);
+
+        // timed out: once per round trip, however many fail together
+        List<ValidationLimiter.Permit> failed = new ArrayList<ValidationLimiter.Permit>();
+        for (int i = 0; i < 10; i++) {
+            failed.add(limiter.acquire("10.0.0." + i));
+        }
+        ticker.nanos += TimeUnit.SECONDS.toNanos(10);
+        for (ValidationLimiter.Permit permit : failed) {
+            permit.failed();
+            permit.answered();
+        }
+        assertEquals(18, limiter.getConcurrencyLimit());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    public void testErrorsBeforeCasDoNotAdjustTheLimit() throws Exception {
+        ValidationLimiter limiter = new ValidationLimiter(0, 0, 0, 0, 20, ticker);
+        validate(limiter, 20, 10);
+        for (int i = 0; i < 10; i++) {
+            ValidationLimiter.Permit permit = limiter.acquire("10.0.0.1");
+            ticker.nanos += TimeUnit.SECONDS.toNanos(10);
+            permit.release();
+            permit.failed();
+        }
+        assertEquals(20, limiter.getConcurrencyLimit());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    /**
+     * Validates the given number of tickets at once, each taking the given
+     * number of milliseconds.
+     */
+    private void validate(ValidationLimiter limiter, int concurrency, long millis) {
+        List<ValidationLimiter.Permit> permits = new ArrayList<ValidationLimiter.Permit>();
+        for (int i = 0; i < concurrency; i++) {
+            ValidationLimiter.Permit permit = limiter.acquire("10.0.0." + i);
+            assertNotNull("validation " + i + " of " + concurrency, permit);
+            permits.add(permit);
+        }
+        ticker.nanos += TimeUnit.MILLISECONDS.toNanos(millis);
+        for (ValidationLimiter.Permit permit : permits) {
+            permit.answered();
+        }
+    }
+
+    private static final class ManualTicker extends Ticker {
+        long nanos;
+
+        public long read() {
+            return nanos;
+        }
+    }
+}
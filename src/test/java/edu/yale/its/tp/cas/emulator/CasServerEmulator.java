@@ -0,0 +1,647 @@
+package edu.yale.its.tp.cas.emulator;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * An in-process stand-in for a CAS server, on the JDK HTTP server, for
+ * integration and load tests of the filters and the proxy classes.
+ * <p>
+ * It speaks enough of the CAS 2.0 protocol for this client:
+ * <ul>
+ * <li><code>/login?service=...</code> logs in the configured user (or the
+ * <code>username</code> parameter) without asking for credentials and
+ * redirects to the service with a new service ticket</li>
+ * <li><code>/serviceValidate</code> and <code>/proxyValidate</code> validate
+ * service and proxy tickets, once each, against the service they were issued
+ * for, honouring <code>renew</code> and calling back a <code>pgtUrl</code> with
+ * a new proxy granting ticket</li>
+ * <li><code>/proxy</code> issues proxy tickets for a proxy granting ticket</li>
+ * <li><code>/logout</code> ends a user's single sign-on session and delivers a
+ * logout request for each service ticket issued to them, the way this client
+ * expects one: a GET to the service with <code>ticket=-&lt;ST&gt;</code></li>
+ * </ul>
+ * Unlike a real CAS server it accepts <code>http:</code> pgtUrls and services,
+ * so that nothing needs a certificate.
+ * <p>
+ * The back-channel endpoints (<code>serviceValidate</code>,
+ * <code>proxyValidate</code> and <code>proxy</code>) can be slowed down and
+ * made to fail: each request waits a random time between the configured
+ * minimum and maximum latency, and then fails with a 500 with the configured
+ * probability. Successful validation responses carry the configured number of
+ * attributes of the configured length. All settings can be changed while the
+ * server is running. The random choices come from a seeded generator, so a
+ * single-threaded test sees the same sequence on every run.
+ */
+public class CasServerEmulator
+{
+
+    public static final String CONTEXT = "/cas";
+
+    private static final String NAMESPACE = "xmlns:cas='http://www.yale.edu/tp/cas'";
+
+    private static final int CALLBACK_TIMEOUT_MILLIS = 5000;
+
+    private HttpServer server;
+
+    private ExecutorService executor;
+
+    private volatile String user = "someone";
+
+    private volatile long minLatencyMillis;
+
+    private volatile long maxLatencyMillis;
+
+    private volatile double errorRate;
+
+    private volatile int attributeCount = 2;
+
+    private volatile int attributeValueLength = 16;
+
+    private final Random random = new Random(42);
+
+    private final AtomicLong ticketSequence = new AtomicLong();
+
+    /** Unvalidated service and proxy tickets */
+    private final Map<String, Ticket> tickets = new ConcurrentHashMap<String, Ticket>();
+
+    /** Proxy granting tickets by their id */
+    private final Map<String, Ticket> proxyGrantingTickets = new ConcurrentHashMap<String, Ticket>();
+
+    /** Service tickets issued to each logged in user, for logout */
+    private final ConcurrentMap<String, Queue<Ticket>> sessions = new ConcurrentHashMap<String, Queue<Ticket>>();
+
+    private final Map<String, AtomicLong> requestCounts = new ConcurrentHashMap<String, AtomicLong>();
+
+    private final AtomicLong injectedErrors = new AtomicLong();
+
+    /**
+     * A ticket and what it was issued for.
+     */
+    private static final class Ticket
+    {
+        final String id;
+        final String user;
+        final String service;
+        final boolean renewed;
+        /** services the ticket was proxied through, most recent first */
+        final List<String> proxies;
+
+        Ticket(String id, String user, String service, boolean renewed, List<String> proxies)
+        {
+            this.id = id;
+            this.user = user;
+            this.service = service;
+            this.renewed = renewed;
+            this.proxies = proxies;
+        }
+
+        boolean isProxyTicket()
+        {
+            return !proxies.isEmpty();
+        }
+    }
+
+    // *********************************************************************
+    // Lifecycle
+
+    /**
+     * Starts the server on an ephemeral port of the loopback interface.
+     */
+    public void start() throws IOException
+    {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        executor = Executors.newCachedThreadPool(new ThreadFactory()
+        {
+            private final AtomicLong count = new AtomicLong();
+
+            public Thread newThread(Runnable r)
+            {
+                Thread t = new Thread(r, "cas-emulator-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        server.setExecutor(executor);
+        server.createContext(CONTEXT + "/login", new Endpoint("login")
+        {
+            void handle(HttpExchange exchange, Map<String, String> params) throws IOException
+            {
+                login(exchange, params);
+            }
+        });
+        server.createContext(CONTEXT + "/serviceValidate", new BackChannelEndpoint("serviceValidate")
+        {
+            void handle(HttpExchange exchange, Map<String, String> params) throws IOException
+            {
+                validate(exchange, params, false);
+            }
+        });
+        server.createContext(CONTEXT + "/proxyValidate", new BackChannelEndpoint("proxyValidate")
+        {
+            void handle(HttpExchange exchange, Map<String, String> params) throws IOException
+            {
+                validate(exchange, params, true);
+            }
+        });
+        server.createContext(CONTEXT + "/proxy", new BackChannelEndpoint("proxy")
+        {
+            void handle(HttpExchange exchange, Map<String, String> params) throws IOException
+            {
+                proxy(exchange, params);
+            }
+        });
+        server.createContext(CONTEXT + "/logout", new Endpoint("logout")
+        {
+            void handle(HttpExchange exchange, Map<String, String> params) throws IOException
+            {
+                String username = params.containsKey("username") ? params.get("username") : user;
+                respond(exchange, 200, "text/plain", "delivered " + logout(username) + " logout requests\n");
+            }
+        });
+        server.start();
+    }
+
+    public void stop()
+    {
+        if (server == null) return;
+        server.stop(0);
+        executor.shutdownNow();
+        server = null;
+    }
+
+    public String getBaseUrl()
+    {
+        if (server == null) throw new IllegalStateException("not started");
+        return "http://127.0.0.1:" + server.getAddress().getPort() + CONTEXT;
+    }
+
+    public String getLoginUrl()
+    {
+        return getBaseUrl() + "/login";
+    }
+
+    public String getServiceValidateUrl()
+    {
+        return getBaseUrl() + "/serviceValidate";
+    }
+
+    public String getProxyValidateUrl()
+    {
+        return getBaseUrl() + "/proxyValidate";
+    }
+
+    public String getProxyUrl()
+    {
+        return getBaseUrl() + "/proxy";
+    }
+
+    public String getLogoutUrl()
+    {
+        return getBaseUrl() + "/logout";
+    }
+
+    // *********************************************************************
+    // Behaviour
+
+    /**
+     * @param user
+     *            - the user <code>/login</code> logs in when not given a
+     *            <code>username</code>
+     */
+    public void setUser(String user)
+    {
+        this.user = user;
+    }
+
+    /**
+     * Delays every back-channel request by a uniformly distributed time
+     * between the given bounds.
+     */
+    public void setLatency(long minMillis, long maxMillis)
+    {
+        if (minMillis < 0 || maxMillis < minMillis)
+            throw new IllegalArgumentException("bad latency bounds: " + minMillis + ", " + maxMillis);
+        this.minLatencyMillis = minMillis;
+        this.maxLatencyMillis = maxMillis;
+    }
+
+    /**
+     * @param errorRate
+     *            - the probability, from 0 to 1, that a back-channel request
+     *            fails with a 500
+     */
+    public void setErrorRate(double errorRate)
+    {
+        if (errorRate < 0 || errorRate > 1) throw new IllegalArgumentException("bad error rate: " + errorRate);
+        this.errorRate = errorRate;
+    }
+
+    /**
+     * Sets the attributes of each successful validation response: attributes
+     * <code>attribute0</code> to <code>attribute&lt;count - 1&gt;</code>, each
+     * with a value of the given length.
+     */
+    public void setAttributes(int count, int valueLength)
+    {
+        if (count < 0 || valueLength < 0)
+            throw new IllegalArgumentException("bad attribute payload: " + count + ", " + valueLength);
+        this.attributeCount = count;
+        this.attributeValueLength = valueLength;
+    }
+
+    /**
+     * Starts the random sequence behind latency and errors over again.
+     */
+    public void setSeed(long seed)
+    {
+        random.setSeed(seed);
+    }
+
+    /**
+     * @return requests received by the given endpoint, e.g.
+     *         <code>serviceValidate</code>
+     */
+    public long getRequestCount(String endpoint)
+    {
+        AtomicLong count = requestCounts.get(endpoint);
+        return count == null ? 0 : count.get();
+    }
+
+    /**
+     * @return back-channel requests failed on purpose
+     */
+    public long getInjectedErrors()
+    {
+        return injectedErrors.get();
+    }
+
+    /**
+     * Issues a service ticket as <code>/login</code> would, without the
+     * redirect.
+     */
+    public String issueServiceTicket(String username, String service, boolean renewed)
+    {
+        Ticket ticket = new Ticket(newId("ST"), username, service, renewed, Collections.<String> emptyList());
+        tickets.put(ticket.id, ticket);
+        Queue<Ticket> session = sessions.get(username);
+        if (session == null)
+        {
+            sessions.putIfAbsent(username, new ConcurrentLinkedQueue<Ticket>());
+            session = sessions.get(username);
+        }
+        session.add(ticket);
+        return ticket.id;
+    }
+
+    /**
+     * Ends the given user's single sign-on session, delivering a logout
+     * request to the service of every service ticket issued to them.
+     *
+     * @return the number of services that accepted their logout request
+     */
+    public int logout(String username)
+    {
+        Queue<Ticket> session = sessions.remove(username);
+        if (session == null) return 0;
+        int delivered = 0;
+        for (Ticket ticket : session)
+        {
+            if (deliverLogout(ticket.service, ticket.id)) delivered++;
+        }
+        return delivered;
+    }
+
+    /**
+     * Sends the logout request for one service ticket to its service.
+     *
+     * @return whether the service answered with a 2xx status
+     */
+    public boolean deliverLogout(String service, String serviceTicket)
+    {
+        return get(appendParameter(service, "ticket", "-" + serviceTicket));
+    }
+
+    // *********************************************************************
+    // Endpoints
+
+    private void login(HttpExchange exchange, Map<String, String> params) throws IOException
+    {
+        String service = params.get("service");
+        String username = params.containsKey("username") ? params.get("username") : user;
+        if (service == null)
+        {
+            respond(exchange, 200, "text/plain", "logged in as " + username + "\n");
+            return;
+        }
+        String ticket = issueServiceTicket(username, service, "true".equals(params.get("renew")));
+        exchange.getResponseHeaders().set("Location", appendParameter(service, "ticket", ticket));
+        respond(exchange, 302, "text/plain", "");
+    }
+
+    private void validate(HttpExchange exchange, Map<String, String> params, boolean proxyTicketsAccepted)
+            throws IOException
+    {
+        String id = params.get("ticket");
+        String service = params.get("service");
+        if (id == null || service == null)
+        {
+            failure(exchange, "INVALID_REQUEST", "'service' and 'ticket' parameters are both required");
+            return;
+        }
+        Ticket ticket = tickets.remove(id);
+        if (ticket == null)
+        {
+            failure(exchange, "INVALID_TICKET", "ticket '" + id + "' not recognized");
+            return;
+        }
+        if (ticket.isProxyTicket() && !proxyTicketsAccepted)
+        {
+            failure(exchange, "INVALID_TICKET", "ticket '" + id + "' is a proxy ticket");
+            return;
+        }
+        if (!ticket.service.equals(service))
+        {
+            failure(exchange, "INVALID_SERVICE", "ticket '" + id + "' does not match supplied service");
+            return;
+        }
+        if ("true".equals(params.get("renew")) && !ticket.renewed)
+        {
+            failure(exchange, "INVALID_TICKET", "ticket '" + id + "' was not issued from a renewed login");
+            return;
+        }
+
+        String pgtIou = null;
+        String pgtUrl = params.get("pgtUrl");
+        if (pgtUrl != null)
+        {
+            List<String> proxies = new ArrayList<String>(ticket.proxies.size() + 1);
+            proxies.add(pgtUrl);
+            proxies.addAll(ticket.proxies);
+            Ticket pgt = new Ticket(newId("PGT"), ticket.user, pgtUrl, false, proxies);
+            String iou = newId("PGTIOU");
+            // like CAS, only vouch for a PGT the callback accepted
+            if (get(appendParameter(appendParameter(pgtUrl, "pgtIou", iou), "pgtId", pgt.id)))
+            {
+                proxyGrantingTickets.put(pgt.id, pgt);
+                pgtIou = iou;
+            }
+        }
+
+        StringBuilder sb = new StringBuilder(256 + attributeCount * (attributeValueLength + 40));
+        sb.append("<cas:serviceResponse ").append(NAMESPACE).append(">\n");
+        sb.append("  <cas:authenticationSuccess>\n");
+        sb.append("    <cas:user>").append(ticket.user).append("</cas:user>\n");
+        if (pgtIou != null) sb.append("    <cas:proxyGrantingTicket>").append(pgtIou).append("</cas:proxyGrantingTicket>\n");
+        int count = attributeCount;
+        if (count > 0)
+        {
+            String value = attributeValue(attributeValueLength);
+            sb.append("    <cas:attributes>\n");
+            for (int i = 0; i < count; i++)
+            {
+                sb.append("      <attribute").append(i).append('>').append(value).append("</attribute").append(i)
+                    .append(">\n");
+            }
+            sb.append("    </cas:attributes>\n");
+        }
+        if (ticket.isProxyTicket())
+        {
+            sb.append("    <cas:proxies>\n");
+            for (String proxy : ticket.proxies)
+            {
+                sb.append("      <cas:proxy>").append(proxy).append("</cas:proxy>\n");
+            }
+            sb.append("    </cas:proxies>\n");
+        }
+        sb.append("  </cas:authenticationSuccess>\n");
+        sb.append("</cas:serviceResponse>\n");
+        respond(exchange, 200, "text/xml", sb.toString());
+    }
+
+    private void proxy(HttpExchange exchange, Map<String, String> params) throws IOException
+    {
+        String pgtId = params.get("pgt");
+        String targetService = params.get("targetService");
+        Ticket pgt = pgtId == null ? null : proxyGrantingTickets.get(pgtId);
+        String failure = null;
+        if (pgtId == null || targetService == null)
+            failure = "<cas:proxyFailure code='INVALID_REQUEST'>'pgt' and 'targetService' parameters are both required</cas:proxyFailure>";
+        else if (pgt == null)
+            failure = "<cas:proxyFailure code='BAD_PGT'>unrecognized pgt: '" + pgtId + "'</cas:proxyFailure>";
+        if (failure != null)
+        {
+            respond(exchange, 200, "text/xml", "<cas:serviceResponse " + NAMESPACE + ">\n  " + failure
+                    + "\n</cas:serviceResponse>\n");
+            return;
+        }
+        Ticket proxyTicket = new Ticket(newId("PT"), pgt.user, targetService, false, pgt.proxies);
+        tickets.put(proxyTicket.id, proxyTicket);
+        respond(exchange, 200, "text/xml", "<cas:serviceResponse " + NAMESPACE + ">\n  <cas:proxySuccess>\n"
+                + "    <cas:proxyTicket>" + proxyTicket.id + "</cas:proxyTicket>\n  </cas:proxySuccess>\n"
+                + "</cas:serviceResponse>\n");
+    }
+
+    private void failure(HttpExchange exchange, String code, String message) throws IOException
+    {
+        respond(exchange, 200, "text/xml", "<cas:serviceResponse " + NAMESPACE + ">\n"
+                + "  <cas:authenticationFailure code='" + code + "'>" + message + "</cas:authenticationFailure>\n"
+                + "</cas:serviceResponse>\n");
+    }
+
+    // *********************************************************************
+    // Plumbing
+
+    private abstract class Endpoint implements HttpHandler
+    {
+        private final AtomicLong count = new AtomicLong();
+
+        Endpoint(String name)
+        {
+            requestCounts.put(name, count);
+        }
+
+        public void handle(HttpExchange exchange) throws IOException
+        {
+            try
+            {
+                count.incrementAndGet();
+                drain(exchange.getRequestBody());
+                handle(exchange, parseQuery(exchange.getRequestURI().getRawQuery()));
+            }
+            finally
+            {
+                exchange.close();
+            }
+        }
+
+        abstract void handle(HttpExchange exchange, Map<String, String> params) throws IOException;
+    }
+
+    /**
+     * An endpoint subject to the configured latency and error rate.
+     */
+    private abstract class BackChannelEndpoint extends Endpoint
+    {
+        BackChannelEndpoint(String name)
+        {
+            super(name);
+        }
+
+        public void handle(HttpExchange exchange) throws IOException
+        {
+            long latency;
+            boolean fail;
+            synchronized (random)
+            {
+                long spread = maxLatencyMillis - minLatencyMillis;
+                latency = minLatencyMillis + (spread > 0 ? (long) (random.nextDouble() * (spread + 1)) : 0);
+                fail = errorRate > 0 && random.nextDouble() < errorRate;
+            }
+            try
+            {
+                if (latency > 0) TimeUnit.MILLISECONDS.sleep(latency);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+            if (fail)
+            {
+                injectedErrors.incrementAndGet();
+                try
+                {
+                    respond(exchange, 500, "text/plain", "injected failure\n");
+                }
+                finally
+                {
+                    exchange.close();
+                }
+                return;
+            }
+            super.handle(exchange);
+        }
+    }
+
+    private String newId(String prefix)
+    {
+        return prefix + "-" + ticketSequence.incrementAndGet() + "-" + Long.toHexString(random.nextLong()) + "-emulator";
+    }
+
+    private static String attributeValue(int length)
+    {
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++)
+        {
+            sb.append((char) ('a' + i % 26));
+        }
+        return sb.toString();
+    }
+
+    private static void respond(HttpExchange exchange, int status, String contentType, String body)
+            throws IOException
+    {
+        byte[] bytes = body.getBytes("UTF-8");
+        exchange.getResponseHeaders().set("Content-Type", contentType + "; charset=UTF-8");
+        exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+        if (bytes.length > 0)
+        {
+            OutputStream out = exchange.getResponseBody();
+            out.write(bytes);
+            out.close();
+        }
+    }
+
+    /**
+     * Makes a GET request of the kind CAS makes to applications.
+     *
+     * @return whether the response status was 2xx
+     */
+    private static boolean get(String url)
+    {
+        try
+        {
+            HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+            connection.setConnectTimeout(CALLBACK_TIMEOUT_MILLIS);
+            connection.setReadTimeout(CALLBACK_TIMEOUT_MILLIS);
+            connection.setInstanceFollowRedirects(false);
+            int status = connection.getResponseCode();
+            drain(status < 400 ? connection.getInputStream() : connection.getErrorStream());
+            return status >= 200 && status < 300;
+        }
+        catch (IOException e)
+        {
+            return false;
+        }
+    }
+
+    private static void drain(InputStream in) throws IOException
+    {
+        if (in == null) return;
+        byte[] buffer = new byte[4096];
+        try
+        {
+            while (in.read(buffer) != -1)
+            {
+                // discard
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    static String appendParameter(String url, String name, String value)
+    {
+        try
+        {
+            return url + (url.indexOf('?') == -1 ? '?' : '&') + name + "=" + URLEncoder.encode(value, "UTF-8");
+        }
+        catch (UnsupportedEncodingException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static Map<String, String> parseQuery(String rawQuery) throws UnsupportedEncodingException
+    {
+        Map<String, String> params = new HashMap<String, String>();
+        if (rawQuery == null) return params;
+        for (String pair : rawQuery.split("&"))
+        {
+            if (pair.length() == 0) continue;
+            int eq = pair.indexOf('=');
+            String name = URLDecoder.decode(eq == -1 ? pair : pair.substring(0, eq), "UTF-8");
+            String value = eq == -1 ? "" : URLDecoder.decode(pair.substring(eq + 1), "UTF-8");
+            if (!params.containsKey(name)) params.put(name, value);
+        }
+        return params;
+    }
+}
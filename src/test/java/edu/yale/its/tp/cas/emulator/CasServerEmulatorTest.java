@@ -0,0 +1,193 @@
+package edu.yale.its.tp.cas.emulator;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+import com.mockrunner.mock.web.MockFilterConfig;
+import com.mockrunner.mock.web.MockServletContext;
+
+import edu.yale.its.tp.cas.client.CASReceipt;
+import edu.yale.its.tp.cas.client.ProxyTicketValidator;
+import edu.yale.its.tp.cas.client.ServiceUrlBuilder;
+import edu.yale.its.tp.cas.client.filter.CASFilter;
+import junit.framework.TestCase;
+
+/**
+ * Test case for CasServerEmulator, and for CASFilter against it over HTTP.
+ */
+public class CasServerEmulatorTest extends TestCase {
+
+    private static final String SERVICE = "http://www.client.com/app/page.jsp";
+
+    private CasServerEmulator cas;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        cas = new CasServerEmulator();
+        cas.start();
+    }
+
+    protected void tearDown() throws Exception {
+        cas.stop();
+        super.tearDown();
+    }
+
+    /**
+     * Test that /login redirects to the service with a ticket that validates
+     * once, for that service only.
+     */
+    public void testLoginIssuesSingleUseTicket() throws Exception {
+        String location = get(CasServerEmulator.appendParameter(cas.getLoginUrl(), "service", SERVICE), null).location;
+        assertTrue(location, location.startsWith(SERVICE + "?ticket=ST-"));
+        String ticket = location.substring(location.indexOf("ticket=") + "ticket=".length());
+
+        ProxyTicketValidator wrongService = validator(ticket, "http://www.other.com/");
+        wrongService.validate();
+        assertEquals("INVALID_SERVICE", wrongService.getErrorCode());
+
+        String ticket2 = cas.issueServiceTicket("someone", SERVICE, false);
+        ProxyTicketValidator ptv = validator(ticket2, SERVICE);
+        ptv.validate();
+        assertTrue(ptv.getResponse(), ptv.isAuthenticationSuccesful());
+        assertEquals("someone", ptv.getUser());
+
+        ProxyTicketValidator again = validator(ticket2, SERVICE);
+        again.validate();
+        assertEquals("INVALID_TICKET", again.getErrorCode());
+        assertEquals(3, cas.getRequestCount("serviceValidate"));
+    }
+
+    /**
+     * Test that renew=true validation only accepts tickets from a renewed
+     * login.
+     */
+    public void testRenew() throws Exception {
+        ProxyTicketValidator ptv = validator(cas.issueServiceTicket("someone", SERVICE, false), SERVICE);
+        ptv.setRenew(true);
+        ptv.validate();
+        assertFalse(ptv.isAuthenticationSuccesful());
+
+        ptv = validator(cas.issueServiceTicket("someone", SERVICE, true), SERVICE);
+        ptv.setRenew(true);
+        ptv.validate();
+        assertTrue(ptv.isAuthenticationSuccesful());
+    }
+
+    /**
+     * Test that responses carry the configured attributes.
+     */
+    public void testAttributePayload() throws Exception {
+        cas.setAttributes(1000, 64);
+        ProxyTicketValidator ptv = validator(cas.issueServiceTicket("someone", SERVICE, false), SERVICE);
+        ptv.validate();
+        CASReceipt receipt = CASReceipt.getReceipt(ptv);
+        assertEquals(1000, receipt.getAttributes().size());
+        assertEquals(64, ((String) receipt.getAttributes().get("attribute999")).length());
+    }
+
+    /**
+     * Test the injected latency and failures.
+     */
+    public void testLatencyAndErrors() throws Exception {
+        cas.setLatency(50, 60);
+        long start = System.nanoTime();
+        ProxyTicketValidator ptv = validator(cas.issueServiceTicket("someone", SERVICE, false), SERVICE);
+        ptv.validate();
+        assertTrue(ptv.isAuthenticationSuccesful());
+        assertTrue((System.nanoTime() - start) / 1000000 >= 50);
+
+        cas.setLatency(0, 0);
+        cas.setErrorRate(1);
+        try {
+            validator(cas.issueServiceTicket("someone", SERVICE, false), SERVICE).validate();
+            fail("the injected 500 should surface as an IOException");
+        } catch (IOException e) {
+            // expected
+        }
+        assertEquals(1, cas.getInjectedErrors());
+    }
+
+    /**
+     * Test a CASFilter-protected application end to end: redirect to login,
+     * ticket validation, the authenticated session, and single sign-out.
+     */
+    public void testFilterLoginAndLogout() throws Exception {
+        MockFilterConfig config = new MockFilterConfig();
+        config.setupServletContext(new MockServletContext());
+        config.setInitParameter(CASFilter.LOGIN_INIT_PARAM, cas.getLoginUrl());
+        config.setInitParameter(CASFilter.VALIDATE_INIT_PARAM, cas.getProxyValidateUrl());
+        config.setInitParameter(CASFilter.JMX_INIT_PARAM, "false");
+        CASFilter filter = new CASFilter();
+        FilteredApplication app = new FilteredApplication(filter);
+        app.start();
+        try {
+            config.setInitParameter(CASFilter.SERVERNAME_INIT_PARAM, app.getServerName());
+            filter.init(config);
+            String page = app.getBaseUrl() + "/app/page.jsp";
+
+            // not logged in: off to CAS, which sends us back with a ticket
+            Response response = get(page, null);
+            assertEquals(302, response.status);
+            assertTrue(response.location, response.location.startsWith(cas.getLoginUrl()));
+            String cookie = response.cookie;
+            response = get(response.location, null);
+            assertEquals(302, response.status);
+
+            // the filter validates the ticket and redirects to drop it
+            response = get(response.location, cookie);
+            assertEquals(302, response.status);
+            assertEquals(page, response.location);
+            response = get(page, cookie);
+            assertEquals(200, response.status);
+            assertEquals(1, cas.getRequestCount("proxyValidate"));
+
+            // single sign-out reaches the application and ends the session
+            assertEquals(1, cas.logout("someone"));
+            response = get(page, cookie);
+            assertEquals(302, response.status);
+            assertTrue(response.location, response.location.startsWith(cas.getLoginUrl()));
+            assertTrue(response.location, response.location.endsWith(ServiceUrlBuilder.encode(page)));
+        } finally {
+            filter.destroy();
+            app.stop();
+        }
+    }
+
+    private ProxyTicketValidator validator(String ticket, String service) {
+        ProxyTicketValidator ptv = new ProxyTicketValidator();
+        ptv.setCasValidateUrl(cas.getServiceValidateUrl());
+        ptv.setServiceTicket(ticket);
+        ptv.setService(ServiceUrlBuilder.encode(service));
+        return ptv;
+    }
+
+    static class Response {
+        int status;
+        String location;
+        String cookie;
+    }
+
+    /**
+     * A GET from a browser that does not follow redirects.
+     */
+    static Response get(String url, String cookie) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setInstanceFollowRedirects(false);
+        if (cookie != null) connection.setRequestProperty("Cookie", cookie);
+        Response response = new Response();
+        response.status = connection.getResponseCode();
+        response.location = connection.getHeaderField("Location");
+        String setCookie = connection.getHeaderField("Set-Cookie");
+        response.cookie = setCookie == null ? cookie : setCookie;
+        InputStream in = response.status < 400 ? connection.getInputStream() : connection.getErrorStream();
+        if (in != null) {
+            while (in.read() != -1) {
+                // discard
+            }
+            in.close();
+        }
+        return response;
+    }
+}
@@ -0,0 +1,192 @@
+package edu.yale.its.tp.cas.emulator;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+
+import com.mockrunner.mock.web.MockHttpServletRequest;
+import com.mockrunner.mock.web.MockHttpServletResponse;
+import com.mockrunner.mock.web.MockHttpSession;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A web application protected by a single filter, served over the JDK HTTP
+ * server, so that a {@link CasServerEmulator} can reach it with pgtUrl
+ * callbacks and logout requests. Each exchange is turned into a mockrunner
+ * request and response; sessions are kept in memory and tracked by a
+ * <code>JSESSIONID</code> cookie. Requests that get through the filter are
+ * answered with a 200 and the remote user.
+ */
+public class FilteredApplication
+{
+
+    public static final String SESSION_COOKIE = "JSESSIONID";
+
+    private final Filter filter;
+
+    private HttpServer server;
+
+    private ExecutorService executor;
+
+    private final Map<String, MockHttpSession> sessions = new ConcurrentHashMap<String, MockHttpSession>();
+
+    private final AtomicLong sessionSequence = new AtomicLong();
+
+    /**
+     * @param filter
+     *            - an initialized filter
+     */
+    public FilteredApplication(Filter filter)
+    {
+        this.filter = filter;
+    }
+
+    public void start() throws IOException
+    {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.createContext("/", new HttpHandler()
+        {
+            public void handle(HttpExchange exchange) throws IOException
+            {
+                try
+                {
+                    serve(exchange);
+                }
+                finally
+                {
+                    exchange.close();
+                }
+            }
+        });
+        server.start();
+    }
+
+    public void stop()
+    {
+        if (server == null) return;
+        server.stop(0);
+        executor.shutdownNow();
+        server = null;
+    }
+
+    /**
+     * @return host and port, as the filters' serverName parameter wants them
+     */
+    public String getServerName()
+    {
+        return "127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    public String getBaseUrl()
+    {
+        return "http://" + getServerName();
+    }
+
+    public MockHttpSession getSession(String id)
+    {
+        return sessions.get(id);
+    }
+
+    private void serve(HttpExchange exchange) throws IOException
+    {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setMethod(exchange.getRequestMethod());
+        request.setScheme("http");
+        request.setServerName(exchange.getLocalAddress().getHostName());
+        request.setServerPort(exchange.getLocalAddress().getPort());
+        request.setRequestURI(exchange.getRequestURI().getRawPath());
+        String query = exchange.getRequestURI().getRawQuery();
+        request.setQueryString(query);
+        for (Map.Entry<String, String> param : CasServerEmulator.parseQuery(query).entrySet())
+        {
+            request.setupAddParameter(param.getKey(), param.getValue());
+        }
+
+        String sessionId = sessionId(exchange.getRequestHeaders().get("Cookie"));
+        MockHttpSession session = sessionId == null ? null : sessions.get(sessionId);
+        if (session == null)
+        {
+            sessionId = Long.toString(sessionSequence.incrementAndGet());
+            session = new Session();
+            sessions.put(sessionId, session);
+        }
+        request.setSession(session);
+
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        try
+        {
+            filter.doFilter(request, response, new FilterChain()
+            {
+                public void doFilter(ServletRequest request, ServletResponse response) throws IOException
+                {
+                    String user = ((HttpServletRequest) request).getRemoteUser();
+                    response.getWriter().print("hello " + user);
+                }
+            });
+        }
+        catch (ServletException e)
+        {
+            response.setStatus(500);
+        }
+
+        exchange.getResponseHeaders().add("Set-Cookie", SESSION_COOKIE + "=" + sessionId);
+        int status = response.getStatusCode();
+        if (response.wasRedirectSent())
+        {
+            status = 302;
+            exchange.getResponseHeaders().set("Location", response.getHeader("Location"));
+        }
+        byte[] body = response.getOutputStreamContent().getBytes("UTF-8");
+        exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+        if (body.length > 0)
+        {
+            OutputStream out = exchange.getResponseBody();
+            out.write(body);
+            out.close();
+        }
+    }
+
+    private static String sessionId(List<String> cookieHeaders)
+    {
+        if (cookieHeaders == null) return null;
+        for (String header : cookieHeaders)
+        {
+            for (String cookie : header.split(";"))
+            {
+                cookie = cookie.trim();
+                if (cookie.startsWith(SESSION_COOKIE + "=")) return cookie.substring(SESSION_COOKIE.length() + 1);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Works around mockrunner's getValueNames(), which fails.
+     */
+    private static final class Session extends MockHttpSession
+    {
+        public synchronized String[] getValueNames()
+        {
+            List names = Collections.list(getAttributeNames());
+            return (String[]) names.toArray(new String[names.size()]);
+        }
+    }
+}
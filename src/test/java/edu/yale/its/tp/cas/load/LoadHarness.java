@@ -0,0 +1,553 @@
+package edu.yale.its.tp.cas.load;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+
+import com.mockrunner.mock.web.MockFilterConfig;
+import com.mockrunner.mock.web.MockHttpServletRequest;
+import com.mockrunner.mock.web.MockHttpServletResponse;
+import com.mockrunner.mock.web.MockHttpSession;
+import com.mockrunner.mock.web.MockServletContext;
+
+import edu.yale.its.tp.cas.client.CASReceipt;
+import edu.yale.its.tp.cas.client.filter.CASFilter;
+import edu.yale.its.tp.cas.emulator.CasServerEmulator;
+import edu.yale.its.tp.cas.util.LatencyHistogram;
+
+/**
+ * Drives CASFilter with concurrent virtual users, through mockrunner requests
+ * rather than a servlet container, against a {@link CasServerEmulator}, and
+ * reports what one node can absorb as JSON.
+ * <p>
+ * Each virtual user is a thread that repeatedly picks one of four actions,
+ * with the configured weights:
+ * <ul>
+ * <li><b>login</b> - a new session is redirected to CAS, comes back with a
+ * service ticket the filter validates over HTTP, and is let through</li>
+ * <li><b>browse</b> - one of the user's authenticated sessions requests a
+ * page</li>
+ * <li><b>logout</b> - CAS's logout request for one of the user's sessions
+ * reaches the filter, and the session's next request is sent to CAS</li>
+ * <li><b>gateway</b> - a new session passes through a gateway filter: sent to
+ * CAS once, then let through unauthenticated</li>
+ * </ul>
+ * With a target rate, users pace themselves on a fixed schedule and latency is
+ * measured from when each action was due, so a stalled filter shows up as
+ * latency rather than as a lower request rate. Without one, they run flat out.
+ * <p>
+ * The report has, for the measured period only: the rate and latency
+ * percentiles of each action, the filter requests per second, the bytes the
+ * virtual users allocated, and the JVM's thread counts.
+ * <p>
+ * Run it with the <code>load</code> profile, e.g.
+ * <code>mvn -Pload test-compile exec:exec -Dload.args="threads=64 rate=2000 browse=95 login=5"</code>;
+ * see {@link #configure(String)} for the settings.
+ */
+public class LoadHarness
+{
+
+    public static final String PAGE_URI = "/app/page.jsp";
+
+    public static final String SERVER_NAME = "app.example.com";
+
+    public static final String SERVICE = "http://" + SERVER_NAME + PAGE_URI;
+
+    /** authenticated sessions a virtual user keeps before abandoning the oldest */
+    private static final int SESSIONS_PER_USER = 20;
+
+    enum Action
+    {
+        LOGIN, BROWSE, LOGOUT, GATEWAY
+    }
+
+    // settings
+    int threads = 16;
+    long warmupSeconds = 5;
+    long durationSeconds = 30;
+    /** actions per second across all users; 0 for as fast as possible */
+    double rate = 0;
+    int[] weights = { 10, 85, 3, 2 };
+    long casMinLatencyMillis = 0;
+    long casMaxLatencyMillis = 0;
+    double casErrorRate = 0;
+    int attributes = 10;
+    boolean wrapRequest = false;
+    String resultFile;
+
+    private final LatencyHistogram[] latencies = new LatencyHistogram[Action.values().length];
+    private final AtomicLong[] errors = new AtomicLong[Action.values().length];
+    private final AtomicLong filterRequests = new AtomicLong();
+    private volatile boolean measuring;
+    private volatile boolean stopping;
+
+    public LoadHarness()
+    {
+        for (int i = 0; i < latencies.length; i++)
+        {
+            latencies[i] = new LatencyHistogram();
+            errors[i] = new AtomicLong();
+        }
+    }
+
+    /**
+     * Applies one <code>name=value</code> setting: <code>threads</code>,
+     * <code>warmup</code> and <code>duration</code> (seconds),
+     * <code>rate</code> (actions per second), the action weights
+     * <code>login</code>, <code>browse</code>, <code>logout</code> and
+     * <code>gateway</code>, <code>casLatency</code> (milliseconds, or
+     * <code>min-max</code>), <code>casErrorRate</code> (0 to 1),
+     * <code>attributes</code>, <code>wrapRequest</code> and <code>out</code>
+     * (the result file).
+     */
+    public void configure(String setting)
+    {
+        int eq = setting.indexOf('=');
+        if (eq == -1) throw new IllegalArgumentException("expected name=value: " + setting);
+        String name = setting.substring(0, eq);
+        String value = setting.substring(eq + 1);
+        if (name.equals("threads"))
+            threads = Integer.parseInt(value);
+        else if (name.equals("warmup"))
+            warmupSeconds = Long.parseLong(value);
+        else if (name.equals("duration"))
+            durationSeconds = Long.parseLong(value);
+        else if (name.equals("rate"))
+            rate = Double.parseDouble(value);
+        else if (name.equals("login"))
+            weights[Action.LOGIN.ordinal()] = Integer.parseInt(value);
+        else if (name.equals("browse"))
+            weights[Action.BROWSE.ordinal()] = Integer.parseInt(value);
+        else if (name.equals("logout"))
+            weights[Action.LOGOUT.ordinal()] = Integer.parseInt(value);
+        else if (name.equals("gateway"))
+            weights[Action.GATEWAY.ordinal()] = Integer.parseInt(value);
+        else if (name.equals("casLatency"))
+        {
+            int dash = value.indexOf('-');
+            casMinLatencyMillis = Long.parseLong(dash == -1 ? value : value.substring(0, dash));
+            casMaxLatencyMillis = dash == -1 ? casMinLatencyMillis : Long.parseLong(value.substring(dash + 1));
+        }
+        else if (name.equals("casErrorRate"))
+            casErrorRate = Double.parseDouble(value);
+        else if (name.equals("attributes"))
+            attributes = Integer.parseInt(value);
+        else if (name.equals("wrapRequest"))
+            wrapRequest = Boolean.parseBoolean(value);
+        else if (name.equals("out"))
+            resultFile = value;
+        else
+            throw new IllegalArgumentException("unknown setting: " + name);
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        LoadHarness harness = new LoadHarness();
+        for (String arg : args)
+        {
+            harness.configure(arg);
+        }
+        String json = harness.run();
+        System.out.println(json);
+        if (harness.resultFile != null)
+        {
+            Writer out = new OutputStreamWriter(new FileOutputStream(harness.resultFile), "UTF-8");
+            try
+            {
+                out.write(json);
+            }
+            finally
+            {
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * Runs the warm-up and the measured period.
+     *
+     * @return the results, as JSON
+     */
+    public String run() throws IOException, ServletException, InterruptedException
+    {
+        int totalWeight = 0;
+        for (int weight : weights)
+        {
+            if (weight < 0) throw new IllegalArgumentException("negative weight");
+            totalWeight += weight;
+        }
+        if (totalWeight == 0) throw new IllegalArgumentException("no actions to run");
+
+        CasServerEmulator cas = new CasServerEmulator();
+        cas.setLatency(casMinLatencyMillis, casMaxLatencyMillis);
+        cas.setErrorRate(casErrorRate);
+        cas.setAttributes(attributes, 16);
+        cas.start();
+        CASFilter filter = newFilter(cas, false);
+        CASFilter gatewayFilter = newFilter(cas, true);
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        try
+        {
+            final CountDownLatch done = new CountDownLatch(threads);
+            List<VirtualUser> users = new ArrayList<VirtualUser>();
+            for (int i = 0; i < threads; i++)
+            {
+                VirtualUser user = new VirtualUser(i, cas, filter, gatewayFilter, totalWeight, done);
+                users.add(user);
+                user.start();
+            }
+
+            TimeUnit.SECONDS.sleep(warmupSeconds);
+            long[] threadIds = new long[users.size()];
+            for (int i = 0; i < threadIds.length; i++)
+            {
+                threadIds[i] = users.get(i).getId();
+            }
+            long allocatedBefore = allocatedBytes(threadBean, threadIds);
+            threadBean.resetPeakThreadCount();
+            long requestsBefore = filterRequests.get();
+            long validationsBefore = cas.getRequestCount("proxyValidate");
+            long start = System.nanoTime();
+            measuring = true;
+
+            TimeUnit.SECONDS.sleep(durationSeconds);
+
+            measuring = false;
+            long elapsed = System.nanoTime() - start;
+            long requests = filterRequests.get() - requestsBefore;
+            long validations = cas.getRequestCount("proxyValidate") - validationsBefore;
+            long allocated = allocatedBytes(threadBean, threadIds) - allocatedBefore;
+            int liveThreads = threadBean.getThreadCount();
+            int peakThreads = threadBean.getPeakThreadCount();
+            stopping = true;
+            done.await();
+
+            return report(elapsed, requests, validations, allocated, liveThreads, peakThreads);
+        }
+        finally
+        {
+            stopping = true;
+            filter.destroy();
+            gatewayFilter.destroy();
+            cas.stop();
+        }
+    }
+
+    private CASFilter newFilter(CasServerEmulator cas, boolean gateway) throws ServletException
+    {
+        MockFilterConfig config = new MockFilterConfig();
+        config.setupServletContext(new MockServletContext());
+        config.setInitParameter(CASFilter.LOGIN_INIT_PARAM, cas.getLoginUrl());
+        config.setInitParameter(CASFilter.VALIDATE_INIT_PARAM, cas.getProxyValidateUrl());
+        config.setInitParameter(CASFilter.SERVERNAME_INIT_PARAM, SERVER_NAME);
+        config.setInitParameter(CASFilter.WRAP_REQUESTS_INIT_PARAM, String.valueOf(wrapRequest));
+        config.setInitParameter(CASFilter.GATEWAY_INIT_PARAM, String.valueOf(gateway));
+        config.setInitParameter(CASFilter.JMX_INIT_PARAM, "false");
+        CASFilter filter = new CASFilter();
+        filter.init(config);
+        return filter;
+    }
+
+    /**
+     * @return bytes allocated so far by the given threads, or -1 if the JVM
+     *         cannot tell
+     */
+    private static long allocatedBytes(ThreadMXBean threadBean, long[] threadIds)
+    {
+        if (!(threadBean instanceof com.sun.management.ThreadMXBean)) return -1;
+        com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) threadBean;
+        if (!sunBean.isThreadAllocatedMemorySupported() || !sunBean.isThreadAllocatedMemoryEnabled()) return -1;
+        long total = 0;
+        for (long bytes : sunBean.getThreadAllocatedBytes(threadIds))
+        {
+            if (bytes > 0) total += bytes;
+        }
+        return total;
+    }
+
+    /**
+     * @return the measured count of the given action
+     */
+    long getCount(Action action)
+    {
+        return latencies[action.ordinal()].getCount();
+    }
+
+    /**
+     * @return the measured failures of the given action
+     */
+    long getErrors(Action action)
+    {
+        return errors[action.ordinal()].get();
+    }
+
+    // *********************************************************************
+    // Virtual users
+
+    /**
+     * One simulated browser user, with its own sessions.
+     */
+    private final class VirtualUser extends Thread
+    {
+        private final int number;
+        private final CasServerEmulator cas;
+        private final Filter filter;
+        private final Filter gatewayFilter;
+        private final int totalWeight;
+        private final CountDownLatch done;
+        private final Random random;
+        private final LinkedList<MockHttpSession> sessions = new LinkedList<MockHttpSession>();
+        private final Chain chain = new Chain();
+        private long logins;
+
+        VirtualUser(int number, CasServerEmulator cas, Filter filter, Filter gatewayFilter, int totalWeight,
+                CountDownLatch done)
+        {
+            super("virtual-user-" + number);
+            setDaemon(true);
+            this.number = number;
+            this.cas = cas;
+            this.filter = filter;
+            this.gatewayFilter = gatewayFilter;
+            this.totalWeight = totalWeight;
+            this.done = done;
+            this.random = new Random(number);
+        }
+
+        public void run()
+        {
+            try
+            {
+                long interval = rate > 0 ? (long) (threads * 1e9 / rate) : 0;
+                // spread the users' schedules over one interval
+                long due = System.nanoTime() + (interval > 0 ? random.nextInt((int) Math.min(interval, Integer.MAX_VALUE)) : 0);
+                while (!stopping)
+                {
+                    if (interval > 0)
+                    {
+                        long wait = due - System.nanoTime();
+                        if (wait > 0) TimeUnit.NANOSECONDS.sleep(wait);
+                    }
+                    else
+                    {
+                        due = System.nanoTime();
+                    }
+                    Action action = pick();
+                    boolean recording = measuring;
+                    boolean ok;
+                    try
+                    {
+                        ok = perform(action);
+                    }
+                    catch (Exception e)
+                    {
+                        ok = false;
+                    }
+                    if (recording)
+                    {
+                        latencies[action.ordinal()].recordSince(due);
+                        if (!ok) errors[action.ordinal()].incrementAndGet();
+                    }
+                    due += interval;
+                }
+            }
+            catch (InterruptedException e)
+            {
+                // stop
+            }
+            finally
+            {
+                done.countDown();
+            }
+        }
+
+        private Action pick()
+        {
+            int n = random.nextInt(totalWeight);
+            for (Action action : Action.values())
+            {
+                n -= weights[action.ordinal()];
+                if (n < 0) return action;
+            }
+            throw new IllegalStateException();
+        }
+
+        private boolean perform(Action action) throws IOException, ServletException
+        {
+            switch (action)
+            {
+                case LOGIN:
+                    return login();
+                case BROWSE:
+                    if (sessions.isEmpty()) return login();
+                    MockHttpSession session = sessions.get(random.nextInt(sessions.size()));
+                    if (request(filter, session, null) == null) return true;
+                    // logged out by another path; the user would log in again
+                    sessions.remove(session);
+                    return true;
+                case LOGOUT:
+                    if (sessions.isEmpty()) return true;
+                    MockHttpSession loggedIn = sessions.removeFirst();
+                    CASReceipt receipt = (CASReceipt) loggedIn.getAttribute(CASFilter.CAS_FILTER_RECEIPT);
+                    if (receipt == null) return false;
+                    // CAS's logout request has no session of its own
+                    request(filter, new Session(), "ticket=-" + receipt.getServiceTicket());
+                    String location = request(filter, loggedIn, null);
+                    return location != null && location.startsWith(cas.getLoginUrl());
+                case GATEWAY:
+                    MockHttpSession probe = new Session();
+                    location = request(gatewayFilter, probe, null);
+                    if (location == null || !location.startsWith(cas.getLoginUrl())) return false;
+                    return request(gatewayFilter, probe, null) == null;
+                default:
+                    throw new IllegalStateException();
+            }
+        }
+
+        private boolean login() throws IOException, ServletException
+        {
+            MockHttpSession session = new Session();
+            String location = request(filter, session, null);
+            if (location == null || !location.startsWith(cas.getLoginUrl())) return false;
+            String ticket = cas.issueServiceTicket("user" + number + "-" + logins++, SERVICE, false);
+            location = request(filter, session, "ticket=" + ticket);
+            if (!SERVICE.equals(location)) return false;
+            if (request(filter, session, null) != null) return false;
+            sessions.addLast(session);
+            if (sessions.size() > SESSIONS_PER_USER) sessions.removeFirst();
+            return true;
+        }
+
+        /**
+         * Sends one request for the page through the given filter.
+         *
+         * @return where the filter redirected to, or null if it let the
+         *         request through
+         */
+        private String request(Filter target, MockHttpSession session, String query) throws IOException,
+                ServletException
+        {
+            MockHttpServletRequest request = new MockHttpServletRequest();
+            request.setMethod("GET");
+            request.setScheme("http");
+            request.setServerName(SERVER_NAME);
+            request.setServerPort(80);
+            request.setRequestURI(PAGE_URI);
+            if (query != null)
+            {
+                request.setQueryString(query);
+                request.setupAddParameter("ticket", query.substring("ticket=".length()));
+            }
+            request.setSession(session);
+            MockHttpServletResponse response = new MockHttpServletResponse();
+            chain.invoked = false;
+            filterRequests.incrementAndGet();
+            target.doFilter(request, response, chain);
+            if (chain.invoked) return null;
+            return response.wasRedirectSent() ? response.getHeader("Location") : "";
+        }
+    }
+
+    private static final class Chain implements FilterChain
+    {
+        boolean invoked;
+
+        public void doFilter(ServletRequest request, ServletResponse response)
+        {
+            invoked = true;
+        }
+    }
+
+    /**
+     * Works around mockrunner's getValueNames(), which fails.
+     */
+    private static final class Session extends MockHttpSession
+    {
+        public synchronized String[] getValueNames()
+        {
+            List<?> names = Collections.list(getAttributeNames());
+            return names.toArray(new String[names.size()]);
+        }
+    }
+
+    // *********************************************************************
+    // Reporting
+
+    private String report(long elapsedNanos, long requests, long validations, long allocatedBytes, int liveThreads,
+            int peakThreads)
+    {
+        double seconds = elapsedNanos / 1e9;
+        long totalActions = 0;
+        StringBuilder actions = new StringBuilder();
+        for (Action action : Action.values())
+        {
+            LatencyHistogram latency = latencies[action.ordinal()];
+            long count = latency.getCount();
+            totalActions += count;
+            if (actions.length() > 0) actions.append(",\n");
+            actions.append("    \"").append(action.name().toLowerCase()).append("\": {");
+            actions.append("\"count\": ").append(count);
+            actions.append(", \"errors\": ").append(errors[action.ordinal()].get());
+            actions.append(", \"perSecond\": ").append(round(count / seconds));
+            actions.append(", \"meanMillis\": ").append(round(latency.getMean(TimeUnit.MILLISECONDS)));
+            actions.append(", \"p50Millis\": ").append(round(latency.getPercentile(50, TimeUnit.MILLISECONDS)));
+            actions.append(", \"p90Millis\": ").append(round(latency.getPercentile(90, TimeUnit.MILLISECONDS)));
+            actions.append(", \"p99Millis\": ").append(round(latency.getPercentile(99, TimeUnit.MILLISECONDS)));
+            actions.append(", \"p999Millis\": ").append(round(latency.getPercentile(99.9, TimeUnit.MILLISECONDS)));
+            actions.append(", \"maxMillis\": ").append(round(latency.getMax(TimeUnit.MILLISECONDS)));
+            actions.append("}");
+        }
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\n");
+        sb.append("  \"settings\": {\"threads\": ").append(threads);
+        sb.append(", \"warmupSeconds\": ").append(warmupSeconds);
+        sb.append(", \"durationSeconds\": ").append(durationSeconds);
+        sb.append(", \"rate\": ").append(round(rate));
+        sb.append(", \"weights\": {\"login\": ").append(weights[Action.LOGIN.ordinal()]);
+        sb.append(", \"browse\": ").append(weights[Action.BROWSE.ordinal()]);
+        sb.append(", \"logout\": ").append(weights[Action.LOGOUT.ordinal()]);
+        sb.append(", \"gateway\": ").append(weights[Action.GATEWAY.ordinal()]).append("}");
+        sb.append(", \"casLatencyMillis\": [").append(casMinLatencyMillis).append(", ").append(casMaxLatencyMillis)
+            .append("]");
+        sb.append(", \"casErrorRate\": ").append(casErrorRate);
+        sb.append(", \"attributes\": ").append(attributes);
+        sb.append(", \"wrapRequest\": ").append(wrapRequest).append("},\n");
+        sb.append("  \"elapsedSeconds\": ").append(round(seconds)).append(",\n");
+        sb.append("  \"actionsPerSecond\": ").append(round(totalActions / seconds)).append(",\n");
+        sb.append("  \"filterRequestsPerSecond\": ").append(round(requests / seconds)).append(",\n");
+        sb.append("  \"actions\": {\n").append(actions).append("\n  },\n");
+        sb.append("  \"casValidations\": ").append(validations).append(",\n");
+        sb.append("  \"allocatedBytes\": ").append(allocatedBytes).append(",\n");
+        sb.append("  \"allocatedBytesPerSecond\": ")
+            .append(allocatedBytes < 0 ? -1 : Math.round(allocatedBytes / seconds)).append(",\n");
+        sb.append("  \"allocatedBytesPerFilterRequest\": ")
+            .append(allocatedBytes < 0 || requests == 0 ? -1 : allocatedBytes / requests).append(",\n");
+        sb.append("  \"threads\": {\"live\": ").append(liveThreads).append(", \"peak\": ").append(peakThreads)
+            .append("}\n");
+        sb.append("}");
+        return sb.toString();
+    }
+
+    private static String round(double value)
+    {
+        return String.valueOf(Math.round(value * 1000) / 1000.0);
+    }
+}
@@ -0,0 +1,46 @@
+package edu.yale.its.tp.cas.load;
+
+import junit.framework.TestCase;
+
+/**
+ * A short run of the LoadHarness, so that it keeps working; the numbers are
+ * not checked.
+ */
+public class LoadHarnessTest extends TestCase {
+
+    public void testShortRun() throws Exception {
+        LoadHarness harness = new LoadHarness();
+        harness.configure("threads=4");
+        harness.configure("warmup=0");
+        harness.configure("duration=1");
+        harness.configure("login=20");
+        harness.configure("browse=70");
+        harness.configure("logout=5");
+        harness.configure("gateway=5");
+        String json = harness.run();
+
+        assertTrue(json, harness.getCount(LoadHarness.Action.LOGIN) > 0);
+        assertTrue(json, harness.getCount(LoadHarness.Action.BROWSE) > 0);
+        assertEquals(json, 0, harness.getErrors(LoadHarness.Action.LOGIN));
+        assertEquals(json, 0, harness.getErrors(LoadHarness.Action.GATEWAY));
+        assertTrue(json, json.contains("\"filterRequestsPerSecond\""));
+        assertTrue(json, json.contains("\"p99Millis\""));
+        assertTrue(json, json.contains("\"allocatedBytesPerFilterRequest\""));
+    }
+
+    public void testBadSettings() {
+        LoadHarness harness = new LoadHarness();
+        try {
+            harness.configure("threads");
+            fail("a setting needs a value");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            harness.configure("users=3");
+            fail("unknown settings should be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package edu.yale.its.tp.cas.metrics;
+
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+
+import com.mockrunner.mock.web.MockFilterConfig;
+import com.mockrunner.mock.web.MockHttpServletRequest;
+import com.mockrunner.mock.web.MockHttpServletResponse;
+import com.mockrunner.mock.web.MockHttpSession;
+import com.mockrunner.mock.web.MockServletContext;
+
+import edu.yale.its.tp.cas.client.filter.CASFilter;
+import edu.yale.its.tp.cas.client.filter.WatchfulFilterChain;
+import junit.framework.TestCase;
+
+/**
+ * Test case for the metrics SPI.
+ */
+public class MetricsTest extends TestCase {
+
+    /**
+     * Test that the reporter named in META-INF/services is the one used.
+     */
+    public void testReporterDiscovered() {
+        assertTrue(Metrics.getReporter() instanceof TestMetricsReporter);
+    }
+
+    /**
+     * Test that asking twice for an instrument by name gives the same one.
+     */
+    public void testInstrumentsShared() {
+        assertSame(Metrics.counter("test.counter"), Metrics.counter("test.counter"));
+        assertSame(Metrics.histogram("test.histogram"), Metrics.histogram("test.histogram"));
+        assertNotSame(Metrics.counter("test.counter"), Metrics.counter("test.otherCounter"));
+    }
+
+    /**
+     * Test that counters, histograms and gauges are readable from the registry.
+     */
+    public void testRegistry() {
+        RegistryMetricsReporter reporter = new RegistryMetricsReporter();
+        reporter.counter("c").increment();
+        reporter.counter("c").add(2);
+        reporter.histogram("h").record(1000);
+        reporter.gauge("g", new Gauge() {
+            public long getValue() {
+                return 42;
+            }
+        });
+        assertEquals(3, reporter.getCounters().get("c").getCount());
+        assertEquals(1, reporter.getHistograms().get("h").getCount());
+        assertEquals(42, reporter.getGauges().get("g").getValue());
+    }
+
+    /**
+     * Test that the no-op instruments accept calls and do not read the clock.
+     */
+    public void testNoop() {
+        Histogram histogram = NoopMetricsReporter.INSTANCE.histogram("h");
+        assertEquals(0, histogram.start());
+        histogram.recordSince(0);
+        NoopMetricsReporter.INSTANCE.counter("c").increment();
+    }
+
+    /**
+     * Test that a CASFilter's decisions reach the installed reporter.
+     */
+    public void testFilterDecisionsReported() throws ServletException, IOException {
+        MockFilterConfig config = new MockFilterConfig();
+        config.setInitParameter(CASFilter.LOGIN_INIT_PARAM, "https://casserver.com/login");
+        config.setInitParameter(CASFilter.VALIDATE_INIT_PARAM, "https://casserver.com/serviceValidate");
+        config.setInitParameter(CASFilter.SERVERNAME_INIT_PARAM, "www.client.com");
+        config.setInitParameter(CASFilter.JMX_INIT_PARAM, "false");
+        config.setupServletContext(new MockServletContext());
+        CASFilter filter = new CASFilter();
+        filter.init(config);
+
+        AtomicCounter redirects = (AtomicCounter) Metrics.counter("cas.CASFilter.redirectToCas");
+        long before = redirects.getCount();
+
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setSession(new MockHttpSession());
+        filter.doFilter(request, new MockHttpServletResponse(), new WatchfulFilterChain());
+
+        assertEquals(before + 1, redirects.getCount());
+        filter.destroy();
+    }
+
+    /**
+     * Test that the PGT count is reported as a gauge.
+     */
+    public void testProxyGrantingTicketGauge() throws ClassNotFoundException {
+        Class.forName("edu.yale.its.tp.cas.proxy.ProxyTicketReceptor");
+        RegistryMetricsReporter reporter = (RegistryMetricsReporter) Metrics.getReporter();
+        assertNotNull(reporter.getGauges().get("cas.proxy.pgtCount"));
+    }
+}
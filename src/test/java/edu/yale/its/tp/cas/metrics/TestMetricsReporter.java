@@ -0,0 +1,9 @@
+package edu.yale.its.tp.cas.metrics;
+
+/**
+ * Installed for the tests through
+ * META-INF/services/edu.yale.its.tp.cas.metrics.MetricsReporter, so that
+ * MetricsTest can see what the instrumented code records.
+ */
+public class TestMetricsReporter extends RegistryMetricsReporter {
+}
@@ -0,0 +1,117 @@
+package edu.yale.its.tp.cas.proxy;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+
+import edu.yale.its.tp.cas.client.ProxyTicketValidator;
+import edu.yale.its.tp.cas.client.ServiceUrlBuilder;
+import edu.yale.its.tp.cas.emulator.CasServerEmulator;
+import edu.yale.its.tp.cas.emulator.FilteredApplication;
+import junit.framework.TestCase;
+
+/**
+ * Testcase for ProxyGrantingTicket, against a CasServerEmulator: the pgtUrl
+ * callback, the proxy ticket it buys, and validation of that ticket.
+ */
+public class ProxyGrantingTicketTest extends TestCase
+{
+
+    private static final String SERVICE = "http://www.client.com/app/";
+
+    private static final String TARGET = "http://backend.example.com/data";
+
+    private CasServerEmulator cas;
+
+    private FilteredApplication callback;
+
+    /** pgtId by pgtIou, as received by the callback */
+    private final Map<String, String> received = new ConcurrentHashMap<String, String>();
+
+    protected void setUp() throws Exception
+    {
+        cas = new CasServerEmulator();
+        cas.start();
+        callback = new FilteredApplication(new Filter()
+        {
+            public void init(FilterConfig config)
+            {
+                // nothing to configure
+            }
+
+            public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            {
+                if (request.getParameter("pgtIou") != null)
+                    received.put(request.getParameter("pgtIou"), request.getParameter("pgtId"));
+            }
+
+            public void destroy()
+            {
+                // nothing to release
+            }
+        });
+        callback.start();
+    }
+
+    protected void tearDown() throws Exception
+    {
+        callback.stop();
+        cas.stop();
+    }
+
+    public void testProxyTicketRoundTrip() throws Exception
+    {
+        String pgtUrl = callback.getBaseUrl() + "/pgtCallback";
+        ProxyTicketValidator ptv = validator(cas.issueServiceTicket("someone", SERVICE, false), SERVICE);
+        ptv.setProxyCallbackUrl(pgtUrl);
+        ptv.validate();
+        assertTrue(ptv.getResponse(), ptv.isAuthenticationSuccesful());
+        String pgtId = received.get(ptv.getPgtIou());
+        assertNotNull("the callback should have received the PGT for " + ptv.getPgtIou(), pgtId);
+
+        String proxyTicket = new ProxyGrantingTicket(pgtId, cas.getProxyUrl()).getProxyTicket(TARGET);
+        assertNotNull(proxyTicket);
+        assertTrue(proxyTicket, proxyTicket.startsWith("PT-"));
+
+        ProxyTicketValidator proxied = validator(proxyTicket, TARGET);
+        proxied.setCasValidateUrl(cas.getProxyValidateUrl());
+        proxied.validate();
+        assertTrue(proxied.getResponse(), proxied.isAuthenticationSuccesful());
+        assertEquals("someone", proxied.getUser());
+        assertEquals(Arrays.asList(pgtUrl), proxied.getProxyList());
+    }
+
+    public void testUnknownPgt() throws IOException
+    {
+        assertNull(new ProxyGrantingTicket("PGT-unknown", cas.getProxyUrl()).getProxyTicket(TARGET));
+    }
+
+    public void testProxyTicketsAreNotServiceTickets() throws Exception
+    {
+        ProxyTicketValidator ptv = validator(cas.issueServiceTicket("someone", SERVICE, false), SERVICE);
+        ptv.setProxyCallbackUrl(callback.getBaseUrl() + "/pgtCallback");
+        ptv.validate();
+        String proxyTicket = new ProxyGrantingTicket(received.get(ptv.getPgtIou()), cas.getProxyUrl())
+            .getProxyTicket(TARGET);
+
+        ProxyTicketValidator asServiceTicket = validator(proxyTicket, TARGET);
+        asServiceTicket.validate();
+        assertEquals("INVALID_TICKET", asServiceTicket.getErrorCode());
+    }
+
+    private ProxyTicketValidator validator(String ticket, String service)
+    {
+        ProxyTicketValidator ptv = new ProxyTicketValidator();
+        ptv.setCasValidateUrl(cas.getServiceValidateUrl());
+        ptv.setServiceTicket(ticket);
+        ptv.setService(ServiceUrlBuilder.encode(service));
+        return ptv;
+    }
+}
@@ -8,14 +8,21 @@
 package edu.yale.its.tp.cas.proxy;
 
 import java.io.IOException;
+import java.sql.Connection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import javax.servlet.ServletException;
 
+import org.h2.jdbcx.JdbcDataSource;
+
 import com.mockrunner.mock.web.MockHttpServletRequest;
 import com.mockrunner.mock.web.MockHttpServletResponse;
 import com.mockrunner.mock.web.MockServletConfig;
 import com.mockrunner.mock.web.MockServletContext;
 
+import edu.yale.its.tp.cas.util.JdbcTicketTable;
+import edu.yale.its.tp.cas.util.StressRunner;
 import junit.framework.TestCase;
 
 /**
@@ -178,6 +185,72 @@ public class ProxyTicketReceptorTest extends TestCase
         assertNull(ProxyTicketReceptor.getProxyTicket("SPLAT", "http://www.nowhere.com/someService"));
     }
 
+    /**
+     * Test that concurrent callbacks from CAS, each delivered twice, are all
+     * kept, once each.
+     */
+    public void testConcurrentCallbacks() throws Exception
+    {
+        this.proxyTicketReceptor.init(this.basicConfig);
+        final int threads = 8;
+        final int iterations = 1000;
+        // the map is static, so other tests may have added to it
+        int countBefore = ProxyTicketReceptor.getProxyGrantingTicketCount();
+
+        List<Throwable> failures = StressRunner.run(threads, iterations, new StressRunner.Task()
+        {
+            public void run(int thread, int iteration) throws Exception
+            {
+                MockHttpServletRequest request = new MockHttpServletRequest();
+                request.setupAddParameter("pgtIou", "PGTIOU-stress-" + thread / 2 + "-" + iteration);
+                request.setupAddParameter("pgtId", "PGT-stress-" + thread / 2 + "-" + iteration);
+                MockHttpServletResponse response = new MockHttpServletResponse();
+                proxyTicketReceptor.doGet(request, response);
+                assertTrue(response.getOutputStreamContent().indexOf("proxySuccess") != -1);
+                if (iteration % 100 == 0) proxyTicketReceptor.toString();
+            }
+        });
+        assertTrue(failures.toString(), failures.isEmpty());
+        assertEquals(threads / 2 * iterations, ProxyTicketReceptor.getProxyGrantingTicketCount() - countBefore);
+    }
+
+    /**
+     * Test that, with proxy granting tickets kept in a database, CAS's callback
+     * is answered once the ticket is written, so that another node can find it
+     * straight away.
+     */
+    public void testDatabaseStorage() throws Exception
+    {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:pgt");
+        Connection keepAlive = dataSource.getConnection();
+        JdbcProxyGrantingTicketStorage otherNode = new JdbcProxyGrantingTicketStorage(new JdbcTicketTable(
+            dataSource, "CAS_PGT", 60000, 60000, 0, 100), 60, TimeUnit.SECONDS);
+        ProxyTicketReceptor.setProxyGrantingTicketStorage(new JdbcProxyGrantingTicketStorage(new JdbcTicketTable(
+            dataSource, "CAS_PGT", 100, 60000, 0, 100), 60, TimeUnit.SECONDS));
+        try
+        {
+            this.proxyTicketReceptor.init(this.basicConfig);
+            assertNull(otherNode.get("PGTIOU-db"));
+            this.mockRequest.setupAddParameter("pgtIou", "PGTIOU-db");
+            this.mockRequest.setupAddParameter("pgtId", "PGT-db");
+            this.proxyTicketReceptor.doGet(this.mockRequest, this.mockResponse);
+            assertTrue(this.mockResponse.getOutputStreamContent().indexOf("proxySuccess") != -1);
+
+            ProxyGrantingTicket pgt = otherNode.get("PGTIOU-db");
+            assertNotNull(pgt);
+            assertEquals("PGT-db", pgt.getPgtId());
+            assertEquals("https://someplace.edu/cas/proxy", pgt.getCasProxyUrl());
+            assertEquals(1, ProxyTicketReceptor.getProxyGrantingTicketCount());
+        }
+        finally
+        {
+            ProxyTicketReceptor.setProxyGrantingTicketStorage(new MapProxyGrantingTicketStorage());
+            otherNode.close();
+            keepAlive.close();
+        }
+    }
+
 }
 
 /*
@@ -0,0 +1,94 @@
+package edu.yale.its.tp.cas.util;
+
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Ticker;
+
+import junit.framework.TestCase;
+
+/**
+ * Test case for AdaptiveTimeout.
+ */
+public class AdaptiveTimeoutTest extends TestCase {
+
+    private final ManualTicker ticker = new ManualTicker();
+
+    private final AdaptiveTimeout timeout = new AdaptiveTimeout(99.9, 3, 100, 10000, 60000, ticker);
+
+    /**
+     * Test that the ceiling is used until enough latencies are known, and the
+     * percentile times the factor afterwards.
+     */
+    public void testDerivedFromPercentile() {
+        record(AdaptiveTimeout.MINIMUM_SAMPLES - 1, 200);
+        assertEquals(10000, timeout.getTimeoutMillis());
+
+        record(1, 200);
+        tick(1000);
+        assertEquals(600, timeout.getTimeoutMillis(), 600 * 0.125);
+    }
+
+    /**
+     * Test that the timeout is kept between the floor and the ceiling.
+     */
+    public void testFloorAndCeiling() {
+        record(1000, 1);
+        tick(1000);
+        assertEquals(100, timeout.getTimeoutMillis());
+
+        record(100000, 5000);
+        tick(1000);
+        assertEquals(10000, timeout.getTimeoutMillis());
+    }
+
+    /**
+     * Test that latencies are remembered for two windows and then forgotten,
+     * and that outliers beyond the percentile do not raise the timeout.
+     */
+    public void testRollingWindow() {
+        record(10000, 1000);
+        tick(1000);
+        assertEquals(3000, timeout.getTimeoutMillis(), 3000 * 0.125);
+
+        // CAS gets faster, with rare slow outliers; the last window still counts
+        tick(60000);
+        record(100000, 50);
+        record(50, 2000);
+        tick(1000);
+        assertEquals(3000, timeout.getTimeoutMillis(), 3000 * 0.125);
+        tick(60000);
+        record(1000, 50);
+        tick(1000);
+        assertEquals(150, timeout.getTimeoutMillis(), 150 * 0.125);
+    }
+
+    /**
+     * Test that the timeout is derived again at most once a second.
+     */
+    public void testRecomputedOncePerSecond() {
+        record(100, 1000);
+        assertEquals(3000, timeout.getTimeoutMillis(), 3000 * 0.125);
+        record(200000, 10);
+        assertEquals(3000, timeout.getTimeoutMillis(), 3000 * 0.125);
+        tick(1000);
+        assertEquals(100, timeout.getTimeoutMillis());
+    }
+
+    private void record(int count, long millis) {
+        for (int i = 0; i < count; i++) {
+            timeout.record(TimeUnit.MILLISECONDS.toNanos(millis));
+        }
+    }
+
+    private void tick(long millis) {
+        ticker.nanos += TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    private static final class ManualTicker extends Ticker {
+        long nanos;
+
+        public long read() {
+            return nanos;
+        }
+    }
+}
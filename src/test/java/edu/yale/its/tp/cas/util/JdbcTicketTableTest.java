@@ -0,0 +1,156 @@
+package edu.yale.its.tp.cas.util;
+
+import java.sql.Connection;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.h2.jdbcx.JdbcDataSource;
+
+import junit.framework.TestCase;
+
+/**
+ * Test case for JdbcTicketTable, against an embedded H2 database shared by two
+ * tables standing for two nodes.
+ */
+public class JdbcTicketTableTest extends TestCase {
+
+    private final JdbcDataSource dataSource = new JdbcDataSource();
+
+    private Connection keepAlive;
+
+    private JdbcTicketTable node1;
+
+    private JdbcTicketTable node2;
+
+    protected void setUp() throws Exception {
+        dataSource.setURL("jdbc:h2:mem:" + getName());
+        keepAlive = dataSource.getConnection();
+        // flushed by hand, purged never
+        node1 = new JdbcTicketTable(dataSource, "TICKETS", 60000, 60000, 0, 100);
+        node2 = new JdbcTicketTable(dataSource, "TICKETS", 60000, 60000, 0, 100);
+    }
+
+    protected void tearDown() throws Exception {
+        node1.close();
+        node2.close();
+        keepAlive.close();
+    }
+
+    public void testWritesAreBatched() throws Exception {
+        long expires = System.currentTimeMillis() + 60000;
+        node1.put("ST-1", "one", expires);
+        node1.put("ST-2", "two", expires);
+        assertEquals("one", node1.get("ST-1"));
+        assertNull(node2.get("ST-1"));
+        assertEquals(0, node1.count());
+
+        node1.flush();
+        assertEquals(2, node1.count());
+        assertEquals("one", node2.get("ST-1"));
+        assertEquals("two", node2.get("ST-2"));
+    }
+
+    public void testWriteCompletesOnFlush() throws Exception {
+        Future<Void> written = node1.put("ST-1", "one", System.currentTimeMillis() + 60000);
+        assertFalse(written.isDone());
+        node1.flush();
+        written.get(0, TimeUnit.SECONDS);
+    }
+
+    public void testFailedWriteIsRetried() throws Exception {
+        keepAlive.createStatement().executeUpdate("DROP TABLE TICKETS");
+        Future<Void> written = node1.put("ST-1", "one", System.currentTimeMillis() + 60000);
+        Future<Void> expired = node1.put("ST-old", "old", System.currentTimeMillis() - 1);
+        node1.flush();
+        assertFalse(written.isDone());
+        try {
+            expired.get(0, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException expected) {
+            // as expected
+        }
+
+        keepAlive.createStatement().executeUpdate("CREATE TABLE TICKETS (ticket VARCHAR(256) PRIMARY KEY, "
+                + "ticket_value VARCHAR(1024), expires BIGINT NOT NULL)");
+        node1.flush();
+        written.get(0, TimeUnit.SECONDS);
+        assertEquals("one", node2.get("ST-1"));
+        assertNull(node2.get("ST-old"));
+        assertEquals(1, node1.count());
+    }
+
+    public void testLargeBacklogIsWrittenInBatches() throws Exception {
+        long expires = System.currentTimeMillis() + 60000;
+        for (int i = 0; i < JdbcTicketTable.MAXIMUM_BATCH_SIZE * 2 + 1; i++) {
+            node1.put("ST-" + i, "value", expires);
+        }
+        node1.flush();
+        assertEquals(JdbcTicketTable.MAXIMUM_BATCH_SIZE * 2 + 1, node1.count());
+    }
+
+    public void testBacklogIsBounded() throws Exception {
+        keepAlive.createStatement().executeUpdate("DROP TABLE TICKETS");
+        long expires = System.currentTimeMillis() + 60000;
+        Future<Void> first = null;
+        for (int i = 0; i < JdbcTicketTable.MAXIMUM_PENDING; i++) {
+            Future<Void> written = node1.put("ST-" + i, "value", expires);
+            if (first == null) first = written;
+        }
+        Future<Void> overflow = node1.put("ST-overflow", "value", expires);
+        try {
+            overflow.get(0, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException expected) {
+            // as expected
+        }
+        assertFalse(first.isDone());
+        // still seen by this node
+        assertEquals("value", node1.get("ST-overflow"));
+        keepAlive.createStatement().executeUpdate("CREATE TABLE TICKETS (ticket VARCHAR(256) PRIMARY KEY, "
+                + "ticket_value VARCHAR(1024), expires BIGINT NOT NULL)");
+    }
+
+    public void testDuplicatesAreOverwritten() throws Exception {
+        long expires = System.currentTimeMillis() + 60000;
+        node1.put("ST-1", "one", expires);
+        node1.flush();
+        node2.put("ST-1", "uno", expires);
+        node2.put("ST-2", "two", expires);
+        node2.flush();
+        assertEquals(2, node1.count());
+
+        JdbcTicketTable node3 = new JdbcTicketTable(dataSource, "TICKETS", 60000, 60000, 0, 100);
+        assertEquals("uno", node3.get("ST-1"));
+        node3.close();
+    }
+
+    public void testMissesAreCachedForTheMissTtl() throws Exception {
+        JdbcTicketTable cautious = new JdbcTicketTable(dataSource, "TICKETS", 60000, 60000, 60000, 100);
+        assertNull(cautious.get("ST-1"));
+        node1.put("ST-1", "one", System.currentTimeMillis() + 60000);
+        node1.flush();
+        assertNull(cautious.get("ST-1"));
+        assertEquals("one", node2.get("ST-1"));
+        cautious.close();
+    }
+
+    public void testExpiredRowsArePurged() throws Exception {
+        node1.put("ST-old", "old", System.currentTimeMillis() - 1);
+        node1.put("ST-new", "new", System.currentTimeMillis() + 60000);
+        node1.flush();
+        assertNull(node2.get("ST-old"));
+        assertEquals(1, node1.count());
+        assertEquals(1, node1.purge());
+        assertEquals(0, node1.purge());
+    }
+
+    public void testBadTableName() throws Exception {
+        try {
+            new JdbcTicketTable(dataSource, "T; DROP TABLE X", 60000, 60000, 0, 100);
+            fail();
+        } catch (IllegalArgumentException expected) {
+            // as expected
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package edu.yale.its.tp.cas.util;
+
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * Test case for LatencyHistogram.
+ */
+public class LatencyHistogramTest extends TestCase {
+
+    /**
+     * Test that buckets are contiguous and ordered, and that every value falls
+     * in a bucket whose upper bound is within 12.5% of it.
+     */
+    public void testBucketBounds() {
+        long[] values = { 0, 1, 7, 8, 9, 15, 16, 17, 100, 1000, 123456789, Long.MAX_VALUE / 3, Long.MAX_VALUE };
+        for (int i = 0; i < values.length; i++) {
+            long value = values[i];
+            int index = LatencyHistogram.bucketIndex(value);
+            long upper = LatencyHistogram.bucketUpperBound(index);
+            assertTrue(value + " <= " + upper, value <= upper);
+            assertTrue(value + " within 12.5% of " + upper, upper - value <= value / LatencyHistogram.SUB_BUCKETS);
+            if (index > 0) {
+                assertTrue(LatencyHistogram.bucketUpperBound(index - 1) < value);
+            }
+        }
+        for (int index = 1; index <= LatencyHistogram.bucketIndex(Long.MAX_VALUE); index++) {
+            long lower = LatencyHistogram.bucketUpperBound(index - 1) + 1;
+            assertEquals(index, LatencyHistogram.bucketIndex(lower));
+        }
+    }
+
+    /**
+     * Test count, mean, max and percentiles over a known distribution.
+     */
+    public void testStatistics() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0.0, histogram.getPercentile(99, TimeUnit.MILLISECONDS), 0);
+
+        // 1ms .. 100ms
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(i));
+        }
+        assertEquals(100, histogram.getCount());
+        assertEquals(50.5, histogram.getMean(TimeUnit.MILLISECONDS), 0.001);
+        assertEquals(100.0, histogram.getMax(TimeUnit.MILLISECONDS), 0.001);
+
+        double median = histogram.getPercentile(50, TimeUnit.MILLISECONDS);
+        assertTrue("median " + median, median >= 50 && median <= 50 * 1.125);
+        double p99 = histogram.getPercentile(99, TimeUnit.MILLISECONDS);
+        assertTrue("p99 " + p99, p99 >= 99 && p99 <= 100);
+        assertEquals(100.0, histogram.getPercentile(100, TimeUnit.MILLISECONDS), 0.001);
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0.0, histogram.getMax(TimeUnit.MILLISECONDS), 0);
+    }
+
+    /**
+     * Test that concurrent recording loses nothing.
+     */
+    public void testConcurrentRecording() throws InterruptedException {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread() {
+                public void run() {
+                    for (int i = 0; i < 10000; i++) {
+                        histogram.record(i);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (int t = 0; t < threads.length; t++) {
+            threads[t].join();
+        }
+        assertEquals(40000, histogram.getCount());
+        assertEquals(9999.0, histogram.getMax(TimeUnit.NANOSECONDS), 0);
+    }
+
+    /**
+     * Test that adding one histogram to another gives the statistics of both.
+     */
+    public void testAdd() {
+        LatencyHistogram fast = new LatencyHistogram();
+        LatencyHistogram slow = new LatencyHistogram();
+        for (int i = 0; i < 90; i++) {
+            fast.record(TimeUnit.MILLISECONDS.toNanos(10));
+        }
+        for (int i = 0; i < 10; i++) {
+            slow.record(TimeUnit.MILLISECONDS.toNanos(1000));
+        }
+        LatencyHistogram both = new LatencyHistogram();
+        both.add(fast);
+        both.add(slow);
+        assertEquals(100, both.getCount());
+        assertEquals(109.0, both.getMean(TimeUnit.MILLISECONDS), 0.001);
+        assertEquals(1000.0, both.getMax(TimeUnit.MILLISECONDS), 0.001);
+        assertEquals(10.0, both.getPercentile(90, TimeUnit.MILLISECONDS), 10 * 0.125);
+        assertEquals(1000.0, both.getPercentile(91, TimeUnit.MILLISECONDS), 1000 * 0.125);
+        assertEquals(90, fast.getCount());
+    }
+}
@@ -0,0 +1,89 @@
+package edu.yale.its.tp.cas.util;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.SocketTimeoutException;
+
+import edu.yale.its.tp.cas.emulator.CasServerEmulator;
+import junit.framework.TestCase;
+
+/**
+ * Test case for SecureURL's timeouts.
+ */
+public class SecureURLTest extends TestCase {
+
+    private CasServerEmulator cas;
+
+    protected void setUp() throws Exception {
+        cas = new CasServerEmulator();
+        cas.start();
+    }
+
+    protected void tearDown() throws Exception {
+        cas.stop();
+        SecureURL.configureTimeouts(AdaptiveTimeout.DEFAULT_PERCENTILE, AdaptiveTimeout.DEFAULT_FACTOR,
+            AdaptiveTimeout.DEFAULT_FLOOR_MILLIS, AdaptiveTimeout.DEFAULT_CEILING_MILLIS);
+    }
+
+    /**
+     * Test that a response slower than the read timeout is cut off, and that
+     * the timeouts in use are reported per endpoint.
+     */
+    public void testSlowResponseIsCutOff() throws Exception {
+        SecureURL.configureTimeouts(99.9, 3, 50, 200);
+        String url = cas.getServiceValidateUrl();
+        assertEquals(200, SecureURL.getReadTimeoutMillis(url + "?ticket=ST-1"));
+        assertEquals(200, SecureURL.getConnectTimeoutMillis(url));
+
+        assertTrue(SecureURL.retrieve(url).length() > 0);
+
+        cas.setLatency(2000, 2000);
+        long start = System.currentTimeMillis();
+        try {
+            SecureURL.retrieve(url);
+            fail("expected a read timeout");
+        } catch (SocketTimeoutException e) {
+            // expected
+        }
+        assertTrue("took " + (System.currentTimeMillis() - start), System.currentTimeMillis() - start < 1500);
+    }
+
+    /**
+     * Test that a TLS handshake that never finishes is cut off by the read
+     * timeout.
+     */
+    public void testStalledHandshakeIsCutOff() throws Exception {
+        SecureURL.configureTimeouts(99.9, 3, 50, 200);
+        ServerSocket server = new ServerSocket(0);
+        try {
+            // accepted by the backlog, and never answered
+            long start = System.currentTimeMillis();
+            try {
+                SecureURL.retrieve("https://localhost:" + server.getLocalPort() + "/cas/serviceValidate");
+                fail("expected a handshake timeout");
+            } catch (IOException e) {
+                // JSSE wraps it
+                assertTrue(e.toString(), e instanceof SocketTimeoutException
+                        || e.getCause() instanceof SocketTimeoutException);
+            }
+            assertTrue("took " + (System.currentTimeMillis() - start), System.currentTimeMillis() - start < 1500);
+        } finally {
+            server.close();
+        }
+    }
+
+    public void testBadConfiguration() {
+        try {
+            SecureURL.configureTimeouts(99.9, 3, 500, 200);
+            fail("floor above ceiling");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            SecureURL.configureTimeouts(0, 3, 50, 200);
+            fail("zero percentile");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package edu.yale.its.tp.cas.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a task on many threads at once, released together, and collects
+ * whatever they throw, for the concurrency stress tests.
+ */
+public final class StressRunner
+{
+
+    /**
+     * A unit of work run by every thread.
+     */
+    public interface Task
+    {
+        /**
+         * @param thread
+         *            - the number of the calling thread, from 0
+         * @param iteration
+         *            - the number of the call on that thread, from 0
+         */
+        void run(int thread, int iteration) throws Exception;
+    }
+
+    private StressRunner()
+    {
+        // static only
+    }
+
+    /**
+     * Runs the task <code>iterations</code> times on each of
+     * <code>threads</code> threads.
+     *
+     * @return everything the task threw, at most one per thread, since a
+     *         thread stops at its first failure
+     */
+    public static List<Throwable> run(int threads, final int iterations, final Task task)
+            throws InterruptedException
+    {
+        final CountDownLatch ready = new CountDownLatch(threads);
+        final CountDownLatch go = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        final Queue<Throwable> failures = new ConcurrentLinkedQueue<Throwable>();
+        for (int t = 0; t < threads; t++)
+        {
+            final int thread = t;
+            Thread worker = new Thread("stress-" + t)
+            {
+                public void run()
+                {
+                    try
+                    {
+                        ready.countDown();
+                        go.await();
+                        for (int i = 0; i < iterations; i++)
+                        {
+                            task.run(thread, i);
+                        }
+                    }
+                    catch (Throwable e)
+                    {
+                        failures.add(e);
+                    }
+                    finally
+                    {
+                        done.countDown();
+                    }
+                }
+            };
+            worker.setDaemon(true);
+            worker.start();
+        }
+        ready.await();
+        go.countDown();
+        if (!done.await(60, TimeUnit.SECONDS)) failures.add(new AssertionError("stress run did not finish in 60s"));
+        return new ArrayList<Throwable>(failures);
+    }
+}